@@ -12,6 +12,10 @@
 
 package controllers.admin.overview;
 
+import deadbolt2.common.security.IdentityResolver;
+import deadbolt2.common.security.SessionRegistry;
+import javax.inject.Inject;
+import models.common.database.CacheRegionStatistics;
 import models.common.database.User;
 import play.db.jpa.Transactional;
 import play.mvc.Controller;
@@ -23,27 +27,39 @@ import views.html.admin.overview.index;
  */
 public class Overview extends Controller {
 
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Class that resolves the user that is logged in</p> */
+    @Inject
+    private IdentityResolver myIdentityResolver;
+
+    /** <p>Class that tracks the logged in sessions</p> */
+    @Inject
+    private SessionRegistry mySessionRegistry;
+
     // ===========================================================
     // Public Methods
     // ===========================================================
 
     /**
-     * <p>This renders the admin page for the WebIDE.</p>
+     * <p>This renders the admin page for the WebIDE along with the number
+     * of active sessions and the hit rates of the user and project caches.</p>
      *
      * @return The result of rendering the page
      */
     @Transactional(readOnly = true)
     public Result index() {
         // Retrieve the current user (if logged in)
-        String email = session("connected");
-        if (email != null) {
-            User currentUser = User.findByEmail(email);
-
+        User currentUser = myIdentityResolver.getUser(ctx());
+        if (currentUser != null) {
             if (currentUser.userType != 2) {
                 return unauthorized("You do not have permission to view this page!");
             }
             else {
-                return ok(index.render(currentUser));
+                return ok(index.render(currentUser, mySessionRegistry.getNumActiveSessions(),
+                        CacheRegionStatistics.getAll()));
             }
         }
 
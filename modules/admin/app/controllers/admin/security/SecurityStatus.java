@@ -0,0 +1,98 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package controllers.admin.security;
+
+import deadbolt2.common.security.IdentityResolver;
+import deadbolt2.common.security.SessionRegistry;
+import javax.inject.Inject;
+import play.mvc.Controller;
+import play.mvc.Result;
+import utils.common.security.LoginThrottle;
+import utils.common.security.PasswordHasher;
+
+/**
+ * <p>This class serves as a controller class for the administrative
+ * pages that show how logins are being handled.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class SecurityStatus extends Controller {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Class that resolves the user that is logged in</p> */
+    @Inject
+    private IdentityResolver myIdentityResolver;
+
+    /** <p>Class that hashes the passwords</p> */
+    @Inject
+    private PasswordHasher myPasswordHasher;
+
+    /** <p>Class that limits the login attempts</p> */
+    @Inject
+    private LoginThrottle myLoginThrottle;
+
+    /** <p>Class that tracks the logged in sessions</p> */
+    @Inject
+    private SessionRegistry mySessionRegistry;
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>This retrieves the number of login attempts that were allowed and
+     * turned away, and the number of emails and addresses being tracked.</p>
+     *
+     * @return The counters as JSON.
+     */
+    public Result getLoginThrottle() {
+        if (!myIdentityResolver.isAdmin(ctx())) {
+            return unauthorized("You do not have permission to view this page!");
+        }
+
+        return ok(myLoginThrottle.getMetrics());
+    }
+
+    /**
+     * <p>This retrieves the number of iterations and the queue metrics
+     * of the password hashing threads.</p>
+     *
+     * @return The metrics as JSON.
+     */
+    public Result getPasswordHashing() {
+        if (!myIdentityResolver.isAdmin(ctx())) {
+            return unauthorized("You do not have permission to view this page!");
+        }
+
+        return ok(myPasswordHasher.getMetrics());
+    }
+
+    /**
+     * <p>This retrieves the number of active sessions on this server and
+     * the number of sessions that were started, timed out and ended.</p>
+     *
+     * @return The counters as JSON.
+     */
+    public Result getSessions() {
+        if (!myIdentityResolver.isAdmin(ctx())) {
+            return unauthorized("You do not have permission to view this page!");
+        }
+
+        return ok(mySessionRegistry.getMetrics());
+    }
+
+}
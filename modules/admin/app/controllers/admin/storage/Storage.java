@@ -0,0 +1,135 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package controllers.admin.storage;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import deadbolt2.common.security.IdentityResolver;
+import javax.inject.Inject;
+import play.filters.csrf.AddCSRFToken;
+import play.filters.csrf.CSRF;
+import play.filters.csrf.RequireCSRFCheck;
+import play.mvc.Controller;
+import play.mvc.Result;
+import utils.common.compression.LobCompressionJob;
+import utils.common.storage.BlobGarbageCollector;
+
+/**
+ * <p>This class serves as a controller class for the administrative
+ * actions that change how the data is stored.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class Storage extends Controller {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Class that resolves the user that is logged in</p> */
+    @Inject
+    private IdentityResolver myIdentityResolver;
+
+    /** <p>Job that compresses the existing rows</p> */
+    @Inject
+    private LobCompressionJob myCompressionJob;
+
+    /** <p>Garbage collector for the blob store</p> */
+    @Inject
+    private BlobGarbageCollector myBlobGarbageCollector;
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>This starts compressing the large text columns of the existing
+     * rows. Only administrators can start the job, and the request needs
+     * the {@code csrfToken} from {@link #getCompressionStatus()} in the
+     * {@code Csrf-Token} header.</p>
+     *
+     * @return The progress of the job as JSON.
+     */
+    @RequireCSRFCheck
+    public Result compressExistingRows() {
+        if (!myIdentityResolver.isAdmin(ctx())) {
+            return unauthorized("You do not have permission to perform this action!");
+        }
+
+        if (!myCompressionJob.start()) {
+            return status(CONFLICT, myCompressionJob.getStatus());
+        }
+
+        return status(ACCEPTED, myCompressionJob.getStatus());
+    }
+
+    /**
+     * <p>This starts removing the blobs that are no longer referenced.
+     * Only administrators can start a run, and the request needs the
+     * {@code csrfToken} from {@link #getBlobStatus()} in the
+     * {@code Csrf-Token} header.</p>
+     *
+     * @return The progress of the run as JSON.
+     */
+    @RequireCSRFCheck
+    public Result collectBlobs() {
+        if (!myIdentityResolver.isAdmin(ctx())) {
+            return unauthorized("You do not have permission to perform this action!");
+        }
+
+        if (!myBlobGarbageCollector.start()) {
+            return status(CONFLICT, myBlobGarbageCollector.getStatus());
+        }
+
+        return status(ACCEPTED, myBlobGarbageCollector.getStatus());
+    }
+
+    /**
+     * <p>This retrieves the blob store metrics and the result of the
+     * current (or last) garbage collection, along with the token needed
+     * to start a run.</p>
+     *
+     * @return The report as JSON.
+     */
+    @AddCSRFToken
+    public Result getBlobStatus() {
+        if (!myIdentityResolver.isAdmin(ctx())) {
+            return unauthorized("You do not have permission to view this page!");
+        }
+
+        ObjectNode status = myBlobGarbageCollector.getStatus();
+        status.put("csrfToken", CSRF.getToken(request()).map(t -> t.value()).orElse("no token"));
+
+        return ok(status);
+    }
+
+    /**
+     * <p>This retrieves the progress of the current (or last) compression
+     * job and the bytes saved for each table, along with the token
+     * needed to start a run.</p>
+     *
+     * @return The report as JSON.
+     */
+    @AddCSRFToken
+    public Result getCompressionStatus() {
+        if (!myIdentityResolver.isAdmin(ctx())) {
+            return unauthorized("You do not have permission to view this page!");
+        }
+
+        ObjectNode status = myCompressionJob.getStatus();
+        status.put("csrfToken", CSRF.getToken(request()).map(t -> t.value()).orElse("no token"));
+
+        return ok(status);
+    }
+
+}
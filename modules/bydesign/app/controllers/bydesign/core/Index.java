@@ -12,6 +12,8 @@
 
 package controllers.bydesign.core;
 
+import deadbolt2.common.security.IdentityResolver;
+import javax.inject.Inject;
 import models.common.database.User;
 import play.db.jpa.Transactional;
 import play.mvc.Controller;
@@ -23,6 +25,14 @@ import views.html.bydesign.core.index;
  */
 public class Index extends Controller {
 
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Class that resolves the user that is logged in</p> */
+    @Inject
+    private IdentityResolver myIdentityResolver;
+
     // ===========================================================
     // Public Methods
     // ===========================================================
@@ -35,10 +45,8 @@ public class Index extends Controller {
     @Transactional(readOnly = true)
     public Result index() {
         // Retrieve the current user (if logged in)
-        String email = session("connected");
-        if (email != null) {
-            User currentUser = User.findByEmail(email);
-
+        User currentUser = myIdentityResolver.getUser(ctx());
+        if (currentUser != null) {
             return ok(index.render(currentUser));
         }
 
@@ -12,21 +12,53 @@
 
 package controllers.bydesign.dataanalysis;
 
+import akka.NotUsed;
+import akka.japi.pf.PFBuilder;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.primitives.Longs;
+import deadbolt2.common.security.IdentityResolver;
 import models.common.database.ByDesignEvent;
+import models.common.database.ByDesignEventFilter;
+import models.common.database.ByDesignEventSummary;
 import models.common.database.User;
-import java.io.*;
-import java.util.*;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVRecord;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.inject.Inject;
+import play.Configuration;
 import play.db.jpa.Transactional;
 import play.filters.csrf.AddCSRFToken;
+import play.filters.csrf.CSRF;
 import play.filters.csrf.RequireCSRFCheck;
+import play.mvc.BodyParser;
 import play.mvc.Controller;
 import play.mvc.Http.MultipartFormData;
 import play.mvc.Http.MultipartFormData.FilePart;
+import play.libs.Json;
 import play.mvc.Result;
+import utils.bydesign.analytics.AnalyticsEngine;
+import utils.bydesign.analytics.AnalyticsQuery;
+import utils.bydesign.dataanalysis.AnalysisJob;
+import utils.bydesign.dataanalysis.AnalysisJobManager;
+import utils.bydesign.dataanalysis.ByDesignEventLoader;
 import utils.bydesign.dataanalysis.ErrorKind;
+import utils.bydesign.dataanalysis.EventsLoadResult;
+import utils.bydesign.dataanalysis.LessonPivotExporter;
+import utils.bydesign.dataanalysis.RollupBackfillJob;
+import utils.bydesign.dataanalysis.RollupSummaries;
+import utils.bydesign.dataanalysis.RosterBodyParser;
+import utils.bydesign.dataanalysis.RosterCache;
+import utils.bydesign.dataanalysis.RosterFile;
 import views.html.bydesign.dataanalysis.dataanalysis;
+import views.html.bydesign.dataanalysis.eventRows;
+import views.html.bydesign.dataanalysis.jobProgress;
+import views.html.bydesign.dataanalysis.loadStatistics;
 
 /**
  * <p>This class serves as a controller class for analyzing
@@ -37,6 +69,58 @@ import views.html.bydesign.dataanalysis.dataanalysis;
  */
 public class DataAnalysis extends Controller {
 
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /**
+     * <p>Placeholder that marks where the streamed rows and statistics
+     * belong in the rendered page.</p>
+     */
+    private static final String STREAM_MARKER = "<!-- stream-placeholder -->";
+
+    /** <p>Default number of events in a page.</p> */
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    /** <p>Maximum number of events in a page.</p> */
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    /** <p>Class that resolves the user that is logged in</p> */
+    @Inject
+    private IdentityResolver myIdentityResolver;
+
+    /** <p>Bulk loader for {@code byDesign} events</p> */
+    @Inject
+    private ByDesignEventLoader myEventLoader;
+
+    /** <p>Background jobs that retrieve the events</p> */
+    @Inject
+    private AnalysisJobManager myJobManager;
+
+    /** <p>Cache for the uploaded lists of user IDs</p> */
+    @Inject
+    private RosterCache myRosterCache;
+
+    /** <p>Class that retrieves configurations</p> */
+    @Inject
+    private Configuration myConfiguration;
+
+    /** <p>In-memory analytics engine</p> */
+    @Inject
+    private AnalyticsEngine myAnalyticsEngine;
+
+    /** <p>Exports the lesson attempts as CSV</p> */
+    @Inject
+    private LessonPivotExporter myLessonPivotExporter;
+
+    /** <p>Job that rebuilds the {@code byDesign} lesson rollups</p> */
+    @Inject
+    private RollupBackfillJob myRollupBackfillJob;
+
+    /** <p>Summaries read from the {@code byDesign} lesson rollups</p> */
+    @Inject
+    private RollupSummaries myRollupSummaries;
+
     // ===========================================================
     // Public Methods
     // ===========================================================
@@ -50,12 +134,10 @@ public class DataAnalysis extends Controller {
     @Transactional(readOnly = true)
     public Result index() {
         // Retrieve the current user (if logged in)
-        String email = session("connected");
-        if (email != null) {
-            User currentUser = User.findByEmail(email);
-
-            return ok(dataanalysis.render(currentUser, "", null,
-                    new HashMap<>(), null));
+        User currentUser = myIdentityResolver.getUser(ctx());
+        if (currentUser != null) {
+            return ok(dataanalysis.render(currentUser, "", null, null, null,
+                    null, null));
         }
 
         return redirect(controllers.common.security.routes.Security.index());
@@ -80,32 +162,365 @@ public class DataAnalysis extends Controller {
         return redirect(controllers.common.security.routes.Security.index());
     }
 
+    /**
+     * <p>This retrieves the diff between the user code associated with the
+     * specified {@code byDesign} event and the code of the author's previous
+     * attempt on the same lesson.</p>
+     *
+     * @param eventID The ID for a {@code byDesign} event.
+     *
+     * @return The diff as text, or not found if there is no previous attempt.
+     */
+    @Transactional(readOnly = true)
+    public Result getDiff(long eventID) {
+        // Retrieve the current user (if logged in)
+        String email = session("connected");
+        if (email != null) {
+            String diff = ByDesignEvent.getPreviousAttemptDiff(eventID);
+            if (diff == null) {
+                return notFound("There is no previous attempt for this event.");
+            }
+
+            return ok(diff);
+        }
+
+        return redirect(controllers.common.security.routes.Security.index());
+    }
+
+    /**
+     * <p>This retrieves the progress of the background job that retrieves
+     * the events for an uploaded list of user IDs.</p>
+     *
+     * @param roster The key for the uploaded list of user IDs.
+     *
+     * @return A JSON object with the state of the job and the number of
+     * chunks that have been retrieved.
+     */
+    public Result getJobStatus(String roster) {
+        // Retrieve the current user (if logged in)
+        String email = session("connected");
+        if (email == null) {
+            return unauthorized();
+        }
+
+        AnalysisJob job = myJobManager.getJob(roster);
+        if (job == null) {
+            return notFound(errorJson(ErrorKind.RESULTS_EXPIRED.message));
+        }
+
+        ObjectNode result = Json.newObject();
+        result.put("state", job.getState().name());
+        result.put("completedChunks", job.getCompletedChunks());
+        result.put("totalChunks", job.totalChunks);
+
+        return ok(result);
+    }
+
+    /**
+     * <p>This renders the {@code byDesign} data analysis page with the
+     * results of a finished background job.</p>
+     *
+     * @param roster The key for the uploaded list of user IDs.
+     * @param fileName The name of the uploaded file.
+     *
+     * @return The result of rendering the page.
+     */
+    @AddCSRFToken
+    @Transactional(readOnly = true)
+    public Result getJobResult(String roster, String fileName) {
+        // Retrieve the current user (if logged in)
+        User currentUser = myIdentityResolver.getUser(ctx());
+        if (currentUser != null) {
+            AnalysisJob job = myJobManager.getJob(roster);
+            if (job == null) {
+                return ok(dataanalysis.render(currentUser, "",
+                        ErrorKind.RESULTS_EXPIRED, null, null, null, null));
+            }
+            else if (job.getState() == AnalysisJob.State.FAILED) {
+                return ok(dataanalysis.render(currentUser, "",
+                        ErrorKind.DATABASE_ERROR, null, null, null, null));
+            }
+            else if (job.getState() != AnalysisJob.State.DONE) {
+                return ok(jobProgress.render(currentUser, fileName, roster));
+            }
+
+            return ok(dataanalysis.render(currentUser, fileName, null,
+                    job.getResult(), job.getFinishedDate(), null, roster));
+        }
+
+        return redirect(controllers.common.security.routes.Security.index());
+    }
+
+    /**
+     * <p>This retrieves a single page of {@code byDesign} events for an uploaded
+     * list of user IDs as JSON. The events are filtered and sorted by the
+     * database, and each page continues right after the last event of the
+     * previous page (keyset pagination), so only the visible rows are ever
+     * retrieved.</p>
+     *
+     * @param roster The key for the uploaded list of user IDs.
+     * @param lesson Only include events for this lesson (if not empty).
+     * @param module Only include events for this module (if not empty).
+     * @param correct Only include events with this flag
+     *                ({@code "true"}, {@code "false"} or empty).
+     * @param from Only include events on or after this time in milliseconds
+     *             since the epoch (if positive).
+     * @param to Only include events before this time in milliseconds
+     *           since the epoch (if positive).
+     * @param sort The sort key ({@code id}, {@code author}, {@code points} or
+     *             {@code time}), optionally prefixed by {@code -} for
+     *             descending order.
+     * @param after The {@code next} value returned with the previous page
+     *              (empty for the first page).
+     * @param limit Maximum number of events in the page.
+     *
+     * @return A JSON object with the {@code events} and the {@code next}
+     * value for the following page ({@code null} if this is the last page).
+     */
+    @Transactional(readOnly = true)
+    public Result getEvents(String roster, String lesson, String module,
+            String correct, long from, long to, String sort, String after,
+            int limit) {
+        // Retrieve the current user (if logged in)
+        String email = session("connected");
+        if (email == null) {
+            return unauthorized();
+        }
+
+        // Make sure we still have the list of IDs
+        long[] ids = myRosterCache.get(roster);
+        if (ids == null) {
+            return notFound(errorJson("The uploaded file has expired. Please upload it again."));
+        }
+        int maxRosterSize =
+                myConfiguration.getInt(
+                        "bydesign.dataanalysis.maxPagedRosterSize", 20000);
+        if (ids.length > maxRosterSize) {
+            return badRequest(errorJson("The uploaded file contains too many IDs to filter."));
+        }
+
+        // Parse the filters, sort order and position
+        ByDesignEventFilter filter;
+        try {
+            boolean descending = sort.startsWith("-");
+            ByDesignEventFilter.SortKey sortKey =
+                    ByDesignEventFilter.SortKey.valueOf(sort.substring(
+                            descending ? 1 : 0).toUpperCase(Locale.ENGLISH));
+
+            Long afterValue = null;
+            Long afterID = null;
+            if (!after.isEmpty()) {
+                int separatorIndex = after.indexOf(':');
+                afterID = Long.parseLong(after.substring(separatorIndex + 1));
+                afterValue =
+                        separatorIndex > 0 ? Long.parseLong(after.substring(0,
+                                separatorIndex)) : afterID;
+            }
+
+            filter =
+                    new ByDesignEventFilter(lesson.isEmpty() ? null : lesson,
+                            module.isEmpty() ? null : module,
+                            correct.isEmpty() ? null : parseBoolean(correct),
+                            from > 0 ? new Date(from) : null,
+                            to > 0 ? new Date(to) : null, sortKey, descending,
+                            afterValue, afterID);
+        }
+        catch (IllegalArgumentException e) {
+            return badRequest(errorJson("Invalid filter or sort options."));
+        }
+
+        // Retrieve one extra event to find out if there is another page
+        int pageSize =
+                limit < 1 ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+        List<ByDesignEventSummary> events =
+                ByDesignEvent.getUserEventSummaryPage(Longs.asList(ids),
+                        filter, pageSize + 1);
+        String next = null;
+        if (events.size() > pageSize) {
+            events = events.subList(0, pageSize);
+            ByDesignEventSummary last = events.get(pageSize - 1);
+            next = filter.getSortValue(last) + ":" + last.id;
+        }
+
+        ObjectNode result = Json.newObject();
+        result.set("events", Json.toJson(events));
+        result.put("next", next);
+
+        return ok(result);
+    }
+
+    /**
+     * <p>This filters, groups and aggregates {@code byDesign} events. The
+     * per-author and per-lesson summaries that are only filtered by lesson
+     * are read from the lesson rollups. Everything else uses the in-memory
+     * {@link AnalyticsEngine}, which is optional and must be enabled with
+     * {@code bydesign.analytics.enabled}.</p>
+     *
+     * @param roster The key for an uploaded list of user IDs or empty
+     *               to include every user.
+     * @param groupBy The grouping ({@code author}, {@code lesson} or
+     *                {@code module}).
+     * @param lesson Only include events for this lesson (if not empty).
+     * @param module Only include events for this module (if not empty).
+     * @param correct Only include events with this flag
+     *                ({@code "true"}, {@code "false"} or empty).
+     * @param from Only include events on or after this time in milliseconds
+     *             since the epoch (if positive).
+     * @param to Only include events before this time in milliseconds
+     *           since the epoch (if positive).
+     *
+     * @return A JSON object with the groups and statistics.
+     */
+    public Result getAnalytics(String roster, String groupBy, String lesson,
+            String module, String correct, long from, long to) {
+        // Retrieve the current user (if logged in)
+        String email = session("connected");
+        if (email == null) {
+            return unauthorized();
+        }
+
+        // Make sure we still have the list of IDs
+        long[] authors = null;
+        if (!roster.isEmpty()) {
+            long[] ids = myRosterCache.get(roster);
+            if (ids == null) {
+                return notFound(errorJson("The uploaded file has expired. Please upload it again."));
+            }
+
+            authors = Arrays.copyOf(ids, ids.length);
+            Arrays.sort(authors);
+        }
+
+        AnalyticsQuery query;
+        try {
+            query =
+                    new AnalyticsQuery(authors, lesson.isEmpty() ? null
+                            : lesson, module.isEmpty() ? null : module,
+                            correct.isEmpty() ? null : parseBoolean(correct),
+                            from, to, AnalyticsQuery.GroupBy.valueOf(groupBy
+                                    .toUpperCase(Locale.ENGLISH)));
+        }
+        catch (IllegalArgumentException e) {
+            return badRequest(errorJson("Invalid filter or grouping options."));
+        }
+
+        if (myRollupSummaries.canAnswer(query)) {
+            return ok(Json.toJson(myRollupSummaries.query(query)));
+        }
+
+        if (!myAnalyticsEngine.isEnabled()) {
+            return notFound(errorJson("The analytics engine is disabled."));
+        }
+        if (!myAnalyticsEngine.isReady()) {
+            return status(SERVICE_UNAVAILABLE, errorJson("The analytics engine is still loading."));
+        }
+
+        return ok(Json.toJson(myAnalyticsEngine.query(query)));
+    }
+
+    /**
+     * <p>This downloads the number of attempts each user in an uploaded list
+     * of user IDs made on each lesson as a CSV file. The file is streamed
+     * to the browser as it is computed.</p>
+     *
+     * @param roster The key for the uploaded list of user IDs.
+     *
+     * @return A chunked result with the CSV file.
+     */
+    public Result exportLessonAttempts(String roster) {
+        // Retrieve the current user (if logged in)
+        String email = session("connected");
+        if (email == null) {
+            return redirect(controllers.common.security.routes.Security.index());
+        }
+
+        // Make sure we still have the list of IDs
+        long[] ids = myRosterCache.get(roster);
+        if (ids == null) {
+            return notFound("The uploaded file has expired. Please upload it again.");
+        }
+
+        response().setHeader(CONTENT_DISPOSITION,
+                "attachment; filename=\"lesson-attempts.csv\"");
+
+        return ok().chunked(myLessonPivotExporter.export(ids)).as(
+                "text/csv; charset=utf-8");
+    }
+
+    /**
+     * <p>This starts rebuilding the {@code byDesign} lesson rollups
+     * from the existing events. Only administrators can start
+     * a rebuild, and the request needs the {@code csrfToken} from
+     * {@link #getRollupStatus()} in the {@code Csrf-Token} header.</p>
+     *
+     * @return The progress of the rebuild as JSON.
+     */
+    @RequireCSRFCheck
+    public Result rebuildRollups() {
+        if (!myIdentityResolver.isAdmin(ctx())) {
+            return unauthorized("You do not have permission to perform this action!");
+        }
+
+        if (!myRollupBackfillJob.start()) {
+            return status(CONFLICT, myRollupBackfillJob.getStatus());
+        }
+
+        return status(ACCEPTED, myRollupBackfillJob.getStatus());
+    }
+
+    /**
+     * <p>This retrieves the progress of the current (or last) rebuild
+     * of the {@code byDesign} lesson rollups, along with the token
+     * needed to start a rebuild.</p>
+     *
+     * @return The progress of the rebuild as JSON.
+     */
+    @AddCSRFToken
+    public Result getRollupStatus() {
+        if (!myIdentityResolver.isAdmin(ctx())) {
+            return unauthorized("You do not have permission to view this page!");
+        }
+
+        ObjectNode status = myRollupBackfillJob.getStatus();
+        status.put("csrfToken", CSRF.getToken(request()).map(t -> t.value()).orElse("no token"));
+
+        return ok(status);
+    }
+
     /**
      * <p>This handles file upload that contains the {@code byDesign}
      * user IDs and displays all relevant data from the database for
      * all the different IDs.</p>
      *
+     * <p>Note that the uploaded file is parsed by {@link RosterBodyParser}
+     * while it is being received.</p>
+     *
+     * <p>Unless the results are streamed, the events are retrieved by a
+     * background {@link AnalysisJob} and this renders a page that polls
+     * for its progress.</p>
+     *
      * @return The result of rendering the page.
      */
     @AddCSRFToken
     @RequireCSRFCheck
+    @BodyParser.Of(RosterBodyParser.class)
     @Transactional(readOnly = true)
     public Result upload() {
         // Retrieve the current user (if logged in)
-        String email = session("connected");
-        if (email != null) {
-            User currentUser = User.findByEmail(email);
-
+        User currentUser = myIdentityResolver.getUser(ctx());
+        if (currentUser != null) {
             // Variables used to render the page
             String fileName = "";
             ErrorKind errorKind = null;
             Date lastGeneratedDate = null;
-            Map<Long, List<ByDesignEvent>> eventsMap = new HashMap<>();
+            EventsLoadResult loadResult = null;
+            String rosterKey = null;
 
             // Retrieve the file that was posted to the backend
-            MultipartFormData<File> body =
+            MultipartFormData<RosterFile> body =
                     request().body().asMultipartFormData();
-            FilePart<File> idFile = body.getFile("idFile");
+            FilePart<RosterFile> idFile =
+                    body != null ? body.getFile("idFile") : null;
             if (idFile != null) {
                 // Obtain the extension from the file
                 // Note that we are disallowing file names that begin with "dot"
@@ -126,60 +541,47 @@ public class DataAnalysis extends Controller {
                     fileName = "";
                     errorKind = ErrorKind.INVALID_INPUT_FILE;
                 }
+                else if (idFile.getFile().error != null) {
+                    // The body parser rejected the contents of the file
+                    fileName = "";
+                    errorKind = idFile.getFile().error;
+                }
+                else if (isStreamingRequested(body)) {
+                    // Send the rows to the browser as they are retrieved
+                    return streamEvents(currentUser, fileName,
+                            idFile.getFile().ids,
+                            myRosterCache.store(idFile.getFile().ids));
+                }
                 else {
                     try {
-                        // Attempt to parse the ID file
-                        List<Long> idList = parseIDFile(idFile.getFile());
-                        eventsMap = formEventsMap(idList);
-
-                        /* Temporary code to export the data
-                        String csvFile = "data.csv";
-                        List<String> lessons = Arrays.asList("tutorial/tutorial1.json", "tutorial/tutorial2.json", "problems/problem1.json",
-                                "problems/problem1a.json", "problems/problem1b.json", "problems/problem2.json", "problems/problem2a.json",
-                                "problems/problem3.json", "problems/problem3a.json", "problems/problem3aa.json", "problems/problem3b.json",
-                                "problems/problem4.json", "problems/problem4a.json", "problems/problem5.json", "problems/problem6.json",
-                                "challenges/challenge1.json", "challenges/challenge2.json");
-                        FileWriter writer = new FileWriter(csvFile);
-                        List<String> topBar = new ArrayList<>(lessons.size());
-                        topBar.addAll(lessons);
-                        topBar.add(0, "AuthorID");
-                        CSVUtils.writeLine(writer, topBar);
-                        for (Long id : eventsMap.keySet()) {
-                            List<Integer> data = Arrays.asList(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
-                            for (ByDesignEvent bde : eventsMap.get(id)) {
-                                boolean found = false;
-                                for (int i = 0; i < lessons.size() && !found; i++) {
-                                    if (bde.lesson.equals(lessons.get(i))) {
-                                        data.set(i, data.get(i) + 1);
-                                        found = true;
-                                    }
-                                }
-                            }
-
-                            // Specify the size of the list up front to prevent resizing.
-                            List<String> newList = new ArrayList<>(data.size());
-                            newList.addAll(data.stream().map(String::valueOf).collect(Collectors.toList()));
-                            newList.add(0, id.toString());
-                            CSVUtils.writeLine(writer, newList);
+                        // Retrieve the events in the background unless
+                        // we already have them.
+                        rosterKey = myRosterCache.store(idFile.getFile().ids);
+                        AnalysisJob job =
+                                myJobManager.submit(rosterKey,
+                                        idFile.getFile().ids);
+                        if (job.getState() != AnalysisJob.State.DONE) {
+                            return ok(jobProgress.render(currentUser,
+                                    fileName, rosterKey));
                         }
-                        writer.flush();
-                        writer.close();*/
 
                         // No error detected
-                        lastGeneratedDate = new Date();
+                        loadResult = job.getResult();
+                        lastGeneratedDate = job.getFinishedDate();
                     }
-                    catch (IOException | IllegalArgumentException e) {
-                        // If we encounter any kind of exception, then we
-                        // render the error alert and don't display a file name
-                        // as the file we are currently analyzing.
+                    catch (RejectedExecutionException e) {
+                        // Make sure that we render the error alert and
+                        // don't display a file name as the file we are
+                        // currently analyzing.
                         fileName = "";
-                        errorKind = ErrorKind.DATABASE_ERROR;
+                        rosterKey = null;
+                        errorKind = ErrorKind.TOO_MANY_JOBS;
                     }
                 }
             }
 
             return ok(dataanalysis.render(currentUser, fileName, errorKind,
-                    eventsMap, lastGeneratedDate));
+                    loadResult, lastGeneratedDate, null, rosterKey));
         }
 
         return redirect(controllers.common.security.routes.Security.index());
@@ -190,21 +592,50 @@ public class DataAnalysis extends Controller {
     // ===========================================================
 
     /**
-     * <p>Returns a map containing all the events we can find for each
-     * of the provided users.</p>
+     * <p>Forms a JSON object containing an error message.</p>
      *
-     * @param idList The list of user IDs.
+     * @param message The error message.
      *
-     * @return A map of from {@link Long} user IDs to {@link List<ByDesignEvent>}.
+     * @return A JSON object.
      */
-    @Transactional(readOnly = true)
-    private Map<Long, List<ByDesignEvent>> formEventsMap(List<Long> idList) {
-        Map<Long, List<ByDesignEvent>> userEventsMap = new HashMap<>();
-        for (Long id : idList) {
-            userEventsMap.put(id, ByDesignEvent.getUserEvents(id));
+    private ObjectNode errorJson(String message) {
+        ObjectNode result = Json.newObject();
+        result.put("error", message);
+
+        return result;
+    }
+
+    /**
+     * <p>Checks to see if the user asked for the results to be streamed.</p>
+     *
+     * @param body The multipart form data posted to the backend.
+     *
+     * @return {@code true} if the results should be streamed,
+     * {@code false} otherwise.
+     */
+    private boolean isStreamingRequested(MultipartFormData<RosterFile> body) {
+        String[] values = body.asFormUrlEncoded().get("stream");
+
+        return values != null && values.length > 0
+                && "true".equals(values[0]);
+    }
+
+    /**
+     * <p>Parses a boolean query parameter.</p>
+     *
+     * @param value Either {@code "true"} or {@code "false"}.
+     *
+     * @return The boolean value.
+     *
+     * @throws IllegalArgumentException This exception is thrown when
+     * the value is neither {@code "true"} nor {@code "false"}.
+     */
+    private Boolean parseBoolean(String value) {
+        if (!value.equals("true") && !value.equals("false")) {
+            throw new IllegalArgumentException();
         }
 
-        return userEventsMap;
+        return Boolean.valueOf(value);
     }
 
     /**
@@ -224,109 +655,79 @@ public class DataAnalysis extends Controller {
             // Check to see if the content type is either "application/vnd.ms-excel"
             // if the client is using Windows or "text/csv" on MacOS/Linux.
             result =
-                    contentType.equals("application/vnd.ms-excel")
-                            || contentType.equals("text/csv");
+                    "application/vnd.ms-excel".equals(contentType)
+                            || "text/csv".equals(contentType);
         }
 
         return result;
     }
 
     /**
-     * <p>This helper method converts a CSV file containing IDs (as a {@link String})
-     * to a list of IDs as {@link Long}.</p>
-     *
-     * @param idFile The CSV file object containing the user IDs.
-     *
-     * @return A list of IDs as {@link Long}.
+     * <p>Renders the page with the events for each of the provided users,
+     * sending the table rows to the browser in chunks as each chunk of
+     * users is retrieved from the database. The rows are never collected in
+     * memory, so the memory used does not depend on the number of users.</p>
      *
-     * @throws IOException This exception (or a more specific exception that inherits
-     * from {@link IOException}) is thrown when an error occurs while reading the file.
+     * @param currentUser The current user.
+     * @param fileName The name of the uploaded file.
+     * @param ids The unique user IDs.
+     * @param rosterKey The key for the list of user IDs.
      *
-     * @throws IllegalArgumentException This exception (or a more specific exception that inherits
-     * from {@link IllegalArgumentException}) is thrown when the file is not consistent with the
-     * column headers or if we contain anything other than strings of long values.
+     * @return A chunked result.
      */
-    private List<Long> parseIDFile(File idFile)
-            throws IOException,
-                IllegalArgumentException {
-        List<Long> idList = new LinkedList<>();
-
-        // We perform the following transformations to the provided CSVFormat
-        // 1. Manually set the header to ID.
-        // 2. We check to see if each line is consistent with the header provided.
-        //    (ie. It is an error if it contains more values on the same line.)
-        Iterable<CSVRecord> csvRecords =
-                CSVFormat.RFC4180.withHeader("ID")
-                        .parse(new FileReader(idFile));
-        for (CSVRecord record : csvRecords) {
-            // Make sure we only have one column
-            if (!record.isConsistent()) {
-                throw new IllegalArgumentException();
-            }
-
-            idList.add(Long.parseLong(record.get("ID")));
-        }
-
-        return idList;
+    private Result streamEvents(User currentUser, String fileName, long[] ids,
+            String rosterKey) {
+        long startTime = System.nanoTime();
+
+        // Render the page with placeholders for the rows and the statistics.
+        // Note that we need to do this while we still have a HTTP context.
+        String[] pageParts =
+                dataanalysis.render(currentUser, fileName, null, null,
+                        new Date(), STREAM_MARKER, rosterKey).body().split(
+                        STREAM_MARKER,
+                        -1);
+
+        // Render each chunk of rows as soon as it has been retrieved.
+        AtomicInteger numEvents = new AtomicInteger();
+        AtomicInteger numFullAuthors = new AtomicInteger();
+        AtomicInteger numIncrementalAuthors = new AtomicInteger();
+        AtomicInteger numQueries = new AtomicInteger();
+        Source<ByteString, NotUsed> rows =
+                myEventLoader.streamEvents(ids).map(chunk -> {
+                    numEvents.addAndGet(chunk.numEvents);
+                    numFullAuthors.addAndGet(chunk.numFullAuthors);
+                    numIncrementalAuthors.addAndGet(chunk.numIncrementalAuthors);
+                    numQueries.addAndGet(chunk.numQueries);
+
+                    return ByteString.fromString(eventRows.render(
+                            chunk.eventsMap).body());
+                }).recover(new PFBuilder<Throwable, ByteString>().matchAny(
+                        e -> ByteString.fromString("<tr><td colspan=\"7\">"
+                                + ErrorKind.DATABASE_ERROR.message
+                                + "</td></tr>")).build());
+
+        // The statistics are only known once all the rows have been sent.
+        Source<ByteString, NotUsed> statistics =
+                Source.single(ids.length).map(numAuthors -> {
+                    long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+                    myEventLoader.logStatistics(numEvents.get(), numAuthors,
+                            numQueries.get(), elapsedMillis);
+
+                    return ByteString.fromString(loadStatistics.render(
+                            new EventsLoadResult(Collections.emptyMap(),
+                                    numAuthors, numEvents.get(),
+                                    numFullAuthors.get(),
+                                    numIncrementalAuthors.get(),
+                                    numQueries.get(), elapsedMillis)).body());
+                });
+        Source<ByteString, NotUsed> page =
+                Source.single(ByteString.fromString(pageParts[0]))
+                        .concat(rows)
+                        .concat(Source.single(ByteString.fromString(pageParts[1])))
+                        .concat(statistics)
+                        .concat(Source.single(ByteString.fromString(pageParts[2])));
+
+        return ok().chunked(page).as("text/html; charset=utf-8");
     }
 
-    /*
-     * <p>Source: https://www.mkyong.com/java/how-to-export-data-to-csv-file-java/</p>
-     *
-     * Note: In the future, we might need to write our own.
-     *
-    static class CSVUtils {
-
-        private static final char DEFAULT_SEPARATOR = ',';
-
-        static void writeLine(Writer w, List<String> values) throws IOException {
-            writeLine(w, values, DEFAULT_SEPARATOR, ' ');
-        }
-
-        static void writeLine(Writer w, List<String> values, char separators) throws IOException {
-            writeLine(w, values, separators, ' ');
-        }
-
-        //https://tools.ietf.org/html/rfc4180
-        private static String followCVSformat(String value) {
-
-            String result = value;
-            if (result.contains("\"")) {
-                result = result.replace("\"", "\"\"");
-            }
-            return result;
-
-        }
-
-        static void writeLine(Writer w, List<String> values, char separators, char customQuote) throws IOException {
-
-            boolean first = true;
-
-            //default customQuote is empty
-
-            if (separators == ' ') {
-                separators = DEFAULT_SEPARATOR;
-            }
-
-            StringBuilder sb = new StringBuilder();
-            for (String value : values) {
-                if (!first) {
-                    sb.append(separators);
-                }
-                if (customQuote == ' ') {
-                    sb.append(followCVSformat(value));
-                } else {
-                    sb.append(customQuote).append(followCVSformat(value)).append(customQuote);
-                }
-
-                first = false;
-            }
-            sb.append("\n");
-            w.append(sb.toString());
-
-
-        }
-
-    }*/
-
 }
\ No newline at end of file
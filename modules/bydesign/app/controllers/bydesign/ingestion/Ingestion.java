@@ -0,0 +1,416 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package controllers.bydesign.ingestion;
+
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import deadbolt2.common.models.UserIdentity;
+import deadbolt2.common.security.IdentityResolver;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import javax.inject.Inject;
+import models.common.database.ByDesignEvent;
+import play.Configuration;
+import play.Logger;
+import play.libs.Json;
+import play.mvc.BodyParser;
+import play.mvc.Controller;
+import play.mvc.Http;
+import play.mvc.Result;
+import utils.bydesign.ingestion.ByDesignEventBuffer;
+import utils.bydesign.ingestion.PendingByDesignEvent;
+
+/**
+ * <p>This class serves as a controller class for receiving
+ * {@code byDesign} events.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class Ingestion extends Controller {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Write-behind buffer for {@code byDesign} events</p> */
+    @Inject
+    private ByDesignEventBuffer myEventBuffer;
+
+    /** <p>Class that retrieves configurations</p> */
+    @Inject
+    private Configuration myConfiguration;
+
+    /** <p>Class that resolves the user that is logged in</p> */
+    @Inject
+    private IdentityResolver myIdentityResolver;
+
+    /** <p>Default number of events handed to the buffer at a time.</p> */
+    private static final int DEFAULT_REQUEST_BATCH_SIZE = 100;
+
+    /** <p>Default maximum number of characters in the code of an event.</p> */
+    private static final int DEFAULT_MAX_CODE_LENGTH = 1048576;
+
+    /** <p>The only content type accepted for the events.</p> */
+    private static final String EVENTS_CONTENT_TYPE = "application/x-ndjson";
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>This records a batch of {@code byDesign} events for the current
+     * user. The request body contains one JSON object per line with the
+     * {@code lesson}, {@code module}, {@code code}, {@code correct},
+     * {@code points} and {@code time} of an event, and optionally a
+     * {@code clientEventId}. An event whose ID has already been recorded
+     * for the user is acknowledged but not stored again, so clients can
+     * safely retry a batch. The body is parsed as a
+     * stream, and the events are handed to the write-behind buffer in
+     * batches of {@code bydesign.ingestion.requestBatchSize}.</p>
+     *
+     * <p>The response acknowledges each batch. Lines that are not valid
+     * events, including events whose lesson or module is longer than its
+     * column or whose code is longer than
+     * {@code bydesign.ingestion.maxCodeLength} characters, are skipped
+     * and listed. If the buffer cannot accept any more
+     * events, the remaining lines are not processed, the response status is
+     * {@code 503} and {@code resumeLine} tells the client which line to
+     * send again. Malformed JSON stops the processing the same way with
+     * a {@code 400} status.</p>
+     *
+     * <p>The request must have the {@code application/x-ndjson} content
+     * type. Browsers only send that type from another site after a CORS
+     * preflight, which we never allow, so a page on another site cannot
+     * record events for a logged in user.</p>
+     *
+     * @return The acknowledgements as JSON.
+     */
+    @BodyParser.Of(BodyParser.Raw.class)
+    public Result addEvents() {
+        // Retrieve the current user (if logged in)
+        UserIdentity user = myIdentityResolver.getIdentity(ctx()).orElse(null);
+        if (user == null) {
+            return unauthorized("You must be logged in to record events!");
+        }
+
+        if (!request().contentType()
+                .map(EVENTS_CONTENT_TYPE::equalsIgnoreCase).orElse(false)) {
+            return status(UNSUPPORTED_MEDIA_TYPE, "Expected a body of type "
+                    + EVENTS_CONTENT_TYPE + ".");
+        }
+
+        Http.RawBuffer body = request().body().asRaw();
+        if (body == null) {
+            return badRequest("Expected newline-delimited JSON events.");
+        }
+
+        int batchSize =
+                Math.max(1, myConfiguration.getInt(
+                        "bydesign.ingestion.requestBatchSize",
+                        DEFAULT_REQUEST_BATCH_SIZE));
+        int maxCodeLength =
+                Math.max(0, myConfiguration.getInt(
+                        "bydesign.ingestion.maxCodeLength",
+                        DEFAULT_MAX_CODE_LENGTH));
+        EventBatcher batcher = new EventBatcher(user.id, batchSize, maxCodeLength);
+        try (InputStream in = openBody(body);
+                JsonParser parser = Json.mapper().getFactory().createParser(in)) {
+            while (!batcher.isStopped() && parser.nextToken() != null) {
+                int line = parser.getTokenLocation().getLineNr();
+                batcher.add(line, Json.mapper().readTree(parser));
+            }
+            batcher.flush();
+        }
+        catch (JsonProcessingException e) {
+            // Keep the events before the malformed line
+            batcher.flush();
+            if (!batcher.isStopped()) {
+                batcher.stop(e.getLocation() == null ? 0 : e.getLocation().getLineNr(),
+                        "Malformed JSON: " + e.getOriginalMessage());
+                return badRequest(batcher.getResponse());
+            }
+        }
+        catch (IOException e) {
+            Logger.error("Failed to read the byDesign events.", e);
+            return internalServerError("Failed to read the events.");
+        }
+
+        if (batcher.isStopped()) {
+            response().setHeader(RETRY_AFTER, "1");
+            return status(SERVICE_UNAVAILABLE, batcher.getResponse());
+        }
+
+        return ok(batcher.getResponse());
+    }
+
+    /**
+     * <p>This retrieves the metrics for the write-behind buffer. Only
+     * administrators can view the metrics.</p>
+     *
+     * @return The metrics as JSON.
+     */
+    public Result getMetrics() {
+        if (!myIdentityResolver.isAdmin(ctx())) {
+            return unauthorized("You do not have permission to view this page!");
+        }
+
+        return ok(myEventBuffer.getMetrics());
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Opens the request body, which is either in memory or, if it was
+     * large, in a temporary file.</p>
+     *
+     * @param body The raw request body.
+     *
+     * @return An input stream with the body.
+     *
+     * @throws IOException This exception is thrown when the temporary
+     * file could not be opened.
+     */
+    private static InputStream openBody(Http.RawBuffer body) throws IOException {
+        ByteString bytes = body.asBytes();
+        if (bytes != null) {
+            return bytes.iterator().asInputStream();
+        }
+
+        return new FileInputStream(body.asFile());
+    }
+
+    /**
+     * <p>Checks to see if a value has more characters than a column holds.
+     * Characters outside the Basic Multilingual Plane count once, like
+     * they do in the database.</p>
+     *
+     * @param value A string value.
+     * @param maxLength Maximum number of characters.
+     *
+     * @return {@code true} if it does, {@code false} otherwise.
+     */
+    private static boolean exceedsLength(String value, int maxLength) {
+        return value.length() > maxLength
+                && value.codePointCount(0, value.length()) > maxLength;
+    }
+
+    /**
+     * <p>Validates an event sent by a client.</p>
+     *
+     * @param node A JSON value.
+     * @param maxCodeLength Maximum number of characters in the code.
+     *
+     * @return A description of the problem, or {@code null}
+     * if it is a valid event.
+     */
+    private static String validateEvent(JsonNode node, int maxCodeLength) {
+        if (!node.isObject()) {
+            return "Expected a JSON object.";
+        }
+        if (!node.path("lesson").isTextual() || !node.path("module").isTextual()) {
+            return "The lesson and module are required.";
+        }
+        if (exceedsLength(node.get("lesson").asText(), ByDesignEvent.MAX_NAME_LENGTH)
+                || exceedsLength(node.get("module").asText(), ByDesignEvent.MAX_NAME_LENGTH)) {
+            return "The lesson and module must be at most "
+                    + ByDesignEvent.MAX_NAME_LENGTH + " characters.";
+        }
+        if (node.has("code") && !node.get("code").isTextual()) {
+            return "The code must be a string.";
+        }
+        if (node.has("code") && exceedsLength(node.get("code").asText(), maxCodeLength)) {
+            return "The code must be at most " + maxCodeLength + " characters.";
+        }
+        if (node.has("clientEventId")
+                && (!node.get("clientEventId").isTextual()
+                        || node.get("clientEventId").asText().isEmpty()
+                        || node.get("clientEventId").asText().length()
+                                > ByDesignEvent.MAX_CLIENT_EVENT_ID_LENGTH)) {
+            return "The clientEventId must be a non-empty string of at most "
+                    + ByDesignEvent.MAX_CLIENT_EVENT_ID_LENGTH + " characters.";
+        }
+        if (node.has("correct") && !node.get("correct").isBoolean()) {
+            return "The correct flag must be a boolean.";
+        }
+        if ((node.has("points") && !node.get("points").canConvertToLong())
+                || (node.has("time") && !node.get("time").canConvertToLong())) {
+            return "The points and time must be integers.";
+        }
+
+        return null;
+    }
+
+    // ===========================================================
+    // Event Batcher
+    // ===========================================================
+
+    /**
+     * <p>Collects the events of a single request into batches, hands each
+     * batch to the write-behind buffer and builds the acknowledgements.</p>
+     */
+    private final class EventBatcher {
+
+        /** <p>The current user's ID.</p> */
+        private final long myAuthor;
+
+        /** <p>Maximum number of events in a batch.</p> */
+        private final int myBatchSize;
+
+        /** <p>Maximum number of characters in the code of an event.</p> */
+        private final int myMaxCodeLength;
+
+        /** <p>The events in the current batch.</p> */
+        private final List<PendingByDesignEvent> myEvents;
+
+        /** <p>The line number of each event in the current batch.</p> */
+        private final List<Integer> myLines;
+
+        /** <p>The response sent to the client.</p> */
+        private final ObjectNode myResponse;
+
+        /** <p>The acknowledgement for each batch.</p> */
+        private final ArrayNode myBatches;
+
+        /** <p>The lines that were not valid events.</p> */
+        private final ArrayNode myInvalid;
+
+        /** <p>Total number of accepted events.</p> */
+        private int myNumAccepted;
+
+        /** <p>Flag that indicates the remaining lines are not processed.</p> */
+        private boolean myIsStopped;
+
+        /**
+         * <p>Creates an empty batcher.</p>
+         *
+         * @param author The current user's ID.
+         * @param batchSize Maximum number of events in a batch.
+         * @param maxCodeLength Maximum number of characters in the code
+         *                      of an event.
+         */
+        EventBatcher(long author, int batchSize, int maxCodeLength) {
+            myAuthor = author;
+            myBatchSize = batchSize;
+            myMaxCodeLength = maxCodeLength;
+            myEvents = new ArrayList<>(batchSize);
+            myLines = new ArrayList<>(batchSize);
+            myResponse = Json.newObject();
+            myBatches = myResponse.putArray("batches");
+            myInvalid = myResponse.putArray("invalid");
+        }
+
+        /**
+         * <p>Adds an event to the current batch, handing the batch to the
+         * buffer once it is full.</p>
+         *
+         * @param line The line number of the event.
+         * @param node The event sent by the client.
+         */
+        void add(int line, JsonNode node) {
+            String problem = validateEvent(node, myMaxCodeLength);
+            if (problem != null) {
+                myInvalid.addObject().put("line", line).put("error", problem);
+                return;
+            }
+
+            myEvents.add(new PendingByDesignEvent(myAuthor,
+                    node.path("code").asText(null),
+                    node.path("correct").asBoolean(false),
+                    node.get("lesson").asText(), node.get("module").asText(),
+                    node.path("points").asLong(0), node.path("time").asLong(0),
+                    node.path("clientEventId").asText(null)));
+            myLines.add(line);
+            if (myEvents.size() >= myBatchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * <p>Hands the current batch to the buffer and acknowledges it.</p>
+         */
+        void flush() {
+            if (myEvents.isEmpty() || myIsStopped) {
+                return;
+            }
+
+            int numAccepted;
+            try {
+                numAccepted = myEventBuffer.submitAll(myEvents);
+            }
+            catch (RuntimeException e) {
+                Logger.error("Failed to record " + myEvents.size()
+                        + " byDesign events.", e);
+                numAccepted = 0;
+            }
+
+            myBatches.addObject()
+                    .put("firstLine", myLines.get(0))
+                    .put("lastLine", myLines.get(myLines.size() - 1))
+                    .put("accepted", numAccepted)
+                    .put("rejected", myEvents.size() - numAccepted);
+            myNumAccepted += numAccepted;
+            if (numAccepted < myEvents.size()) {
+                stop(myLines.get(numAccepted), "The server is busy. "
+                        + "Please send the events from this line again later.");
+            }
+
+            myEvents.clear();
+            myLines.clear();
+        }
+
+        /**
+         * <p>Returns the response for the client.</p>
+         *
+         * @return The acknowledgements as JSON.
+         */
+        ObjectNode getResponse() {
+            myResponse.put("accepted", myNumAccepted);
+            return myResponse;
+        }
+
+        /**
+         * <p>Checks whether the remaining lines are not processed.</p>
+         *
+         * @return {@code true} if processing has stopped,
+         * {@code false} otherwise.
+         */
+        boolean isStopped() {
+            return myIsStopped;
+        }
+
+        /**
+         * <p>Stops processing the remaining lines.</p>
+         *
+         * @param resumeLine The first line the client should send again.
+         * @param error A description of the problem.
+         */
+        void stop(int resumeLine, String error) {
+            if (!myIsStopped) {
+                myIsStopped = true;
+                myResponse.put("resumeLine", resumeLine);
+                myResponse.put("error", error);
+            }
+        }
+    }
+
+}
\ No newline at end of file
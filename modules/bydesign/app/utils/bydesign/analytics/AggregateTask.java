@@ -0,0 +1,221 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.analytics;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <p>A fork/join task that filters and aggregates a range of rows in an
+ * {@link EventColumns} snapshot. Ranges larger than the threshold are split
+ * in half and the partial aggregates are merged.</p>
+ *
+ * <p>Each group is keyed by the author ID or the dictionary code of the
+ * lesson or module, and holds the number of attempts, correct attempts,
+ * total time and total points in that order.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+final class AggregateTask extends RecursiveTask<Map<Long, long[]>> {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Index of the attempts in the aggregates.</p> */
+    static final int ATTEMPTS = 0;
+
+    /** <p>Index of the correct attempts in the aggregates.</p> */
+    static final int CORRECT = 1;
+
+    /** <p>Index of the total time in the aggregates.</p> */
+    static final int TIME = 2;
+
+    /** <p>Index of the total points in the aggregates.</p> */
+    static final int POINTS = 3;
+
+    /** <p>The snapshot we are aggregating.</p> */
+    private final EventColumns myColumns;
+
+    /**
+     * <p>The rows that satisfy the lesson, module and correct filters
+     * or {@code null} if every row does.</p>
+     */
+    private final BitSet myCandidates;
+
+    /** <p>The filters and grouping.</p> */
+    private final AnalyticsQuery myQuery;
+
+    /** <p>First row of the range (inclusive).</p> */
+    private final int myStart;
+
+    /** <p>Last row of the range (exclusive).</p> */
+    private final int myEnd;
+
+    /** <p>Ranges with fewer rows than this are aggregated directly.</p> */
+    private final int myThreshold;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Creates a task that aggregates a range of rows.</p>
+     *
+     * @param columns The snapshot we are aggregating.
+     * @param candidates The rows that satisfy the bitmap filters
+     *                   or {@code null}.
+     * @param query The filters and grouping.
+     * @param start First row of the range (inclusive).
+     * @param end Last row of the range (exclusive).
+     * @param threshold Ranges with fewer rows than this are aggregated
+     *                  directly.
+     */
+    AggregateTask(EventColumns columns, BitSet candidates,
+            AnalyticsQuery query, int start, int end, int threshold) {
+        myColumns = columns;
+        myCandidates = candidates;
+        myQuery = query;
+        myStart = start;
+        myEnd = end;
+        myThreshold = threshold;
+    }
+
+    // ===========================================================
+    // Protected Methods
+    // ===========================================================
+
+    /**
+     * <p>Aggregates the range of rows.</p>
+     *
+     * @return A map from group keys to their aggregates.
+     */
+    @Override
+    protected final Map<Long, long[]> compute() {
+        if (myEnd - myStart <= myThreshold) {
+            return aggregate();
+        }
+
+        int middle = (myStart + myEnd) >>> 1;
+        AggregateTask left =
+                new AggregateTask(myColumns, myCandidates, myQuery, myStart,
+                        middle, myThreshold);
+        AggregateTask right =
+                new AggregateTask(myColumns, myCandidates, myQuery, middle,
+                        myEnd, myThreshold);
+        left.fork();
+        Map<Long, long[]> result = right.compute();
+
+        return merge(left.join(), result);
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Aggregates the range of rows in the current thread.</p>
+     *
+     * @return A map from group keys to their aggregates.
+     */
+    private Map<Long, long[]> aggregate() {
+        Map<Long, long[]> groups = new HashMap<>();
+        if (myCandidates == null) {
+            for (int row = myStart; row < myEnd; row++) {
+                addRow(groups, row);
+            }
+        }
+        else {
+            for (int row = myCandidates.nextSetBit(myStart); row >= 0
+                    && row < myEnd; row = myCandidates.nextSetBit(row + 1)) {
+                addRow(groups, row);
+            }
+        }
+
+        return groups;
+    }
+
+    /**
+     * <p>Adds a row to its group if it satisfies the author and
+     * date filters.</p>
+     *
+     * @param groups A map from group keys to their aggregates.
+     * @param row The row to add.
+     */
+    private void addRow(Map<Long, long[]> groups, int row) {
+        long author = myColumns.authors[row];
+        if (myQuery.authors != null
+                && Arrays.binarySearch(myQuery.authors, author) < 0) {
+            return;
+        }
+
+        long eventDate = myColumns.eventDates[row];
+        if ((myQuery.from > 0 && eventDate < myQuery.from)
+                || (myQuery.to > 0 && eventDate >= myQuery.to)) {
+            return;
+        }
+
+        long key;
+        switch (myQuery.groupBy) {
+        case LESSON:
+            key = myColumns.lessons[row];
+            break;
+        case MODULE:
+            key = myColumns.modules[row];
+            break;
+        default:
+            key = author;
+            break;
+        }
+
+        long[] aggregates = groups.computeIfAbsent(key, k -> new long[4]);
+        aggregates[ATTEMPTS]++;
+        if (myColumns.correct.get(row)) {
+            aggregates[CORRECT]++;
+        }
+        aggregates[TIME] += myColumns.times[row];
+        aggregates[POINTS] += myColumns.points[row];
+    }
+
+    /**
+     * <p>Merges two partial aggregates.</p>
+     *
+     * @param first A map from group keys to their aggregates.
+     * @param second Another map from group keys to their aggregates.
+     *
+     * @return The merged map.
+     */
+    private static Map<Long, long[]> merge(Map<Long, long[]> first,
+            Map<Long, long[]> second) {
+        Map<Long, long[]> larger = first.size() >= second.size() ? first : second;
+        Map<Long, long[]> smaller = larger == first ? second : first;
+        for (Map.Entry<Long, long[]> entry : smaller.entrySet()) {
+            long[] aggregates = larger.get(entry.getKey());
+            if (aggregates == null) {
+                larger.put(entry.getKey(), entry.getValue());
+            }
+            else {
+                for (int i = 0; i < aggregates.length; i++) {
+                    aggregates[i] += entry.getValue()[i];
+                }
+            }
+        }
+
+        return larger;
+    }
+
+}
@@ -0,0 +1,337 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.analytics;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import models.common.database.ByDesignEvent;
+import models.common.database.ByDesignEventSummary;
+import play.Configuration;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import scala.concurrent.ExecutionContextExecutor;
+import scala.concurrent.duration.Duration;
+
+/**
+ * <p>An optional in-memory analytics engine for {@code byDesign} events.
+ * When it is enabled, all the events (except their code) are loaded into an
+ * {@link EventColumns} snapshot, and filters, group by and aggregates are
+ * computed in parallel on a fork/join pool without issuing any queries.</p>
+ *
+ * <p>The snapshot is refreshed periodically by loading only the events
+ * with IDs greater than the largest event ID it has seen. Note that an
+ * event that is committed after an event with a larger ID has already been
+ * loaded is not picked up until the application restarts.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class AnalyticsEngine {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Default number of events to load in a single query.</p> */
+    private static final int DEFAULT_LOAD_BATCH_SIZE = 10000;
+
+    /** <p>Default number of seconds between refreshes.</p> */
+    private static final long DEFAULT_REFRESH_INTERVAL = 60;
+
+    /** <p>Default number of rows below which a range is not split.</p> */
+    private static final int DEFAULT_SPLIT_THRESHOLD = 1 << 16;
+
+    /** <p>Flag that indicates the engine is enabled.</p> */
+    private final boolean myIsEnabled;
+
+    /** <p>Number of events to load in a single query.</p> */
+    private final int myLoadBatchSize;
+
+    /** <p>Number of rows below which a range is not split.</p> */
+    private final int mySplitThreshold;
+
+    /** <p>The fork/join pool that runs the aggregations.</p> */
+    private final ForkJoinPool myPool;
+
+    /** <p>JPA API</p> */
+    private final JPAApi myJpaApi;
+
+    /** <p>The task that refreshes the snapshot periodically.</p> */
+    private final Cancellable myRefreshTask;
+
+    /** <p>The most recent snapshot (or {@code null} until it is loaded).</p> */
+    private volatile EventColumns myColumns;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates the analytics engine and, if it is enabled, schedules
+     * the initial load and the periodic refreshes on the database
+     * dispatcher.</p>
+     *
+     * @param actorSystem The actor system that provides the database dispatcher.
+     * @param configuration Class that retrieves configurations.
+     * @param jpaApi JPA API.
+     * @param lifecycle Application lifecycle.
+     */
+    @Inject
+    public AnalyticsEngine(ActorSystem actorSystem,
+            Configuration configuration, JPAApi jpaApi,
+            ApplicationLifecycle lifecycle) {
+        myIsEnabled =
+                configuration.getBoolean("bydesign.analytics.enabled", false);
+        myLoadBatchSize =
+                Math.max(1, configuration.getInt(
+                        "bydesign.analytics.loadBatchSize",
+                        DEFAULT_LOAD_BATCH_SIZE));
+        mySplitThreshold =
+                Math.max(1, configuration.getInt(
+                        "bydesign.analytics.splitThreshold",
+                        DEFAULT_SPLIT_THRESHOLD));
+        myJpaApi = jpaApi;
+
+        if (myIsEnabled) {
+            int parallelism =
+                    Math.max(1, configuration.getInt(
+                            "bydesign.analytics.parallelism", Runtime
+                                    .getRuntime().availableProcessors()));
+            long refreshInterval =
+                    Math.max(1, configuration.getLong(
+                            "bydesign.analytics.refreshInterval",
+                            DEFAULT_REFRESH_INTERVAL));
+            ExecutionContextExecutor databaseContext =
+                    actorSystem.dispatchers().lookup(
+                            "bydesign.database-context");
+
+            myPool = new ForkJoinPool(parallelism);
+            myRefreshTask =
+                    actorSystem.scheduler().schedule(Duration.Zero(),
+                            Duration.create(refreshInterval, TimeUnit.SECONDS),
+                            this::refresh, databaseContext);
+
+            lifecycle.addStopHook(() -> {
+                myRefreshTask.cancel();
+                myPool.shutdown();
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+        else {
+            myPool = null;
+            myRefreshTask = null;
+        }
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Checks to see if the engine is enabled.</p>
+     *
+     * @return {@code true} if it is enabled, {@code false} otherwise.
+     */
+    public final boolean isEnabled() {
+        return myIsEnabled;
+    }
+
+    /**
+     * <p>Checks to see if the initial load has completed.</p>
+     *
+     * @return {@code true} if queries can be answered,
+     * {@code false} otherwise.
+     */
+    public final boolean isReady() {
+        return myColumns != null;
+    }
+
+    /**
+     * <p>Filters, groups and aggregates the events in the most
+     * recent snapshot.</p>
+     *
+     * @param query The filters and grouping.
+     *
+     * @return An {@link AnalyticsResult} with the groups ordered by key.
+     *
+     * @throws IllegalStateException This exception is thrown when
+     * the engine is disabled or has not finished loading.
+     */
+    public final AnalyticsResult query(AnalyticsQuery query) {
+        EventColumns columns = myColumns;
+        if (!myIsEnabled || columns == null) {
+            throw new IllegalStateException("The analytics engine is not ready.");
+        }
+
+        long startTime = System.nanoTime();
+
+        // Use the bitmap indexes to narrow down the rows
+        BitSet candidates = null;
+        if (query.lesson != null) {
+            candidates = and(candidates, lookup(columns.lessonNames,
+                    columns.lessonIndex, query.lesson));
+        }
+        if (query.module != null) {
+            candidates = and(candidates, lookup(columns.moduleNames,
+                    columns.moduleIndex, query.module));
+        }
+        if (query.correct != null) {
+            if (candidates == null) {
+                candidates = new BitSet(columns.size);
+                candidates.set(0, columns.size);
+            }
+            if (query.correct) {
+                candidates.and(columns.correct);
+            }
+            else {
+                candidates.andNot(columns.correct);
+            }
+        }
+
+        // Scan the remaining rows in parallel
+        Map<Long, long[]> aggregates =
+                myPool.invoke(new AggregateTask(columns, candidates, query, 0,
+                        columns.size, mySplitThreshold));
+
+        List<AnalyticsResult.Group> groups = new ArrayList<>(aggregates.size());
+        long numMatched = 0;
+        for (Map.Entry<Long, long[]> entry : aggregates.entrySet()) {
+            long[] values = entry.getValue();
+            groups.add(new AnalyticsResult.Group(decodeKey(columns,
+                    query.groupBy, entry.getKey()),
+                    values[AggregateTask.ATTEMPTS],
+                    values[AggregateTask.CORRECT], values[AggregateTask.TIME],
+                    values[AggregateTask.POINTS]));
+            numMatched += values[AggregateTask.ATTEMPTS];
+        }
+        groups.sort(Comparator.comparing(g -> g.key));
+
+        return new AnalyticsResult(groups, numMatched, columns.size,
+                (System.nanoTime() - startTime) / 1000000);
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Intersects the candidate rows with a bitmap.</p>
+     *
+     * @param candidates The current candidate rows or {@code null}
+     *                   for all rows.
+     * @param bitmap A bitmap from one of the indexes.
+     *
+     * @return The new candidate rows.
+     */
+    private static BitSet and(BitSet candidates, BitSet bitmap) {
+        if (candidates == null) {
+            return (BitSet) bitmap.clone();
+        }
+
+        candidates.and(bitmap);
+
+        return candidates;
+    }
+
+    /**
+     * <p>Converts a group key back to an author ID, lesson name
+     * or module name.</p>
+     *
+     * @param columns The snapshot we have aggregated.
+     * @param groupBy The column used to group the events.
+     * @param key The group key.
+     *
+     * @return The group name.
+     */
+    private static String decodeKey(EventColumns columns,
+            AnalyticsQuery.GroupBy groupBy, long key) {
+        String name;
+        switch (groupBy) {
+        case LESSON:
+            name = columns.lessonNames.get((int) key);
+            break;
+        case MODULE:
+            name = columns.moduleNames.get((int) key);
+            break;
+        default:
+            name = Long.toString(key);
+            break;
+        }
+
+        return name;
+    }
+
+    /**
+     * <p>Finds the bitmap for a value in a dictionary encoded column.</p>
+     *
+     * @param names Names indexed by their dictionary code.
+     * @param index Bitmap index with the events for each code.
+     * @param name The value we are looking for.
+     *
+     * @return The bitmap for the value or an empty bitmap if the
+     * value does not exist.
+     */
+    private static BitSet lookup(List<String> names, List<BitSet> index,
+            String name) {
+        int code = names.indexOf(name);
+
+        return code < 0 ? new BitSet() : index.get(code);
+    }
+
+    /**
+     * <p>Loads the events that were added since the last refresh and
+     * publishes a new snapshot.</p>
+     */
+    private synchronized void refresh() {
+        try {
+            long startTime = System.nanoTime();
+            EventColumns columns =
+                    myColumns == null ? new EventColumns() : myColumns;
+            int previousSize = columns.size;
+
+            List<ByDesignEventSummary> events;
+            do {
+                long afterID = columns.maxEventID;
+                events =
+                        myJpaApi.withTransaction("default", true,
+                                () -> ByDesignEvent.getEventSummariesAfter(
+                                        afterID, myLoadBatchSize));
+                columns = columns.append(events);
+            }
+            while (events.size() == myLoadBatchSize);
+
+            if (myColumns == null || columns.size != previousSize) {
+                myColumns = columns;
+                Logger.info("Loaded " + (columns.size - previousSize)
+                        + " byDesign events into the analytics engine in "
+                        + (System.nanoTime() - startTime) / 1000000 + " ms.");
+            }
+        }
+        catch (RuntimeException e) {
+            Logger.error("Failed to refresh the byDesign analytics engine.", e);
+        }
+    }
+
+}
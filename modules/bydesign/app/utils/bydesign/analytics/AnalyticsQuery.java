@@ -0,0 +1,104 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.analytics;
+
+/**
+ * <p>This class contains the filters and the grouping used to aggregate
+ * {@code byDesign} events with the {@link AnalyticsEngine}.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class AnalyticsQuery {
+
+    // ===========================================================
+    // Group Keys
+    // ===========================================================
+
+    /**
+     * <p>The columns that can be used to group the events.</p>
+     */
+    public enum GroupBy {
+
+        /** <p>One group per author.</p> */
+        AUTHOR,
+
+        /** <p>One group per lesson.</p> */
+        LESSON,
+
+        /** <p>One group per module.</p> */
+        MODULE
+
+    }
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /**
+     * <p>Only include events from these authors (if not {@code null}).
+     * The IDs must be sorted in ascending order.</p>
+     */
+    public final long[] authors;
+
+    /** <p>Only include events for this lesson (if not {@code null}).</p> */
+    public final String lesson;
+
+    /** <p>Only include events for this module (if not {@code null}).</p> */
+    public final String module;
+
+    /** <p>Only include events with this flag (if not {@code null}).</p> */
+    public final Boolean correct;
+
+    /**
+     * <p>Only include events on or after this time in milliseconds since
+     * the epoch (if positive).</p>
+     */
+    public final long from;
+
+    /**
+     * <p>Only include events before this time in milliseconds since
+     * the epoch (if positive).</p>
+     */
+    public final long to;
+
+    /** <p>The column used to group the events.</p> */
+    public final GroupBy groupBy;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Creates the filters and grouping for an aggregation.</p>
+     *
+     * @param authors Sorted author IDs or {@code null}.
+     * @param lesson Lesson name or {@code null}.
+     * @param module Module name or {@code null}.
+     * @param correct Correct flag or {@code null}.
+     * @param from Lower bound (inclusive) for the event date or {@code 0}.
+     * @param to Upper bound (exclusive) for the event date or {@code 0}.
+     * @param groupBy The column used to group the events.
+     */
+    public AnalyticsQuery(long[] authors, String lesson, String module,
+            Boolean correct, long from, long to, GroupBy groupBy) {
+        this.authors = authors;
+        this.lesson = lesson;
+        this.module = module;
+        this.correct = correct;
+        this.from = from;
+        this.to = to;
+        this.groupBy = groupBy;
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.analytics;
+
+import java.util.List;
+
+/**
+ * <p>This class contains the groups produced by an {@link AnalyticsQuery}
+ * and the statistics associated with computing them.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class AnalyticsResult {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>The aggregated groups.</p> */
+    public final List<Group> groups;
+
+    /** <p>Number of events that matched the filters.</p> */
+    public final long numMatched;
+
+    /** <p>Number of events that were available in memory.</p> */
+    public final long numEvents;
+
+    /** <p>Wall time spent computing the groups.</p> */
+    public final long elapsedMillis;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Creates the result of an aggregation.</p>
+     *
+     * @param groups The aggregated groups.
+     * @param numMatched Number of events that matched the filters.
+     * @param numEvents Number of events that were available in memory.
+     * @param elapsedMillis Wall time spent computing the groups.
+     */
+    public AnalyticsResult(List<Group> groups, long numMatched,
+            long numEvents, long elapsedMillis) {
+        this.groups = groups;
+        this.numMatched = numMatched;
+        this.numEvents = numEvents;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    // ===========================================================
+    // Group
+    // ===========================================================
+
+    /**
+     * <p>The aggregates for a single group of events.</p>
+     */
+    public static class Group {
+
+        /** <p>The author ID, lesson name or module name of this group.</p> */
+        public final String key;
+
+        /** <p>Number of attempts.</p> */
+        public final long attempts;
+
+        /** <p>Number of attempts that were correct.</p> */
+        public final long correctAttempts;
+
+        /** <p>Total time spent.</p> */
+        public final long totalTime;
+
+        /** <p>Total points earned.</p> */
+        public final long totalPoints;
+
+        /**
+         * <p>Creates the aggregates for a group.</p>
+         *
+         * @param key The author ID, lesson name or module name.
+         * @param attempts Number of attempts.
+         * @param correctAttempts Number of attempts that were correct.
+         * @param totalTime Total time spent.
+         * @param totalPoints Total points earned.
+         */
+        public Group(String key, long attempts, long correctAttempts,
+                long totalTime, long totalPoints) {
+            this.key = key;
+            this.attempts = attempts;
+            this.correctAttempts = correctAttempts;
+            this.totalTime = totalTime;
+            this.totalPoints = totalPoints;
+        }
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.analytics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import models.common.database.ByDesignEventSummary;
+
+/**
+ * <p>An immutable snapshot of the {@code byDesign} events stored in a
+ * columnar layout. Numeric columns are primitive arrays, the lesson and
+ * module columns are dictionary encoded and the {@code correct} column is
+ * a {@link BitSet}. The lesson and module columns also have one bitmap
+ * index per distinct value.</p>
+ *
+ * <p>Appending events creates a new snapshot. The primitive arrays are
+ * shared with the previous snapshot whenever they have room, which is safe
+ * since a snapshot never reads past its own {@code size}. The bitmaps that
+ * change are copied, so existing snapshots can still be read concurrently
+ * while new events are appended.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+final class EventColumns {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Initial capacity of the column arrays.</p> */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** <p>Number of events in this snapshot.</p> */
+    final int size;
+
+    /** <p>The largest event ID in this snapshot.</p> */
+    final long maxEventID;
+
+    /** <p>Author ID for each event.</p> */
+    final long[] authors;
+
+    /** <p>Time spent for each event.</p> */
+    final long[] times;
+
+    /** <p>Points for each event.</p> */
+    final long[] points;
+
+    /** <p>Event date (in milliseconds since the epoch) for each event.</p> */
+    final long[] eventDates;
+
+    /** <p>Dictionary code of the lesson for each event.</p> */
+    final int[] lessons;
+
+    /** <p>Dictionary code of the module for each event.</p> */
+    final int[] modules;
+
+    /** <p>The events that are correct.</p> */
+    final BitSet correct;
+
+    /** <p>Lesson names indexed by their dictionary code.</p> */
+    final List<String> lessonNames;
+
+    /** <p>Module names indexed by their dictionary code.</p> */
+    final List<String> moduleNames;
+
+    /** <p>Bitmap index with the events for each lesson code.</p> */
+    final List<BitSet> lessonIndex;
+
+    /** <p>Bitmap index with the events for each module code.</p> */
+    final List<BitSet> moduleIndex;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Creates an empty snapshot.</p>
+     */
+    EventColumns() {
+        this(0, 0, new long[INITIAL_CAPACITY], new long[INITIAL_CAPACITY],
+                new long[INITIAL_CAPACITY], new long[INITIAL_CAPACITY],
+                new int[INITIAL_CAPACITY], new int[INITIAL_CAPACITY],
+                new BitSet(), Collections.emptyList(), Collections
+                        .emptyList(), Collections.emptyList(), Collections
+                        .emptyList());
+    }
+
+    /**
+     * <p>Creates a snapshot from its columns.</p>
+     *
+     * @param size Number of events.
+     * @param maxEventID The largest event ID.
+     * @param authors Author ID column.
+     * @param times Time spent column.
+     * @param points Points column.
+     * @param eventDates Event date column.
+     * @param lessons Lesson code column.
+     * @param modules Module code column.
+     * @param correct Correct column.
+     * @param lessonNames Lesson dictionary.
+     * @param moduleNames Module dictionary.
+     * @param lessonIndex Bitmap index for the lessons.
+     * @param moduleIndex Bitmap index for the modules.
+     */
+    private EventColumns(int size, long maxEventID, long[] authors,
+            long[] times, long[] points, long[] eventDates, int[] lessons,
+            int[] modules, BitSet correct, List<String> lessonNames,
+            List<String> moduleNames, List<BitSet> lessonIndex,
+            List<BitSet> moduleIndex) {
+        this.size = size;
+        this.maxEventID = maxEventID;
+        this.authors = authors;
+        this.times = times;
+        this.points = points;
+        this.eventDates = eventDates;
+        this.lessons = lessons;
+        this.modules = modules;
+        this.correct = correct;
+        this.lessonNames = lessonNames;
+        this.moduleNames = moduleNames;
+        this.lessonIndex = lessonIndex;
+        this.moduleIndex = moduleIndex;
+    }
+
+    // ===========================================================
+    // Package Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Creates a new snapshot that contains all the events in this
+     * snapshot followed by the specified events.</p>
+     *
+     * @param events New events ordered by event ID. Every ID must be greater
+     *               than {@code maxEventID}.
+     *
+     * @return A new snapshot.
+     */
+    EventColumns append(List<ByDesignEventSummary> events) {
+        if (events.isEmpty()) {
+            return this;
+        }
+
+        int newSize = size + events.size();
+        int capacity = authors.length;
+        if (newSize > capacity) {
+            capacity = Math.max(newSize, capacity + (capacity >> 1));
+        }
+
+        long[] newAuthors = grow(authors, capacity);
+        long[] newTimes = grow(times, capacity);
+        long[] newPoints = grow(points, capacity);
+        long[] newEventDates = grow(eventDates, capacity);
+        int[] newLessons = grow(lessons, capacity);
+        int[] newModules = grow(modules, capacity);
+        BitSet newCorrect = (BitSet) correct.clone();
+
+        Dictionary lessonDictionary = new Dictionary(lessonNames, lessonIndex);
+        Dictionary moduleDictionary = new Dictionary(moduleNames, moduleIndex);
+
+        int row = size;
+        long newMaxEventID = maxEventID;
+        for (ByDesignEventSummary event : events) {
+            newAuthors[row] = event.author;
+            newTimes[row] = event.time;
+            newPoints[row] = event.points;
+            newEventDates[row] =
+                    event.eventDate == null ? 0 : event.eventDate.getTime();
+            newLessons[row] = lessonDictionary.add(event.lesson, row);
+            newModules[row] = moduleDictionary.add(event.module, row);
+            if (event.correct) {
+                newCorrect.set(row);
+            }
+
+            newMaxEventID = event.id;
+            row++;
+        }
+
+        return new EventColumns(newSize, newMaxEventID, newAuthors, newTimes,
+                newPoints, newEventDates, newLessons, newModules, newCorrect,
+                lessonDictionary.names, moduleDictionary.names,
+                lessonDictionary.index, moduleDictionary.index);
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Returns the array itself if it has the requested capacity,
+     * otherwise a larger copy of it.</p>
+     *
+     * @param array A column array.
+     * @param capacity The requested capacity.
+     *
+     * @return An array with at least the requested capacity.
+     */
+    private static long[] grow(long[] array, int capacity) {
+        return array.length >= capacity ? array : Arrays.copyOf(array, capacity);
+    }
+
+    /**
+     * <p>Returns the array itself if it has the requested capacity,
+     * otherwise a larger copy of it.</p>
+     *
+     * @param array A column array.
+     * @param capacity The requested capacity.
+     *
+     * @return An array with at least the requested capacity.
+     */
+    private static int[] grow(int[] array, int capacity) {
+        return array.length >= capacity ? array : Arrays.copyOf(array, capacity);
+    }
+
+    // ===========================================================
+    // Dictionary
+    // ===========================================================
+
+    /**
+     * <p>A mutable copy of a dictionary encoded column and its bitmap index
+     * that is used while appending events. A bitmap is only copied the first
+     * time a new event is added to it.</p>
+     */
+    private static final class Dictionary {
+
+        /** <p>Names indexed by their dictionary code.</p> */
+        final List<String> names;
+
+        /** <p>Bitmap index with the events for each code.</p> */
+        final List<BitSet> index;
+
+        /** <p>Maps each name to its dictionary code.</p> */
+        private final Map<String, Integer> myCodes;
+
+        /** <p>The codes whose bitmaps have already been copied.</p> */
+        private final BitSet myCopied;
+
+        /**
+         * <p>Creates a copy of a dictionary.</p>
+         *
+         * @param names Names indexed by their dictionary code.
+         * @param index Bitmap index with the events for each code.
+         */
+        Dictionary(List<String> names, List<BitSet> index) {
+            this.names = new ArrayList<>(names);
+            this.index = new ArrayList<>(index);
+            myCodes = new HashMap<>(names.size() * 2);
+            for (int i = 0; i < names.size(); i++) {
+                myCodes.put(names.get(i), i);
+            }
+            myCopied = new BitSet();
+        }
+
+        /**
+         * <p>Adds an event to the dictionary.</p>
+         *
+         * @param name The lesson or module name ({@code null} is stored
+         *             as the empty name).
+         * @param row The row of the event.
+         *
+         * @return The dictionary code for the name.
+         */
+        int add(String name, int row) {
+            String key = name == null ? "" : name;
+            Integer code = myCodes.get(key);
+            if (code == null) {
+                code = names.size();
+                names.add(key);
+                index.add(new BitSet());
+                myCodes.put(key, code);
+                myCopied.set(code);
+            }
+            else if (!myCopied.get(code)) {
+                index.set(code, (BitSet) index.get(code).clone());
+                myCopied.set(code);
+            }
+
+            index.get(code).set(row);
+
+            return code;
+        }
+    }
+
+}
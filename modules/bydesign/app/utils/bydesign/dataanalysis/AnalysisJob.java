@@ -0,0 +1,168 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.dataanalysis;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>This class tracks a background job that retrieves the {@code byDesign}
+ * events for an uploaded list of user IDs. Jobs are identified by the
+ * {@link RosterCache} key of the IDs, so identical uploads share a job.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class AnalysisJob {
+
+    // ===========================================================
+    // Job States
+    // ===========================================================
+
+    /**
+     * <p>The states a job goes through.</p>
+     */
+    public enum State {
+
+        /** <p>Waiting for a worker.</p> */
+        QUEUED,
+
+        /** <p>Retrieving the events.</p> */
+        RUNNING,
+
+        /** <p>The events have been retrieved.</p> */
+        DONE,
+
+        /** <p>An error occurred while retrieving the events.</p> */
+        FAILED
+
+    }
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>The key for the list of user IDs.</p> */
+    public final String key;
+
+    /** <p>Number of chunks (and queries) needed to retrieve the events.</p> */
+    public final int totalChunks;
+
+    /** <p>Number of chunks that have been retrieved.</p> */
+    private final AtomicInteger myCompletedChunks;
+
+    /** <p>The current state.</p> */
+    private volatile State myState;
+
+    /** <p>The events and statistics once the job is done.</p> */
+    private volatile EventsLoadResult myResult;
+
+    /** <p>The date the job finished (or {@code null}).</p> */
+    private volatile Date myFinishedDate;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Creates a queued job.</p>
+     *
+     * @param key The key for the list of user IDs.
+     * @param totalChunks Number of chunks needed to retrieve the events.
+     */
+    AnalysisJob(String key, int totalChunks) {
+        this.key = key;
+        this.totalChunks = totalChunks;
+        myCompletedChunks = new AtomicInteger();
+        myState = State.QUEUED;
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Returns the number of chunks that have been retrieved.</p>
+     *
+     * @return A number between {@code 0} and {@code totalChunks}.
+     */
+    public final int getCompletedChunks() {
+        return myCompletedChunks.get();
+    }
+
+    /**
+     * <p>Returns the date the job finished.</p>
+     *
+     * @return A {@link Date} or {@code null} if the job has not finished.
+     */
+    public final Date getFinishedDate() {
+        return myFinishedDate;
+    }
+
+    /**
+     * <p>Returns the events and statistics.</p>
+     *
+     * @return An {@link EventsLoadResult} or {@code null} if the job is
+     * not done.
+     */
+    public final EventsLoadResult getResult() {
+        return myResult;
+    }
+
+    /**
+     * <p>Returns the current state.</p>
+     *
+     * @return A {@link State}.
+     */
+    public final State getState() {
+        return myState;
+    }
+
+    // ===========================================================
+    // Package Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Records that another chunk has been retrieved.</p>
+     */
+    final void chunkCompleted() {
+        myCompletedChunks.incrementAndGet();
+    }
+
+    /**
+     * <p>Records that the job has failed.</p>
+     */
+    final void failed() {
+        myFinishedDate = new Date();
+        myState = State.FAILED;
+    }
+
+    /**
+     * <p>Records that the job is done.</p>
+     *
+     * @param result The events and statistics.
+     */
+    final void finished(EventsLoadResult result) {
+        myResult = result;
+        myFinishedDate = new Date();
+        myState = State.DONE;
+    }
+
+    /**
+     * <p>Records that a worker has started the job.</p>
+     */
+    final void started() {
+        myState = State.RUNNING;
+    }
+
+}
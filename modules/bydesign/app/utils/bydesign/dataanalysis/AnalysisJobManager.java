@@ -0,0 +1,211 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.dataanalysis;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import play.Configuration;
+import play.Logger;
+import play.cache.CacheApi;
+import play.inject.ApplicationLifecycle;
+
+/**
+ * <p>This class runs {@link AnalysisJob AnalysisJobs} on a bounded pool of
+ * worker threads, so uploads can return right away instead of retrieving
+ * all the events inside the request.</p>
+ *
+ * <p>Jobs are keyed by the {@link RosterCache} key of the uploaded IDs.
+ * Identical uploads that arrive while a job is queued or running share that
+ * job, and finished jobs are cached so a re-upload is served without
+ * querying the database again.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class AnalysisJobManager {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Prefix for all the cache keys used by this class.</p> */
+    private static final String CACHE_PREFIX = "bydesign.analysis.";
+
+    /** <p>Default number of jobs that can run at the same time.</p> */
+    private static final int DEFAULT_NUM_WORKERS = 2;
+
+    /** <p>Default number of jobs that can wait for a worker.</p> */
+    private static final int DEFAULT_QUEUE_SIZE = 16;
+
+    /** <p>Default number of seconds a finished job stays in the cache.</p> */
+    private static final int DEFAULT_RESULT_EXPIRATION = 10 * 60;
+
+    /** <p>Number of seconds a finished job stays in the cache.</p> */
+    private final int myResultExpiration;
+
+    /** <p>Bulk loader for {@code byDesign} events</p> */
+    private final ByDesignEventLoader myEventLoader;
+
+    /** <p>Cache to store the finished jobs</p> */
+    private final CacheApi myCache;
+
+    /** <p>The jobs that are queued or running.</p> */
+    private final ConcurrentMap<String, AnalysisJob> myActiveJobs;
+
+    /** <p>The worker threads.</p> */
+    private final ThreadPoolExecutor myWorkers;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates the manager for the data analysis jobs.</p>
+     *
+     * @param configuration Class that retrieves configurations.
+     * @param eventLoader Bulk loader for {@code byDesign} events.
+     * @param cache Cache to store the finished jobs.
+     * @param lifecycle Application lifecycle.
+     */
+    @Inject
+    public AnalysisJobManager(Configuration configuration,
+            ByDesignEventLoader eventLoader, CacheApi cache,
+            ApplicationLifecycle lifecycle) {
+        int numWorkers =
+                Math.max(1, configuration.getInt(
+                        "bydesign.dataanalysis.jobWorkers",
+                        DEFAULT_NUM_WORKERS));
+        int queueSize =
+                Math.max(1, configuration.getInt(
+                        "bydesign.dataanalysis.jobQueueSize",
+                        DEFAULT_QUEUE_SIZE));
+        myResultExpiration =
+                configuration.getInt(
+                        "bydesign.dataanalysis.jobResultExpiration",
+                        DEFAULT_RESULT_EXPIRATION);
+        myEventLoader = eventLoader;
+        myCache = cache;
+        myActiveJobs = new ConcurrentHashMap<>();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        myWorkers =
+                new ThreadPoolExecutor(numWorkers, numWorkers, 0L,
+                        TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(
+                                queueSize), r -> {
+                            Thread thread = new Thread(r, "bydesign-analysis-"
+                                    + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+
+        lifecycle.addStopHook(() -> {
+            myWorkers.shutdownNow();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Finds the job for the specified list of user IDs.</p>
+     *
+     * @param key The key for the list of user IDs.
+     *
+     * @return The queued, running or recently finished {@link AnalysisJob},
+     * or {@code null} if there isn't one.
+     */
+    public final AnalysisJob getJob(String key) {
+        AnalysisJob job = myActiveJobs.get(key);
+        if (job == null) {
+            job = myCache.get(CACHE_PREFIX + key);
+        }
+
+        return job;
+    }
+
+    /**
+     * <p>Returns the job for the specified list of user IDs, submitting a
+     * new one unless an identical job is already queued, running or has
+     * finished successfully.</p>
+     *
+     * @param key The key for the list of user IDs.
+     * @param ids The unique user IDs.
+     *
+     * @return An {@link AnalysisJob}.
+     *
+     * @throws RejectedExecutionException This exception is thrown when
+     * too many jobs are waiting for a worker.
+     */
+    public final AnalysisJob submit(String key, long[] ids) {
+        AnalysisJob finishedJob = myCache.get(CACHE_PREFIX + key);
+        if (finishedJob != null
+                && finishedJob.getState() == AnalysisJob.State.DONE) {
+            return finishedJob;
+        }
+
+        AnalysisJob newJob =
+                new AnalysisJob(key, myEventLoader.getNumChunks(ids.length));
+        AnalysisJob job = myActiveJobs.putIfAbsent(key, newJob);
+        if (job == null) {
+            job = newJob;
+            try {
+                myWorkers.execute(() -> run(newJob, ids));
+            }
+            catch (RejectedExecutionException e) {
+                myActiveJobs.remove(key, newJob);
+                throw e;
+            }
+        }
+
+        return job;
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Retrieves the events for a job and moves the finished
+     * job to the cache.</p>
+     *
+     * @param job The job to run.
+     * @param ids The unique user IDs.
+     */
+    private void run(AnalysisJob job, long[] ids) {
+        job.started();
+        try {
+            job.finished(myEventLoader.loadEvents(ids, job::chunkCompleted));
+        }
+        catch (RuntimeException e) {
+            Logger.error("Failed to analyze the byDesign events for "
+                    + ids.length + " authors.", e);
+            job.failed();
+        }
+        finally {
+            myCache.set(CACHE_PREFIX + job.key, job, myResultExpiration);
+            myActiveJobs.remove(job.key, job);
+        }
+    }
+
+}
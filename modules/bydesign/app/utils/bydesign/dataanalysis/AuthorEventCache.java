@@ -0,0 +1,308 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.dataanalysis;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import models.common.database.ByDesignEvent;
+import models.common.database.ByDesignEventSummary;
+import play.Configuration;
+
+/**
+ * <p>A cache of the {@code byDesign} event summaries for each author. Since
+ * events are only ever appended, each entry remembers the largest event ID
+ * it contains, and refreshing an entry only retrieves the events with
+ * larger IDs.</p>
+ *
+ * <p>Events are not always committed in ID order, since several batches can
+ * be written at the same time. A refresh therefore also retrieves the last
+ * {@code authorCacheRefreshWindow} event IDs below the largest one we have,
+ * and adds the ones that are missing. An entry that was retrieved in full
+ * more than {@code authorCacheMaxAge} seconds ago is retrieved in full again,
+ * which picks up anything older than that.</p>
+ *
+ * <p>The cache is bounded by the total number of events it holds. The least
+ * recently used authors are evicted first.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class AuthorEventCache {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Default maximum number of events held by the cache.</p> */
+    private static final long DEFAULT_MAX_EVENTS = 1000000;
+
+    /** <p>Default number of event IDs retrieved again by a refresh.</p> */
+    private static final long DEFAULT_REFRESH_WINDOW = 10000;
+
+    /** <p>Default number of seconds before an entry is retrieved in full.</p> */
+    private static final long DEFAULT_MAX_AGE = 600;
+
+    /** <p>The cached events for each author.</p> */
+    private final Cache<Long, AuthorEvents> myCache;
+
+    /** <p>Number of event IDs retrieved again by a refresh.</p> */
+    private final long myRefreshWindow;
+
+    /** <p>Number of nanoseconds before an entry is retrieved in full.</p> */
+    private final long myMaxAgeNanos;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates the cache of events for each author.</p>
+     *
+     * @param configuration Class that retrieves configurations.
+     */
+    @Inject
+    public AuthorEventCache(Configuration configuration) {
+        long maxEvents =
+                configuration.getLong(
+                        "bydesign.dataanalysis.authorCacheMaxEvents",
+                        DEFAULT_MAX_EVENTS);
+        myRefreshWindow =
+                Math.max(0, configuration.getLong(
+                        "bydesign.dataanalysis.authorCacheRefreshWindow",
+                        DEFAULT_REFRESH_WINDOW));
+        myMaxAgeNanos =
+                TimeUnit.SECONDS.toNanos(Math.max(0, configuration.getLong(
+                        "bydesign.dataanalysis.authorCacheMaxAge",
+                        DEFAULT_MAX_AGE)));
+
+        // Each entry weighs one more than its number of events, so authors
+        // without any events still count against the bound.
+        myCache =
+                CacheBuilder.newBuilder().maximumWeight(maxEvents).weigher(
+                        (Long author, AuthorEvents entry) -> entry.events
+                                .size() + 1).build();
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Retrieves the events for a chunk of users. Authors that are not in
+     * the cache, or that have no events yet, are retrieved using a single
+     * query, and the other authors are refreshed using another query that
+     * only retrieves their newer events.</p>
+     *
+     * <p>This must be called inside a transaction.</p>
+     *
+     * @param authors A chunk of unique user IDs.
+     *
+     * @return An {@link EventsChunk} with the events in the order the
+     * IDs were provided.
+     */
+    public final EventsChunk load(List<Long> authors) {
+        // Split the authors into the ones we need to retrieve in full
+        // and the ones we only need to refresh.
+        long now = System.nanoTime();
+        List<Long> fullAuthors = new ArrayList<>();
+        Map<Long, Long> afterIDs = new LinkedHashMap<>();
+        for (Long author : authors) {
+            AuthorEvents entry = myCache.getIfPresent(author);
+            if (entry == null || entry.events.isEmpty()
+                    || now - entry.loadedAt > myMaxAgeNanos) {
+                fullAuthors.add(author);
+            }
+            else {
+                afterIDs.put(author, Math.max(0, entry.lastSeenID - myRefreshWindow));
+            }
+        }
+
+        // Refresh the authors we have
+        Map<Long, List<ByDesignEventSummary>> eventsMap =
+                new LinkedHashMap<>(authors.size() * 2);
+        int numQueries = 0;
+        int numIncrementalAuthors = 0;
+        if (!afterIDs.isEmpty()) {
+            Map<Long, List<ByDesignEventSummary>> newEvents =
+                    groupEvents(afterIDs.keySet(),
+                            ByDesignEvent.getUserEventSummariesAfter(afterIDs));
+            numQueries++;
+
+            // Only add to the entries that are still there. Anything
+            // evicted in the meantime is retrieved in full below.
+            for (Map.Entry<Long, List<ByDesignEventSummary>> entry : newEvents
+                    .entrySet()) {
+                AuthorEvents merged =
+                        myCache.asMap().computeIfPresent(entry.getKey(),
+                                (author, current) -> current.merge(
+                                        entry.getValue(), current.loadedAt));
+                if (merged == null) {
+                    fullAuthors.add(entry.getKey());
+                }
+                else {
+                    eventsMap.put(entry.getKey(), merged.events);
+                    numIncrementalAuthors++;
+                }
+            }
+        }
+
+        // Retrieve the authors we don't have
+        if (!fullAuthors.isEmpty()) {
+            Map<Long, List<ByDesignEventSummary>> newEvents =
+                    groupEvents(fullAuthors,
+                            ByDesignEvent.getUserEventSummaries(fullAuthors));
+            numQueries++;
+
+            for (Map.Entry<Long, List<ByDesignEventSummary>> entry : newEvents
+                    .entrySet()) {
+                AuthorEvents loaded = new AuthorEvents(entry.getValue(), now);
+                AuthorEvents merged =
+                        myCache.asMap().merge(entry.getKey(), loaded,
+                                (current, update) -> current.merge(update.events,
+                                        Math.max(current.loadedAt, update.loadedAt)));
+                eventsMap.put(entry.getKey(), merged.events);
+            }
+        }
+
+        // Return the events in the order the IDs were provided
+        Map<Long, List<ByDesignEventSummary>> orderedMap =
+                new LinkedHashMap<>(authors.size() * 2);
+        int numEvents = 0;
+        for (Long author : authors) {
+            List<ByDesignEventSummary> events = eventsMap.get(author);
+            orderedMap.put(author, events);
+            numEvents += events.size();
+        }
+
+        return new EventsChunk(orderedMap, numEvents,
+                authors.size() - numIncrementalAuthors, numIncrementalAuthors,
+                numQueries);
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Adds each event to its author's list.</p>
+     *
+     * @param authors The user IDs the events were retrieved for.
+     * @param events Events ordered by event ID.
+     *
+     * @return A map from user IDs to their events.
+     */
+    private static Map<Long, List<ByDesignEventSummary>> groupEvents(
+            Collection<Long> authors, List<ByDesignEventSummary> events) {
+        Map<Long, List<ByDesignEventSummary>> eventsMap =
+                new LinkedHashMap<>(authors.size() * 2);
+        for (Long author : authors) {
+            eventsMap.put(author, new ArrayList<>());
+        }
+        for (ByDesignEventSummary event : events) {
+            eventsMap.get(event.author).add(event);
+        }
+
+        return eventsMap;
+    }
+
+    // ===========================================================
+    // Author Events
+    // ===========================================================
+
+    /**
+     * <p>An immutable cache entry with the events for a single author.</p>
+     */
+    private static final class AuthorEvents {
+
+        /** <p>The events ordered by event ID.</p> */
+        final List<ByDesignEventSummary> events;
+
+        /** <p>The largest event ID (or {@code 0} if there are no events).</p> */
+        final long lastSeenID;
+
+        /**
+         * <p>Time (from {@link System#nanoTime()}) the events were last
+         * retrieved in full.</p>
+         */
+        final long loadedAt;
+
+        /**
+         * <p>Creates a cache entry.</p>
+         *
+         * @param events The events ordered by event ID.
+         * @param loadedAt Time the events were last retrieved in full.
+         */
+        AuthorEvents(List<ByDesignEventSummary> events, long loadedAt) {
+            this.events = Collections.unmodifiableList(events);
+            this.loadedAt = loadedAt;
+            lastSeenID = events.isEmpty() ? 0 : events.get(events.size() - 1).id;
+        }
+
+        /**
+         * <p>Creates a new entry with the events in this entry and the
+         * retrieved events. Events are never removed, so the events we
+         * already have are kept, and the ones that were retrieved again
+         * are not added twice.</p>
+         *
+         * @param retrieved The retrieved events ordered by event ID.
+         * @param loadedAt Time the events were last retrieved in full.
+         *
+         * @return The merged entry.
+         */
+        AuthorEvents merge(List<ByDesignEventSummary> retrieved, long loadedAt) {
+            List<ByDesignEventSummary> merged =
+                    new ArrayList<>(events.size() + retrieved.size());
+            int i = 0;
+            int j = 0;
+            while (i < events.size() || j < retrieved.size()) {
+                if (j == retrieved.size()) {
+                    merged.add(events.get(i++));
+                }
+                else if (i == events.size()) {
+                    merged.add(retrieved.get(j++));
+                }
+                else {
+                    long id = events.get(i).id;
+                    long retrievedID = retrieved.get(j).id;
+                    if (id < retrievedID) {
+                        merged.add(events.get(i++));
+                    }
+                    else if (id > retrievedID) {
+                        merged.add(retrieved.get(j++));
+                    }
+                    else {
+                        merged.add(retrieved.get(j++));
+                        i++;
+                    }
+                }
+            }
+
+            if (merged.size() == events.size() && loadedAt == this.loadedAt) {
+                return this;
+            }
+
+            return new AuthorEvents(merged, loadedAt);
+        }
+    }
+
+}
@@ -0,0 +1,283 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.dataanalysis;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.stream.javadsl.Source;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import models.common.database.ByDesignEventSummary;
+import play.Configuration;
+import play.Logger;
+import play.db.jpa.JPAApi;
+
+/**
+ * <p>This class retrieves the {@code byDesign} event summaries for a large
+ * number of authors by splitting the authors into chunks and issuing one
+ * {@code author in (...)} query per chunk. The chunks are executed
+ * in parallel on a bounded executor that is dedicated to database
+ * work.</p>
+ *
+ * <p>The events are retrieved through an {@link AuthorEventCache}, so
+ * authors that were retrieved recently only need their newer events.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class ByDesignEventLoader {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Default number of authors to include in a single query.</p> */
+    private static final int DEFAULT_CHUNK_SIZE = 500;
+
+    /**
+     * <p>Default number of authors to include in a single query
+     * when streaming the results.</p>
+     */
+    private static final int DEFAULT_STREAM_CHUNK_SIZE = 50;
+
+    /**
+     * <p>Default number of queries to run ahead of the consumer
+     * when streaming the results.</p>
+     */
+    private static final int DEFAULT_STREAM_PARALLELISM = 2;
+
+    /** <p>Number of authors to include in a single query.</p> */
+    private final int myChunkSize;
+
+    /**
+     * <p>Number of authors to include in a single query
+     * when streaming the results.</p>
+     */
+    private final int myStreamChunkSize;
+
+    /**
+     * <p>Number of queries to run ahead of the consumer
+     * when streaming the results.</p>
+     */
+    private final int myStreamParallelism;
+
+    /** <p>A bounded executor for running database queries.</p> */
+    private final Executor myDatabaseExecutor;
+
+    /** <p>Cache of the events for each author.</p> */
+    private final AuthorEventCache myAuthorCache;
+
+    /** <p>JPA API</p> */
+    private final JPAApi myJpaApi;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates an object that retrieves {@code byDesign} events
+     * in bulk.</p>
+     *
+     * @param actorSystem The actor system that provides the database dispatcher.
+     * @param configuration Class that retrieves configurations.
+     * @param authorCache Cache of the events for each author.
+     * @param jpaApi JPA API.
+     */
+    @Inject
+    public ByDesignEventLoader(ActorSystem actorSystem,
+            Configuration configuration, AuthorEventCache authorCache,
+            JPAApi jpaApi) {
+        myChunkSize =
+                Math.max(1, configuration.getInt(
+                        "bydesign.dataanalysis.queryChunkSize",
+                        DEFAULT_CHUNK_SIZE));
+        myStreamChunkSize =
+                Math.max(1, configuration.getInt(
+                        "bydesign.dataanalysis.streamChunkSize",
+                        DEFAULT_STREAM_CHUNK_SIZE));
+        myStreamParallelism =
+                Math.max(1, configuration.getInt(
+                        "bydesign.dataanalysis.streamParallelism",
+                        DEFAULT_STREAM_PARALLELISM));
+        myDatabaseExecutor =
+                actorSystem.dispatchers().lookup("bydesign.database-context");
+        myAuthorCache = authorCache;
+        myJpaApi = jpaApi;
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Returns the bounded executor used to run database queries.</p>
+     *
+     * @return An {@link Executor}.
+     */
+    public final Executor getDatabaseExecutor() {
+        return myDatabaseExecutor;
+    }
+
+    /**
+     * <p>Retrieves all the events we can find for each of the provided
+     * users.</p>
+     *
+     * @param ids The unique user IDs.
+     *
+     * @return An {@link EventsLoadResult} containing the events and
+     * the statistics associated with retrieving them.
+     */
+    public final EventsLoadResult loadEvents(long[] ids) {
+        return loadEvents(ids, () -> {});
+    }
+
+    /**
+     * <p>Retrieves all the events we can find for each of the provided
+     * users and reports each chunk of users as soon as it has been
+     * retrieved.</p>
+     *
+     * @param ids The unique user IDs.
+     * @param onChunkLoaded Called once for each chunk of users that has
+     *                      been retrieved. See {@link #getNumChunks(int)}.
+     *
+     * @return An {@link EventsLoadResult} containing the events and
+     * the statistics associated with retrieving them.
+     */
+    public final EventsLoadResult loadEvents(long[] ids,
+            Runnable onChunkLoaded) {
+        long startTime = System.nanoTime();
+
+        // Query each chunk of authors using the database executor.
+        List<List<Long>> chunks =
+                Lists.partition(Longs.asList(ids), myChunkSize);
+        List<CompletableFuture<EventsChunk>> futures =
+                new ArrayList<>(chunks.size());
+        for (List<Long> chunk : chunks) {
+            CompletableFuture<EventsChunk> future = loadChunk(chunk);
+            future.thenRun(onChunkLoaded);
+            futures.add(future);
+        }
+
+        // Merge the results in the order the IDs were provided.
+        Map<Long, List<ByDesignEventSummary>> eventsMap =
+                new LinkedHashMap<>(ids.length * 2);
+        int numEvents = 0;
+        int numFullAuthors = 0;
+        int numIncrementalAuthors = 0;
+        int numQueries = 0;
+        try {
+            for (CompletableFuture<EventsChunk> future : futures) {
+                EventsChunk chunk = future.join();
+                eventsMap.putAll(chunk.eventsMap);
+                numEvents += chunk.numEvents;
+                numFullAuthors += chunk.numFullAuthors;
+                numIncrementalAuthors += chunk.numIncrementalAuthors;
+                numQueries += chunk.numQueries;
+            }
+        }
+        catch (CompletionException e) {
+            // Unwrap the exception thrown by the query
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw e;
+        }
+
+        long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+        logStatistics(numEvents, eventsMap.size(), numQueries,
+                elapsedMillis);
+
+        return new EventsLoadResult(eventsMap, eventsMap.size(), numEvents,
+                numFullAuthors, numIncrementalAuthors, numQueries,
+                elapsedMillis);
+    }
+
+    /**
+     * <p>Retrieves the events for each of the provided users as a stream of
+     * chunks. Each element contains the events for up to
+     * {@code bydesign.dataanalysis.streamChunkSize} users in the order the
+     * IDs were provided. Only a bounded number of chunks are retrieved ahead
+     * of the consumer, so the memory used does not depend on the number
+     * of users.</p>
+     *
+     * @param ids The unique user IDs.
+     *
+     * @return A {@link Source} of {@link EventsChunk EventsChunks}.
+     */
+    public final Source<EventsChunk, NotUsed> streamEvents(long[] ids) {
+        return Source.from(Lists.partition(Longs.asList(ids), myStreamChunkSize))
+                .mapAsync(myStreamParallelism, this::loadChunk);
+    }
+
+    /**
+     * <p>Returns the number of chunks (and queries) used by
+     * {@link #loadEvents(long[], Runnable)} for the specified number
+     * of users.</p>
+     *
+     * @param numIDs The number of unique user IDs.
+     *
+     * @return The number of chunks.
+     */
+    public final int getNumChunks(int numIDs) {
+        return (numIDs + myChunkSize - 1) / myChunkSize;
+    }
+
+    /**
+     * <p>Logs the statistics associated with retrieving the events
+     * for an uploaded file.</p>
+     *
+     * @param numEvents Total number of events retrieved.
+     * @param numAuthors Number of users.
+     * @param numQueries Number of queries issued against the database.
+     * @param elapsedMillis Wall time spent retrieving the events.
+     */
+    public final void logStatistics(int numEvents, int numAuthors,
+            int numQueries, long elapsedMillis) {
+        Logger.info("Retrieved " + numEvents + " byDesign events for "
+                + numAuthors + " authors using " + numQueries
+                + " queries in " + elapsedMillis + " ms.");
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Retrieves the events for a chunk of users on the database executor.
+     * Users whose events are cached only need the events that were added
+     * since they were cached.</p>
+     *
+     * @param authors A chunk of unique user IDs.
+     *
+     * @return A {@link CompletableFuture} with an {@link EventsChunk}
+     * containing the events in the order the IDs were provided.
+     */
+    private CompletableFuture<EventsChunk> loadChunk(List<Long> authors) {
+        return CompletableFuture.supplyAsync(
+                () -> myJpaApi.withTransaction("default", true,
+                        () -> myAuthorCache.load(authors)), myDatabaseExecutor);
+    }
+
+}
@@ -34,7 +34,30 @@ public enum ErrorKind {
      * <p>Error 3: Error Retrieving Data from the Database.</p>
      */
     DATABASE_ERROR(2,
-            "An error occurred while retrieving data from the database.");
+            "An error occurred while retrieving data from the database."),
+
+    /**
+     * <p>Error 3: Input File Contains Too Many IDs.</p>
+     */
+    TOO_MANY_IDS(3,
+            "The input file contains more IDs than the maximum allowed."),
+
+    /**
+     * <p>Error 4: Input File Is Too Large.</p>
+     */
+    FILE_TOO_LARGE(4, "The input file exceeds the maximum file size."),
+
+    /**
+     * <p>Error 5: Too Many Analysis Jobs.</p>
+     */
+    TOO_MANY_JOBS(5,
+            "Too many files are being analyzed right now. Please try again later."),
+
+    /**
+     * <p>Error 6: Analysis Results Expired.</p>
+     */
+    RESULTS_EXPIRED(6,
+            "The analysis results have expired. Please upload the file again.");
 
     // ===========================================================
     // Global Variables
@@ -0,0 +1,78 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.dataanalysis;
+
+import java.util.List;
+import java.util.Map;
+import models.common.database.ByDesignEventSummary;
+
+/**
+ * <p>This class contains the {@code byDesign} events retrieved for a
+ * chunk of users along with how they were retrieved.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class EventsChunk {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /**
+     * <p>A map from user IDs to the summaries of their events. The iteration
+     * order matches the order of the IDs in the chunk.</p>
+     */
+    public final Map<Long, List<ByDesignEventSummary>> eventsMap;
+
+    /** <p>Total number of events in this chunk.</p> */
+    public final int numEvents;
+
+    /** <p>Number of users whose entire history was retrieved.</p> */
+    public final int numFullAuthors;
+
+    /**
+     * <p>Number of users whose cached history was extended with
+     * the events added since it was last retrieved.</p>
+     */
+    public final int numIncrementalAuthors;
+
+    /** <p>Number of queries issued against the database.</p> */
+    public final int numQueries;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Creates an object that stores the events for a chunk of users.</p>
+     *
+     * @param eventsMap A map from user IDs to their events.
+     * @param numEvents Total number of events in this chunk.
+     * @param numFullAuthors Number of users whose entire history
+     *                       was retrieved.
+     * @param numIncrementalAuthors Number of users whose cached history
+     *                              was extended.
+     * @param numQueries Number of queries issued against the database.
+     */
+    public EventsChunk(Map<Long, List<ByDesignEventSummary>> eventsMap,
+            int numEvents, int numFullAuthors, int numIncrementalAuthors,
+            int numQueries) {
+        this.eventsMap = eventsMap;
+        this.numEvents = numEvents;
+        this.numFullAuthors = numFullAuthors;
+        this.numIncrementalAuthors = numIncrementalAuthors;
+        this.numQueries = numQueries;
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.dataanalysis;
+
+import java.util.List;
+import java.util.Map;
+import models.common.database.ByDesignEventSummary;
+
+/**
+ * <p>This class contains the {@code byDesign} events retrieved for an
+ * uploaded list of user IDs along with some statistics on how
+ * they were retrieved.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class EventsLoadResult {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /**
+     * <p>A map from user IDs to the summaries of their events. The iteration
+     * order matches the order of the uploaded IDs.</p>
+     */
+    public final Map<Long, List<ByDesignEventSummary>> eventsMap;
+
+    /** <p>Number of users we retrieved events for.</p> */
+    public final int numAuthors;
+
+    /** <p>Total number of events retrieved.</p> */
+    public final int numEvents;
+
+    /** <p>Number of users whose entire history was retrieved.</p> */
+    public final int numFullAuthors;
+
+    /**
+     * <p>Number of users whose cached history was extended with
+     * the events added since it was last retrieved.</p>
+     */
+    public final int numIncrementalAuthors;
+
+    /** <p>Number of queries issued against the database.</p> */
+    public final int numQueries;
+
+    /** <p>Wall time (in milliseconds) spent retrieving the events.</p> */
+    public final long elapsedMillis;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Creates an object that stores the events and the
+     * statistics associated with retrieving them.</p>
+     *
+     * @param eventsMap A map from user IDs to their events.
+     *                  This is empty if the events were streamed.
+     * @param numAuthors Number of users we retrieved events for.
+     * @param numEvents Total number of events retrieved.
+     * @param numFullAuthors Number of users whose entire history
+     *                       was retrieved.
+     * @param numIncrementalAuthors Number of users whose cached history
+     *                              was extended.
+     * @param numQueries Number of queries issued against the database.
+     * @param elapsedMillis Wall time spent retrieving the events.
+     */
+    public EventsLoadResult(Map<Long, List<ByDesignEventSummary>> eventsMap,
+            int numAuthors, int numEvents, int numFullAuthors,
+            int numIncrementalAuthors, int numQueries, long elapsedMillis) {
+        this.eventsMap = eventsMap;
+        this.numAuthors = numAuthors;
+        this.numEvents = numEvents;
+        this.numFullAuthors = numFullAuthors;
+        this.numIncrementalAuthors = numIncrementalAuthors;
+        this.numQueries = numQueries;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Checks to see if any of the events came from the cache.</p>
+     *
+     * @return {@code true} if at least one user's cached history was
+     * extended, {@code false} if every user was retrieved in full.
+     */
+    public final boolean isIncremental() {
+        return numIncrementalAuthors > 0;
+    }
+
+}
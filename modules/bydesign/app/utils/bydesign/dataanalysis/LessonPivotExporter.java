@@ -0,0 +1,241 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.dataanalysis;
+
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import models.common.database.ByDesignEvent;
+import models.common.database.ByDesignLessonRollup;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import play.Configuration;
+import play.db.jpa.JPAApi;
+
+/**
+ * <p>This class exports the number of attempts each author made on each
+ * lesson as a CSV file with one row per author and one column per lesson.</p>
+ *
+ * <p>The file is produced as a stream. The authors are processed in chunks,
+ * one query per chunk, and each chunk of rows is formatted as soon as it
+ * has been retrieved. Only one chunk is held in memory at a time and
+ * nothing is written to disk.</p>
+ *
+ * <p>The attempts are read from the {@link ByDesignLessonRollup
+ * ByDesignLessonRollups}, one row per author and lesson. Until the rollups
+ * include every event, they are counted from the raw events instead.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class LessonPivotExporter {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Default number of authors to include in a single query.</p> */
+    private static final int DEFAULT_CHUNK_SIZE = 500;
+
+    /** <p>Number of authors to include in a single query.</p> */
+    private final int myChunkSize;
+
+    /** <p>Bulk loader that provides the database executor.</p> */
+    private final ByDesignEventLoader myEventLoader;
+
+    /** <p>JPA API</p> */
+    private final JPAApi myJpaApi;
+
+    /** <p>Job that knows whether the rollups can be read.</p> */
+    private final RollupBackfillJob myRollupBackfillJob;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates an object that exports the lesson attempts
+     * as CSV.</p>
+     *
+     * @param configuration Class that retrieves configurations.
+     * @param eventLoader Bulk loader that provides the database executor.
+     * @param jpaApi JPA API.
+     * @param rollupBackfillJob Job that knows whether the rollups
+     *                          can be read.
+     */
+    @Inject
+    public LessonPivotExporter(Configuration configuration,
+            ByDesignEventLoader eventLoader, JPAApi jpaApi,
+            RollupBackfillJob rollupBackfillJob) {
+        myChunkSize =
+                Math.max(1, configuration.getInt(
+                        "bydesign.dataanalysis.queryChunkSize",
+                        DEFAULT_CHUNK_SIZE));
+        myEventLoader = eventLoader;
+        myJpaApi = jpaApi;
+        myRollupBackfillJob = rollupBackfillJob;
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Exports the number of attempts each of the provided users made on
+     * each lesson. The first row contains {@code AuthorID} followed by the
+     * lesson names in alphabetical order. Each following row contains a user
+     * ID followed by the attempts on each lesson, in the order the IDs were
+     * provided.</p>
+     *
+     * @param ids The unique user IDs.
+     *
+     * @return A {@link Source} with the contents of the CSV file.
+     */
+    public final Source<ByteString, NotUsed> export(long[] ids) {
+        List<List<Long>> chunks =
+                Lists.partition(Longs.asList(ids), myChunkSize);
+
+        // The whole file is read from the same source, even if
+        // the rollups are rebuilt in the meantime.
+        boolean useRollups = myRollupBackfillJob.isComplete();
+
+        // The columns need to be known before we can write any rows.
+        return Source.fromCompletionStage(loadLessons(chunks, useRollups)).flatMapConcat(
+                lessons -> Source.single(formatHeader(lessons)).concat(
+                        Source.from(chunks).mapAsync(1,
+                                chunk -> loadRows(chunk, lessons, useRollups))));
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Formats the header row.</p>
+     *
+     * @param lessons The lesson names.
+     *
+     * @return The formatted row.
+     */
+    private ByteString formatHeader(List<String> lessons) {
+        List<String> header = new ArrayList<>(lessons.size() + 1);
+        header.add("AuthorID");
+        header.addAll(lessons);
+
+        StringBuilder sb = new StringBuilder();
+        try (CSVPrinter printer = new CSVPrinter(sb, CSVFormat.DEFAULT)) {
+            printer.printRecord(header);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return ByteString.fromString(sb.toString());
+    }
+
+    /**
+     * <p>Retrieves the names of all the lessons attempted by the users
+     * on the database executor.</p>
+     *
+     * @param chunks The unique user IDs split into chunks.
+     * @param useRollups {@code true} to read the rollups, {@code false}
+     *                   to read the raw events.
+     *
+     * @return A {@link CompletionStage} with the lesson names in
+     * alphabetical order.
+     */
+    private CompletionStage<List<String>> loadLessons(List<List<Long>> chunks,
+            boolean useRollups) {
+        return CompletableFuture.supplyAsync(() -> {
+            SortedSet<String> lessons = new TreeSet<>();
+            for (List<Long> chunk : chunks) {
+                lessons.addAll(myJpaApi.withTransaction("default", true,
+                        () -> useRollups ? ByDesignLessonRollup.getLessons(chunk)
+                                : ByDesignEvent.getUserLessons(chunk)));
+            }
+
+            return new ArrayList<>(lessons);
+        }, myEventLoader.getDatabaseExecutor());
+    }
+
+    /**
+     * <p>Retrieves and formats the rows for a chunk of users using a single
+     * query on the database executor.</p>
+     *
+     * @param authors A chunk of unique user IDs.
+     * @param lessons The lesson names used as columns.
+     * @param useRollups {@code true} to read the rollups, {@code false}
+     *                   to read the raw events.
+     *
+     * @return A {@link CompletionStage} with the formatted rows.
+     */
+    private CompletionStage<ByteString> loadRows(List<Long> authors,
+            List<String> lessons, boolean useRollups) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<Object[]> counts =
+                    myJpaApi.withTransaction("default", true,
+                            () -> useRollups ? ByDesignLessonRollup.getAttempts(authors)
+                                    : ByDesignEvent.getUserLessonAttempts(authors));
+
+            // Map each lesson to its column
+            Map<String, Integer> columns = new HashMap<>(lessons.size() * 2);
+            for (int i = 0; i < lessons.size(); i++) {
+                columns.put(lessons.get(i), i);
+            }
+
+            // Fill in the attempts for each author in this chunk
+            Map<Long, long[]> rows = new HashMap<>(authors.size() * 2);
+            for (Object[] count : counts) {
+                Long author = (Long) count[0];
+                Integer column = columns.get((String) count[1]);
+                if (column != null) {
+                    rows.computeIfAbsent(author, k -> new long[lessons.size()])[column] =
+                            (Long) count[2];
+                }
+            }
+
+            StringBuilder sb = new StringBuilder();
+            try (CSVPrinter printer = new CSVPrinter(sb, CSVFormat.DEFAULT)) {
+                long[] noAttempts = new long[lessons.size()];
+                for (Long author : authors) {
+                    printer.print(author);
+                    for (long attempts : rows.getOrDefault(author, noAttempts)) {
+                        printer.print(attempts);
+                    }
+                    printer.println();
+                }
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            return ByteString.fromString(sb.toString());
+        }, myEventLoader.getDatabaseExecutor());
+    }
+
+}
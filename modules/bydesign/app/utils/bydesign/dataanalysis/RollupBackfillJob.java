@@ -0,0 +1,239 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.dataanalysis;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import models.common.database.ByDesignEvent;
+import models.common.database.ByDesignLessonRollup;
+import play.Configuration;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.libs.Json;
+
+/**
+ * <p>This class rebuilds the {@link ByDesignLessonRollup ByDesignLessonRollups}
+ * from the existing {@code byDesign} events. The authors are processed in
+ * batches, each in its own transaction, so the job never holds locks on
+ * the entire event table.</p>
+ *
+ * <p>Only one backfill can run at a time. It runs on the database executor
+ * provided by {@link ByDesignEventLoader}.</p>
+ *
+ * <p>The analysis pages only read the rollups once they include every
+ * event (see {@link #isComplete()}). This is checked when the application
+ * starts, and is the case again once a backfill has finished.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class RollupBackfillJob {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Default number of authors to rebuild in a single transaction.</p> */
+    private static final int DEFAULT_BATCH_SIZE = 200;
+
+    /** <p>Number of authors to rebuild in a single transaction.</p> */
+    private final int myBatchSize;
+
+    /** <p>Bulk loader that provides the database executor.</p> */
+    private final ByDesignEventLoader myEventLoader;
+
+    /** <p>JPA API</p> */
+    private final JPAApi myJpaApi;
+
+    /** <p>Flag that indicates a backfill is currently running.</p> */
+    private final AtomicBoolean myIsRunning;
+
+    /** <p>Flag that indicates the rollups include every event.</p> */
+    private volatile boolean myIsComplete;
+
+    /** <p>Number of authors rebuilt by the current (or last) backfill.</p> */
+    private volatile long myNumAuthors;
+
+    /** <p>Number of rollups written by the current (or last) backfill.</p> */
+    private volatile long myNumRollups;
+
+    /** <p>The last author ID rebuilt by the current (or last) backfill.</p> */
+    private volatile long myLastAuthor;
+
+    /** <p>Time when the current (or last) backfill started.</p> */
+    private volatile long myStartTime;
+
+    /** <p>Time when the last backfill finished (or {@code 0}).</p> */
+    private volatile long myEndTime;
+
+    /** <p>The error that stopped the last backfill (if any).</p> */
+    private volatile String myError;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates the job that rebuilds the {@code byDesign}
+     * lesson rollups.</p>
+     *
+     * @param configuration Class that retrieves configurations.
+     * @param eventLoader Bulk loader that provides the database executor.
+     * @param jpaApi JPA API.
+     */
+    @Inject
+    public RollupBackfillJob(Configuration configuration,
+            ByDesignEventLoader eventLoader, JPAApi jpaApi) {
+        myBatchSize =
+                Math.max(1, configuration.getInt(
+                        "bydesign.dataanalysis.rollupBackfillBatchSize",
+                        DEFAULT_BATCH_SIZE));
+        myEventLoader = eventLoader;
+        myJpaApi = jpaApi;
+        myIsRunning = new AtomicBoolean(false);
+        myIsComplete = false;
+
+        // Events written before the rollups existed are
+        // missing until a backfill has been run.
+        CompletableFuture.runAsync(() -> {
+            try {
+                boolean isComplete =
+                        myJpaApi.withTransaction("default", true,
+                                ByDesignLessonRollup::coversAllEvents);
+                if (!myIsRunning.get()) {
+                    myIsComplete = isComplete;
+                }
+                if (!isComplete) {
+                    Logger.warn("The byDesign lesson rollups do not include every event. "
+                            + "The analysis pages read the raw events until the rollups "
+                            + "have been rebuilt from the admin pages.");
+                }
+            }
+            catch (RuntimeException e) {
+                Logger.error("Failed to check the byDesign lesson rollups.", e);
+            }
+        }, myEventLoader.getDatabaseExecutor());
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Returns the progress of the current (or last) backfill.</p>
+     *
+     * @return A JSON object with the progress.
+     */
+    public final ObjectNode getStatus() {
+        ObjectNode status = Json.newObject();
+        status.put("running", myIsRunning.get());
+        status.put("complete", myIsComplete);
+        status.put("authors", myNumAuthors);
+        status.put("rollups", myNumRollups);
+        status.put("lastAuthor", myLastAuthor);
+        status.put("startTime", myStartTime);
+        status.put("endTime", myEndTime);
+        status.put("error", myError);
+
+        return status;
+    }
+
+    /**
+     * <p>Checks to see if the rollups include every event and can be
+     * read instead of the raw events.</p>
+     *
+     * @return {@code true} if they do, {@code false} otherwise.
+     */
+    public final boolean isComplete() {
+        return myIsComplete;
+    }
+
+    /**
+     * <p>Starts rebuilding all the rollups unless a backfill is
+     * already running.</p>
+     *
+     * @return {@code true} if a new backfill was started,
+     * {@code false} otherwise.
+     */
+    public final boolean start() {
+        if (!myIsRunning.compareAndSet(false, true)) {
+            return false;
+        }
+
+        myIsComplete = false;
+        myNumAuthors = 0;
+        myNumRollups = 0;
+        myLastAuthor = 0;
+        myStartTime = System.currentTimeMillis();
+        myEndTime = 0;
+        myError = null;
+
+        CompletableFuture.runAsync(this::run,
+                myEventLoader.getDatabaseExecutor());
+
+        return true;
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Rebuilds the rollups one batch of authors at a time.</p>
+     */
+    private void run() {
+        try {
+            long lastAuthor = Long.MIN_VALUE;
+            while (true) {
+                long afterAuthor = lastAuthor;
+                List<Long> authors =
+                        myJpaApi.withTransaction("default", true,
+                                () -> ByDesignEvent.getAuthorsAfter(
+                                        afterAuthor, myBatchSize));
+                if (authors.isEmpty()) {
+                    break;
+                }
+
+                long fromAuthor = authors.get(0);
+                long toAuthor = authors.get(authors.size() - 1);
+                int numRollups =
+                        myJpaApi.withTransaction(() -> ByDesignLessonRollup
+                                .rebuildAuthors(fromAuthor, toAuthor));
+
+                lastAuthor = toAuthor;
+                myLastAuthor = toAuthor;
+                myNumAuthors += authors.size();
+                myNumRollups += numRollups;
+            }
+
+            myIsComplete = true;
+            Logger.info("Rebuilt " + myNumRollups
+                    + " byDesign lesson rollups for " + myNumAuthors
+                    + " authors.");
+        }
+        catch (RuntimeException e) {
+            myError = e.getMessage();
+            Logger.error("Failed to rebuild the byDesign lesson rollups.", e);
+        }
+        finally {
+            myEndTime = System.currentTimeMillis();
+            myIsRunning.set(false);
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.dataanalysis;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import models.common.database.ByDesignLessonRollup;
+import play.Configuration;
+import play.db.jpa.JPAApi;
+import utils.bydesign.analytics.AnalyticsQuery;
+import utils.bydesign.analytics.AnalyticsResult;
+
+/**
+ * <p>This class answers the per-author and per-lesson summaries from the
+ * {@link ByDesignLessonRollup ByDesignLessonRollups}, so they only read
+ * one row per author and lesson instead of every event. The rollups have
+ * no module, correct flag or date for each event, so summaries filtered
+ * by those are left to the analytics engine.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class RollupSummaries {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Default number of authors to include in a single query.</p> */
+    private static final int DEFAULT_CHUNK_SIZE = 500;
+
+    /** <p>Number of authors to include in a single query.</p> */
+    private final int myChunkSize;
+
+    /** <p>JPA API</p> */
+    private final JPAApi myJpaApi;
+
+    /** <p>Job that knows whether the rollups can be read.</p> */
+    private final RollupBackfillJob myRollupBackfillJob;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates an object that summarizes the lesson rollups.</p>
+     *
+     * @param configuration Class that retrieves configurations.
+     * @param jpaApi JPA API.
+     * @param rollupBackfillJob Job that knows whether the rollups
+     *                          can be read.
+     */
+    @Inject
+    public RollupSummaries(Configuration configuration, JPAApi jpaApi,
+            RollupBackfillJob rollupBackfillJob) {
+        myChunkSize =
+                Math.max(1, configuration.getInt(
+                        "bydesign.dataanalysis.queryChunkSize",
+                        DEFAULT_CHUNK_SIZE));
+        myJpaApi = jpaApi;
+        myRollupBackfillJob = rollupBackfillJob;
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Checks to see if a query can be answered from the rollups.</p>
+     *
+     * @param query The filters and grouping.
+     *
+     * @return {@code true} if it can, {@code false} otherwise.
+     */
+    public final boolean canAnswer(AnalyticsQuery query) {
+        return query.groupBy != AnalyticsQuery.GroupBy.MODULE
+                && query.module == null && query.correct == null
+                && query.from <= 0 && query.to <= 0
+                && myRollupBackfillJob.isComplete();
+    }
+
+    /**
+     * <p>Adds up the rollups for each author or lesson. This should only
+     * be called if {@link #canAnswer(AnalyticsQuery)} returns
+     * {@code true}.</p>
+     *
+     * @param query The filters and grouping.
+     *
+     * @return The groups ordered by key. The number of events is the
+     * number of attempts in the groups.
+     */
+    public final AnalyticsResult query(AnalyticsQuery query) {
+        long startTime = System.nanoTime();
+        boolean byLesson = query.groupBy == AnalyticsQuery.GroupBy.LESSON;
+
+        // A lesson can show up in several chunks of authors
+        List<List<Long>> chunks =
+                query.authors == null ? Collections.singletonList(null)
+                        : Lists.partition(Longs.asList(query.authors), myChunkSize);
+        Map<String, long[]> totals = new TreeMap<>();
+        for (List<Long> chunk : chunks) {
+            List<Object[]> rows =
+                    myJpaApi.withTransaction("default", true,
+                            () -> ByDesignLessonRollup.getTotals(chunk,
+                                    query.lesson, byLesson));
+            for (Object[] row : rows) {
+                long[] values =
+                        totals.computeIfAbsent(String.valueOf(row[0]),
+                                k -> new long[4]);
+                for (int i = 0; i < values.length; i++) {
+                    values[i] += ((Number) row[i + 1]).longValue();
+                }
+            }
+        }
+
+        List<AnalyticsResult.Group> groups = new ArrayList<>(totals.size());
+        long numMatched = 0;
+        for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+            long[] values = entry.getValue();
+            groups.add(new AnalyticsResult.Group(entry.getKey(), values[0],
+                    values[1], values[2], values[3]));
+            numMatched += values[0];
+        }
+
+        return new AnalyticsResult(groups, numMatched, numMatched,
+                (System.nanoTime() - startTime) / 1000000);
+    }
+
+}
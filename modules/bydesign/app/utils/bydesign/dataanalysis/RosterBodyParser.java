@@ -0,0 +1,117 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.dataanalysis;
+
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.util.ByteString;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import javax.inject.Inject;
+import play.Configuration;
+import play.core.parsers.Multipart;
+import play.libs.streams.Accumulator;
+import play.mvc.BodyParser;
+import play.mvc.Http.MultipartFormData.FilePart;
+
+/**
+ * <p>A multipart form data {@link BodyParser} that parses uploaded CSV files
+ * containing {@code byDesign} user IDs while the bytes arrive. The file
+ * is never written to a temporary file, and files that are too large,
+ * contain too many rows or are malformed are rejected as soon as
+ * the problem is detected.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class RosterBodyParser
+        extends
+            BodyParser.DelegatingMultipartFormDataBodyParser<RosterFile> {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Default maximum size (in bytes) for the entire request body.</p> */
+    private static final long DEFAULT_MAX_BODY_SIZE = 16L * 1024 * 1024;
+
+    /** <p>Default maximum size (in bytes) for an uploaded file.</p> */
+    private static final long DEFAULT_MAX_FILE_SIZE = 8L * 1024 * 1024;
+
+    /** <p>Default maximum number of rows in an uploaded file.</p> */
+    private static final int DEFAULT_MAX_ROWS = 100000;
+
+    /** <p>Maximum size (in bytes) for an uploaded file.</p> */
+    private final long myMaxFileSize;
+
+    /** <p>Maximum number of rows in an uploaded file.</p> */
+    private final int myMaxRows;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates a body parser for uploaded CSV files containing
+     * user IDs.</p>
+     *
+     * @param materializer The stream materializer.
+     * @param configuration Class that retrieves configurations.
+     */
+    @Inject
+    public RosterBodyParser(Materializer materializer,
+            Configuration configuration) {
+        super(materializer, configuration.getLong(
+                "bydesign.dataanalysis.maxUploadBodySize",
+                DEFAULT_MAX_BODY_SIZE));
+        myMaxFileSize =
+                configuration.getLong("bydesign.dataanalysis.maxUploadFileSize",
+                        DEFAULT_MAX_FILE_SIZE);
+        myMaxRows =
+                configuration.getInt("bydesign.dataanalysis.maxUploadRows",
+                        DEFAULT_MAX_ROWS);
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Creates the handler that parses the bytes of each file part.</p>
+     *
+     * @return A function that creates an {@link Accumulator} for each file part.
+     */
+    @Override
+    public final Function<Multipart.FileInfo, Accumulator<ByteString, FilePart<RosterFile>>> createFilePartHandler() {
+        return (Multipart.FileInfo fileInfo) -> {
+            String partName = fileInfo.partName();
+            String fileName = fileInfo.fileName();
+            String contentType =
+                    fileInfo.contentType().isDefined() ? fileInfo
+                            .contentType().get() : null;
+
+            // Feed each chunk to the parser as it arrives and
+            // form the file part once the part has been completely received.
+            Sink<ByteString, CompletionStage<RosterIDParser>> parserSink =
+                    Sink.fold(new RosterIDParser(myMaxRows, myMaxFileSize),
+                            (parser, bytes) -> parser.feed(bytes));
+
+            return Accumulator.fromSink(parserSink.mapMaterializedValue(
+                    parserStage -> parserStage.thenApply(
+                            parser -> new FilePart<>(partName, fileName,
+                                    contentType, parser.finish(fileName,
+                                            contentType)))));
+        };
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.dataanalysis;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import play.cache.CacheApi;
+
+/**
+ * <p>This class stores the uploaded lists of {@code byDesign} user IDs in the
+ * cache, so later requests (such as retrieving another page of events) can
+ * refer to a list using a short key instead of sending all the IDs again.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class RosterCache {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Prefix for all the cache keys used by this class.</p> */
+    private static final String CACHE_PREFIX = "bydesign.roster.";
+
+    /** <p>Number of seconds a list of IDs stays in the cache.</p> */
+    private static final int EXPIRATION = 60 * 60;
+
+    /** <p>Cache to store the lists of IDs</p> */
+    @Inject
+    private CacheApi myCache;
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Computes the key for a list of IDs. The key only depends on the set
+     * of IDs, so it does not change if the IDs are reordered.</p>
+     *
+     * @param ids The unique user IDs.
+     *
+     * @return A SHA-256 hash of the sorted IDs in hex format.
+     */
+    public static String computeKey(long[] ids) {
+        long[] sortedIDs = Arrays.copyOf(ids, ids.length);
+        Arrays.sort(sortedIDs);
+
+        StringBuilder sb = new StringBuilder();
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+            for (long id : sortedIDs) {
+                buffer.clear();
+                buffer.putLong(id);
+                md.update(buffer.array());
+            }
+
+            // Convert the bytes to hex format
+            for (byte b : md.digest()) {
+                sb.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+            }
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * <p>Retrieves a list of IDs from the cache.</p>
+     *
+     * @param key The key returned by {@link #store(long[])}.
+     *
+     * @return The unique user IDs or {@code null} if they are no longer
+     * in the cache.
+     */
+    public final long[] get(String key) {
+        return myCache.get(CACHE_PREFIX + key);
+    }
+
+    /**
+     * <p>Stores a list of IDs in the cache.</p>
+     *
+     * @param ids The unique user IDs.
+     *
+     * @return The key for the list of IDs.
+     */
+    public final String store(long[] ids) {
+        String key = computeKey(ids);
+        myCache.set(CACHE_PREFIX + key, ids, EXPIRATION);
+
+        return key;
+    }
+
+}
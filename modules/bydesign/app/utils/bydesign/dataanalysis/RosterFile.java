@@ -0,0 +1,75 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.dataanalysis;
+
+/**
+ * <p>This class contains the result of parsing an uploaded CSV file
+ * containing {@code byDesign} user IDs.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class RosterFile {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Name of the uploaded file.</p> */
+    public final String fileName;
+
+    /** <p>Content type of the uploaded file.</p> */
+    public final String contentType;
+
+    /**
+     * <p>The unique user IDs in the order they first appeared
+     * in the file.</p>
+     */
+    public final long[] ids;
+
+    /** <p>Number of non-empty rows in the file.</p> */
+    public final int numRows;
+
+    /** <p>Number of bytes received.</p> */
+    public final long numBytes;
+
+    /** <p>The error detected while parsing the file (if any).</p> */
+    public final ErrorKind error;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Creates an object that stores the result of parsing
+     * an uploaded file.</p>
+     *
+     * @param fileName Name of the uploaded file.
+     * @param contentType Content type of the uploaded file.
+     * @param ids The unique user IDs.
+     * @param numRows Number of non-empty rows in the file.
+     * @param numBytes Number of bytes received.
+     * @param error The error detected while parsing the file
+     *              or {@code null}.
+     */
+    public RosterFile(String fileName, String contentType, long[] ids,
+            int numRows, long numBytes, ErrorKind error) {
+        this.fileName = fileName;
+        this.contentType = contentType;
+        this.ids = ids;
+        this.numRows = numRows;
+        this.numBytes = numBytes;
+        this.error = error;
+    }
+
+}
@@ -0,0 +1,319 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.dataanalysis;
+
+import akka.util.ByteIterator;
+import akka.util.ByteString;
+import java.util.Arrays;
+
+/**
+ * <p>An incremental parser for CSV files (RFC4180) that contain a single
+ * column of {@code byDesign} user IDs. Bytes are fed to the parser as they
+ * arrive, so the file never needs to be buffered in memory or on disk.</p>
+ *
+ * <p>The IDs are collected in a primitive {@code long} array. Duplicate IDs
+ * are dropped, but the order in which the IDs first appear is preserved.
+ * Once an error is detected, all remaining input is ignored.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class RosterIDParser {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Maximum number of rows allowed in the file.</p> */
+    private final int myMaxRows;
+
+    /** <p>Maximum number of bytes allowed in the file.</p> */
+    private final long myMaxBytes;
+
+    /** <p>The error detected while parsing (if any).</p> */
+    private ErrorKind myError;
+
+    /** <p>Number of bytes we have received so far.</p> */
+    private long myNumBytes;
+
+    /** <p>Number of non-empty rows we have parsed so far.</p> */
+    private int myNumRows;
+
+    /** <p>The unique IDs in the order they first appeared.</p> */
+    private long[] myIDs;
+
+    /** <p>Number of unique IDs stored in {@code myIDs}.</p> */
+    private int myNumIDs;
+
+    /**
+     * <p>An open addressing hash set used to detect duplicate IDs. Each slot
+     * stores an index into {@code myIDs} plus one, so {@code 0} marks an
+     * empty slot.</p>
+     */
+    private int[] myIDSlots;
+
+    /** <p>The value of the ID we are currently parsing.</p> */
+    private long myCurrentValue;
+
+    /** <p>Number of digits seen for the ID we are currently parsing.</p> */
+    private int myCurrentDigits;
+
+    /** <p>Flag that indicates we are inside a quoted field.</p> */
+    private boolean myInQuotes;
+
+    /** <p>Flag that indicates the current field was quoted.</p> */
+    private boolean myWasQuoted;
+
+    /** <p>Flag that indicates the last character was a carriage return.</p> */
+    private boolean myAfterCarriageReturn;
+
+    /** <p>Number of leading byte order mark bytes matched so far.</p> */
+    private int myBOMPosition;
+
+    /** <p>The UTF-8 byte order mark that some spreadsheet programs add.</p> */
+    private static final byte[] UTF8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Creates a parser for a CSV file containing user IDs.</p>
+     *
+     * @param maxRows Maximum number of rows allowed in the file.
+     * @param maxBytes Maximum number of bytes allowed in the file.
+     */
+    public RosterIDParser(int maxRows, long maxBytes) {
+        myMaxRows = maxRows;
+        myMaxBytes = maxBytes;
+        myIDs = new long[64];
+        myIDSlots = new int[128];
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Parses the next chunk of bytes from the file.</p>
+     *
+     * @param bytes The next chunk of bytes.
+     *
+     * @return This parser.
+     */
+    public final RosterIDParser feed(ByteString bytes) {
+        if (myError != null) {
+            return this;
+        }
+
+        myNumBytes += bytes.length();
+        if (myNumBytes > myMaxBytes) {
+            myError = ErrorKind.FILE_TOO_LARGE;
+            return this;
+        }
+
+        ByteIterator iterator = bytes.iterator();
+        while (iterator.hasNext() && myError == null) {
+            parseByte(iterator.getByte());
+        }
+
+        return this;
+    }
+
+    /**
+     * <p>Completes the parsing of the file and returns the IDs we have
+     * found.</p>
+     *
+     * @param fileName The name of the uploaded file.
+     * @param contentType The content type of the uploaded file.
+     *
+     * @return A {@link RosterFile} with the IDs or the error we have detected.
+     */
+    public final RosterFile finish(String fileName, String contentType) {
+        if (myError == null) {
+            if (myInQuotes) {
+                // The file ended inside a quoted field
+                myError = ErrorKind.INVALID_INPUT_FILE;
+            }
+            else {
+                endRecord();
+            }
+        }
+
+        long[] ids = myError == null ? Arrays.copyOf(myIDs, myNumIDs) : new long[0];
+
+        return new RosterFile(fileName, contentType, ids, myNumRows,
+                myNumBytes, myError);
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Adds the ID we have just parsed unless we have seen it before.</p>
+     *
+     * @param id A user ID.
+     */
+    private void addID(long id) {
+        int mask = myIDSlots.length - 1;
+        int slot = hash(id) & mask;
+        while (myIDSlots[slot] != 0) {
+            if (myIDs[myIDSlots[slot] - 1] == id) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (myNumIDs == myIDs.length) {
+            myIDs = Arrays.copyOf(myIDs, myIDs.length * 2);
+        }
+        myIDs[myNumIDs++] = id;
+        myIDSlots[slot] = myNumIDs;
+
+        // Keep the load factor of the hash set under 50%
+        if (myNumIDs * 2 > myIDSlots.length) {
+            rehash();
+        }
+    }
+
+    /**
+     * <p>Handles the end of a record (line).</p>
+     */
+    private void endRecord() {
+        if (myCurrentDigits == 0) {
+            // Ignore blank lines, but an empty quoted field is not an ID.
+            if (myWasQuoted) {
+                myError = ErrorKind.INVALID_INPUT_FILE;
+            }
+        }
+        else if (++myNumRows > myMaxRows) {
+            myError = ErrorKind.TOO_MANY_IDS;
+        }
+        else {
+            addID(myCurrentValue);
+        }
+
+        myCurrentValue = 0;
+        myCurrentDigits = 0;
+        myWasQuoted = false;
+    }
+
+    /**
+     * <p>Mixes the bits of an ID before using it as a hash code.</p>
+     *
+     * @param id A user ID.
+     *
+     * @return A hash code.
+     */
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * <p>Parses the next byte in the file.</p>
+     *
+     * @param b The next byte.
+     */
+    private void parseByte(byte b) {
+        // Skip the byte order mark at the start of the file
+        if (myBOMPosition < UTF8_BOM.length && myNumRows == 0
+                && myCurrentDigits == 0 && !myWasQuoted) {
+            if (b == UTF8_BOM[myBOMPosition]) {
+                myBOMPosition++;
+                return;
+            }
+            else if (myBOMPosition > 0) {
+                myError = ErrorKind.INVALID_INPUT_FILE;
+                return;
+            }
+            myBOMPosition = UTF8_BOM.length;
+        }
+
+        // A line feed following a carriage return is part of the same line break
+        boolean afterCarriageReturn = myAfterCarriageReturn;
+        myAfterCarriageReturn = false;
+
+        if (myInQuotes) {
+            if (b == '"') {
+                myInQuotes = false;
+            }
+            else {
+                parseDigit(b);
+            }
+        }
+        else if (b == '\n') {
+            if (!afterCarriageReturn) {
+                endRecord();
+            }
+        }
+        else if (b == '\r') {
+            endRecord();
+            myAfterCarriageReturn = true;
+        }
+        else if (b == '"' && myCurrentDigits == 0 && !myWasQuoted) {
+            myInQuotes = true;
+            myWasQuoted = true;
+        }
+        else if (myWasQuoted) {
+            // Nothing can follow a closing quote except a line break. Note that
+            // an escaped quote ("") is never part of a valid ID either.
+            myError = ErrorKind.INVALID_INPUT_FILE;
+        }
+        else {
+            // This also rejects ',' since we only expect a single column.
+            parseDigit(b);
+        }
+    }
+
+    /**
+     * <p>Parses the next digit of the ID.</p>
+     *
+     * @param b The next byte.
+     */
+    private void parseDigit(byte b) {
+        if (b < '0' || b > '9') {
+            myError = ErrorKind.INVALID_INPUT_FILE;
+            return;
+        }
+
+        // Make sure the ID fits in a long
+        int digit = b - '0';
+        if (myCurrentValue > (Long.MAX_VALUE - digit) / 10) {
+            myError = ErrorKind.INVALID_INPUT_FILE;
+            return;
+        }
+
+        myCurrentValue = myCurrentValue * 10 + digit;
+        myCurrentDigits++;
+    }
+
+    /**
+     * <p>Doubles the size of the hash set used to detect duplicate IDs.</p>
+     */
+    private void rehash() {
+        int[] slots = new int[myIDSlots.length * 2];
+        int mask = slots.length - 1;
+        for (int i = 0; i < myNumIDs; i++) {
+            int slot = hash(myIDs[i]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+
+        myIDSlots = slots;
+    }
+
+}
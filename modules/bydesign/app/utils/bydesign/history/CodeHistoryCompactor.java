@@ -0,0 +1,442 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.history;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import models.common.database.ByDesignEvent;
+import models.common.database.CodeHistoryCheckpoint;
+import models.common.database.CompressedTextConverter;
+import play.Configuration;
+import play.Logger;
+import play.db.Database;
+import play.inject.ApplicationLifecycle;
+import scala.concurrent.ExecutionContextExecutor;
+import scala.concurrent.duration.Duration;
+import utils.common.delta.LineDelta;
+
+/**
+ * <p>This class stores the code of the {@code byDesign} events as deltas
+ * against the author's previous attempt on the same lesson. The events are
+ * processed periodically in ID order, one batch per transaction, and the
+ * last processed ID is stored in the same transaction as the
+ * {@link CodeHistoryCheckpoint}.</p>
+ *
+ * <p>An event keeps its full code (a snapshot) when the chain of deltas
+ * would reach {@code snapshotInterval} or when the delta is not much
+ * smaller than the code itself. This bounds the number of deltas
+ * {@link ByDesignEvent#getUserEventCode(Long)} has to apply.</p>
+ *
+ * <p>Note that an event that is committed after an event with a larger ID
+ * has already been processed simply keeps its full code.</p>
+ *
+ * <p>This class also applies the {@code bydesign.codeHistory.cacheSize}
+ * setting to {@link ByDesignEvent} when the application starts.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class CodeHistoryCompactor {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Default number of events to process in a single transaction.</p> */
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    /** <p>Default number of seconds between runs.</p> */
+    private static final long DEFAULT_INTERVAL = 300;
+
+    /** <p>Default maximum length of a chain of deltas.</p> */
+    private static final int DEFAULT_SNAPSHOT_INTERVAL = 10;
+
+    /** <p>Default number of characters kept in the code cache.</p> */
+    private static final long DEFAULT_CACHE_SIZE = 16L * 1024 * 1024;
+
+    /** <p>Statement that reads a batch of events.</p> */
+    private static final String SELECT_BATCH_SQL =
+            "select id, author, lesson, code, codeBase "
+                    + "from byDesignEvents where id > ? order by id limit ?";
+
+    /** <p>Statement that reads the author's previous attempt on a lesson.</p> */
+    private static final String SELECT_PREVIOUS_SQL =
+            "select id, code, codeBase, codeDepth from byDesignEvents "
+                    + "where author = ? and lesson <=> ? and id < ? "
+                    + "order by id desc limit 1";
+
+    /** <p>Statement that reads the stored code of an event.</p> */
+    private static final String SELECT_CODE_SQL =
+            "select code, codeBase from byDesignEvents where id = ?";
+
+    /** <p>Statement that replaces the code of an event with a delta.</p> */
+    private static final String UPDATE_SQL =
+            "update byDesignEvents set code = ?, codeBase = ?, codeDepth = ? "
+                    + "where id = ? and codeBase is null";
+
+    /** <p>The database that stores the events.</p> */
+    private final Database myDatabase;
+
+    /** <p>Number of events to process in a single transaction.</p> */
+    private final int myBatchSize;
+
+    /** <p>Maximum length of a chain of deltas.</p> */
+    private final int mySnapshotInterval;
+
+    /** <p>Flag that indicates a run is in progress.</p> */
+    private final AtomicBoolean myIsRunning;
+
+    /** <p>The task that runs the compactor periodically.</p> */
+    private final Cancellable myTask;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates the compactor and, if it is enabled, schedules it on
+     * the database dispatcher.</p>
+     *
+     * @param actorSystem The actor system that provides the database dispatcher.
+     * @param configuration Class that retrieves configurations.
+     * @param database The database that stores the events.
+     * @param lifecycle Application lifecycle.
+     */
+    @Inject
+    public CodeHistoryCompactor(ActorSystem actorSystem,
+            Configuration configuration, Database database,
+            ApplicationLifecycle lifecycle) {
+        myDatabase = database;
+        myBatchSize =
+                Math.max(1, configuration.getInt(
+                        "bydesign.codeHistory.batchSize", DEFAULT_BATCH_SIZE));
+        mySnapshotInterval =
+                Math.max(1, configuration.getInt(
+                        "bydesign.codeHistory.snapshotInterval",
+                        DEFAULT_SNAPSHOT_INTERVAL));
+        myIsRunning = new AtomicBoolean(false);
+
+        ByDesignEvent.setCodeCacheSize(Math.max(0, configuration.getLong(
+                "bydesign.codeHistory.cacheSize", DEFAULT_CACHE_SIZE)));
+
+        if (configuration.getBoolean("bydesign.codeHistory.enabled", false)) {
+            long interval =
+                    Math.max(1, configuration.getLong(
+                            "bydesign.codeHistory.interval", DEFAULT_INTERVAL));
+            ExecutionContextExecutor databaseContext =
+                    actorSystem.dispatchers().lookup(
+                            "bydesign.database-context");
+
+            myTask =
+                    actorSystem.scheduler().schedule(
+                            Duration.create(interval, TimeUnit.SECONDS),
+                            Duration.create(interval, TimeUnit.SECONDS),
+                            this::run, databaseContext);
+
+            lifecycle.addStopHook(() -> {
+                myTask.cancel();
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+        else {
+            myTask = null;
+        }
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Processes a batch of events.</p>
+     *
+     * @param connection A connection with an open transaction.
+     * @param stats The totals for the current run.
+     *
+     * @return {@code true} if there might be more events,
+     * {@code false} otherwise.
+     *
+     * @throws SQLException This exception is thrown when the batch
+     * could not be processed.
+     */
+    private boolean compactBatch(Connection connection, RunStats stats)
+            throws SQLException {
+        long afterID = 0;
+        try (PreparedStatement select =
+                connection.prepareStatement(CodeHistoryCheckpoint.SELECT_SQL)) {
+            try (ResultSet resultSet = select.executeQuery()) {
+                if (resultSet.next()) {
+                    afterID = resultSet.getLong(1);
+                }
+            }
+        }
+
+        // The last attempt we have seen in this batch for each author
+        // and lesson, so most of the previous attempts are never read.
+        Map<String, Attempt> lastAttempts = new HashMap<>();
+        long lastID = afterID;
+        int numRows = 0;
+        try (PreparedStatement select =
+                connection.prepareStatement(SELECT_BATCH_SQL);
+                PreparedStatement update =
+                        connection.prepareStatement(UPDATE_SQL)) {
+            select.setLong(1, afterID);
+            select.setInt(2, myBatchSize);
+            try (ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    numRows++;
+                    lastID = resultSet.getLong(1);
+                    long author = resultSet.getLong(2);
+                    String lesson = resultSet.getString(3);
+                    byte[] stored = resultSet.getBytes(4);
+                    resultSet.getLong(5);
+                    boolean isDelta = !resultSet.wasNull();
+
+                    String key = lesson == null ? Long.toString(author) : author + ":" + lesson;
+                    if (isDelta || stored == null) {
+                        // Already processed (or nothing to store), so it
+                        // cannot be used as a base in this batch.
+                        lastAttempts.remove(key);
+                        continue;
+                    }
+
+                    String code = CompressedTextConverter.decode(stored);
+                    Attempt previous = lastAttempts.get(key);
+                    if (previous == null) {
+                        previous = getPreviousAttempt(connection, author, lesson, lastID);
+                    }
+
+                    Attempt attempt = new Attempt(lastID, code, 0);
+                    if (previous != null && previous.code != null
+                            && previous.depth + 1 < mySnapshotInterval) {
+                        String delta = LineDelta.diff(previous.code, code);
+                        if (delta.length() * 2 < code.length()) {
+                            byte[] storedDelta = CompressedTextConverter.encode(delta);
+                            update.setBytes(1, storedDelta);
+                            update.setLong(2, previous.id);
+                            update.setInt(3, previous.depth + 1);
+                            update.setLong(4, lastID);
+                            update.addBatch();
+
+                            attempt = new Attempt(lastID, code, previous.depth + 1);
+                            stats.numCompacted++;
+                            stats.bytesBefore += stored.length;
+                            stats.bytesAfter += storedDelta.length;
+                        }
+                    }
+
+                    lastAttempts.put(key, attempt);
+                }
+            }
+
+            update.executeBatch();
+        }
+
+        if (numRows > 0) {
+            try (PreparedStatement upsert =
+                    connection.prepareStatement(CodeHistoryCheckpoint.UPSERT_SQL)) {
+                upsert.setLong(1, lastID);
+                upsert.executeUpdate();
+            }
+        }
+        stats.numScanned += numRows;
+
+        return numRows == myBatchSize;
+    }
+
+    /**
+     * <p>Retrieves the full code of an event by applying the deltas
+     * it depends on.</p>
+     *
+     * @param connection A database connection.
+     * @param id The event ID.
+     *
+     * @return The full code (or {@code null}).
+     *
+     * @throws SQLException This exception is thrown when the code
+     * could not be read.
+     */
+    private String getCode(Connection connection, long id) throws SQLException {
+        Deque<String> deltas = new ArrayDeque<>();
+        String code = null;
+        try (PreparedStatement select =
+                connection.prepareStatement(SELECT_CODE_SQL)) {
+            Long nextID = id;
+            while (nextID != null) {
+                select.setLong(1, nextID);
+                nextID = null;
+                try (ResultSet resultSet = select.executeQuery()) {
+                    if (resultSet.next()) {
+                        String stored =
+                                CompressedTextConverter.decode(resultSet.getBytes(1));
+                        long codeBase = resultSet.getLong(2);
+                        if (resultSet.wasNull()) {
+                            code = stored;
+                        }
+                        else {
+                            deltas.push(stored);
+                            nextID = codeBase;
+                        }
+                    }
+                }
+            }
+        }
+
+        while (code != null && !deltas.isEmpty()) {
+            code = LineDelta.apply(code, deltas.pop());
+        }
+
+        return code;
+    }
+
+    /**
+     * <p>Retrieves the author's previous attempt on a lesson.</p>
+     *
+     * @param connection A database connection.
+     * @param author The author's user ID.
+     * @param lesson The lesson name (or {@code null}).
+     * @param id The ID of the current attempt.
+     *
+     * @return The previous attempt, or {@code null} if there is none.
+     *
+     * @throws SQLException This exception is thrown when the attempt
+     * could not be read.
+     */
+    private Attempt getPreviousAttempt(Connection connection, long author,
+            String lesson, long id) throws SQLException {
+        try (PreparedStatement select =
+                connection.prepareStatement(SELECT_PREVIOUS_SQL)) {
+            select.setLong(1, author);
+            select.setString(2, lesson);
+            select.setLong(3, id);
+            try (ResultSet resultSet = select.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+
+                long previousID = resultSet.getLong(1);
+                byte[] stored = resultSet.getBytes(2);
+                resultSet.getLong(3);
+                boolean isDelta = !resultSet.wasNull();
+                int depth = resultSet.getInt(4);
+                String code =
+                        isDelta ? getCode(connection, previousID)
+                                : CompressedTextConverter.decode(stored);
+
+                return new Attempt(previousID, code, isDelta ? depth : 0);
+            }
+        }
+    }
+
+    /**
+     * <p>Processes all the events added since the last run.</p>
+     */
+    private void run() {
+        if (!myIsRunning.compareAndSet(false, true)) {
+            return;
+        }
+
+        RunStats stats = new RunStats();
+        try {
+            boolean hasMore = true;
+            while (hasMore) {
+                hasMore =
+                        myDatabase.withTransaction((Connection connection) ->
+                                compactBatch(connection, stats));
+            }
+
+            if (stats.numCompacted > 0) {
+                Logger.info("Stored " + stats.numCompacted + " of "
+                        + stats.numScanned + " byDesign events as deltas ("
+                        + stats.bytesBefore + " to " + stats.bytesAfter
+                        + " bytes).");
+            }
+        }
+        catch (RuntimeException e) {
+            Logger.error("Failed to store the byDesign code as deltas.", e);
+        }
+        finally {
+            myIsRunning.set(false);
+        }
+    }
+
+    // ===========================================================
+    // Attempt
+    // ===========================================================
+
+    /**
+     * <p>An attempt that can be used as the base of a delta.</p>
+     */
+    private static final class Attempt {
+
+        /** <p>The event ID.</p> */
+        final long id;
+
+        /** <p>The full code (or {@code null}).</p> */
+        final String code;
+
+        /** <p>Number of deltas that need to be applied to get the code.</p> */
+        final int depth;
+
+        /**
+         * <p>Creates an attempt.</p>
+         *
+         * @param id The event ID.
+         * @param code The full code (or {@code null}).
+         * @param depth Number of deltas that need to be applied
+         *              to get the code.
+         */
+        Attempt(long id, String code, int depth) {
+            this.id = id;
+            this.code = code;
+            this.depth = depth;
+        }
+    }
+
+    // ===========================================================
+    // Run Stats
+    // ===========================================================
+
+    /**
+     * <p>The totals for a single run.</p>
+     */
+    private static final class RunStats {
+
+        /** <p>Number of events read.</p> */
+        long numScanned;
+
+        /** <p>Number of events stored as deltas.</p> */
+        long numCompacted;
+
+        /** <p>Stored bytes of the compacted events before.</p> */
+        long bytesBefore;
+
+        /** <p>Stored bytes of the compacted events after.</p> */
+        long bytesAfter;
+    }
+
+}
@@ -0,0 +1,742 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.ingestion;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Lists;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import models.common.database.ByDesignEvent;
+import models.common.database.ByDesignLessonRollup;
+import models.common.database.CompressedTextConverter;
+import play.Configuration;
+import play.Logger;
+import play.db.Database;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import utils.common.database.BatchSplitter;
+
+/**
+ * <p>An optional write-behind buffer for {@code byDesign} events. Accepted
+ * events are placed in a bounded queue without blocking, and a single
+ * background thread writes them to the database in JDBC batches once
+ * {@code batchSize} events are waiting or {@code flushInterval}
+ * milliseconds have passed. The {@link ByDesignLessonRollup
+ * ByDesignLessonRollups} are updated in the same transaction.</p>
+ *
+ * <p>A batch that fails because of the database (such as a deadlock or a
+ * lost connection) is tried again a few times. A batch that fails because
+ * of its events (such as a value that does not fit its column) is split by
+ * a {@link BatchSplitter} until the events that cannot be written are
+ * found, so only those are dropped.</p>
+ *
+ * <p>When the queue is full, new events are rejected so the caller can
+ * ask the client to try again later. The queue is flushed when the
+ * application stops. When the buffer is disabled, the events are written
+ * right away, and events submitted together are written in a single
+ * JDBC batch.</p>
+ *
+ * <p>Events with a client event ID are only written once. The IDs written
+ * recently are kept in a {@link RecentEventIDFilter}, and only the events
+ * whose IDs it might contain are looked up in the database. The unique
+ * index on the author and client event ID catches the rest (such as
+ * retries of events written before a restart), in which case the batch
+ * is written again with every event looked up.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class ByDesignEventBuffer {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Default maximum number of events waiting to be written.</p> */
+    private static final int DEFAULT_CAPACITY = 10000;
+
+    /** <p>Default maximum number of events written in a single batch.</p> */
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    /** <p>Default number of milliseconds an event can wait in the queue.</p> */
+    private static final long DEFAULT_FLUSH_INTERVAL = 200;
+
+    /** <p>Number of times we try to write a batch before giving up.</p> */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /** <p>Default number of client event IDs each Bloom filter holds.</p> */
+    private static final int DEFAULT_DEDUP_EXPECTED_IDS = 1000000;
+
+    /** <p>Default false positive rate of each Bloom filter.</p> */
+    private static final double DEFAULT_DEDUP_FALSE_POSITIVE_RATE = 0.01;
+
+    /** <p>Maximum number of client event IDs looked up in a single query.</p> */
+    private static final int MAX_IDS_PER_LOOKUP = 500;
+
+    /** <p>MySQL error code for a duplicate key.</p> */
+    private static final int DUPLICATE_KEY_ERROR = 1062;
+
+    /** <p>Flag that indicates the buffer is enabled.</p> */
+    private final boolean myIsEnabled;
+
+    /** <p>Maximum number of events written in a single batch.</p> */
+    private final int myBatchSize;
+
+    /** <p>Number of milliseconds an event can wait in the queue.</p> */
+    private final long myFlushInterval;
+
+    /** <p>The events waiting to be written.</p> */
+    private final BlockingQueue<PendingByDesignEvent> myQueue;
+
+    /** <p>The database that stores the events.</p> */
+    private final Database myDatabase;
+
+    /** <p>The client event IDs that were written recently.</p> */
+    private final RecentEventIDFilter myRecentIDs;
+
+    /** <p>The thread that writes the batches.</p> */
+    private final Thread myFlusher;
+
+    /** <p>Flag that indicates the application is stopping.</p> */
+    private volatile boolean myIsStopping;
+
+    /** <p>Number of events accepted.</p> */
+    private final AtomicLong myNumAccepted;
+
+    /** <p>Number of events rejected because the queue was full.</p> */
+    private final AtomicLong myNumRejected;
+
+    /** <p>Number of events written to the database.</p> */
+    private final AtomicLong myNumWritten;
+
+    /** <p>Number of events dropped because they could not be written.</p> */
+    private final AtomicLong myNumFailed;
+
+    /** <p>Number of duplicate events that were not written.</p> */
+    private final AtomicLong myNumDuplicates;
+
+    /** <p>Number of queries that looked up existing client event IDs.</p> */
+    private final AtomicLong myNumDuplicateLookups;
+
+    /** <p>Number of batches written to the database.</p> */
+    private final AtomicLong myNumBatches;
+
+    /** <p>Total time (in milliseconds) spent writing batches.</p> */
+    private final AtomicLong myTotalBatchMillis;
+
+    /** <p>Longest time (in milliseconds) spent writing a batch.</p> */
+    private final AtomicLong myMaxBatchMillis;
+
+    /** <p>Time (in milliseconds) spent writing the last batch.</p> */
+    private volatile long myLastBatchMillis;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates the write-behind buffer and, if it is enabled,
+     * starts the thread that writes the batches.</p>
+     *
+     * @param configuration Class that retrieves configurations.
+     * @param database The database that stores the events.
+     * @param lifecycle Application lifecycle.
+     */
+    @Inject
+    public ByDesignEventBuffer(Configuration configuration,
+            Database database, ApplicationLifecycle lifecycle) {
+        myIsEnabled =
+                configuration.getBoolean(
+                        "bydesign.ingestion.writeBehind.enabled", false);
+        int capacity =
+                Math.max(1, configuration.getInt(
+                        "bydesign.ingestion.writeBehind.capacity",
+                        DEFAULT_CAPACITY));
+        myBatchSize =
+                Math.max(1, configuration.getInt(
+                        "bydesign.ingestion.writeBehind.batchSize",
+                        DEFAULT_BATCH_SIZE));
+        myFlushInterval =
+                Math.max(1, configuration.getLong(
+                        "bydesign.ingestion.writeBehind.flushInterval",
+                        DEFAULT_FLUSH_INTERVAL));
+        myQueue = new ArrayBlockingQueue<>(capacity);
+        myDatabase = database;
+        myRecentIDs =
+                new RecentEventIDFilter(Math.max(1000, configuration.getInt(
+                        "bydesign.ingestion.dedup.expectedIDs",
+                        DEFAULT_DEDUP_EXPECTED_IDS)), configuration.getDouble(
+                        "bydesign.ingestion.dedup.falsePositiveRate",
+                        DEFAULT_DEDUP_FALSE_POSITIVE_RATE));
+
+        myNumAccepted = new AtomicLong();
+        myNumRejected = new AtomicLong();
+        myNumWritten = new AtomicLong();
+        myNumFailed = new AtomicLong();
+        myNumDuplicates = new AtomicLong();
+        myNumDuplicateLookups = new AtomicLong();
+        myNumBatches = new AtomicLong();
+        myTotalBatchMillis = new AtomicLong();
+        myMaxBatchMillis = new AtomicLong();
+
+        if (myIsEnabled) {
+            myFlusher = new Thread(this::runFlusher, "bydesign-event-writer");
+            myFlusher.setDaemon(true);
+            myFlusher.start();
+
+            // Write everything that is still in the queue before
+            // the database goes away.
+            lifecycle.addStopHook(() -> {
+                myIsStopping = true;
+                return CompletableFuture.runAsync(() -> {
+                    try {
+                        myFlusher.join();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            });
+        }
+        else {
+            myFlusher = null;
+        }
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Returns the current metrics for the buffer.</p>
+     *
+     * @return A JSON object with the metrics.
+     */
+    public final ObjectNode getMetrics() {
+        long numBatches = myNumBatches.get();
+
+        ObjectNode metrics = Json.newObject();
+        metrics.put("enabled", myIsEnabled);
+        metrics.put("queueDepth", myQueue.size());
+        metrics.put("queueCapacity", myQueue.size() + myQueue.remainingCapacity());
+        metrics.put("accepted", myNumAccepted.get());
+        metrics.put("rejected", myNumRejected.get());
+        metrics.put("written", myNumWritten.get());
+        metrics.put("failed", myNumFailed.get());
+        metrics.put("duplicates", myNumDuplicates.get());
+        metrics.put("duplicateLookups", myNumDuplicateLookups.get());
+        metrics.put("batches", numBatches);
+        metrics.put("lastBatchMillis", myLastBatchMillis);
+        metrics.put("maxBatchMillis", myMaxBatchMillis.get());
+        metrics.put("averageBatchMillis", numBatches == 0 ? 0
+                : (double) myTotalBatchMillis.get() / numBatches);
+
+        return metrics;
+    }
+
+    /**
+     * <p>Accepts a {@code byDesign} event. If the buffer is enabled, this
+     * never blocks and the event is written later. Otherwise the event is
+     * written right away in its own transaction.</p>
+     *
+     * @param event A {@code byDesign} event.
+     *
+     * @return {@code true} if the event was accepted, {@code false} if the
+     * queue is full (or the application is stopping) and the client should
+     * try again later.
+     */
+    public final boolean submit(PendingByDesignEvent event) {
+        if (!myIsEnabled) {
+            return submitAll(Collections.singletonList(event)) == 1;
+        }
+
+        if (myIsStopping || !myQueue.offer(event)) {
+            myNumRejected.incrementAndGet();
+            return false;
+        }
+
+        myNumAccepted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * <p>Accepts several {@code byDesign} events. If the buffer is enabled,
+     * this never blocks and the events are written later. Otherwise the
+     * events are written right away in a single JDBC batch.</p>
+     *
+     * @param events A list of {@code byDesign} events.
+     *
+     * @return The number of events that were accepted. Events are accepted
+     * in order, so the client should try the remaining events again later.
+     */
+    public final int submitAll(List<PendingByDesignEvent> events) {
+        if (events.isEmpty()) {
+            return 0;
+        }
+
+        if (!myIsEnabled) {
+            long startTime = System.nanoTime();
+            int numDuplicates = write(events);
+            myNumAccepted.addAndGet(events.size());
+            recordBatch(events.size(), numDuplicates, startTime);
+
+            return events.size();
+        }
+
+        int numAccepted = 0;
+        for (PendingByDesignEvent event : events) {
+            if (myIsStopping || !myQueue.offer(event)) {
+                break;
+            }
+            numAccepted++;
+        }
+        myNumAccepted.addAndGet(numAccepted);
+        myNumRejected.addAndGet(events.size() - numAccepted);
+
+        return numAccepted;
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Writes a batch of events. If some of the events cannot be written,
+     * the batch is split by a {@link BatchSplitter}, so only the events
+     * that cannot be written are dropped.</p>
+     *
+     * @param batch The events to write.
+     */
+    private void flush(List<PendingByDesignEvent> batch) {
+        BatchSplitter.write(batch, this::flushWithRetries, (event, e) -> {
+            Logger.error("Dropped a byDesign event from author "
+                    + event.author + " that could not be written.", e);
+            myNumFailed.incrementAndGet();
+        });
+    }
+
+    /**
+     * <p>Writes a batch of events. If the database fails, the batch is tried
+     * again a few times before giving up on it.</p>
+     *
+     * @param batch The events to write.
+     *
+     * @throws RuntimeException This exception is thrown when the batch
+     * failed because of its events.
+     */
+    private void flushWithRetries(List<PendingByDesignEvent> batch) {
+        for (int attempt = 1;; attempt++) {
+            long startTime = System.nanoTime();
+            int numDuplicates;
+            try {
+                numDuplicates = write(batch);
+            }
+            catch (RuntimeException e) {
+                if (!BatchSplitter.isTransient(e)) {
+                    throw e;
+                }
+
+                if (attempt < MAX_ATTEMPTS) {
+                    Logger.warn("Failed to write " + batch.size()
+                            + " byDesign events (attempt " + attempt
+                            + "). Retrying.", e);
+                    try {
+                        Thread.sleep(myFlushInterval * attempt);
+                    }
+                    catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                    continue;
+                }
+
+                Logger.error("Dropped " + batch.size()
+                        + " byDesign events after " + attempt
+                        + " failed attempts.", e);
+                myNumFailed.addAndGet(batch.size());
+                return;
+            }
+
+            recordBatch(batch.size(), numDuplicates, startTime);
+            return;
+        }
+    }
+
+    /**
+     * <p>Checks whether an exception was caused by a duplicate key.</p>
+     *
+     * @param e An exception.
+     *
+     * @return {@code true} if it was, {@code false} otherwise.
+     */
+    private static boolean isDuplicateKey(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException
+                    && ((SQLException) cause).getErrorCode() == DUPLICATE_KEY_ERROR) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * <p>Updates the metrics after a batch has been written.</p>
+     *
+     * @param size The number of events in the batch.
+     * @param numDuplicates The number of duplicate events that
+     *                      were not written.
+     * @param startTime The time (from {@link System#nanoTime()}) the
+     *                  batch started.
+     */
+    private void recordBatch(int size, int numDuplicates, long startTime) {
+        long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+        myNumWritten.addAndGet(size - numDuplicates);
+        myNumDuplicates.addAndGet(numDuplicates);
+        myNumBatches.incrementAndGet();
+        myTotalBatchMillis.addAndGet(elapsedMillis);
+        myMaxBatchMillis.accumulateAndGet(elapsedMillis, Math::max);
+        myLastBatchMillis = elapsedMillis;
+    }
+
+    /**
+     * <p>Waits for events and writes them in batches until the
+     * application stops.</p>
+     */
+    private void runFlusher() {
+        List<PendingByDesignEvent> batch = new ArrayList<>(myBatchSize);
+        while (!myIsStopping || !myQueue.isEmpty()) {
+            try {
+                PendingByDesignEvent first =
+                        myQueue.poll(myFlushInterval, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                // Keep collecting events until the batch is full
+                // or the oldest event has waited long enough.
+                batch.add(first);
+                long deadline =
+                        System.nanoTime()
+                                + TimeUnit.MILLISECONDS.toNanos(myFlushInterval);
+                while (batch.size() < myBatchSize) {
+                    myQueue.drainTo(batch, myBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= myBatchSize || remaining <= 0
+                            || myIsStopping) {
+                        break;
+                    }
+
+                    PendingByDesignEvent next =
+                            myQueue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                flush(batch);
+                batch.clear();
+            }
+            catch (InterruptedException e) {
+                // Write what we have and stop waiting for more events.
+                myIsStopping = true;
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>Removes the events that have already been written and the events
+     * that appear more than once in the batch.</p>
+     *
+     * @param connection A connection with an open transaction.
+     * @param events The events to write.
+     * @param lookupAll {@code true} if every event with a client event ID
+     *                  must be looked up, {@code false} if only the ones
+     *                  that might have been written recently.
+     *
+     * @return The events that still need to be written.
+     *
+     * @throws SQLException This exception is thrown when the existing
+     * events could not be retrieved.
+     */
+    private List<PendingByDesignEvent> removeDuplicates(Connection connection,
+            List<PendingByDesignEvent> events, boolean lookupAll)
+            throws SQLException {
+        List<PendingByDesignEvent> unique = new ArrayList<>(events.size());
+        Set<String> keys = new HashSet<>();
+        Map<Long, List<String>> suspects = new HashMap<>();
+        for (PendingByDesignEvent event : events) {
+            if (event.clientEventID == null) {
+                unique.add(event);
+                continue;
+            }
+
+            String key = RecentEventIDFilter.getKey(event.author, event.clientEventID);
+            if (keys.add(key)) {
+                unique.add(event);
+                if (lookupAll || myRecentIDs.mightContain(key)) {
+                    suspects.computeIfAbsent(event.author,
+                            k -> new ArrayList<>()).add(event.clientEventID);
+                }
+            }
+        }
+
+        // Look up the events that might already be in the database
+        Set<String> existing = new HashSet<>();
+        for (Map.Entry<Long, List<String>> entry : suspects.entrySet()) {
+            for (List<String> ids : Lists.partition(entry.getValue(), MAX_IDS_PER_LOOKUP)) {
+                myNumDuplicateLookups.incrementAndGet();
+                try (PreparedStatement select =
+                        connection.prepareStatement(
+                                "select clientEventID from byDesignEvents "
+                                        + "where author = ? and clientEventID in ("
+                                        + String.join(", ", Collections.nCopies(ids.size(), "?"))
+                                        + ")")) {
+                    select.setLong(1, entry.getKey());
+                    for (int i = 0; i < ids.size(); i++) {
+                        select.setString(i + 2, ids.get(i));
+                    }
+
+                    try (ResultSet resultSet = select.executeQuery()) {
+                        while (resultSet.next()) {
+                            existing.add(RecentEventIDFilter.getKey(
+                                    entry.getKey(), resultSet.getString(1)));
+                        }
+                    }
+                }
+            }
+        }
+
+        if (!existing.isEmpty()) {
+            unique.removeIf(event -> event.clientEventID != null
+                    && existing.contains(RecentEventIDFilter.getKey(
+                            event.author, event.clientEventID)));
+        }
+
+        return unique;
+    }
+
+    /**
+     * <p>Writes a batch of events in a single transaction, skipping the
+     * events that have already been written. If the unique index finds a
+     * duplicate we did not expect, the batch is written again with every
+     * client event ID looked up.</p>
+     *
+     * @param events The events to write.
+     *
+     * @return The number of duplicate events that were not written.
+     */
+    private int write(List<PendingByDesignEvent> events) {
+        try {
+            return myDatabase.withTransaction(
+                    (Connection connection) -> writeBatch(connection, events, false));
+        }
+        catch (RuntimeException e) {
+            if (!isDuplicateKey(e)) {
+                throw e;
+            }
+
+            return myDatabase.withTransaction(
+                    (Connection connection) -> writeBatch(connection, events, true));
+        }
+    }
+
+    /**
+     * <p>Inserts a batch of events and adds them to their rollups.</p>
+     *
+     * @param connection A connection with an open transaction.
+     * @param events The events to write.
+     * @param lookupAll {@code true} if every event with a client event ID
+     *                  must be looked up, {@code false} if only the ones
+     *                  that might have been written recently.
+     *
+     * @return The number of duplicate events that were not written.
+     *
+     * @throws SQLException This exception is thrown when the batch
+     * could not be written.
+     */
+    private int writeBatch(Connection connection,
+            List<PendingByDesignEvent> events, boolean lookupAll)
+            throws SQLException {
+        List<PendingByDesignEvent> batch =
+                removeDuplicates(connection, events, lookupAll);
+        if (batch.isEmpty()) {
+            return events.size();
+        }
+
+        long[] ids = new long[batch.size()];
+        try (PreparedStatement insert =
+                connection.prepareStatement(ByDesignEvent.BATCH_INSERT_SQL,
+                        Statement.RETURN_GENERATED_KEYS)) {
+            for (PendingByDesignEvent event : batch) {
+                insert.setLong(1, event.author);
+                insert.setBytes(2, CompressedTextConverter.encode(event.code));
+                insert.setBoolean(3, event.correct);
+                insert.setString(4, event.lesson);
+                insert.setString(5, event.module);
+                insert.setLong(6, event.points);
+                insert.setLong(7, event.time);
+                insert.setTimestamp(8, new Timestamp(event.eventDate.getTime()));
+                insert.setString(9, event.clientEventID);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+
+            try (ResultSet keys = insert.getGeneratedKeys()) {
+                for (int i = 0; i < ids.length && keys.next(); i++) {
+                    ids[i] = keys.getLong(1);
+                }
+            }
+        }
+
+        // Combine the events for the same author and lesson. Upserting them
+        // in a fixed order keeps concurrent writers from deadlocking.
+        Map<PendingByDesignEvent, RollupDelta> deltas =
+                new TreeMap<>(Comparator.comparingLong(
+                        (PendingByDesignEvent e) -> e.author).thenComparing(
+                        e -> e.lesson == null ? "" : e.lesson));
+        for (int i = 0; i < batch.size(); i++) {
+            PendingByDesignEvent event = batch.get(i);
+            deltas.computeIfAbsent(event, k -> new RollupDelta(event)).add(
+                    event, ids[i]);
+        }
+
+        try (PreparedStatement upsert =
+                connection.prepareStatement(ByDesignLessonRollup.BATCH_UPSERT_SQL)) {
+            for (RollupDelta delta : deltas.values()) {
+                upsert.setLong(1, delta.author);
+                upsert.setString(2, delta.lesson);
+                upsert.setString(3, delta.module);
+                upsert.setLong(4, delta.attempts);
+                upsert.setLong(5, delta.correctAttempts);
+                upsert.setLong(6, delta.totalTime);
+                upsert.setLong(7, delta.totalPoints);
+                upsert.setTimestamp(8, new Timestamp(delta.firstAttempt));
+                upsert.setTimestamp(9, new Timestamp(delta.lastAttempt));
+                upsert.setLong(10, delta.lastEventID);
+                upsert.addBatch();
+            }
+            upsert.executeBatch();
+        }
+
+        // If the transaction ends up rolling back, these only
+        // cause an extra lookup.
+        for (PendingByDesignEvent event : batch) {
+            if (event.clientEventID != null) {
+                myRecentIDs.put(RecentEventIDFilter.getKey(event.author,
+                        event.clientEventID));
+            }
+        }
+
+        return events.size() - batch.size();
+    }
+
+    // ===========================================================
+    // Rollup Delta
+    // ===========================================================
+
+    /**
+     * <p>The aggregates of the events in a batch for a single
+     * author and lesson.</p>
+     */
+    private static final class RollupDelta {
+
+        /** <p>Author ID.</p> */
+        final long author;
+
+        /** <p>Lesson name (never {@code null}).</p> */
+        final String lesson;
+
+        /** <p>Module name of the last event.</p> */
+        String module;
+
+        /** <p>Number of attempts.</p> */
+        long attempts;
+
+        /** <p>Number of attempts that were correct.</p> */
+        long correctAttempts;
+
+        /** <p>Total time spent.</p> */
+        long totalTime;
+
+        /** <p>Total points earned.</p> */
+        long totalPoints;
+
+        /** <p>Date of the first attempt in milliseconds.</p> */
+        long firstAttempt;
+
+        /** <p>Date of the last attempt in milliseconds.</p> */
+        long lastAttempt;
+
+        /** <p>The largest event ID.</p> */
+        long lastEventID;
+
+        /**
+         * <p>Creates empty aggregates for an event's author and lesson.</p>
+         *
+         * @param event A {@code byDesign} event.
+         */
+        RollupDelta(PendingByDesignEvent event) {
+            author = event.author;
+            lesson = event.lesson == null ? "" : event.lesson;
+            firstAttempt = Long.MAX_VALUE;
+            lastAttempt = Long.MIN_VALUE;
+        }
+
+        /**
+         * <p>Adds an event to the aggregates.</p>
+         *
+         * @param event A {@code byDesign} event.
+         * @param id The ID the database assigned to the event.
+         */
+        void add(PendingByDesignEvent event, long id) {
+            long date = event.eventDate.getTime();
+            module = event.module;
+            attempts++;
+            if (event.correct) {
+                correctAttempts++;
+            }
+            totalTime += event.time;
+            totalPoints += event.points;
+            firstAttempt = Math.min(firstAttempt, date);
+            lastAttempt = Math.max(lastAttempt, date);
+            lastEventID = Math.max(lastEventID, id);
+        }
+    }
+
+}
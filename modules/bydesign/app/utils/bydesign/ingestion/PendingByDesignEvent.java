@@ -0,0 +1,114 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.ingestion;
+
+import java.util.Date;
+
+/**
+ * <p>This class contains a {@code byDesign} event that has been accepted
+ * but has not been written to the database yet. The event date is the time
+ * the event was accepted, not the time it was written.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class PendingByDesignEvent {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Author ID associated with this {@code byDesign} event.</p> */
+    public final long author;
+
+    /** <p>Code associated with this {@code byDesign} event.</p> */
+    public final String code;
+
+    /**
+     * <p>Boolean flag that indicates whether or not the code referred by this
+     * {@code byDesign} event verified.</p>
+     */
+    public final boolean correct;
+
+    /** <p>Lesson name associated with this {@code byDesign} event.</p> */
+    public final String lesson;
+
+    /** <p>Module name associated with this {@code byDesign} event.</p> */
+    public final String module;
+
+    /** <p>Points associated with this {@code byDesign} event.</p> */
+    public final long points;
+
+    /** <p>Time spent on the code associated with this {@code byDesign} event.</p> */
+    public final long time;
+
+    /** <p>Date associated with this {@code byDesign} event.</p> */
+    public final Date eventDate;
+
+    /**
+     * <p>Optional ID the client assigned to this {@code byDesign} event
+     * (or {@code null}).</p>
+     */
+    public final String clientEventID;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Creates a pending {@code byDesign} event dated now.</p>
+     *
+     * @param author The author's id number.
+     * @param code The code associated with this event.
+     * @param correct A flag that indicates whether the author got this lesson
+     *                correctly or not.
+     * @param lesson The lesson associated with this event.
+     * @param module The module associated with this event.
+     * @param points The amount of points earned by the author.
+     * @param time The time spent on this lesson.
+     */
+    public PendingByDesignEvent(long author, String code, boolean correct,
+            String lesson, String module, long points, long time) {
+        this(author, code, correct, lesson, module, points, time, null);
+    }
+
+    /**
+     * <p>Creates a pending {@code byDesign} event with a client-assigned
+     * ID dated now.</p>
+     *
+     * @param author The author's id number.
+     * @param code The code associated with this event.
+     * @param correct A flag that indicates whether the author got this lesson
+     *                correctly or not.
+     * @param lesson The lesson associated with this event.
+     * @param module The module associated with this event.
+     * @param points The amount of points earned by the author.
+     * @param time The time spent on this lesson.
+     * @param clientEventID The ID the client assigned to this event
+     *                      (or {@code null}).
+     */
+    public PendingByDesignEvent(long author, String code, boolean correct,
+            String lesson, String module, long points, long time,
+            String clientEventID) {
+        this.author = author;
+        this.code = code;
+        this.correct = correct;
+        this.lesson = lesson;
+        this.module = module;
+        this.points = points;
+        this.time = time;
+        this.eventDate = new Date();
+        this.clientEventID = clientEventID;
+    }
+
+}
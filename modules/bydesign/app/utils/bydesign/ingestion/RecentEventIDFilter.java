@@ -0,0 +1,131 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.bydesign.ingestion;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>A pair of Bloom filters over the client event IDs that were written
+ * recently. New IDs go into the current filter, and once it holds the
+ * expected number of IDs, it replaces the previous filter and a new one
+ * is started. This keeps the false positive rate bounded while still
+ * remembering at least the last {@code expectedIDs} IDs.</p>
+ *
+ * <p>A negative answer is always right, so events whose IDs were not seen
+ * can be written without looking for an existing row. A positive answer
+ * only means the database has to be checked.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+final class RecentEventIDFilter {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Number of IDs each filter holds before it is replaced.</p> */
+    private final int myExpectedIDs;
+
+    /** <p>The target false positive rate of each filter.</p> */
+    private final double myFalsePositiveRate;
+
+    /** <p>The filter new IDs are added to.</p> */
+    private BloomFilter<CharSequence> myCurrent;
+
+    /** <p>The filter that was replaced most recently.</p> */
+    private BloomFilter<CharSequence> myPrevious;
+
+    /** <p>Number of IDs added to the current filter.</p> */
+    private int myNumCurrent;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Creates an empty filter.</p>
+     *
+     * @param expectedIDs Number of IDs each filter holds before
+     *                    it is replaced.
+     * @param falsePositiveRate The target false positive rate.
+     */
+    RecentEventIDFilter(int expectedIDs, double falsePositiveRate) {
+        myExpectedIDs = expectedIDs;
+        myFalsePositiveRate = falsePositiveRate;
+        myCurrent = newFilter();
+        myPrevious = newFilter();
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Returns the key for an author's client event ID.</p>
+     *
+     * @param author The author's user ID.
+     * @param clientEventID The ID the client assigned to an event.
+     *
+     * @return The key.
+     */
+    static String getKey(long author, String clientEventID) {
+        return author + ":" + clientEventID;
+    }
+
+    /**
+     * <p>Checks whether an ID might have been added.</p>
+     *
+     * @param key A key from {@link #getKey(long, String)}.
+     *
+     * @return {@code false} if the ID has definitely not been added
+     * recently, {@code true} otherwise.
+     */
+    synchronized boolean mightContain(String key) {
+        return myCurrent.mightContain(key) || myPrevious.mightContain(key);
+    }
+
+    /**
+     * <p>Adds an ID, replacing the previous filter if the current
+     * one is full.</p>
+     *
+     * @param key A key from {@link #getKey(long, String)}.
+     */
+    synchronized void put(String key) {
+        if (myNumCurrent >= myExpectedIDs) {
+            myPrevious = myCurrent;
+            myCurrent = newFilter();
+            myNumCurrent = 0;
+        }
+
+        myCurrent.put(key);
+        myNumCurrent++;
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Creates an empty Bloom filter.</p>
+     *
+     * @return A Bloom filter.
+     */
+    private BloomFilter<CharSequence> newFilter() {
+        return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8),
+                myExpectedIDs, myFalsePositiveRate);
+    }
+
+}
@@ -23,6 +23,7 @@ import models.common.database.User;
 import models.common.form.PasswordRecoveryForm;
 import models.common.form.UpdatePasswordForm;
 import play.Configuration;
+import play.Logger;
 import play.data.Form;
 import play.data.FormFactory;
 import play.data.validation.ValidationError;
@@ -36,6 +37,7 @@ import play.libs.ws.WSClient;
 import play.libs.ws.WSResponse;
 import play.mvc.Controller;
 import play.mvc.Result;
+import utils.common.security.PasswordHasher;
 import views.html.common.errors.accountError;
 import views.html.common.passwordrecovery.passwordRecovery;
 import views.html.common.passwordrecovery.resetSuccess;
@@ -79,6 +81,10 @@ public class PasswordRecovery extends Controller {
     @Inject
     private Configuration myConfiguration;
 
+    /** <p>Class that hashes the passwords</p> */
+    @Inject
+    private PasswordHasher myPasswordHasher;
+
     // ===========================================================
     // Public Methods
     // ===========================================================
@@ -193,27 +199,39 @@ public class PasswordRecovery extends Controller {
             // we display the registration page with the errors highlighted.
             // If there are no errors, we display the success page.
             CompletionStage<List<ValidationError>> resultPromise = validate(form);
-            return resultPromise.thenApplyAsync(result -> {
+            return resultPromise.thenComposeAsync(result -> {
                 if (result != null) {
                     String token = CSRF.getToken(request()).map(t -> t.value()).orElse("no token");
                     for (ValidationError error : result) {
                         userForm.reject(error);
                     }
-                    return badRequest(updatePassword.render(userForm, token, email));
+                    return CompletableFuture.completedFuture(badRequest(updatePassword.render(userForm, token, email)));
                 }
                 else {
-                    // Set the user to authenticated. This should generate an email
-                    // confirming we have successfully reset the user's password.
-                    // Note 1: "updatePassword" expects a JPA entity manager,
-                    // which is not present if we don't wrap the call using
-                    // "withTransaction()".
-                    // Note 2: It is possible that that this will fail if we fail to
-                    // retrieve data from the database. We are ignoring this for now.
-                    User user = myJpaApi.withTransaction(() -> User.updatePassword(email, form.getPassword()));
-                    user = myJpaApi.withTransaction(() -> User.authenticate(email));
-                    myEmailGenerator.generateResetSuccessEmail(user.firstName, user.email);
-
-                    return ok(resetSuccess.render(email));
+                    // Hash the password on the password hashing threads.
+                    return myPasswordHasher.hash(form.getPassword()).handleAsync((passwordHash, error) -> {
+                        if (error != null) {
+                            // Too many passwords are waiting to be hashed.
+                            Logger.warn("Failed to hash the password for " + email + ".", error);
+                            response().setHeader(RETRY_AFTER, "1");
+                            return status(SERVICE_UNAVAILABLE, "The server is busy. Please try again.");
+                        }
+
+                        // Set the user to authenticated. This should generate an email
+                        // confirming we have successfully reset the user's password.
+                        // Note 1: "updatePassword" expects a JPA entity manager,
+                        // which is not present if we don't wrap the call using
+                        // "withTransaction()".
+                        // Note 2: It is possible that that this will fail if we fail to
+                        // retrieve data from the database. We are ignoring this for now.
+                        User user = myJpaApi.withTransaction(() -> {
+                            User.updatePassword(email, passwordHash);
+                            return User.authenticate(email);
+                        });
+                        myEmailGenerator.generateResetSuccessEmail(user.firstName, user.email);
+
+                        return ok(resetSuccess.render(email));
+                    }, myHttpExecutionContext.current());
                 }
             }, myHttpExecutionContext.current());
         }
@@ -13,6 +13,7 @@
 package controllers.common.profile;
 
 import controllers.common.email.EmailGenerator;
+import deadbolt2.common.security.IdentityResolver;
 import java.util.ArrayList;
 import java.util.List;
 import javax.inject.Inject;
@@ -55,6 +56,10 @@ public class EditProfile extends Controller {
     @Inject
     private JPAApi myJpaApi;
 
+    /** <p>Class that resolves the user that is logged in</p> */
+    @Inject
+    private IdentityResolver myIdentityResolver;
+
     // ===========================================================
     // Public Methods
     // ===========================================================
@@ -138,7 +143,7 @@ public class EditProfile extends Controller {
                         // Update the session
                         if (!oldEmail.equals(newEmail)) {
                             myEmailGenerator.generateUpdateAccountEmail(updatedUser.firstName, oldEmail, newEmail);
-                            session("connected", newEmail);
+                            myIdentityResolver.signIn(ctx(), updatedUser);
                         }
 
                         return ok(editProfile.render(updatedUser, userForm, token, true));
@@ -22,6 +22,7 @@ import javax.inject.Inject;
 import models.common.database.User;
 import models.common.form.RegistrationForm;
 import play.Configuration;
+import play.Logger;
 import play.data.Form;
 import play.data.FormFactory;
 import play.data.validation.ValidationError;
@@ -35,6 +36,7 @@ import play.libs.ws.WSClient;
 import play.libs.ws.WSResponse;
 import play.mvc.Controller;
 import play.mvc.Result;
+import utils.common.security.PasswordHasher;
 import views.html.common.errors.accountError;
 import views.html.common.registration.authenticationSuccess;
 import views.html.common.registration.expired;
@@ -77,6 +79,10 @@ public class Registration extends Controller {
     @Inject
     private Configuration myConfiguration;
 
+    /** <p>Class that hashes the passwords</p> */
+    @Inject
+    private PasswordHasher myPasswordHasher;
+
     // ===========================================================
     // Public Methods
     // ===========================================================
@@ -115,27 +121,37 @@ public class Registration extends Controller {
             // we display the registration page with the errors highlighted.
             // If there are no errors, we display the success page.
             CompletionStage<List<ValidationError>> resultPromise = validate(form);
-            return resultPromise.thenApplyAsync(result -> {
+            return resultPromise.thenComposeAsync(result -> {
                 if (result != null) {
                     String token = CSRF.getToken(request()).map(t -> t.value()).orElse("no token");
                     for (ValidationError error : result) {
                         userForm.reject(error);
                     }
-                    return badRequest(registration.render(userForm, token));
+                    return CompletableFuture.completedFuture(badRequest(registration.render(userForm, token)));
                 }
                 else {
-                    // Create and add an user to the database. This should generate an email
-                    // confirming this action.
-                    // Note 1: "addUser" expects a JPA entity manager,
-                    // which is not present if we don't wrap the call using
-                    // "withTransaction()".
-                    // Note 2: It is possible that that this will fail if we fail to
-                    // retrieve data from the database. We are ignoring this for now.
-                    User user = myJpaApi.withTransaction(() -> User.addUser(
-                            form.getEmail(), form.getPassword(), form.getFirstName(), form.getLastName()));
-                    myEmailGenerator.generateConfirmationEmail(user.firstName, user.email, user.confirmationCode);
-
-                    return ok(registrationSuccess.render());
+                    // Hash the password on the password hashing threads.
+                    return myPasswordHasher.hash(form.getPassword()).handleAsync((passwordHash, error) -> {
+                        if (error != null) {
+                            // Too many passwords are waiting to be hashed.
+                            Logger.warn("Failed to hash the password for " + form.getEmail() + ".", error);
+                            response().setHeader(RETRY_AFTER, "1");
+                            return status(SERVICE_UNAVAILABLE, "The server is busy. Please try again.");
+                        }
+
+                        // Create and add an user to the database. This should generate an email
+                        // confirming this action.
+                        // Note 1: "addUser" expects a JPA entity manager,
+                        // which is not present if we don't wrap the call using
+                        // "withTransaction()".
+                        // Note 2: It is possible that that this will fail if we fail to
+                        // retrieve data from the database. We are ignoring this for now.
+                        User user = myJpaApi.withTransaction(() -> User.addUser(
+                                form.getEmail(), passwordHash, form.getFirstName(), form.getLastName()));
+                        myEmailGenerator.generateConfirmationEmail(user.firstName, user.email, user.confirmationCode);
+
+                        return ok(registrationSuccess.render());
+                    }, myHttpExecutionContext.current());
                 }
             }, myHttpExecutionContext.current());
         }
@@ -16,10 +16,11 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import javax.inject.Inject;
 import controllers.common.email.EmailGenerator;
+import deadbolt2.common.security.IdentityResolver;
 import models.common.database.User;
-import models.common.database.UserEvent;
 import models.common.form.LoginForm;
 import play.Configuration;
+import play.Logger;
 import play.data.Form;
 import play.data.FormFactory;
 import play.data.validation.ValidationError;
@@ -31,6 +32,9 @@ import play.filters.csrf.RequireCSRFCheck;
 import play.libs.concurrent.HttpExecutionContext;
 import play.mvc.Controller;
 import play.mvc.Result;
+import utils.common.journal.EventJournal;
+import utils.common.security.LoginThrottle;
+import utils.common.security.PasswordHasher;
 import views.html.common.errors.accountError;
 import views.html.common.registration.registrationSuccess;
 import views.html.common.security.index;
@@ -53,6 +57,10 @@ public class Security extends Controller {
     @Inject
     private EmailGenerator myEmailGenerator;
 
+    /** <p>Journal for user events</p> */
+    @Inject
+    private EventJournal myEventJournal;
+
     /** <p>Form factory</p> */
     @Inject
     private FormFactory myFormFactory;
@@ -69,6 +77,18 @@ public class Security extends Controller {
     @Inject
     private Configuration myConfiguration;
 
+    /** <p>Class that resolves the user that is logged in</p> */
+    @Inject
+    private IdentityResolver myIdentityResolver;
+
+    /** <p>Class that hashes the passwords</p> */
+    @Inject
+    private PasswordHasher myPasswordHasher;
+
+    /** <p>Class that limits the login attempts</p> */
+    @Inject
+    private LoginThrottle myLoginThrottle;
+
     // ===========================================================
     // Public Methods
     // ===========================================================
@@ -82,7 +102,8 @@ public class Security extends Controller {
     public Result index() {
         // Check the session to see if the request comes from an user
         // that has logged in already.
-        String user = session().remove("connected");
+        String user = session().get("connected");
+        myIdentityResolver.signOut(ctx());
         if (user != null) {
             // Obtain the http context from the configuration file
             String context = myConfiguration.getString("play.http.context");
@@ -107,7 +128,6 @@ public class Security extends Controller {
      */
     @AddCSRFToken
     @RequireCSRFCheck
-    @Transactional
     public CompletionStage<Result> login() {
         Form<LoginForm> userForm = myFormFactory.form(LoginForm.class).bindFromRequest();
 
@@ -121,50 +141,85 @@ public class Security extends Controller {
         else {
             LoginForm form = userForm.get();
 
+            // Turn away bursts of attempts for the same email or from the same
+            // address before we do any database or hashing work.
+            long retryAfter = myLoginThrottle.acquire(form.getEmail(), request().remoteAddress());
+            if (retryAfter > 0) {
+                response().setHeader(RETRY_AFTER, String.valueOf(retryAfter));
+                // 429 Too Many Requests
+                return CompletableFuture.completedFuture(
+                        status(429, "Too many login attempts. Please try again later."));
+            }
+
             // Check for a registered user with the same email.
-            // Note that "connect" expects a JPA entity manager,
+            // Note that "findByEmail" expects a JPA entity manager,
             // which is not present if we don't wrap the call using
             // "withTransaction()".
-            User user = myJpaApi.withTransaction(() -> User.connect(form.getEmail(), form.getPassword()));
-            if (user != null) {
-                // Check to see if this account has been authenticated or not.
-                boolean hasAuthenticated = myJpaApi.withTransaction(() -> User.hasAuthenticated(form.getEmail()));
-                if (hasAuthenticated) {
-                    // Update the login date
-                    final User updatedUser = myJpaApi.withTransaction(() -> User.lastLogin(form.getEmail()));
-
-                    // Add a new user event
-                    myJpaApi.withTransaction(() -> UserEvent.addRegularEvent("login", "", updatedUser));
-
-                    // Stores the email as session value
-                    session("connected", form.getEmail());
-
-                    // Obtain the http context from the configuration file
-                    String context = myConfiguration.getString("play.http.context");
-                    if (context == null) {
-                        context = "";
-                    }
+            User registeredUser = myJpaApi.withTransaction("default", true,
+                    () -> User.findByEmail(form.getEmail()));
+            String storedHash = registeredUser == null ? null : registeredUser.password;
 
-                    // Redirect back to the home page
-                    final String finalContext = context;
-                    return CompletableFuture.supplyAsync(() -> redirect(finalContext + "/"),
-                            myHttpExecutionContext.current());
+            // Check the password on the password hashing threads. If it matches
+            // and the stored hash is out of date, we also compute a new one.
+            CompletionStage<String> hashPromise =
+                    myPasswordHasher.verify(form.getPassword(), storedHash).thenCompose(matches -> {
+                        if (!matches) {
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        else if (!myPasswordHasher.needsRehash(storedHash)) {
+                            return CompletableFuture.completedFuture(storedHash);
+                        }
+
+                        return myPasswordHasher.hash(form.getPassword());
+                    });
+
+            return hashPromise.handleAsync((newHash, error) -> {
+                if (error != null) {
+                    // Too many passwords are waiting to be checked.
+                    Logger.warn("Failed to check the password for " + form.getEmail() + ".", error);
+                    response().setHeader(RETRY_AFTER, "1");
+                    return status(SERVICE_UNAVAILABLE, "The server is busy. Please try again.");
+                }
+
+                // If the account has been authenticated, this also updates the login
+                // date and replaces an out of date hash in the same transaction.
+                // Note that "login" expects a JPA entity manager,
+                // which is not present if we don't wrap the call using
+                // "withTransaction()".
+                User user = newHash == null ? null
+                        : myJpaApi.withTransaction(() -> User.login(form.getEmail(), storedHash, newHash));
+                if (user != null) {
+                    // Check to see if this account has been authenticated or not.
+                    if (user.authenticated) {
+                        // Stores the email and the signed claims as session values
+                        myIdentityResolver.signIn(ctx(), user);
+
+                        // Add a new user event
+                        myEventJournal.addRegularEvent("login", "", user);
+
+                        // Obtain the http context from the configuration file
+                        String context = myConfiguration.getString("play.http.context");
+                        if (context == null) {
+                            context = "";
+                        }
+
+                        // Redirect back to the home page
+                        return redirect(context + "/");
+                    }
+                    else {
+                        // Render the not authenticated page
+                        return ok(notAuthenticated.render(form.getEmail()));
+                    }
                 }
                 else {
-                    // Render the not authenticated page
-                    return CompletableFuture.supplyAsync(() -> ok(notAuthenticated.render(form.getEmail())),
-                            myHttpExecutionContext.current());
+                    // The email and/or password does not match, so we add a new validation error.
+                    userForm.reject(new ValidationError("loginError", "Could not login."));
+
+                    // Render the page with the login form with the errors fields
+                    String token = CSRF.getToken(request()).map(t -> t.value()).orElse("no token");
+                    return badRequest(index.render(userForm, token));
                 }
-            }
-            else {
-                // The email and/or password does not match, so we add a new validation error.
-                userForm.reject(new ValidationError("loginError", "Could not login."));
-
-                // Render the page with the login form with the errors fields
-                String token = CSRF.getToken(request()).map(t -> t.value()).orElse("no token");
-                return CompletableFuture.supplyAsync(() -> badRequest(index.render(userForm, token)),
-                        myHttpExecutionContext.current());
-            }
+            }, myHttpExecutionContext.current());
         }
     }
 
@@ -172,7 +227,8 @@ public class Security extends Controller {
      * <p>This handles the logout action for the Web IDE.</p>
      */
     public Result logout() {
-        // Clear the session
+        // End the session and clear it
+        myIdentityResolver.signOut(ctx());
         session().clear();
 
         // Obtain the http context from the configuration file
@@ -0,0 +1,173 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package deadbolt2.common.models;
+
+import be.objectify.deadbolt.java.models.Permission;
+import be.objectify.deadbolt.java.models.Role;
+import be.objectify.deadbolt.java.models.Subject;
+import java.util.Collections;
+import java.util.List;
+import models.common.database.User;
+
+/**
+ * <p>An immutable snapshot of the parts of a {@link User} that are needed to
+ * authorize a request. Unlike the {@link User} entity, it can be shared
+ * between requests and threads.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public final class UserIdentity implements Subject {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>The roles of a regular user.</p> */
+    private static final List<Role> USER_ROLES =
+            Collections.singletonList(UserRole.USER);
+
+    /** <p>The roles of a super user.</p> */
+    private static final List<Role> SUPERUSER_ROLES =
+            Collections.singletonList(UserRole.SUPERUSER);
+
+    /** <p>The roles of an administrator.</p> */
+    private static final List<Role> ADMIN_ROLES =
+            Collections.singletonList(UserRole.ADMIN);
+
+    /** <p>The permissions of an authenticated user.</p> */
+    private static final List<Permission> ACTIVE_PERMISSIONS =
+            Collections.singletonList(UserPermission.ACTIVEUSER);
+
+    /** <p>The user ID.</p> */
+    public final long id;
+
+    /** <p>The user's email.</p> */
+    public final String email;
+
+    /** <p>The user type (see {@link UserRole#dbRepresentation}).</p> */
+    public final int userType;
+
+    /** <p>Flag that indicates the user has been authenticated.</p> */
+    public final boolean authenticated;
+
+    /** <p>The user's credential version (see {@link User#credentialVersion}).</p> */
+    public final int credentialVersion;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Creates a snapshot of a user.</p>
+     *
+     * @param id The user ID.
+     * @param email The user's email.
+     * @param userType The user type.
+     * @param authenticated Flag that indicates the user has been authenticated.
+     * @param credentialVersion The user's credential version.
+     */
+    public UserIdentity(long id, String email, int userType,
+            boolean authenticated, int credentialVersion) {
+        this.id = id;
+        this.email = email;
+        this.userType = userType;
+        this.authenticated = authenticated;
+        this.credentialVersion = credentialVersion;
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Gets a unique identifier for the subject.</p>
+     *
+     * @return The user ID.
+     */
+    @Override
+    public final String getIdentifier() {
+        return String.valueOf(id);
+    }
+
+    /**
+     * <p>Get all {@link Permission Permissions} held by this subject.</p>
+     *
+     * @return An immutable list of permissions.
+     */
+    @Override
+    public final List<? extends Permission> getPermissions() {
+        return getPermissions(authenticated);
+    }
+
+    /**
+     * <p>Returns the permissions of a user.</p>
+     *
+     * @param authenticated Flag that indicates the user has been authenticated.
+     *
+     * @return An immutable list of permissions.
+     */
+    public static List<Permission> getPermissions(boolean authenticated) {
+        return authenticated ? ACTIVE_PERMISSIONS : Collections.emptyList();
+    }
+
+    /**
+     * <p>Get all {@link Role Roles} held by this subject.</p>
+     *
+     * @return An immutable list of roles.
+     */
+    @Override
+    public final List<? extends Role> getRoles() {
+        return getRoles(userType);
+    }
+
+    /**
+     * <p>Returns the roles of a user type.</p>
+     *
+     * @param userType The user type.
+     *
+     * @return An immutable list of roles.
+     */
+    public static List<Role> getRoles(int userType) {
+        switch (userType) {
+        case 1:
+            return SUPERUSER_ROLES;
+        case 2:
+            return ADMIN_ROLES;
+        default:
+            return USER_ROLES;
+        }
+    }
+
+    /**
+     * <p>Checks to see if this user is an administrator.</p>
+     *
+     * @return {@code true} if it is, {@code false} otherwise.
+     */
+    public final boolean isAdmin() {
+        return userType == UserRole.ADMIN.dbRepresentation;
+    }
+
+    /**
+     * <p>Creates a snapshot of a user.</p>
+     *
+     * @param user A user.
+     *
+     * @return The snapshot.
+     */
+    public static UserIdentity of(User user) {
+        return new UserIdentity(user.id, user.email, user.userType,
+                user.authenticated, user.credentialVersion);
+    }
+
+}
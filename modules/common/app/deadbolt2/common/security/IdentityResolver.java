@@ -0,0 +1,359 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package deadbolt2.common.security;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import deadbolt2.common.models.UserIdentity;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import models.common.database.User;
+import models.common.database.UserChangeListener;
+import play.Configuration;
+import play.db.jpa.JPAApi;
+import play.mvc.Http;
+
+/**
+ * <p>This class resolves the user that is logged in for a request. The user
+ * is looked up at most once per request, and a {@link UserIdentity} snapshot
+ * is kept for a short time in a cache keyed by the session email, so most
+ * requests can be authorized without a database lookup.</p>
+ *
+ * <p>The snapshot is also stored in the session as {@link SessionClaims}.
+ * Those are used first, so a node that has not seen the user yet does not
+ * need a lookup either. The user is only looked up when the claims are
+ * missing, too old or older than a credential change seen by this node.</p>
+ *
+ * <p>The resolver is registered as the {@link UserChangeListener} by
+ * {@code SecurityModule}. Every {@link User} mutator invalidates the cached
+ * snapshot through {@link #userChanged(String)}, and the ones that change
+ * the credentials revoke the older claims through
+ * {@link #credentialsChanged(String, int)}.</p>
+ *
+ * <p>The session also holds an ID from the {@link SessionRegistry}, which
+ * {@link #checkSession(Http.Context)} uses to end sessions that have been
+ * idle for too long or that have been ended elsewhere.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class IdentityResolver implements UserChangeListener {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Default number of seconds a snapshot is cached.</p> */
+    private static final long DEFAULT_EXPIRATION = 30;
+
+    /** <p>Default maximum number of cached snapshots.</p> */
+    private static final long DEFAULT_MAX_SIZE = 10000;
+
+    /** <p>Request argument that stores the resolved snapshot.</p> */
+    private static final String IDENTITY_KEY = "webide.identity";
+
+    /** <p>Request argument that stores the resolved user.</p> */
+    private static final String USER_KEY = "webide.user";
+
+    /** <p>Session key that stores the signed claims.</p> */
+    public static final String CLAIMS_KEY = "claims";
+
+    /** <p>Session key that stores the session ID.</p> */
+    public static final String SESSION_KEY = "sid";
+
+    /** <p>The snapshots keyed by email.</p> */
+    private final Cache<String, UserIdentity> myCache;
+
+    /** <p>The latest credential version seen for each email.</p> */
+    private final Cache<String, Integer> myCredentialVersions;
+
+    /** <p>JPA API</p> */
+    private final JPAApi myJpaApi;
+
+    /** <p>Class that signs the session claims.</p> */
+    private final SessionClaims mySessionClaims;
+
+    /** <p>Class that tracks the logged in sessions.</p> */
+    private final SessionRegistry mySessionRegistry;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates the identity resolver.</p>
+     *
+     * @param configuration Class that retrieves configurations.
+     * @param jpaApi JPA API.
+     * @param sessionClaims Class that signs the session claims.
+     * @param sessionRegistry Class that tracks the logged in sessions.
+     */
+    @Inject
+    public IdentityResolver(Configuration configuration, JPAApi jpaApi,
+            SessionClaims sessionClaims, SessionRegistry sessionRegistry) {
+        myJpaApi = jpaApi;
+        mySessionClaims = sessionClaims;
+        mySessionRegistry = sessionRegistry;
+        myCache =
+                CacheBuilder.newBuilder()
+                        .maximumSize(Math.max(0, configuration.getLong(
+                                "webide.identity.maxSize", DEFAULT_MAX_SIZE)))
+                        .expireAfterWrite(Math.max(0, configuration.getLong(
+                                "webide.identity.expiration", DEFAULT_EXPIRATION)),
+                                TimeUnit.SECONDS)
+                        .build();
+
+        // Claims signed before a credential change are too old to be
+        // accepted once "maxAge" has passed, so the versions can be
+        // forgotten after that.
+        myCredentialVersions =
+                CacheBuilder.newBuilder()
+                        .expireAfterWrite(sessionClaims.getMaxAge(),
+                                TimeUnit.SECONDS)
+                        .build();
+
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Checks the logged in session before a request is handled. The
+     * session is logged out if it has been idle for too long or has
+     * been ended. A session this node does not know (started
+     * on another node or before a restart) is registered if it still has
+     * valid claims.</p>
+     *
+     * @param context The HTTP context.
+     */
+    public final void checkSession(Http.Context context) {
+        String email = context.session().get("connected");
+        if (email == null || !mySessionRegistry.isEnabled()) {
+            return;
+        }
+
+        String sessionID = context.session().get(SESSION_KEY);
+        if (mySessionRegistry.touch(sessionID, email)) {
+            return;
+        }
+
+        if (sessionID != null && readClaims(context, email) != null
+                && mySessionRegistry.adopt(sessionID, email)) {
+            return;
+        }
+
+        signOut(context);
+    }
+
+    /**
+     * <p>Returns the snapshot of the user that is logged in.</p>
+     *
+     * @param context The HTTP context.
+     *
+     * @return The snapshot, or an empty {@link Optional} if nobody is
+     * logged in (or the user no longer exists).
+     */
+    public final Optional<UserIdentity> getIdentity(Http.Context context) {
+        String email = context.session().get("connected");
+        if (email == null) {
+            return Optional.empty();
+        }
+
+        UserIdentity identity = (UserIdentity) context.args.get(IDENTITY_KEY);
+        if (identity != null) {
+            return Optional.of(identity);
+        }
+
+        identity = readClaims(context, email);
+        if (identity == null) {
+            identity = myCache.getIfPresent(email);
+            if (identity == null) {
+                User user = myJpaApi.withTransaction("default", true,
+                        () -> User.findByEmail(email));
+                if (user == null) {
+                    context.session().remove(CLAIMS_KEY);
+                    return Optional.empty();
+                }
+
+                identity = UserIdentity.of(user);
+                myCache.put(email, identity);
+            }
+            writeClaims(context, identity);
+        }
+        context.args.put(IDENTITY_KEY, identity);
+
+        return Optional.of(identity);
+    }
+
+    /**
+     * <p>Returns the user that is logged in. This needs to be called
+     * within a transaction.</p>
+     *
+     * @param context The HTTP context.
+     *
+     * @return The user, or {@code null} if nobody is logged in.
+     */
+    public final User getUser(Http.Context context) {
+        String email = context.session().get("connected");
+        if (email == null) {
+            return null;
+        }
+
+        User user = (User) context.args.get(USER_KEY);
+        if (user == null) {
+            user = User.findByEmail(email);
+            if (user == null) {
+                return null;
+            }
+
+            context.args.put(USER_KEY, user);
+            if (!context.args.containsKey(IDENTITY_KEY)) {
+                UserIdentity identity = UserIdentity.of(user);
+                myCache.put(email, identity);
+                if (readClaims(context, email) == null) {
+                    writeClaims(context, identity);
+                }
+                context.args.put(IDENTITY_KEY, identity);
+            }
+        }
+
+        return user;
+    }
+
+    /**
+     * <p>Stores the email, the signed claims and a new session ID for a user
+     * that just logged in (or changed its email) in the session.</p>
+     *
+     * @param context The HTTP context.
+     * @param user The user.
+     */
+    public final void signIn(Http.Context context, User user) {
+        UserIdentity identity = UserIdentity.of(user);
+        mySessionRegistry.revoke(context.session().get(SESSION_KEY));
+        context.session().put(SESSION_KEY,
+                mySessionRegistry.start(user.email));
+        context.session().put("connected", user.email);
+        myCache.put(user.email, identity);
+        writeClaims(context, identity);
+        context.args.put(IDENTITY_KEY, identity);
+        context.args.put(USER_KEY, user);
+    }
+
+    /**
+     * <p>Ends the session and removes the user from it.</p>
+     *
+     * @param context The HTTP context.
+     */
+    public final void signOut(Http.Context context) {
+        mySessionRegistry.revoke(context.session().get(SESSION_KEY));
+        context.session().remove(SESSION_KEY);
+        context.session().remove(CLAIMS_KEY);
+        context.session().remove("connected");
+        context.args.remove(IDENTITY_KEY);
+        context.args.remove(USER_KEY);
+    }
+
+    /**
+     * <p>Removes the snapshot of a user from the cache. This is called by
+     * the {@link User} mutators.</p>
+     *
+     * @param email The user's email.
+     */
+    @Override
+    public final void userChanged(String email) {
+        myCache.invalidate(email);
+    }
+
+    /**
+     * <p>Removes the snapshot of a user from the cache, ends the user's
+     * sessions and stops accepting the session claims signed for an older
+     * credential version. This is called by the {@link User} mutators that
+     * change the credentials.</p>
+     *
+     * <p>Other nodes stop accepting the older claims when those are
+     * {@code webide.claims.maxAge} seconds old.</p>
+     *
+     * @param email The user's email.
+     * @param credentialVersion The new credential version.
+     */
+    @Override
+    public final void credentialsChanged(String email, int credentialVersion) {
+        myCredentialVersions.asMap().merge(email, credentialVersion, Math::max);
+        myCache.invalidate(email);
+        mySessionRegistry.revokeAll(email);
+    }
+
+    /**
+     * <p>Checks to see if the user that is logged in is an administrator.</p>
+     *
+     * @param context The HTTP context.
+     *
+     * @return {@code true} if it is, {@code false} otherwise.
+     */
+    public final boolean isAdmin(Http.Context context) {
+        return getIdentity(context).map(UserIdentity::isAdmin).orElse(false);
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Reads the session claims.</p>
+     *
+     * @param context The HTTP context.
+     * @param email The {@code connected} email.
+     *
+     * @return The identity in the claims, or {@code null} if there are no
+     * valid claims or they are older than the latest credential version
+     * seen by this node.
+     */
+    private UserIdentity readClaims(Http.Context context, String email) {
+        UserIdentity identity =
+                mySessionClaims.decode(context.session().get(CLAIMS_KEY),
+                        email, System.currentTimeMillis() / 1000);
+        if (identity == null) {
+            return null;
+        }
+
+        Integer latest = myCredentialVersions.getIfPresent(email);
+        if (latest != null && latest > identity.credentialVersion) {
+            return null;
+        }
+
+        return identity;
+    }
+
+    /**
+     * <p>Stores the signed claims in the session.</p>
+     *
+     * @param context The HTTP context.
+     * @param identity The user's identity.
+     */
+    private void writeClaims(Http.Context context, UserIdentity identity) {
+        String claims =
+                mySessionClaims.encode(identity,
+                        System.currentTimeMillis() / 1000);
+        if (claims == null) {
+            context.session().remove(CLAIMS_KEY);
+        }
+        else {
+            context.session().put(CLAIMS_KEY, claims);
+        }
+    }
+
+}
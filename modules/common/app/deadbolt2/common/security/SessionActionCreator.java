@@ -0,0 +1,78 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package deadbolt2.common.security;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletionStage;
+import javax.inject.Inject;
+import play.http.ActionCreator;
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.Result;
+
+/**
+ * <p>An implementation of {@link ActionCreator} that checks the logged
+ * in session through {@link IdentityResolver#checkSession(Http.Context)}
+ * before the controllers and the {@code Deadbolt2} actions see it.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class SessionActionCreator implements ActionCreator {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Class that resolves the logged in user.</p> */
+    private final IdentityResolver myIdentityResolver;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates the action creator.</p>
+     *
+     * @param identityResolver Class that resolves the logged in user.
+     */
+    @Inject
+    public SessionActionCreator(IdentityResolver identityResolver) {
+        myIdentityResolver = identityResolver;
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Creates the action that checks the session.</p>
+     *
+     * @param request The HTTP request.
+     * @param actionMethod The controller method.
+     *
+     * @return The action.
+     */
+    @Override
+    public final Action createAction(Http.Request request, Method actionMethod) {
+        return new Action.Simple() {
+            @Override
+            public CompletionStage<Result> call(Http.Context ctx) {
+                myIdentityResolver.checkSession(ctx);
+
+                return delegate.call(ctx);
+            }
+        };
+    }
+
+}
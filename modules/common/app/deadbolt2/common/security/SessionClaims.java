@@ -0,0 +1,224 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package deadbolt2.common.security;
+
+import deadbolt2.common.models.UserIdentity;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import play.Configuration;
+
+/**
+ * <p>This class signs and verifies the claims about the logged in user that
+ * are stored in the session next to the {@code connected} email. The claims
+ * hold the user ID, the user type, the authenticated flag and the credential
+ * version, so any node that shares the secret can authorize a request
+ * without looking the user up.</p>
+ *
+ * <p>The claims look like
+ * {@code 1.<id>.<userType>.<authenticated>.<credentialVersion>.<issuedAt>.<signature>},
+ * where the signature is an {@code HmacSHA256} of everything before it and the
+ * email, so the claims cannot be moved to another email. Claims older than
+ * {@code webide.claims.maxAge} seconds are not accepted, which bounds how long
+ * a node that has not seen a credential change keeps trusting them.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class SessionClaims {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Default number of seconds the claims are accepted.</p> */
+    private static final long DEFAULT_MAX_AGE = 900;
+
+    /** <p>The signature algorithm.</p> */
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /** <p>The claims format version.</p> */
+    private static final String FORMAT = "1";
+
+    /** <p>Flag that indicates the claims are used.</p> */
+    private final boolean myEnabled;
+
+    /** <p>Number of seconds the claims are accepted.</p> */
+    private final long myMaxAge;
+
+    /** <p>The signing key.</p> */
+    private final SecretKeySpec myKey;
+
+    /** <p>A {@link Mac} for each thread, since they cannot be shared.</p> */
+    private final ThreadLocal<Mac> myMac;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates the claims signer. The key is
+     * {@code webide.claims.secret}, or the application secret if that
+     * is not set.</p>
+     *
+     * @param configuration Class that retrieves configurations.
+     */
+    @Inject
+    public SessionClaims(Configuration configuration) {
+        String secret = configuration.getString("webide.claims.secret");
+        if (secret == null || secret.isEmpty()) {
+            secret = configuration.getString("play.crypto.secret", "");
+        }
+
+        myEnabled = configuration.getBoolean("webide.claims.enabled", true)
+                && !secret.isEmpty();
+        myMaxAge = Math.max(0, configuration.getLong("webide.claims.maxAge",
+                DEFAULT_MAX_AGE));
+        myKey = new SecretKeySpec(secret.isEmpty() ? new byte[1]
+                : secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        myMac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(myKey);
+
+                return mac;
+            }
+            catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Reads the claims for an email.</p>
+     *
+     * @param value The claims stored in the session.
+     * @param email The {@code connected} email.
+     * @param now The current time in seconds.
+     *
+     * @return The identity in the claims, or {@code null} if there are no
+     * claims, the signature does not match or the claims are too old.
+     */
+    public final UserIdentity decode(String value, String email, long now) {
+        if (!myEnabled || value == null || email == null) {
+            return null;
+        }
+
+        int split = value.lastIndexOf('.');
+        if (split < 0) {
+            return null;
+        }
+
+        String payload = value.substring(0, split);
+        byte[] signature;
+        try {
+            signature = Base64.getUrlDecoder().decode(value.substring(split + 1));
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(signature, sign(payload, email))) {
+            return null;
+        }
+
+        String[] fields = payload.split("\\.");
+        if (fields.length != 6 || !FORMAT.equals(fields[0])) {
+            return null;
+        }
+
+        try {
+            long issuedAt = Long.parseLong(fields[5]);
+            if (now - issuedAt > myMaxAge || issuedAt - now > myMaxAge) {
+                return null;
+            }
+
+            return new UserIdentity(Long.parseLong(fields[1]), email,
+                    Integer.parseInt(fields[2]), "1".equals(fields[3]),
+                    Integer.parseInt(fields[4]));
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * <p>Signs the claims for a user.</p>
+     *
+     * @param identity The user's identity.
+     * @param now The current time in seconds.
+     *
+     * @return The claims to store in the session, or {@code null}
+     * if the claims are disabled.
+     */
+    public final String encode(UserIdentity identity, long now) {
+        if (!myEnabled) {
+            return null;
+        }
+
+        String payload = FORMAT + "." + identity.id + "." + identity.userType
+                + "." + (identity.authenticated ? "1" : "0") + "."
+                + identity.credentialVersion + "." + now;
+
+        return payload + "." + Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(sign(payload, identity.email));
+    }
+
+    /**
+     * <p>Checks to see if the claims are used.</p>
+     *
+     * @return {@code true} if they are, {@code false} otherwise.
+     */
+    public final boolean isEnabled() {
+        return myEnabled;
+    }
+
+    /**
+     * <p>Returns the number of seconds the claims are accepted.</p>
+     *
+     * @return The maximum age.
+     */
+    public final long getMaxAge() {
+        return myMaxAge;
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Computes the signature of the claims.</p>
+     *
+     * @param payload The claims without the signature.
+     * @param email The email the claims belong to.
+     *
+     * @return The signature.
+     */
+    private byte[] sign(String payload, String email) {
+        Mac mac = myMac.get();
+        mac.update(payload.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+
+        return mac.doFinal(email.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
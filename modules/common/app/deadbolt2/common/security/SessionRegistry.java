@@ -0,0 +1,480 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package deadbolt2.common.security;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import utils.common.timer.TimingWheel;
+
+/**
+ * <p>This class keeps track of the logged in sessions in memory, so a
+ * session that has been idle for longer than
+ * {@code webide.sessions.idleTimeout} minutes, or that has been ended by a
+ * logout or a password reset, is no longer accepted even though the
+ * session cookie never expires.</p>
+ *
+ * <p>Marking a session as used is a single write to its entry, so requests
+ * never write to the database. The entries are scheduled on a
+ * hierarchical {@link TimingWheel} when they are created. When an entry
+ * comes up, it is either dropped or scheduled again for the end of its
+ * idle time.</p>
+ *
+ * <p>The registry is per node. A session that this node does not know is
+ * handled by {@link IdentityResolver#checkSession}. Ended sessions are
+ * remembered for as long as their session claims can be accepted, so they
+ * cannot be brought back that way.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class SessionRegistry {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Default idle timeout in minutes.</p> */
+    private static final int DEFAULT_IDLE_TIMEOUT = 30;
+
+    /** <p>Number of milliseconds in a tick of the wheel.</p> */
+    private static final long TICK_MILLIS = 1000;
+
+    /** <p>Number of slots in each level of the wheel.</p> */
+    private static final int WHEEL_SIZE = 64;
+
+    /** <p>Number of levels in the wheel.</p> */
+    private static final int WHEEL_LEVELS = 3;
+
+    /** <p>Number of random bytes in a session ID.</p> */
+    private static final int ID_LENGTH = 16;
+
+    /** <p>Source of the session IDs.</p> */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /** <p>Flag that indicates the sessions are tracked.</p> */
+    private final boolean myIsEnabled;
+
+    /** <p>Number of nanoseconds a session can be idle.</p> */
+    private final long myIdleNanos;
+
+    /** <p>The sessions, keyed by session ID.</p> */
+    private final ConcurrentMap<String, SessionEntry> mySessions;
+
+    /** <p>The sessions of each user, keyed by email.</p> */
+    private final ConcurrentMap<String, Set<SessionEntry>> myUserSessions;
+
+    /** <p>The IDs of the sessions that have ended.</p> */
+    private final Cache<String, Boolean> myEndedSessions;
+
+    /** <p>The wheel that finds the idle sessions.</p> */
+    private final TimingWheel<SessionEntry> myWheel;
+
+    /** <p>Time the ticks are counted from.</p> */
+    private final long myStartNanos;
+
+    /** <p>Number of sessions that were started.</p> */
+    private final LongAdder myNumStarted;
+
+    /** <p>Number of sessions started on another node that were taken over.</p> */
+    private final LongAdder myNumAdopted;
+
+    /** <p>Number of sessions that timed out.</p> */
+    private final LongAdder myNumExpired;
+
+    /** <p>Number of sessions that were ended.</p> */
+    private final LongAdder myNumRevoked;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates the session registry and, if it is enabled, starts the
+     * thread that expires the idle sessions.</p>
+     *
+     * @param configuration Class that retrieves configurations.
+     * @param sessionClaims Class that signs the session claims.
+     * @param lifecycle Application lifecycle.
+     */
+    @Inject
+    public SessionRegistry(Configuration configuration,
+            SessionClaims sessionClaims, ApplicationLifecycle lifecycle) {
+        myIsEnabled = configuration.getBoolean("webide.sessions.enabled", true);
+        myIdleNanos =
+                TimeUnit.MINUTES.toNanos(Math.max(1, configuration.getInt(
+                        "webide.sessions.idleTimeout", DEFAULT_IDLE_TIMEOUT)));
+        mySessions = new ConcurrentHashMap<>();
+        myUserSessions = new ConcurrentHashMap<>();
+        myEndedSessions =
+                CacheBuilder.newBuilder()
+                        .expireAfterWrite(sessionClaims.getMaxAge(), TimeUnit.SECONDS)
+                        .build();
+        myStartNanos = System.nanoTime();
+        myWheel = new TimingWheel<>(WHEEL_SIZE, WHEEL_LEVELS, 0);
+        myNumStarted = new LongAdder();
+        myNumAdopted = new LongAdder();
+        myNumExpired = new LongAdder();
+        myNumRevoked = new LongAdder();
+
+        if (myIsEnabled) {
+            ScheduledExecutorService expirer =
+                    Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "webide-session-expirer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            expirer.scheduleWithFixedDelay(this::expireSafely, TICK_MILLIS,
+                    TICK_MILLIS, TimeUnit.MILLISECONDS);
+
+            lifecycle.addStopHook(() -> {
+                expirer.shutdownNow();
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Registers a session that was started on another node (or before
+     * this node was restarted).</p>
+     *
+     * @param sessionID The session ID.
+     * @param email The user's email.
+     *
+     * @return {@code true} if the session was registered, {@code false}
+     * if it has ended.
+     */
+    public final boolean adopt(String sessionID, String email) {
+        if (!myIsEnabled) {
+            return true;
+        }
+        if (isEnded(sessionID)) {
+            return false;
+        }
+
+        if (add(sessionID, email)) {
+            myNumAdopted.increment();
+        }
+
+        return true;
+    }
+
+    /**
+     * <p>Retrieves the number of sessions and the session counters.</p>
+     *
+     * @return The metrics as JSON.
+     */
+    public final ObjectNode getMetrics() {
+        ObjectNode metrics = Json.newObject();
+        metrics.put("enabled", myIsEnabled);
+        metrics.put("activeSessions", mySessions.size());
+        metrics.put("activeUsers", myUserSessions.size());
+        metrics.put("started", myNumStarted.sum());
+        metrics.put("adopted", myNumAdopted.sum());
+        metrics.put("expired", myNumExpired.sum());
+        metrics.put("revoked", myNumRevoked.sum());
+
+        return metrics;
+    }
+
+    /**
+     * <p>Returns the number of sessions that have not ended or timed out.</p>
+     *
+     * @return The number of sessions.
+     */
+    public final int getNumActiveSessions() {
+        return mySessions.size();
+    }
+
+    /**
+     * <p>Checks to see if the registry is used.</p>
+     *
+     * @return {@code true} if it is, {@code false} otherwise.
+     */
+    public final boolean isEnabled() {
+        return myIsEnabled;
+    }
+
+    /**
+     * <p>Checks to see if a session has ended (or timed out) recently.</p>
+     *
+     * @param sessionID The session ID.
+     *
+     * @return {@code true} if it has, {@code false} otherwise.
+     */
+    public final boolean isEnded(String sessionID) {
+        return sessionID != null && myEndedSessions.getIfPresent(sessionID) != null;
+    }
+
+    /**
+     * <p>Ends a session.</p>
+     *
+     * @param sessionID The session ID.
+     */
+    public final void revoke(String sessionID) {
+        if (sessionID == null) {
+            return;
+        }
+
+        SessionEntry entry = mySessions.get(sessionID);
+        if (entry != null && remove(entry)) {
+            myNumRevoked.increment();
+        }
+        myEndedSessions.put(sessionID, true);
+    }
+
+    /**
+     * <p>Ends all the sessions of a user.</p>
+     *
+     * @param email The user's email.
+     *
+     * @return The number of sessions that were ended.
+     */
+    public final int revokeAll(String email) {
+        Set<SessionEntry> entries = email == null ? null : myUserSessions.get(email);
+        if (entries == null) {
+            return 0;
+        }
+
+        int numRevoked = 0;
+        for (SessionEntry entry : entries) {
+            if (remove(entry)) {
+                numRevoked++;
+            }
+            myEndedSessions.put(entry.id, true);
+        }
+        myNumRevoked.add(numRevoked);
+
+        return numRevoked;
+    }
+
+    /**
+     * <p>Starts a new session.</p>
+     *
+     * @param email The user's email.
+     *
+     * @return The new session ID.
+     */
+    public final String start(String email) {
+        byte[] bytes = new byte[ID_LENGTH];
+        RANDOM.nextBytes(bytes);
+        String sessionID = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+
+        if (myIsEnabled && add(sessionID, email)) {
+            myNumStarted.increment();
+        }
+
+        return sessionID;
+    }
+
+    /**
+     * <p>Marks a session as used.</p>
+     *
+     * @param sessionID The session ID.
+     * @param email The email stored in the session.
+     *
+     * @return {@code true} if the session is registered for this email and
+     * has not timed out, {@code false} otherwise.
+     */
+    public final boolean touch(String sessionID, String email) {
+        return touch(sessionID, email, System.nanoTime());
+    }
+
+    // ===========================================================
+    // Package Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Drops the sessions that have been idle for too long at the
+     * specified time. The wheel is only advanced by one thread at
+     * a time.</p>
+     *
+     * @param now The current time from {@link System#nanoTime()}.
+     */
+    final synchronized void expire(long now) {
+        myWheel.advance(toTick(now), entry -> {
+            if (entry.ended) {
+                return -1;
+            }
+
+            long idleAt = entry.lastAccess + myIdleNanos;
+            if (idleAt - now > 0) {
+                return toTick(idleAt) + 1;
+            }
+
+            if (remove(entry)) {
+                myEndedSessions.put(entry.id, true);
+                myNumExpired.increment();
+            }
+
+            return -1;
+        });
+    }
+
+    /**
+     * <p>Marks a session as used at the specified time.</p>
+     *
+     * @param sessionID The session ID.
+     * @param email The email stored in the session.
+     * @param now The current time from {@link System#nanoTime()}.
+     *
+     * @return {@code true} if the session is registered for this email and
+     * has not timed out, {@code false} otherwise.
+     */
+    final boolean touch(String sessionID, String email, long now) {
+        if (!myIsEnabled) {
+            return true;
+        }
+
+        SessionEntry entry = sessionID == null ? null : mySessions.get(sessionID);
+        if (entry == null || !entry.email.equals(email)) {
+            return false;
+        }
+
+        if (now - entry.lastAccess - myIdleNanos >= 0) {
+            // Timed out, but the wheel has not come around yet
+            return false;
+        }
+        entry.lastAccess = now;
+
+        return true;
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Adds a session.</p>
+     *
+     * @param sessionID The session ID.
+     * @param email The user's email.
+     *
+     * @return {@code true} if it was added, {@code false} if it
+     * already existed.
+     */
+    private boolean add(String sessionID, String email) {
+        SessionEntry entry = new SessionEntry(sessionID, email, System.nanoTime());
+        if (mySessions.putIfAbsent(sessionID, entry) != null) {
+            return false;
+        }
+
+        myUserSessions.computeIfAbsent(email,
+                key -> ConcurrentHashMap.newKeySet()).add(entry);
+        myWheel.schedule(entry, toTick(entry.lastAccess + myIdleNanos) + 1);
+
+        return true;
+    }
+
+    /**
+     * <p>Drops the sessions that have been idle for too long.</p>
+     */
+    private void expireSafely() {
+        try {
+            expire(System.nanoTime());
+        }
+        catch (RuntimeException e) {
+            Logger.error("Failed to expire the idle sessions.", e);
+        }
+    }
+
+    /**
+     * <p>Removes a session.</p>
+     *
+     * @param entry The session.
+     *
+     * @return {@code true} if it was removed by this call,
+     * {@code false} otherwise.
+     */
+    private boolean remove(SessionEntry entry) {
+        if (!mySessions.remove(entry.id, entry)) {
+            return false;
+        }
+
+        entry.ended = true;
+        myUserSessions.computeIfPresent(entry.email, (key, entries) -> {
+            entries.remove(entry);
+            return entries.isEmpty() ? null : entries;
+        });
+
+        return true;
+    }
+
+    /**
+     * <p>Converts a time to a tick of the wheel.</p>
+     *
+     * @param nanos A time from {@link System#nanoTime()}.
+     *
+     * @return The tick.
+     */
+    private long toTick(long nanos) {
+        return (nanos - myStartNanos) / TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+    }
+
+    // ===========================================================
+    // Session Entry
+    // ===========================================================
+
+    /**
+     * <p>A logged in session.</p>
+     */
+    private static final class SessionEntry {
+
+        /** <p>Session ID.</p> */
+        final String id;
+
+        /** <p>The user's email.</p> */
+        final String email;
+
+        /** <p>Time the session was last used, from {@link System#nanoTime()}.</p> */
+        volatile long lastAccess;
+
+        /** <p>Flag that indicates the session has ended.</p> */
+        volatile boolean ended;
+
+        /**
+         * <p>Creates a session.</p>
+         *
+         * @param id Session ID.
+         * @param email The user's email.
+         * @param lastAccess Time the session was last used.
+         */
+        SessionEntry(String id, String email, long lastAccess) {
+            this.id = id;
+            this.email = email;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+}
@@ -20,7 +20,6 @@ import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
-import models.common.database.User;
 import play.mvc.Http;
 import play.mvc.Result;
 
@@ -33,6 +32,13 @@ import play.mvc.Result;
  */
 public class WebIDEDeadboltHandler extends AbstractDeadboltHandler {
 
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Class that resolves the user that is logged in.</p> */
+    private final IdentityResolver myIdentityResolver;
+
     // ===========================================================
     // Constructors
     // ===========================================================
@@ -42,9 +48,12 @@ public class WebIDEDeadboltHandler extends AbstractDeadboltHandler {
      * for the entire RESOLVE WebIDE application.</p>
      *
      * @param ecProvider the execution context
+     * @param identityResolver class that resolves the user that is logged in
      */
-    public WebIDEDeadboltHandler(ExecutionContextProvider ecProvider) {
+    public WebIDEDeadboltHandler(ExecutionContextProvider ecProvider,
+            IdentityResolver identityResolver) {
         super(ecProvider);
+        myIdentityResolver = identityResolver;
     }
 
     // ===========================================================
@@ -56,13 +65,15 @@ public class WebIDEDeadboltHandler extends AbstractDeadboltHandler {
      *
      * @param context the HTTP context
      *
-     * @return A {@link User} if the user is logged in, {@code null} otherwise.
+     * @return A {@link deadbolt2.common.models.UserIdentity} if the user
+     * is logged in, an empty {@link Optional} otherwise.
      */
     @Override
     public final CompletionStage<Optional<? extends Subject>> getSubject(final Http.Context context) {
-        // Retrieve the current user (if logged in)
-        return CompletableFuture.supplyAsync(() -> Optional.ofNullable(
-                User.findByEmail(context.session().get("connected"))),
+        // Retrieve the current user (if logged in). The resolver opens its
+        // own transaction if the user is not cached.
+        return CompletableFuture.supplyAsync(
+                () -> myIdentityResolver.getIdentity(context),
                 (Executor) executionContextProvider.get());
     }
 
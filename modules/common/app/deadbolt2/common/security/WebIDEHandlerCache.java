@@ -50,10 +50,12 @@ public class WebIDEHandlerCache implements HandlerCache {
      * all the different {@link DeadboltHandler DeadboltHandlers} we have.</p>
      *
      * @param ecProvider the execution context
+     * @param identityResolver class that resolves the user that is logged in
      */
     @Inject
-    public WebIDEHandlerCache(final ExecutionContextProvider ecProvider) {
-        defaultHandler = new WebIDEDeadboltHandler(ecProvider);
+    public WebIDEHandlerCache(final ExecutionContextProvider ecProvider,
+            final IdentityResolver identityResolver) {
+        defaultHandler = new WebIDEDeadboltHandler(ecProvider, identityResolver);
         handlers.put(ConfigKeys.DEFAULT_HANDLER_KEY, defaultHandler);
     }
 
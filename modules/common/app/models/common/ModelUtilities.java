@@ -30,7 +30,9 @@ public class ModelUtilities {
     // ===========================================================
 
     /**
-     * <p>Encrypts the user password.</p>
+     * <p>Encrypts the user password with the legacy unsalted hash. New
+     * passwords are hashed by {@link utils.common.security.PasswordHasher},
+     * which only uses this to check the hashes created before it.</p>
      *
      * @param password The un-encrypted user password.
      *
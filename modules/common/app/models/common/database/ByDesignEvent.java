@@ -14,22 +14,40 @@ package models.common.database;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import javax.persistence.*;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import play.data.validation.Constraints;
 import play.db.jpa.JPA;
 import play.db.jpa.Transactional;
+import utils.common.delta.LineDelta;
 
 /**
  * <p>This class is the relational mapping of a user event in the database and provides
  * methods to change the {@code byDesign} events in the database.</p>
  *
+ * <p>Successive attempts on a lesson usually contain nearly the same code,
+ * so the code of an event might be stored as a {@link LineDelta} against
+ * the author's previous attempt on the same lesson (see {@link #codeBase}).
+ * Every few attempts the full code is stored again, which keeps the chains
+ * of deltas short. Use {@link #getUserEventCode(Long)} to retrieve the
+ * full code of an event.</p>
+ *
  * @author Yu-Shan Sun
  * @version 1.0
  */
 @Entity
-@Table(name = "byDesignEvents")
+@Table(name = "byDesignEvents", indexes = {
+        @Index(name = "idx_bydesign_author_id", columnList = "author, id"),
+        @Index(name = "idx_bydesign_author_lesson", columnList = "author, lesson"),
+        @Index(name = "idx_bydesign_author_date", columnList = "author, eventDate") },
+        uniqueConstraints = {
+        @UniqueConstraint(name = "uk_bydesign_author_client_event",
+                columnNames = { "author", "clientEventID" }) })
 public class ByDesignEvent {
 
     // ===========================================================
@@ -45,10 +63,28 @@ public class ByDesignEvent {
     @Constraints.Required
     public long author;
 
-    /** <p>Code associated with this {@code byDesign} event.</p> */
-    @Lob
+    /**
+     * <p>Code associated with this {@code byDesign} event. If {@link #codeBase}
+     * is set, this is a {@link LineDelta} against the code of that event
+     * instead.</p>
+     */
+    @Convert(converter = CompressedTextConverter.class)
+    @Column(columnDefinition = "LONGBLOB")
     public String code;
 
+    /**
+     * <p>ID of the event that {@link #code} is a delta against, or {@code null}
+     * if {@link #code} is the full code.</p>
+     */
+    public Long codeBase;
+
+    /**
+     * <p>Number of deltas that need to be applied to get the full code,
+     * or {@code 0} if {@link #code} is the full code.</p>
+     */
+    @Column(columnDefinition = "INT DEFAULT 0 NOT NULL")
+    public int codeDepth;
+
     /**
      * <p>Boolean flag that indicates whether or not the code referred by this
      * {@code byDesign} event verified.</p>
@@ -57,9 +93,11 @@ public class ByDesignEvent {
     public boolean correct;
 
     /** <p>Lesson name associated with this {@code byDesign} event.</p> */
+    @Column(length = MAX_NAME_LENGTH)
     public String lesson;
 
     /** <p>Module name associated with this {@code byDesign} event.</p> */
+    @Column(length = MAX_NAME_LENGTH)
     public String module;
 
     /** <p>Points associated with this {@code byDesign} event.</p> */
@@ -75,6 +113,42 @@ public class ByDesignEvent {
     @Temporal(TemporalType.TIMESTAMP)
     public Date eventDate;
 
+    /**
+     * <p>Optional ID the client assigned to this {@code byDesign} event.
+     * It is unique for each author, so an event the client sends more than
+     * once is only stored once.</p>
+     */
+    @Column(length = MAX_CLIENT_EVENT_ID_LENGTH)
+    public String clientEventID;
+
+    /** <p>Maximum length of a client-assigned event ID.</p> */
+    public static final int MAX_CLIENT_EVENT_ID_LENGTH = 64;
+
+    /** <p>Maximum length of a lesson or module name.</p> */
+    public static final int MAX_NAME_LENGTH = 255;
+
+    /**
+     * <p>A plain JDBC statement that inserts a {@code byDesign} event. The
+     * parameters are the author, code, correct flag, lesson, module, points,
+     * time, date and client event ID. This allows many events to be inserted
+     * in a single JDBC batch.</p>
+     */
+    public static final String BATCH_INSERT_SQL =
+            "insert into byDesignEvents (author, code, correct, lesson, module, "
+                    + "points, time, eventDate, clientEventID) "
+                    + "values (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /** <p>Default number of characters kept in the code cache.</p> */
+    private static final long DEFAULT_CODE_CACHE_SIZE = 16L * 1024 * 1024;
+
+    /**
+     * <p>Recently retrieved full code keyed by event ID. The full code of
+     * an event never changes (only how it is stored does), so the entries
+     * never need to be invalidated.</p>
+     */
+    private static volatile Cache<Long, String> myCodeCache =
+            newCodeCache(DEFAULT_CODE_CACHE_SIZE);
+
     // ===========================================================
     // Constructors
     // ===========================================================
@@ -113,7 +187,9 @@ public class ByDesignEvent {
     // ===========================================================
 
     /**
-     * <p>Add a {@code byDesign} related event to the database.</p>
+     * <p>Add a {@code byDesign} related event to the database. The
+     * {@link ByDesignLessonRollup} for the author and lesson is updated
+     * in the same transaction.</p>
      *
      * @param bdAuthor The author's id number.
      * @param bdCode The code associated with this event.
@@ -134,12 +210,95 @@ public class ByDesignEvent {
                 new ByDesignEvent(bdAuthor, bdCode, bdCorrect, bdLesson,
                         bdModule, bdPoints, bdTime);
         bde.save();
+        ByDesignLessonRollup.addEvent(bde);
 
         return bde;
     }
 
     /**
-     * <p>Retrieves the code that stored in the specified event ID.</p>
+     * <p>Retrieves the distinct author IDs that are greater than the
+     * specified author ID. This allows callers to walk through all the
+     * authors one batch at a time.</p>
+     *
+     * @param afterAuthor Only include author IDs greater than this one.
+     * @param maxResults Maximum number of author IDs to retrieve.
+     *
+     * @return List of author IDs in ascending order.
+     */
+    @Transactional(readOnly = true)
+    public static List<Long> getAuthorsAfter(long afterAuthor, int maxResults) {
+        Query query =
+                JPA.em()
+                        .createQuery(
+                                "select distinct bde.author from ByDesignEvent bde "
+                                        + "where bde.author > :author order by bde.author",
+                                Long.class);
+        query.setParameter("author", afterAuthor);
+        query.setMaxResults(maxResults);
+        List results = query.getResultList();
+
+        return Lists.newArrayList(Iterables.filter(results, Long.class));
+    }
+
+    /**
+     * <p>Retrieves the diff between the code of the specified event and the
+     * code of the author's previous attempt on the same lesson. If the code
+     * is stored as a delta against the previous attempt, the stored delta
+     * is simply rendered.</p>
+     *
+     * @param id The {@code byDesign} event ID.
+     *
+     * @return The diff in the format of {@link LineDelta#render(String, String)},
+     * or {@code null} if there is no previous attempt.
+     */
+    @Transactional(readOnly = true)
+    public static String getPreviousAttemptDiff(Long id) {
+        Query query =
+                JPA.em()
+                        .createQuery(
+                                "select bde.author, bde.lesson, bde.code, bde.codeBase "
+                                        + "from ByDesignEvent bde where bde.id = :id",
+                                Object[].class);
+        query.setParameter("id", id);
+        query.setMaxResults(1);
+        Object[] row = (Object[]) query.getSingleResult();
+        String lesson = (String) row[1];
+        String code = (String) row[2];
+        Long codeBase = (Long) row[3];
+
+        Query previousQuery =
+                JPA.em()
+                        .createQuery(
+                                "select max(bde.id) from ByDesignEvent bde "
+                                        + "where bde.author = :author and bde.id < :id and "
+                                        + (lesson == null ? "bde.lesson is null"
+                                                : "bde.lesson = :lesson"),
+                                Long.class);
+        previousQuery.setParameter("author", row[0]);
+        previousQuery.setParameter("id", id);
+        if (lesson != null) {
+            previousQuery.setParameter("lesson", lesson);
+        }
+        Long previousID = (Long) previousQuery.getSingleResult();
+        if (previousID == null) {
+            return null;
+        }
+
+        String previousCode = getUserEventCode(previousID);
+        if (previousID.equals(codeBase)) {
+            return LineDelta.render(previousCode, code);
+        }
+
+        String fullCode = getUserEventCode(id);
+        return LineDelta.render(Strings.nullToEmpty(previousCode),
+                LineDelta.diff(Strings.nullToEmpty(previousCode),
+                        Strings.nullToEmpty(fullCode)));
+    }
+
+    /**
+     * <p>Retrieves the code that stored in the specified event ID. If the
+     * code is stored as a delta, the code of the events it depends on is
+     * retrieved and the deltas are applied.</p>
      *
      * @param id The {@code byDesign} event ID.
      *
@@ -147,20 +306,37 @@ public class ByDesignEvent {
      */
     @Transactional(readOnly = true)
     public static String getUserEventCode(Long id) {
+        String cached = myCodeCache.getIfPresent(id);
+        if (cached != null) {
+            return cached;
+        }
+
         Query query =
                 JPA.em()
                         .createQuery(
-                                "select bde.code from ByDesignEvent bde where bde.id = :id",
-                                String.class);
+                                "select bde.code, bde.codeBase from ByDesignEvent bde where bde.id = :id",
+                                Object[].class);
         query.setParameter("id", id);
         query.setMaxResults(1);
+        Object[] row = (Object[]) query.getSingleResult();
+        String code = (String) row[0];
+        Long codeBase = (Long) row[1];
+        if (codeBase != null) {
+            code = LineDelta.apply(getUserEventCode(codeBase), code);
+        }
+
+        if (code != null) {
+            myCodeCache.put(id, code);
+        }
 
-        return (String) query.getSingleResult();
+        return code;
     }
 
     /**
      * <p>Retrieves the list of events generated by the specified author.</p>
      *
+     * <p>Note that the {@link #code} of these events might be a delta.</p>
+     *
      * @param authorID An author ID.
      *
      * @return List of all {@code byDesign} events generated by
@@ -179,10 +355,287 @@ public class ByDesignEvent {
                 .filter(results, ByDesignEvent.class));
     }
 
+    /**
+     * <p>Retrieves a summary of the events generated by any of the specified
+     * authors using a single {@code author in (...)} query. The summaries
+     * contain every column except the code, so the code {@code LOB} is never
+     * loaded. Use {@link #getUserEventCode(Long)} to retrieve the code for a
+     * particular event.</p>
+     *
+     * <p>Note that callers are responsible for keeping the number of
+     * authors in a reasonable range, since the entire list is bound
+     * as query parameters.</p>
+     *
+     * @param authorIDs A list of author IDs.
+     *
+     * @return List of {@link ByDesignEventSummary} for all {@code byDesign}
+     * events generated by the specified author IDs ordered by event ID.
+     */
+    @Transactional(readOnly = true)
+    public static List<ByDesignEventSummary> getUserEventSummaries(
+            List<Long> authorIDs) {
+        Query query =
+                JPA.em()
+                        .createQuery(
+                                "select new models.common.database.ByDesignEventSummary("
+                                        + "bde.id, bde.author, bde.correct, bde.lesson, bde.module, "
+                                        + "bde.points, bde.time, bde.eventDate) "
+                                        + "from ByDesignEvent bde where bde.author in :authors order by bde.id",
+                                ByDesignEventSummary.class);
+        query.setParameter("authors", authorIDs);
+        List results = query.getResultList();
+
+        return Lists.newArrayList(Iterables.filter(results,
+                ByDesignEventSummary.class));
+    }
+
+    /**
+     * <p>Retrieves a summary of the events generated by each of the specified
+     * authors with IDs greater than the event ID specified for that author.
+     * This retrieves the events added since a previous call to
+     * {@link #getUserEventSummaries(List)}.</p>
+     *
+     * <p>Note that callers are responsible for keeping the number of
+     * authors in a reasonable range, since the entire map is bound
+     * as query parameters.</p>
+     *
+     * @param afterIDs A map from author IDs to the event ID that the
+     *                 author's events must be greater than.
+     *
+     * @return List of {@link ByDesignEventSummary} ordered by event ID.
+     */
+    @Transactional(readOnly = true)
+    public static List<ByDesignEventSummary> getUserEventSummariesAfter(
+            Map<Long, Long> afterIDs) {
+        // Each condition is a range on the author index,
+        // which also holds the event ID.
+        StringBuilder sb = new StringBuilder();
+        sb.append("select new models.common.database.ByDesignEventSummary(");
+        sb.append("bde.id, bde.author, bde.correct, bde.lesson, bde.module, ");
+        sb.append("bde.points, bde.time, bde.eventDate) from ByDesignEvent bde where ");
+        for (int i = 0; i < afterIDs.size(); i++) {
+            if (i > 0) {
+                sb.append(" or ");
+            }
+            sb.append("(bde.author = :author").append(i);
+            sb.append(" and bde.id > :id").append(i).append(")");
+        }
+        sb.append(" order by bde.id");
+
+        Query query = JPA.em().createQuery(sb.toString(), ByDesignEventSummary.class);
+        int i = 0;
+        for (Map.Entry<Long, Long> entry : afterIDs.entrySet()) {
+            query.setParameter("author" + i, entry.getKey());
+            query.setParameter("id" + i, entry.getValue());
+            i++;
+        }
+        List results = query.getResultList();
+
+        return Lists.newArrayList(Iterables.filter(results,
+                ByDesignEventSummary.class));
+    }
+
+    /**
+     * <p>Retrieves a batch of event summaries with IDs greater than the
+     * specified event ID. This allows callers to walk through all the events
+     * one batch at a time without ever loading the code.</p>
+     *
+     * @param afterID Only include events with IDs greater than this one.
+     * @param maxResults Maximum number of events to retrieve.
+     *
+     * @return List of {@link ByDesignEventSummary} ordered by event ID.
+     */
+    @Transactional(readOnly = true)
+    public static List<ByDesignEventSummary> getEventSummariesAfter(
+            long afterID, int maxResults) {
+        Query query =
+                JPA.em()
+                        .createQuery(
+                                "select new models.common.database.ByDesignEventSummary("
+                                        + "bde.id, bde.author, bde.correct, bde.lesson, bde.module, "
+                                        + "bde.points, bde.time, bde.eventDate) "
+                                        + "from ByDesignEvent bde where bde.id > :id order by bde.id",
+                                ByDesignEventSummary.class);
+        query.setParameter("id", afterID);
+        query.setMaxResults(maxResults);
+        List results = query.getResultList();
+
+        return Lists.newArrayList(Iterables.filter(results,
+                ByDesignEventSummary.class));
+    }
+
+    /**
+     * <p>Retrieves the distinct lesson names of the events generated by any
+     * of the specified authors.</p>
+     *
+     * <p>Note that callers are responsible for keeping the number of
+     * authors in a reasonable range, since the entire list is bound
+     * as query parameters.</p>
+     *
+     * @param authorIDs A list of author IDs.
+     *
+     * @return List of lesson names. Events without a lesson are reported
+     * under the empty lesson name.
+     */
+    @Transactional(readOnly = true)
+    public static List<String> getUserLessons(List<Long> authorIDs) {
+        Query query =
+                JPA.em()
+                        .createQuery(
+                                "select distinct coalesce(bde.lesson, '') from ByDesignEvent bde "
+                                        + "where bde.author in :authors",
+                                String.class);
+        query.setParameter("authors", authorIDs);
+        List results = query.getResultList();
+
+        return Lists.newArrayList(Iterables.filter(results, String.class));
+    }
+
+    /**
+     * <p>Counts the attempts each of the specified authors made on each
+     * lesson using a single {@code group by} query. The query only needs
+     * the {@code (author, lesson)} index, so the events themselves are
+     * never read.</p>
+     *
+     * <p>Note that callers are responsible for keeping the number of
+     * authors in a reasonable range, since the entire list is bound
+     * as query parameters.</p>
+     *
+     * @param authorIDs A list of author IDs.
+     *
+     * @return List of {@code [author, lesson, attempts]} rows ordered by
+     * author ID. Events without a lesson are reported under the empty
+     * lesson name.
+     */
+    @Transactional(readOnly = true)
+    public static List<Object[]> getUserLessonAttempts(List<Long> authorIDs) {
+        Query query =
+                JPA.em()
+                        .createQuery(
+                                "select bde.author, coalesce(bde.lesson, ''), count(bde) "
+                                        + "from ByDesignEvent bde where bde.author in :authors "
+                                        + "group by bde.author, coalesce(bde.lesson, '') order by bde.author",
+                                Object[].class);
+        query.setParameter("authors", authorIDs);
+        List results = query.getResultList();
+
+        return Lists.newArrayList(Iterables.filter(results, Object[].class));
+    }
+
+    /**
+     * <p>Retrieves a single page of event summaries generated by any of the
+     * specified authors that satisfy the specified filters. The page starts
+     * right after the position stored in the filter (keyset pagination).</p>
+     *
+     * @param authorIDs A list of author IDs.
+     * @param filter The filters, sort order and position of the page.
+     * @param maxResults Maximum number of events in the page.
+     *
+     * @return List of {@link ByDesignEventSummary} in the requested sort order.
+     */
+    @Transactional(readOnly = true)
+    public static List<ByDesignEventSummary> getUserEventSummaryPage(
+            List<Long> authorIDs, ByDesignEventFilter filter, int maxResults) {
+        String sortField = "bde." + filter.sortKey.fieldName;
+        String direction = filter.descending ? " desc" : " asc";
+
+        // Form the query using the filters we have
+        StringBuilder sb = new StringBuilder();
+        sb.append("select new models.common.database.ByDesignEventSummary(");
+        sb.append("bde.id, bde.author, bde.correct, bde.lesson, bde.module, ");
+        sb.append("bde.points, bde.time, bde.eventDate) ");
+        sb.append("from ByDesignEvent bde where bde.author in :authors");
+        if (filter.lesson != null) {
+            sb.append(" and bde.lesson = :lesson");
+        }
+        if (filter.module != null) {
+            sb.append(" and bde.module = :module");
+        }
+        if (filter.correct != null) {
+            sb.append(" and bde.correct = :correct");
+        }
+        if (filter.from != null) {
+            sb.append(" and bde.eventDate >= :fromDate");
+        }
+        if (filter.to != null) {
+            sb.append(" and bde.eventDate < :toDate");
+        }
+        if (filter.afterID != null) {
+            String comparison = filter.descending ? " < " : " > ";
+            if (filter.sortKey == ByDesignEventFilter.SortKey.ID) {
+                sb.append(" and bde.id").append(comparison).append(":afterID");
+            }
+            else {
+                sb.append(" and (").append(sortField).append(comparison)
+                        .append(":afterValue or (").append(sortField)
+                        .append(" = :afterValue and bde.id")
+                        .append(comparison).append(":afterID))");
+            }
+        }
+        sb.append(" order by ");
+        if (filter.sortKey != ByDesignEventFilter.SortKey.ID) {
+            sb.append(sortField).append(direction).append(", ");
+        }
+        sb.append("bde.id").append(direction);
+
+        Query query =
+                JPA.em().createQuery(sb.toString(),
+                        ByDesignEventSummary.class);
+        query.setParameter("authors", authorIDs);
+        if (filter.lesson != null) {
+            query.setParameter("lesson", filter.lesson);
+        }
+        if (filter.module != null) {
+            query.setParameter("module", filter.module);
+        }
+        if (filter.correct != null) {
+            query.setParameter("correct", filter.correct);
+        }
+        if (filter.from != null) {
+            query.setParameter("fromDate", filter.from, TemporalType.TIMESTAMP);
+        }
+        if (filter.to != null) {
+            query.setParameter("toDate", filter.to, TemporalType.TIMESTAMP);
+        }
+        if (filter.afterID != null) {
+            query.setParameter("afterID", filter.afterID);
+            if (filter.sortKey != ByDesignEventFilter.SortKey.ID) {
+                query.setParameter("afterValue", filter.afterValue);
+            }
+        }
+        query.setMaxResults(maxResults);
+        List results = query.getResultList();
+
+        return Lists.newArrayList(Iterables.filter(results,
+                ByDesignEventSummary.class));
+    }
+
+    /**
+     * <p>Sets the number of characters of full code kept in memory.</p>
+     *
+     * @param maxChars Maximum number of characters.
+     */
+    public static void setCodeCacheSize(long maxChars) {
+        myCodeCache = newCodeCache(maxChars);
+    }
+
     // ===========================================================
     // Private Methods
     // ===========================================================
 
+    /**
+     * <p>Creates a cache for the full code that evicts the least recently
+     * used entries.</p>
+     *
+     * @param maxChars Maximum number of characters.
+     *
+     * @return An empty cache.
+     */
+    private static Cache<Long, String> newCodeCache(long maxChars) {
+        return CacheBuilder.newBuilder().maximumWeight(maxChars)
+                .weigher((Long id, String code) -> code.length()).build();
+    }
+
     /**
      * <p>Store this {@code byDesign} event information.</p>
      */
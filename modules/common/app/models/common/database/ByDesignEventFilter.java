@@ -0,0 +1,162 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package models.common.database;
+
+import java.util.Date;
+
+/**
+ * <p>This class contains the filters, sort order and position used to
+ * retrieve a single page of {@link ByDesignEventSummary ByDesignEventSummaries}
+ * with keyset pagination. A page starts right after the event identified by
+ * {@code afterValue} and {@code afterID}, so retrieving a page never needs
+ * to skip over the rows of the previous pages.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class ByDesignEventFilter {
+
+    // ===========================================================
+    // Sort Keys
+    // ===========================================================
+
+    /**
+     * <p>The columns that can be used to sort the events. Ties are always
+     * broken using the event ID, which makes the sort order total.</p>
+     */
+    public enum SortKey {
+
+        /** <p>Sort by event ID.</p> */
+        ID("id"),
+
+        /** <p>Sort by author ID.</p> */
+        AUTHOR("author"),
+
+        /** <p>Sort by points.</p> */
+        POINTS("points"),
+
+        /** <p>Sort by time spent on the lesson.</p> */
+        TIME("time");
+
+        /** <p>The name of the field in {@link ByDesignEvent}.</p> */
+        public final String fieldName;
+
+        /**
+         * <p>Creates a sort key.</p>
+         *
+         * @param fieldName The name of the field in {@link ByDesignEvent}.
+         */
+        SortKey(String fieldName) {
+            this.fieldName = fieldName;
+        }
+    }
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Only include events for this lesson (if not {@code null}).</p> */
+    public final String lesson;
+
+    /** <p>Only include events for this module (if not {@code null}).</p> */
+    public final String module;
+
+    /** <p>Only include events with this flag (if not {@code null}).</p> */
+    public final Boolean correct;
+
+    /** <p>Only include events on or after this date (if not {@code null}).</p> */
+    public final Date from;
+
+    /** <p>Only include events before this date (if not {@code null}).</p> */
+    public final Date to;
+
+    /** <p>The column used to sort the events.</p> */
+    public final SortKey sortKey;
+
+    /** <p>Flag that indicates the events are sorted in descending order.</p> */
+    public final boolean descending;
+
+    /**
+     * <p>The sort column value of the last event in the previous page
+     * (if not {@code null}).</p>
+     */
+    public final Long afterValue;
+
+    /** <p>The ID of the last event in the previous page (if not {@code null}).</p> */
+    public final Long afterID;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Creates the filters, sort order and position for a page of events.</p>
+     *
+     * @param lesson Lesson name or {@code null}.
+     * @param module Module name or {@code null}.
+     * @param correct Correct flag or {@code null}.
+     * @param from Lower bound (inclusive) for the event date or {@code null}.
+     * @param to Upper bound (exclusive) for the event date or {@code null}.
+     * @param sortKey The column used to sort the events.
+     * @param descending {@code true} to sort in descending order.
+     * @param afterValue The sort column value of the last event in the previous
+     *                   page or {@code null} for the first page.
+     * @param afterID The ID of the last event in the previous page or
+     *                {@code null} for the first page.
+     */
+    public ByDesignEventFilter(String lesson, String module, Boolean correct,
+            Date from, Date to, SortKey sortKey, boolean descending,
+            Long afterValue, Long afterID) {
+        this.lesson = lesson;
+        this.module = module;
+        this.correct = correct;
+        this.from = from;
+        this.to = to;
+        this.sortKey = sortKey;
+        this.descending = descending;
+        this.afterValue = afterValue;
+        this.afterID = afterID;
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Returns the value of the sort column for the specified event.</p>
+     *
+     * @param event A {@code byDesign} event summary.
+     *
+     * @return The value of the sort column.
+     */
+    public final long getSortValue(ByDesignEventSummary event) {
+        long value;
+        switch (sortKey) {
+        case AUTHOR:
+            value = event.author;
+            break;
+        case POINTS:
+            value = event.points;
+            break;
+        case TIME:
+            value = event.time;
+            break;
+        default:
+            value = event.id;
+            break;
+        }
+
+        return value;
+    }
+
+}
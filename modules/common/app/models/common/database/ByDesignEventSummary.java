@@ -0,0 +1,90 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package models.common.database;
+
+import java.util.Date;
+
+/**
+ * <p>This class is a read-only projection of a {@link ByDesignEvent} that
+ * contains every column except the code associated with the event. It is
+ * populated directly by a {@code select new} query, so the code
+ * {@code LOB} is never retrieved from the database.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class ByDesignEventSummary {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Unique ID for the {@code byDesign} event.</p> */
+    public final long id;
+
+    /** <p>Author ID associated with this {@code byDesign} event.</p> */
+    public final long author;
+
+    /**
+     * <p>Boolean flag that indicates whether or not the code referred by this
+     * {@code byDesign} event verified.</p>
+     */
+    public final boolean correct;
+
+    /** <p>Lesson name associated with this {@code byDesign} event.</p> */
+    public final String lesson;
+
+    /** <p>Module name associated with this {@code byDesign} event.</p> */
+    public final String module;
+
+    /** <p>Points associated with this {@code byDesign} event.</p> */
+    public final long points;
+
+    /** <p>Time spent on the code associated with this {@code byDesign} event.</p> */
+    public final long time;
+
+    /** <p>Date associated with this {@code byDesign} event.</p> */
+    public final Date eventDate;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Creates a summary of a {@code byDesign} event. This is used by
+     * {@code select new} queries in {@link ByDesignEvent}.</p>
+     *
+     * @param id The event's id number.
+     * @param author The author's id number.
+     * @param correct A flag that indicates whether the author got this lesson
+     *                correctly or not.
+     * @param lesson The lesson associated with this event.
+     * @param module The module associated with this event.
+     * @param points The amount of points earned by the author.
+     * @param time The time spent on this lesson.
+     * @param eventDate The date associated with this event.
+     */
+    public ByDesignEventSummary(Long id, long author, boolean correct,
+            String lesson, String module, long points, long time,
+            Date eventDate) {
+        this.id = id;
+        this.author = author;
+        this.correct = correct;
+        this.lesson = lesson;
+        this.module = module;
+        this.points = points;
+        this.time = time;
+        this.eventDate = eventDate;
+    }
+
+}
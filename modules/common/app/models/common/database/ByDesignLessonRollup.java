@@ -0,0 +1,374 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package models.common.database;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import javax.persistence.*;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import play.db.jpa.JPA;
+import play.db.jpa.Transactional;
+
+/**
+ * <p>This class is the relational mapping of the aggregated {@code byDesign}
+ * events for a single author and lesson. The rows are kept up to date
+ * whenever a {@link ByDesignEvent} is added, so analysis queries can read
+ * one row per author and lesson instead of scanning every raw event.</p>
+ *
+ * <p>Events without a lesson are aggregated under the empty lesson name.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Entity
+@IdClass(ByDesignLessonRollup.RollupKey.class)
+@Table(name = "byDesignLessonRollups")
+public class ByDesignLessonRollup {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Author ID associated with this rollup.</p> */
+    @Id
+    public long author;
+
+    /** <p>Lesson name associated with this rollup.</p> */
+    @Id
+    @Column(nullable = false)
+    public String lesson;
+
+    /** <p>Module name of the event with the largest ID for this lesson.</p> */
+    public String module;
+
+    /** <p>Number of attempts the author made on this lesson.</p> */
+    public long attempts;
+
+    /** <p>Number of attempts that were correct.</p> */
+    public long correctAttempts;
+
+    /** <p>Total time spent on this lesson.</p> */
+    public long totalTime;
+
+    /** <p>Total points earned on this lesson.</p> */
+    public long totalPoints;
+
+    /** <p>Date of the first attempt.</p> */
+    @Column(columnDefinition = "DATETIME")
+    @Temporal(TemporalType.TIMESTAMP)
+    public Date firstAttempt;
+
+    /** <p>Date of the most recent attempt.</p> */
+    @Column(columnDefinition = "DATETIME")
+    @Temporal(TemporalType.TIMESTAMP)
+    public Date lastAttempt;
+
+    /** <p>The largest {@link ByDesignEvent} ID included in this rollup.</p> */
+    public long lastEventID;
+
+    /** <p>Table that stores the rollups.</p> */
+    private static final String TABLE_NAME = "byDesignLessonRollups";
+
+    /**
+     * <p>The update part of the upserts. The module is taken from the event
+     * with the largest ID, which is also what {@link #rebuildAuthors} uses,
+     * so a rollup is the same no matter how it was built. MySQL assigns the
+     * columns from left to right, so the module has to come before
+     * {@code lastEventID}.</p>
+     */
+    private static final String UPSERT_UPDATE_SQL =
+            "on duplicate key update "
+                    + "module = if(values(lastEventID) > lastEventID, values(module), module), "
+                    + "attempts = attempts + values(attempts), "
+                    + "correctAttempts = correctAttempts + values(correctAttempts), "
+                    + "totalTime = totalTime + values(totalTime), "
+                    + "totalPoints = totalPoints + values(totalPoints), "
+                    + "firstAttempt = least(firstAttempt, values(firstAttempt)), "
+                    + "lastAttempt = greatest(lastAttempt, values(lastAttempt)), "
+                    + "lastEventID = greatest(lastEventID, values(lastEventID))";
+
+    /**
+     * <p>A plain JDBC statement that adds the aggregates of several events
+     * for the same author and lesson to their rollup. The parameters are
+     * the author, lesson, module, attempts, correct attempts, total time,
+     * total points, first attempt, last attempt and largest event ID.</p>
+     */
+    public static final String BATCH_UPSERT_SQL =
+            "insert into " + TABLE_NAME
+                    + " (author, lesson, module, attempts, correctAttempts, totalTime, "
+                    + "totalPoints, firstAttempt, lastAttempt, lastEventID) "
+                    + "values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+                    + UPSERT_UPDATE_SQL;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Default constructor. JPA needs this on some occasions.</p>
+     */
+    private ByDesignLessonRollup() {}
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Adds a newly persisted {@code byDesign} event to the rollup for its
+     * author and lesson using a single upsert statement. This must be called
+     * in the same transaction that persisted the event.</p>
+     *
+     * @param event A persisted {@code byDesign} event.
+     */
+    @Transactional
+    public static void addEvent(ByDesignEvent event) {
+        Query query =
+                JPA.em()
+                        .createNativeQuery(
+                                "insert into " + TABLE_NAME
+                                        + " (author, lesson, module, attempts, correctAttempts, totalTime, "
+                                        + "totalPoints, firstAttempt, lastAttempt, lastEventID) "
+                                        + "values (?1, ?2, ?3, 1, ?4, ?5, ?6, ?7, ?7, ?8) "
+                                        + UPSERT_UPDATE_SQL);
+        query.setParameter(1, event.author);
+        query.setParameter(2, event.lesson == null ? "" : event.lesson);
+        query.setParameter(3, event.module);
+        query.setParameter(4, event.correct ? 1 : 0);
+        query.setParameter(5, event.time);
+        query.setParameter(6, event.points);
+        query.setParameter(7, event.eventDate, TemporalType.TIMESTAMP);
+        query.setParameter(8, event.id);
+        query.executeUpdate();
+    }
+
+    /**
+     * <p>Rebuilds the rollups for all authors in the specified range from the
+     * raw events. The existing rollups in the range are replaced, so running
+     * this more than once is harmless.</p>
+     *
+     * <p>The aggregation locks the events it reads, so an event added
+     * concurrently for an author in the range waits for this transaction and
+     * is then added to the rebuilt rollup.</p>
+     *
+     * @param fromAuthor The first author ID (inclusive).
+     * @param toAuthor The last author ID (inclusive).
+     *
+     * @return The number of rollups written.
+     */
+    @Transactional
+    public static int rebuildAuthors(long fromAuthor, long toAuthor) {
+        Query deleteQuery =
+                JPA.em().createNativeQuery(
+                        "delete from " + TABLE_NAME
+                                + " where author between ?1 and ?2");
+        deleteQuery.setParameter(1, fromAuthor);
+        deleteQuery.setParameter(2, toAuthor);
+        deleteQuery.executeUpdate();
+
+        Query insertQuery =
+                JPA.em()
+                        .createNativeQuery(
+                                "insert into " + TABLE_NAME
+                                        + " (author, lesson, module, attempts, correctAttempts, totalTime, "
+                                        + "totalPoints, firstAttempt, lastAttempt, lastEventID) "
+                                        + "select g.author, g.lesson, e.module, g.attempts, g.correctAttempts, "
+                                        + "g.totalTime, g.totalPoints, g.firstAttempt, g.lastAttempt, g.lastEventID "
+                                        + "from (select author, coalesce(lesson, '') as lesson, count(*) as attempts, "
+                                        + "sum(case when correct then 1 else 0 end) as correctAttempts, "
+                                        + "sum(time) as totalTime, sum(points) as totalPoints, "
+                                        + "min(eventDate) as firstAttempt, max(eventDate) as lastAttempt, "
+                                        + "max(id) as lastEventID "
+                                        + "from byDesignEvents where author between ?1 and ?2 "
+                                        + "group by author, coalesce(lesson, '')) g "
+                                        + "join byDesignEvents e on e.id = g.lastEventID");
+        insertQuery.setParameter(1, fromAuthor);
+        insertQuery.setParameter(2, toAuthor);
+
+        return insertQuery.executeUpdate();
+    }
+
+    /**
+     * <p>Checks to see if the rollups include every {@code byDesign} event,
+     * which is not the case until {@link #rebuildAuthors} has been run over
+     * the events written before the rollups existed. Both counts are read
+     * in the same transaction, so they see the same events.</p>
+     *
+     * @return {@code true} if the number of attempts in the rollups matches
+     * the number of events, {@code false} otherwise.
+     */
+    @Transactional(readOnly = true)
+    public static boolean coversAllEvents() {
+        Number numEvents =
+                (Number) JPA.em().createQuery(
+                        "select count(bde) from ByDesignEvent bde").getSingleResult();
+        Number numAttempts =
+                (Number) JPA.em().createQuery(
+                        "select coalesce(sum(r.attempts), 0) from ByDesignLessonRollup r")
+                        .getSingleResult();
+
+        return numEvents.longValue() == numAttempts.longValue();
+    }
+
+    /**
+     * <p>Retrieves the names of the lessons attempted by any of the
+     * specified authors.</p>
+     *
+     * <p>Note that callers are responsible for keeping the number of
+     * authors in a reasonable range, since the entire list is bound
+     * as query parameters.</p>
+     *
+     * @param authorIDs A list of author IDs.
+     *
+     * @return List of lesson names. Events without a lesson are reported
+     * under the empty lesson name.
+     */
+    @Transactional(readOnly = true)
+    public static List<String> getLessons(List<Long> authorIDs) {
+        Query query =
+                JPA.em()
+                        .createQuery(
+                                "select distinct r.lesson from ByDesignLessonRollup r "
+                                        + "where r.author in :authors",
+                                String.class);
+        query.setParameter("authors", authorIDs);
+        List results = query.getResultList();
+
+        return Lists.newArrayList(Iterables.filter(results, String.class));
+    }
+
+    /**
+     * <p>Retrieves the number of attempts each of the specified authors
+     * made on each lesson.</p>
+     *
+     * <p>Note that callers are responsible for keeping the number of
+     * authors in a reasonable range, since the entire list is bound
+     * as query parameters.</p>
+     *
+     * @param authorIDs A list of author IDs.
+     *
+     * @return List of {@code [author, lesson, attempts]} rows ordered by
+     * author ID.
+     */
+    @Transactional(readOnly = true)
+    public static List<Object[]> getAttempts(List<Long> authorIDs) {
+        Query query =
+                JPA.em()
+                        .createQuery(
+                                "select r.author, r.lesson, r.attempts from ByDesignLessonRollup r "
+                                        + "where r.author in :authors order by r.author",
+                                Object[].class);
+        query.setParameter("authors", authorIDs);
+        List results = query.getResultList();
+
+        return Lists.newArrayList(Iterables.filter(results, Object[].class));
+    }
+
+    /**
+     * <p>Adds up the rollups for each author or for each lesson.</p>
+     *
+     * <p>Note that callers are responsible for keeping the number of
+     * authors in a reasonable range, since the entire list is bound
+     * as query parameters.</p>
+     *
+     * @param authorIDs A list of author IDs or {@code null} to include
+     *                  every author.
+     * @param lesson Only include this lesson (if not {@code null}).
+     * @param byLesson {@code true} to group the rollups by lesson,
+     *                 {@code false} to group them by author.
+     *
+     * @return List of {@code [author or lesson, attempts, correct attempts,
+     * total time, total points]} rows.
+     */
+    @Transactional(readOnly = true)
+    public static List<Object[]> getTotals(List<Long> authorIDs, String lesson,
+            boolean byLesson) {
+        String key = byLesson ? "r.lesson" : "r.author";
+        StringBuilder sb = new StringBuilder();
+        sb.append("select ").append(key).append(", sum(r.attempts), ");
+        sb.append("sum(r.correctAttempts), sum(r.totalTime), sum(r.totalPoints) ");
+        sb.append("from ByDesignLessonRollup r where 1 = 1");
+        if (authorIDs != null) {
+            sb.append(" and r.author in :authors");
+        }
+        if (lesson != null) {
+            sb.append(" and r.lesson = :lesson");
+        }
+        sb.append(" group by ").append(key);
+
+        Query query = JPA.em().createQuery(sb.toString(), Object[].class);
+        if (authorIDs != null) {
+            query.setParameter("authors", authorIDs);
+        }
+        if (lesson != null) {
+            query.setParameter("lesson", lesson);
+        }
+        List results = query.getResultList();
+
+        return Lists.newArrayList(Iterables.filter(results, Object[].class));
+    }
+
+    // ===========================================================
+    // Rollup Key
+    // ===========================================================
+
+    /**
+     * <p>The composite primary key for {@link ByDesignLessonRollup}.</p>
+     */
+    public static class RollupKey implements Serializable {
+
+        /** <p>Author ID.</p> */
+        public long author;
+
+        /** <p>Lesson name.</p> */
+        public String lesson;
+
+        /**
+         * <p>Default constructor. JPA needs this on some occasions.</p>
+         */
+        public RollupKey() {}
+
+        /**
+         * <p>Equals method for a rollup key.</p>
+         *
+         * @param o Another object.
+         *
+         * @return {@code true} if they are equal, {@code false} otherwise.
+         */
+        @Override
+        public final boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RollupKey)) {
+                return false;
+            }
+
+            RollupKey that = (RollupKey) o;
+            return author == that.author && Objects.equals(lesson, that.lesson);
+        }
+
+        /**
+         * <p>Hash code for a rollup key.</p>
+         *
+         * @return An integer.
+         */
+        @Override
+        public final int hashCode() {
+            return Objects.hash(author, lesson);
+        }
+    }
+
+}
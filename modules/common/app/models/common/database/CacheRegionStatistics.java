@@ -0,0 +1,141 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package models.common.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.NaturalIdCacheStatistics;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import play.db.jpa.JPA;
+import play.db.jpa.Transactional;
+
+/**
+ * <p>This class is a read-only snapshot of the hits and misses of one of the
+ * second-level cache regions used by {@link User} and {@link Project}.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class CacheRegionStatistics {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Name shown for the region.</p> */
+    public final String name;
+
+    /** <p>Number of lookups answered by the cache.</p> */
+    public final long hitCount;
+
+    /** <p>Number of lookups that went to the database.</p> */
+    public final long missCount;
+
+    /** <p>Number of entries put in the cache.</p> */
+    public final long putCount;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Creates a snapshot of a cache region.</p>
+     *
+     * @param name Name shown for the region.
+     * @param hitCount Number of lookups answered by the cache.
+     * @param missCount Number of lookups that went to the database.
+     * @param putCount Number of entries put in the cache.
+     */
+    private CacheRegionStatistics(String name, long hitCount, long missCount,
+            long putCount) {
+        this.name = name;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.putCount = putCount;
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Retrieves the statistics for the user, email, project and
+     * query cache regions.</p>
+     *
+     * @return List of {@link CacheRegionStatistics}. Regions that have
+     * not been used yet are reported with zero counts.
+     */
+    @Transactional(readOnly = true)
+    public static List<CacheRegionStatistics> getAll() {
+        Statistics statistics =
+                JPA.em().getEntityManagerFactory().unwrap(SessionFactory.class)
+                        .getStatistics();
+
+        List<CacheRegionStatistics> regions = new ArrayList<>();
+        regions.add(getEntityRegion(statistics, "Users", User.class));
+
+        NaturalIdCacheStatistics emails =
+                statistics.getNaturalIdCacheStatistics(User.class.getName()
+                        + "##NaturalId");
+        regions.add(emails == null ? new CacheRegionStatistics("Users by email", 0, 0, 0)
+                : new CacheRegionStatistics("Users by email",
+                        emails.getHitCount(), emails.getMissCount(),
+                        emails.getPutCount()));
+
+        regions.add(getEntityRegion(statistics, "Projects", Project.class));
+        regions.add(new CacheRegionStatistics("Project queries",
+                statistics.getQueryCacheHitCount(),
+                statistics.getQueryCacheMissCount(),
+                statistics.getQueryCachePutCount()));
+
+        return regions;
+    }
+
+    /**
+     * <p>Returns the percentage of lookups answered by the cache.</p>
+     *
+     * @return The hit rate, or {@code 0} if there were no lookups.
+     */
+    public final double getHitRate() {
+        long lookups = hitCount + missCount;
+        return lookups == 0 ? 0 : hitCount * 100.0 / lookups;
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Retrieves the statistics for the region of an entity.</p>
+     *
+     * @param statistics The Hibernate statistics.
+     * @param name Name shown for the region.
+     * @param entity The entity class.
+     *
+     * @return The statistics for the region.
+     */
+    private static CacheRegionStatistics getEntityRegion(Statistics statistics,
+            String name, Class<?> entity) {
+        SecondLevelCacheStatistics region =
+                statistics.getSecondLevelCacheStatistics(entity.getName());
+        if (region == null) {
+            return new CacheRegionStatistics(name, 0, 0, 0);
+        }
+
+        return new CacheRegionStatistics(name, region.getHitCount(),
+                region.getMissCount(), region.getPutCount());
+    }
+
+}
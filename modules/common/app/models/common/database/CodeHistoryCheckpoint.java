@@ -0,0 +1,71 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+
+package models.common.database;
+
+import javax.persistence.*;
+
+/**
+ * <p>This class is the relational mapping of the progress of the
+ * {@code byDesign} code history compactor. The ID of the last event whose
+ * code has been processed is updated in the same transaction as the events
+ * it covers, so an event is never processed twice.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Entity
+@Table(name = "codeHistoryCheckpoints")
+public class CodeHistoryCheckpoint {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>ID of the only checkpoint.</p> */
+    public static final int CHECKPOINT_ID = 1;
+
+    /** <p>Checkpoint ID (always {@link #CHECKPOINT_ID}).</p> */
+    @Id
+    public int id;
+
+    /** <p>ID of the last {@code byDesign} event that has been processed.</p> */
+    public long lastEventID;
+
+    /**
+     * <p>A plain JDBC statement that reads the ID of the last processed
+     * event.</p>
+     */
+    public static final String SELECT_SQL =
+            "select lastEventID from codeHistoryCheckpoints where id = "
+                    + CHECKPOINT_ID;
+
+    /**
+     * <p>A plain JDBC statement that stores the ID of the last processed
+     * event. The parameter is the event ID.</p>
+     */
+    public static final String UPSERT_SQL =
+            "insert into codeHistoryCheckpoints (id, lastEventID) values ("
+                    + CHECKPOINT_ID + ", ?) "
+                    + "on duplicate key update lastEventID = values(lastEventID)";
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Default constructor. JPA needs this on some occasions.</p>
+     */
+    private CodeHistoryCheckpoint() {}
+
+}
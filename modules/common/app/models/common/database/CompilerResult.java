@@ -27,7 +27,8 @@ import play.db.jpa.Transactional;
  * @version 1.0
  */
 @Entity
-@Table(name = "compilerResults")
+@Table(name = "compilerResults", indexes = {
+        @Index(name = "idx_compiler_results_author_date", columnList = "author_id, createdOn") })
 public class CompilerResult {
 
     // ===========================================================
@@ -41,7 +42,8 @@ public class CompilerResult {
 
     /** <p>Compiling file's content.</p> */
     @Constraints.Required
-    @Lob
+    @Convert(converter = CompressedTextConverter.class)
+    @Column(columnDefinition = "LONGBLOB")
     public String content;
 
     /** <p>Indicator for any compilation errors.</p> */
@@ -79,7 +81,8 @@ public class CompilerResult {
 
     /** <p>The compiler result information.</p> */
     @Constraints.Required
-    @Lob
+    @Convert(converter = CompressedTextConverter.class)
+    @Column(columnDefinition = "LONGBLOB")
     public String results;
 
     /** <p>User event author.</p> */
@@ -87,6 +90,18 @@ public class CompilerResult {
     @Constraints.Required
     public User author;
 
+    /**
+     * <p>A plain JDBC statement that inserts a compiler result. The parameters
+     * are the author's user ID, content, error indicator, creation date, event
+     * type, file type, file name, parent, package name, project name and
+     * results. This allows many results to be inserted in a single
+     * JDBC batch.</p>
+     */
+    public static final String BATCH_INSERT_SQL =
+            "insert into compilerResults (author_id, content, error, createdOn, "
+                    + "eventType, fileType, name, parent, pkg, project, results) "
+                    + "values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
     // ===========================================================
     // Constructors
     // ===========================================================
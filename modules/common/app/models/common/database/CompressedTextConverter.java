@@ -0,0 +1,492 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package models.common.database;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+import utils.common.storage.BlobStore;
+
+/**
+ * <p>This class converts large text columns (such as source code and
+ * compiler output) to and from their stored bytes. The first byte of the
+ * stored value is a format marker:</p>
+ *
+ * <ul>
+ *     <li>{@link #DEFLATE_MARKER} is followed by the length of the text in
+ *     bytes and the text compressed with {@link Deflater#BEST_SPEED}.</li>
+ *     <li>{@link #RAW_MARKER} is followed by the text as {@code UTF-8}.</li>
+ *     <li>{@link #BLOB_MARKER} is followed by the {@code SHA-256} hash of
+ *     the text, which is stored in the {@link BlobStore} in one of the
+ *     other formats.</li>
+ * </ul>
+ *
+ * <p>Values that do not start with a marker are rows written before the
+ * columns were compressed, and they are read as plain {@code UTF-8}
+ * text.</p>
+ *
+ * <p>Values are only compressed once compression has been enabled (see
+ * {@code webide.compression}), since the columns need to be converted to
+ * {@code LONGBLOB} first. Short values and values that do not get any
+ * smaller are always stored as they are. Likewise, values are only moved
+ * to the blob store once it has been enabled (see
+ * {@code webide.blobStore}). Neither is enabled while any of the
+ * {@link #COLUMNS} is still a text column (see
+ * {@link #findTextColumns(Connection)}).</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Converter
+public class CompressedTextConverter implements AttributeConverter<String, byte[]> {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Marker for a value stored as {@code UTF-8} text.</p> */
+    public static final byte RAW_MARKER = 0x00;
+
+    /** <p>Marker for a value compressed with {@link Deflater}.</p> */
+    public static final byte DEFLATE_MARKER = 0x01;
+
+    /** <p>Marker for a value kept in the {@link BlobStore}.</p> */
+    public static final byte BLOB_MARKER = 0x02;
+
+    /** <p>Number of bytes in a {@code SHA-256} hash.</p> */
+    public static final int HASH_LENGTH = 32;
+
+    /**
+     * <p>The tables and columns that use this converter. These are the
+     * columns processed by the compression job and searched for blob
+     * references by the blob garbage collector.</p>
+     */
+    public static final String[][] COLUMNS = {
+            { "byDesignEvents", "code" },
+            { "compilerResults", "content" },
+            { "compilerResults", "results" },
+            { "userComponents", "content" },
+            { "userEvents", "content" }
+    };
+
+    /** <p>Flag that indicates new values are compressed.</p> */
+    private static volatile boolean myIsCompressionEnabled = false;
+
+    /** <p>Values shorter than this (in bytes) are never compressed.</p> */
+    private static volatile int myMinLength = 256;
+
+    /** <p>The store for large values (or {@code null}).</p> */
+    private static volatile BlobStore myBlobStore;
+
+    /** <p>A compressor for each thread.</p> */
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+
+    /** <p>A decompressor for each thread.</p> */
+    private static final ThreadLocal<Inflater> INFLATER =
+            ThreadLocal.withInitial(Inflater::new);
+
+    /** <p>A {@code SHA-256} digest for each thread.</p> */
+    private static final ThreadLocal<MessageDigest> DIGEST =
+            ThreadLocal.withInitial(() -> {
+                try {
+                    return MessageDigest.getInstance("SHA-256");
+                }
+                catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Converts the text to the bytes stored in the database.</p>
+     *
+     * @param attribute The text (or {@code null}).
+     *
+     * @return The stored bytes (or {@code null}).
+     */
+    @Override
+    public final byte[] convertToDatabaseColumn(String attribute) {
+        return encode(attribute);
+    }
+
+    /**
+     * <p>Converts the bytes stored in the database back to the text.</p>
+     *
+     * @param dbData The stored bytes (or {@code null}).
+     *
+     * @return The text (or {@code null}).
+     */
+    @Override
+    public final String convertToEntityAttribute(byte[] dbData) {
+        return decode(dbData);
+    }
+
+    /**
+     * <p>Reads a stored value in any of the formats.</p>
+     *
+     * @param stored The stored bytes (or {@code null}).
+     *
+     * @return The text (or {@code null}).
+     */
+    public static String decode(byte[] stored) {
+        if (stored == null) {
+            return null;
+        }
+        if (stored.length == 0) {
+            return "";
+        }
+
+        if (stored[0] == RAW_MARKER) {
+            return new String(stored, 1, stored.length - 1, StandardCharsets.UTF_8);
+        }
+        else if (stored[0] == DEFLATE_MARKER) {
+            return new String(inflate(stored), StandardCharsets.UTF_8);
+        }
+        else if (stored[0] == BLOB_MARKER && stored.length == HASH_LENGTH + 1) {
+            BlobStore blobStore = myBlobStore;
+            if (blobStore == null) {
+                throw new IllegalStateException("The blob store is not available.");
+            }
+
+            return decode(blobStore.get(Arrays.copyOfRange(stored, 1, stored.length)));
+        }
+        else {
+            return new String(stored, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * <p>Converts text to the bytes we store, compressing it if compression
+     * is enabled and it is worth it.</p>
+     *
+     * @param text The text (or {@code null}).
+     *
+     * @return The stored bytes (or {@code null}).
+     */
+    public static byte[] encode(String text) {
+        return encode(text, myIsCompressionEnabled);
+    }
+
+    /**
+     * <p>Converts text to the bytes we store. Large values are moved to the
+     * blob store if it is enabled, and only their hash is returned.</p>
+     *
+     * @param text The text (or {@code null}).
+     * @param compress {@code true} if the text should be compressed when it
+     *                 is worth it, {@code false} otherwise.
+     *
+     * @return The stored bytes (or {@code null}).
+     */
+    public static byte[] encode(String text, boolean compress) {
+        if (text == null) {
+            return null;
+        }
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        BlobStore blobStore = myBlobStore;
+        if (blobStore != null && blobStore.isEnabled()
+                && bytes.length >= blobStore.getMinLength()) {
+            MessageDigest digest = DIGEST.get();
+            digest.reset();
+            byte[] hash = digest.digest(bytes);
+            blobStore.put(hash, encodeInline(bytes, compress));
+
+            byte[] reference = new byte[HASH_LENGTH + 1];
+            reference[0] = BLOB_MARKER;
+            System.arraycopy(hash, 0, reference, 1, HASH_LENGTH);
+            return reference;
+        }
+
+        return encodeInline(bytes, compress);
+    }
+
+    /**
+     * <p>Returns the {@link #COLUMNS} that are not {@code LONGBLOB} columns
+     * yet. Compressed values and blob references are binary, so they can
+     * only be written once all of them have been converted. Columns that do
+     * not exist yet are created from the entities and are not
+     * returned.</p>
+     *
+     * <p>A column whose character set is not {@code UTF-8} is returned with
+     * its character set, since it has to be converted to {@code utf8mb4}
+     * before it can become a {@code LONGBLOB} column.</p>
+     *
+     * @param connection A database connection.
+     *
+     * @return The names of the columns as {@code table.column}, followed by
+     * the character set if it is not {@code UTF-8}.
+     *
+     * @throws SQLException This exception is thrown when the column types
+     * could not be read.
+     */
+    public static List<String> findTextColumns(Connection connection)
+            throws SQLException {
+        List<String> textColumns = new ArrayList<>();
+        for (String[] column : COLUMNS) {
+            String dataType = getDataType(connection, column[0], column[1]);
+            if (dataType != null && !dataType.equalsIgnoreCase("longblob")) {
+                String characterSet =
+                        getCharacterSet(connection, column[0], column[1]);
+                textColumns.add(column[0] + "." + column[1]
+                        + (isUtf8(characterSet) ? "" : " (" + characterSet + ")"));
+            }
+        }
+
+        return textColumns;
+    }
+
+    /**
+     * <p>Returns the blob hash of a stored value.</p>
+     *
+     * @param stored The stored bytes (or {@code null}).
+     *
+     * @return The hash, or {@code null} if the value is not kept in
+     * the blob store.
+     */
+    public static byte[] getBlobHash(byte[] stored) {
+        if (stored == null || stored.length != HASH_LENGTH + 1
+                || stored[0] != BLOB_MARKER) {
+            return null;
+        }
+
+        return Arrays.copyOfRange(stored, 1, stored.length);
+    }
+
+    /**
+     * <p>Returns the character set of a column.</p>
+     *
+     * @param connection A database connection.
+     * @param table Table name.
+     * @param column Column name.
+     *
+     * @return The character set (such as {@code latin1} or
+     * {@code utf8mb4}), or {@code null} if the column is binary or
+     * does not exist.
+     *
+     * @throws SQLException This exception is thrown when the character set
+     * could not be read.
+     */
+    public static String getCharacterSet(Connection connection, String table,
+            String column) throws SQLException {
+        return getColumnInfo(connection, "character_set_name", table, column);
+    }
+
+    /**
+     * <p>Returns the type of a column.</p>
+     *
+     * @param connection A database connection.
+     * @param table Table name.
+     * @param column Column name.
+     *
+     * @return The data type (such as {@code longtext} or {@code longblob}),
+     * or {@code null} if the column does not exist.
+     *
+     * @throws SQLException This exception is thrown when the type could
+     * not be read.
+     */
+    public static String getDataType(Connection connection, String table,
+            String column) throws SQLException {
+        return getColumnInfo(connection, "data_type", table, column);
+    }
+
+    /**
+     * <p>Checks whether the text in a column is stored as {@code UTF-8},
+     * which is how the rows written before the columns were compressed
+     * are read.</p>
+     *
+     * @param characterSet A character set from
+     *                     {@link #getCharacterSet(Connection, String, String)}.
+     *
+     * @return {@code true} if it is {@code utf8}, {@code utf8mb3},
+     * {@code utf8mb4} or binary, {@code false} otherwise.
+     */
+    public static boolean isUtf8(String characterSet) {
+        return characterSet == null
+                || characterSet.equalsIgnoreCase("utf8")
+                || characterSet.equalsIgnoreCase("utf8mb3")
+                || characterSet.equalsIgnoreCase("utf8mb4");
+    }
+
+    /**
+     * <p>Sets the store for large values.</p>
+     *
+     * @param blobStore The blob store.
+     */
+    public static void setBlobStore(BlobStore blobStore) {
+        myBlobStore = blobStore;
+    }
+
+    /**
+     * <p>Sets whether new values are compressed.</p>
+     *
+     * @param enabled {@code true} to compress new values,
+     *                {@code false} otherwise.
+     * @param minLength Values shorter than this (in bytes) are
+     *                  never compressed.
+     */
+    public static void setCompression(boolean enabled, int minLength) {
+        myMinLength = minLength;
+        myIsCompressionEnabled = enabled;
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Compresses a value.</p>
+     *
+     * @param bytes The {@code UTF-8} bytes of the text.
+     *
+     * @return The marker, the length of the text and the compressed bytes.
+     */
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 3 + 16);
+        out.write(DEFLATE_MARKER);
+        out.write(ByteBuffer.allocate(4).putInt(bytes.length).array(), 0, 4);
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(chunk);
+            out.write(chunk, 0, length);
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * <p>Converts text to the bytes we store in the row itself.</p>
+     *
+     * @param bytes The {@code UTF-8} bytes of the text.
+     * @param compress {@code true} if the text should be compressed when it
+     *                 is worth it, {@code false} otherwise.
+     *
+     * @return The stored bytes.
+     */
+    private static byte[] encodeInline(byte[] bytes, boolean compress) {
+        if (compress && bytes.length >= myMinLength) {
+            byte[] compressed = deflate(bytes);
+            if (compressed.length < bytes.length) {
+                return compressed;
+            }
+        }
+
+        // Only add a marker when the text itself starts with something
+        // that looks like one. Everything else is stored as it is.
+        if (bytes.length > 0
+                && (bytes[0] == RAW_MARKER || bytes[0] == DEFLATE_MARKER
+                        || bytes[0] == BLOB_MARKER)) {
+            byte[] marked = new byte[bytes.length + 1];
+            marked[0] = RAW_MARKER;
+            System.arraycopy(bytes, 0, marked, 1, bytes.length);
+            return marked;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * <p>Reads a column's row from {@code information_schema.columns}.</p>
+     *
+     * @param connection A database connection.
+     * @param info The {@code information_schema.columns} column to read.
+     * @param table Table name.
+     * @param column Column name.
+     *
+     * @return The value, or {@code null} if the column does not exist.
+     *
+     * @throws SQLException This exception is thrown when the value could
+     * not be read.
+     */
+    private static String getColumnInfo(Connection connection, String info,
+            String table, String column) throws SQLException {
+        try (PreparedStatement select =
+                connection.prepareStatement(
+                        "select " + info + " from information_schema.columns "
+                                + "where table_schema = database() "
+                                + "and table_name = ? and column_name = ?")) {
+            select.setString(1, table);
+            select.setString(2, column);
+            try (ResultSet resultSet = select.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }
+    }
+
+    /**
+     * <p>Decompresses a value written by {@link #deflate(byte[])}.</p>
+     *
+     * @param stored The stored bytes.
+     *
+     * @return The {@code UTF-8} bytes of the text.
+     */
+    private static byte[] inflate(byte[] stored) {
+        int length = stored.length < 5 ? -1 : ByteBuffer.wrap(stored, 1, 4).getInt();
+        if (length < 0) {
+            throw new IllegalStateException("Corrupted compressed column value.");
+        }
+
+        byte[] bytes = new byte[length];
+
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(stored, 5, stored.length - 5);
+        try {
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                int read = inflater.inflate(bytes, offset, length - offset);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += read;
+            }
+
+            // The stream has to end right after the text.
+            if (offset == length && !inflater.finished()) {
+                offset += inflater.inflate(new byte[1]);
+            }
+
+            if (offset != length || !inflater.finished()) {
+                throw new IllegalStateException("Corrupted compressed column value.");
+            }
+        }
+        catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted compressed column value.", e);
+        }
+
+        return bytes;
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package models.common.database;
+
+import javax.persistence.*;
+
+/**
+ * <p>This class is the relational mapping of the position up to which a
+ * local write journal has been loaded into the database. The position is
+ * updated in the same transaction as the rows it covers, so replaying the
+ * journal after a crash never inserts a row twice.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Entity
+@Table(name = "journalCheckpoints")
+public class JournalCheckpoint {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Name of the journal.</p> */
+    @Id
+    public String name;
+
+    /** <p>Sequence number of the segment that is being loaded.</p> */
+    public long segment;
+
+    /** <p>Offset in the segment up to which entries have been loaded.</p> */
+    public long position;
+
+    /**
+     * <p>A plain JDBC statement that reads a checkpoint. The parameter
+     * is the name of the journal.</p>
+     */
+    public static final String SELECT_SQL =
+            "select segment, position from journalCheckpoints where name = ?";
+
+    /**
+     * <p>A plain JDBC statement that stores a checkpoint. The parameters
+     * are the name of the journal, the segment and the position.</p>
+     */
+    public static final String UPSERT_SQL =
+            "insert into journalCheckpoints (name, segment, position) values (?, ?, ?) "
+                    + "on duplicate key update segment = values(segment), position = values(position)";
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Default constructor. JPA needs this on some occasions.</p>
+     */
+    private JournalCheckpoint() {}
+
+}
@@ -16,6 +16,9 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import java.util.List;
 import javax.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.jpa.QueryHints;
 import play.data.validation.Constraints;
 import play.db.jpa.JPA;
 import play.db.jpa.Transactional;
@@ -24,12 +27,21 @@ import play.db.jpa.Transactional;
  * <p>This class is the relational mapping of a project in the database and provides
  * methods to change the project in the database.</p>
  *
+ * <p>Projects are kept in the second-level cache, and so are the results of
+ * the project queries. Adding a project invalidates the cached query results,
+ * since they are all read from the {@code projects} table.</p>
+ *
  * @author Chuck Cook
  * @author Yu-Shan Sun
  * @version 1.0
  */
 @Entity
-@Table(name = "projects")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@Table(name = "projects", indexes = {
+        @Index(name = "idx_projects_default", columnList = "defaultProject"),
+        @Index(name = "idx_projects_open", columnList = "openProject"),
+        @Index(name = "idx_projects_owner_open", columnList = "ownerEmail, openProject") })
 public class Project {
 
     // ===========================================================
@@ -98,7 +110,8 @@ public class Project {
     // ===========================================================
 
     /**
-     * <p>Add a new project to the database.</p>
+     * <p>Add a new project to the database. This invalidates the cached
+     * project query results when the transaction commits.</p>
      *
      * @param name Project name
      * @param email Project owner email
@@ -128,6 +141,7 @@ public class Project {
                         .createQuery(
                                 "select p from Project p where p.defaultProject = true",
                                 Project.class);
+        query.setHint(QueryHints.HINT_CACHEABLE, true);
 
         List result = query.getResultList();
         Project defaultProject = null;
@@ -149,6 +163,7 @@ public class Project {
                 JPA.em().createQuery(
                         "from Project p where p.openProject = true",
                         Project.class);
+        query.setHint(QueryHints.HINT_CACHEABLE, true);
         List results = query.getResultList();
 
         return Lists.newArrayList(Iterables.filter(results, Project.class));
@@ -164,8 +179,9 @@ public class Project {
         Query query =
                 JPA.em()
                         .createQuery(
-                                "from Project p where p.email != null and p.openProject = false",
+                                "from Project p where p.ownerEmail is not null and p.openProject = false",
                                 Project.class);
+        query.setHint(QueryHints.HINT_CACHEABLE, true);
         List results = query.getResultList();
 
         return Lists.newArrayList(Iterables.filter(results, Project.class));
@@ -184,8 +200,9 @@ public class Project {
         Query query =
                 JPA.em()
                         .createQuery(
-                                "select p from Project p where p.name = :name and p.email = :email",
+                                "select p from Project p where p.name = :name and p.ownerEmail = :email",
                                 Project.class);
+        query.setHint(QueryHints.HINT_CACHEABLE, true);
         query.setParameter("name", name);
         query.setParameter("email", email);
 
@@ -211,8 +228,9 @@ public class Project {
         Query query =
                 JPA.em()
                         .createQuery(
-                                "from Project p where p.email = :email and p.openProject = false",
+                                "from Project p where p.ownerEmail = :email and p.openProject = false",
                                 Project.class);
+        query.setHint(QueryHints.HINT_CACHEABLE, true);
         query.setParameter("email", email);
         List results = query.getResultList();
 
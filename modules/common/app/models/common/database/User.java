@@ -15,27 +15,43 @@ package models.common.database;
 import be.objectify.deadbolt.java.models.Permission;
 import be.objectify.deadbolt.java.models.Role;
 import be.objectify.deadbolt.java.models.Subject;
-import deadbolt2.common.models.UserPermission;
-import deadbolt2.common.models.UserRole;
-import java.util.ArrayList;
+import deadbolt2.common.models.UserIdentity;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
 import java.util.Date;
 import java.util.List;
 import javax.persistence.*;
+import javax.transaction.Synchronization;
 import models.common.ModelUtilities;
+import org.hibernate.Session;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 import play.data.validation.Constraints;
 import play.db.jpa.JPA;
 import play.db.jpa.Transactional;
+import utils.common.security.PasswordHasher;
 
 /**
  * <p>This class is the relational mapping of a user in the database and provides
  * methods to change the user in the database.</p>
  *
+ * <p>Users are kept in the second-level cache, and so is the mapping from
+ * each email to its user, so most lookups never reach the database. Changes
+ * to a single field are written with a targeted {@code update} of just that
+ * row, which evicts the user from the cache when the transaction completes.</p>
+ *
  * @author Chuck Cook
  * @author Yu-Shan Sun
  * @version 1.0
  */
 @Entity
-@Table(name = "users")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@NaturalIdCache
+@Table(name = "users", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_users_email", columnNames = { "email" }) })
 public class User implements Subject {
 
     // ===========================================================
@@ -48,6 +64,7 @@ public class User implements Subject {
     public Long id;
 
     /** <p>User's Email and Login User Name</p> */
+    @NaturalId(mutable = true)
     @Constraints.Required
     @Constraints.Email
     public String email;
@@ -99,6 +116,15 @@ public class User implements Subject {
     @Constraints.Required
     public int numTries;
 
+    /** <p>Incremented whenever the password, email or authentication
+     * status changes, so session claims signed before the change are
+     * no longer trusted.</p> */
+    @Column(columnDefinition = "INT DEFAULT 0 NOT NULL")
+    public int credentialVersion;
+
+    /** <p>Receives the changes made by the mutators (if any).</p> */
+    private static volatile UserChangeListener myChangeListener;
+
     // ===========================================================
     // Constructors
     // ===========================================================
@@ -112,17 +138,17 @@ public class User implements Subject {
      * <p>Creates a new user object.</p>
      *
      * @param userEmail User's email.
-     * @param userPassword User's password.
+     * @param userPasswordHash User's password hash.
      * @param userFirstName User's first name.
      * @param userLastName User's last name.
      */
-    private User(String userEmail, String userPassword, String userFirstName,
+    private User(String userEmail, String userPasswordHash, String userFirstName,
             String userLastName) {
         // User information
         email = userEmail;
         firstName = userFirstName;
         lastName = userLastName;
-        password = ModelUtilities.encryptPassword(userPassword);
+        password = userPasswordHash;
         userType = 0;
         lastLogin = null;
         createdOn = new Date();
@@ -145,16 +171,17 @@ public class User implements Subject {
      * <p>Adds a new user to the database.</p>
      *
      * @param email Email entered by the user.
-     * @param password Password entered by the user.
+     * @param passwordHash Hash of the password entered by the user
+     *                     (see {@link PasswordHasher#hash(String)}).
      * @param userFirstName First name entered by the user.
      * @param userLastName Last name entered by the user.
      *
      * @return The newly created user object.
      */
     @Transactional
-    public static User addUser(String email, String password,
+    public static User addUser(String email, String passwordHash,
             String userFirstName, String userLastName) {
-        User u = new User(email, password, userFirstName, userLastName);
+        User u = new User(email, passwordHash, userFirstName, userLastName);
         u.save();
 
         return u;
@@ -168,32 +195,9 @@ public class User implements Subject {
     @Transactional
     public static User authenticate(String email) {
         User u = findByEmail(email);
+        u.updateCredentials("authenticated = ?, confirmationCode = ?", true, "");
         u.authenticated = true;
         u.confirmationCode = "";
-        u.save();
-
-        return u;
-    }
-
-    /**
-     * <p>Attempts to return a user if the email exists in
-     * our database and the specified password matches as well.</p>
-     *
-     * @param email Email entered by the user.
-     * @param password Password entered by the user.
-     *
-     * @return User if all the information matches, null otherwise.
-     */
-    @Transactional(readOnly = true)
-    public static User connect(String email, String password) {
-        User u = findByEmail(email);
-
-        // Check user password if email is found.
-        if (u != null) {
-            if (!u.password.equals(ModelUtilities.encryptPassword(password))) {
-                u = null;
-            }
-        }
 
         return u;
     }
@@ -201,6 +205,9 @@ public class User implements Subject {
     /**
      * <p>Edits the user specified by the {@code currentUserEmail}.</p>
      *
+     * <p>The user is changed through the entity manager rather than a bulk
+     * update, so only this user's cache entries are updated.</p>
+     *
      * @param currentUserEmail Current user email.
      * @param firstName Updated user first name.
      * @param lastName Updated user last name.
@@ -212,23 +219,28 @@ public class User implements Subject {
     public static void editUserProfile(String currentUserEmail,
             String firstName, String lastName, String email, int timeout,
             int numTries) {
-        Query query =
-                JPA.em()
-                        .createQuery(
-                                "update User u set u.email = :email, u.firstName = :firstName, "
-                                        + "u.lastName = :lastName, u.timeout = :timeout, u.numTries = :numTries "
-                                        + "where u.email = :currentUserEmail");
-        query.setParameter("email", email);
-        query.setParameter("firstName", firstName);
-        query.setParameter("lastName", lastName);
-        query.setParameter("timeout", timeout);
-        query.setParameter("numTries", numTries);
-        query.setParameter("currentUserEmail", currentUserEmail);
-        query.executeUpdate();
+        User u = findByEmail(currentUserEmail);
+        if (u != null) {
+            fireUserChanged(email);
+            if (!email.equals(u.email)) {
+                u.credentialVersion++;
+                fireCredentialsChanged(u.email, u.credentialVersion);
+            }
+            else {
+                fireUserChanged(u.email);
+            }
+            u.email = email;
+            u.firstName = firstName;
+            u.lastName = lastName;
+            u.timeout = timeout;
+            u.numTries = numTries;
+            u.save();
+        }
     }
 
     /**
-     * <p>Find a user by email.</p>
+     * <p>Find a user by email. The user is looked up by its natural ID, so
+     * the second-level cache is checked before the database.</p>
      *
      * @param email User email.
      *
@@ -236,19 +248,12 @@ public class User implements Subject {
      */
     @Transactional(readOnly = true)
     public static User findByEmail(String email) {
-        Query query =
-                JPA.em().createQuery(
-                        "select u from User u where u.email = :email",
-                        User.class);
-        query.setParameter("email", email);
-
-        List result = query.getResultList();
-        User user = null;
-        if (!result.isEmpty()) {
-            user = (User) result.get(0);
+        if (email == null) {
+            return null;
         }
 
-        return user;
+        return JPA.em().unwrap(Session.class).bySimpleNaturalId(User.class)
+                .load(email);
     }
 
     /**
@@ -267,41 +272,21 @@ public class User implements Subject {
     /**
      * <p>Get all {@link Permission Permissions} held by this subject. Ordering is not important.</p>
      *
-     * @return A non-null list of permissions.
+     * @return A non-null, immutable list of permissions.
      */
     @Override
     public final List<? extends Permission> getPermissions() {
-        // Add the different permissions for this user.
-        List<Permission> permissions = new ArrayList<>();
-        if (authenticated) {
-            permissions.add(UserPermission.ACTIVEUSER);
-        }
-
-        return permissions;
+        return UserIdentity.getPermissions(authenticated);
     }
 
     /**
      * <p>Get all {@link Role Roles} held by this subject. Ordering is not important.</p>
      *
-     * @return A non-null list of roles.
+     * @return A non-null, immutable list of roles.
      */
     @Override
     public final List<? extends Role> getRoles() {
-        // Add the role based on the userType.
-        List<Role> roles = new ArrayList<>();
-        switch (userType) {
-        case 1:
-            roles.add(UserRole.SUPERUSER);
-            break;
-        case 2:
-            roles.add(UserRole.ADMIN);
-            break;
-        default:
-            roles.add(UserRole.USER);
-            break;
-        }
-
-        return roles;
+        return UserIdentity.getRoles(userType);
     }
 
     /**
@@ -326,12 +311,63 @@ public class User implements Subject {
     @Transactional
     public static User lastLogin(String email) {
         User u = findByEmail(email);
-        u.lastLogin = new Date();
-        u.save();
+        Date now = new Date();
+        u.update("lastLogin = ?", new Timestamp(now.getTime()));
+        u.lastLogin = now;
+
+        return u;
+    }
+
+    /**
+     * <p>Logs in a user whose password has already been checked against
+     * {@code verifiedHash} by a {@link PasswordHasher}. If the account has
+     * been authenticated, the last login date is updated and the hash is
+     * replaced if a new one is given, both in the caller's transaction.</p>
+     *
+     * @param email Email entered by the user.
+     * @param verifiedHash The hash the password was checked against.
+     * @param newHash A new hash of the same password, or the same value as
+     *                {@code verifiedHash} if it does not need to be replaced.
+     *
+     * @return The user if the hash has not changed since it was checked,
+     * {@code null} otherwise. The caller needs to check {@link #authenticated}
+     * to see if the user was logged in.
+     */
+    @Transactional
+    public static User login(String email, String verifiedHash, String newHash) {
+        User u = findByEmail(email);
+        if (u == null || !u.password.equals(verifiedHash)) {
+            return null;
+        }
+
+        if (u.authenticated) {
+            Date now = new Date();
+            if (newHash.equals(verifiedHash)) {
+                u.update("lastLogin = ?", new Timestamp(now.getTime()));
+            }
+            else {
+                // Upgrading the hash does not change the credentials,
+                // so the session claims stay valid.
+                u.update("lastLogin = ?, password = ?",
+                        new Timestamp(now.getTime()), newHash);
+                u.password = newHash;
+            }
+            u.lastLogin = now;
+        }
 
         return u;
     }
 
+    /**
+     * <p>Registers the listener that receives the changes made by the
+     * mutators, replacing the previous one.</p>
+     *
+     * @param listener The listener (or {@code null} to remove it).
+     */
+    public static void setChangeListener(UserChangeListener listener) {
+        myChangeListener = listener;
+    }
+
     /**
      * <p>Generate a new confirmation code and set the user
      * to not authenticated.</p>
@@ -341,11 +377,12 @@ public class User implements Subject {
     @Transactional
     public static User setNotAuthenticated(String email) {
         User u = findByEmail(email);
-        u.confirmationCode =
+        String confirmationCode =
                 ModelUtilities.generateConfirmationCode(u.password, u.email,
                         u.firstName, u.lastName);
+        u.updateCredentials("confirmationCode = ?, authenticated = ?", confirmationCode, false);
+        u.confirmationCode = confirmationCode;
         u.authenticated = false;
-        u.save();
 
         return u;
     }
@@ -354,13 +391,14 @@ public class User implements Subject {
      * <p>Update the password for the specified email.</p>
      *
      * @param email Email entered by the user.
-     * @param password Password entered by the user.
+     * @param passwordHash Hash of the password entered by the user
+     *                     (see {@link PasswordHasher#hash(String)}).
      */
     @Transactional
-    public static User updatePassword(String email, String password) {
+    public static User updatePassword(String email, String passwordHash) {
         User u = findByEmail(email);
-        u.password = ModelUtilities.encryptPassword(password);
-        u.save();
+        u.updateCredentials("password = ?", passwordHash);
+        u.password = passwordHash;
 
         return u;
     }
@@ -369,6 +407,94 @@ public class User implements Subject {
     // Private Methods
     // ===========================================================
 
+    /**
+     * <p>Tells the change listener (if any) that a user's credentials
+     * have changed.</p>
+     *
+     * @param email The user's email.
+     * @param credentialVersion The new credential version.
+     */
+    private static void fireCredentialsChanged(String email,
+            int credentialVersion) {
+        UserChangeListener listener = myChangeListener;
+        if (listener != null && email != null) {
+            listener.credentialsChanged(email, credentialVersion);
+        }
+    }
+
+    /**
+     * <p>Tells the change listener (if any) that a user has changed.</p>
+     *
+     * @param email The user's email.
+     */
+    private static void fireUserChanged(String email) {
+        UserChangeListener listener = myChangeListener;
+        if (listener != null && email != null) {
+            listener.userChanged(email);
+        }
+    }
+
+    /**
+     * <p>Updates some of the columns of this user's row with a single
+     * statement. The user is evicted from the second-level cache right away
+     * and again when the transaction completes, so a copy read from the
+     * database in between is not kept either. The change listener is
+     * notified at the same two points. This object becomes read-only, so
+     * the caller can set the new values without them being written
+     * again.</p>
+     *
+     * @param assignments The {@code column = ?} assignments.
+     * @param values The values for the assignments.
+     */
+    private void update(String assignments, Object... values) {
+        Session session = JPA.em().unwrap(Session.class);
+        if (session.contains(this)) {
+            session.setReadOnly(this, true);
+        }
+
+        session.doWork(connection -> {
+            try (PreparedStatement update =
+                    connection.prepareStatement("update users set "
+                            + assignments + " where id = ?")) {
+                for (int i = 0; i < values.length; i++) {
+                    update.setObject(i + 1, values[i]);
+                }
+                update.setLong(values.length + 1, id);
+                update.executeUpdate();
+            }
+        });
+
+        javax.persistence.Cache cache = JPA.em().getEntityManagerFactory().getCache();
+        Long userID = id;
+        String userEmail = email;
+        cache.evict(User.class, userID);
+        fireUserChanged(userEmail);
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {}
+
+            @Override
+            public void afterCompletion(int status) {
+                cache.evict(User.class, userID);
+                fireUserChanged(userEmail);
+            }
+        });
+    }
+
+    /**
+     * <p>Same as {@link #update(String, Object...)}, but also increments
+     * {@link #credentialVersion} and revokes the session claims signed
+     * for the previous version.</p>
+     *
+     * @param assignments The {@code column = ?} assignments.
+     * @param values The values for the assignments.
+     */
+    private void updateCredentials(String assignments, Object... values) {
+        update(assignments + ", credentialVersion = credentialVersion + 1", values);
+        credentialVersion++;
+        fireCredentialsChanged(email, credentialVersion);
+    }
+
     /**
      * <p>Store this user information.</p>
      */
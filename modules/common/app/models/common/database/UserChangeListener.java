@@ -0,0 +1,42 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package models.common.database;
+
+/**
+ * <p>Receives the changes made by the {@link User} mutators, so anything
+ * that keeps a copy of a user (such as a cache of identities) can drop
+ * it. The listener is registered with
+ * {@link User#setChangeListener(UserChangeListener)}.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public interface UserChangeListener {
+
+    /**
+     * <p>Called when a user has been changed.</p>
+     *
+     * @param email The user's email.
+     */
+    void userChanged(String email);
+
+    /**
+     * <p>Called when a user's password, email or authentication status
+     * has been changed.</p>
+     *
+     * @param email The user's email.
+     * @param credentialVersion The new credential version.
+     */
+    void credentialsChanged(String email, int credentialVersion);
+
+}
@@ -41,7 +41,8 @@ public class UserComponent {
     public Long id;
 
     /** <p>User component content.</p> */
-    @Lob
+    @Convert(converter = CompressedTextConverter.class)
+    @Column(columnDefinition = "LONGBLOB")
     public String content;
 
     /** <p>User component name.</p> */
@@ -27,7 +27,8 @@ import play.db.jpa.Transactional;
  * @version 1.0
  */
 @Entity
-@Table(name = "userEvents")
+@Table(name = "userEvents", indexes = {
+        @Index(name = "idx_user_events_author_date", columnList = "author_id, eventDate") })
 public class UserEvent {
 
     // ===========================================================
@@ -49,7 +50,8 @@ public class UserEvent {
     public String eventType;
 
     /** <p>Content associated with this user event.</p> */
-    @Lob
+    @Convert(converter = CompressedTextConverter.class)
+    @Column(columnDefinition = "LONGBLOB")
     public String content;
 
     /** <p>File name associated with this user event.</p> */
@@ -67,6 +69,16 @@ public class UserEvent {
     @Temporal(TemporalType.TIMESTAMP)
     public Date eventDate;
 
+    /**
+     * <p>A plain JDBC statement that inserts a user event. The parameters
+     * are the author's user ID, event type, content, file name, package
+     * name, project name and date. This allows many events to be inserted
+     * in a single JDBC batch.</p>
+     */
+    public static final String BATCH_INSERT_SQL =
+            "insert into userEvents (author_id, eventType, content, name, pkg, "
+                    + "project, eventDate) values (?, ?, ?, ?, ?, ?, ?)";
+
     // ===========================================================
     // Constructors
     // ===========================================================
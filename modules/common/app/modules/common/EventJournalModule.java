@@ -0,0 +1,50 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package modules.common;
+
+import play.api.Configuration;
+import play.api.Environment;
+import play.api.inject.Binding;
+import play.api.inject.Module;
+import scala.collection.Seq;
+import utils.common.journal.EventJournal;
+
+/**
+ * <p>Creates an eager binding for {@link EventJournal}, so any journal
+ * segments left behind by a previous run are replayed as soon as the
+ * application starts.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class EventJournalModule extends Module {
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Binds {@link EventJournal} eagerly.</p>
+     *
+     * @param environment The environment.
+     * @param configuration The configuration.
+     *
+     * @return A sequence of bindings.
+     */
+    @Override
+    public final Seq<Binding<?>> bindings(final Environment environment,
+            final Configuration configuration) {
+        return seq(bind(EventJournal.class).toSelf().eagerly());
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package modules.common;
+
+import play.api.Configuration;
+import play.api.Environment;
+import play.api.inject.Binding;
+import play.api.inject.Module;
+import scala.collection.Seq;
+import utils.common.schema.IndexChecker;
+
+/**
+ * <p>Creates an eager binding for the {@link IndexChecker}, so the indexes
+ * are checked when the application starts.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class SchemaModule extends Module {
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Binds {@link IndexChecker} eagerly.</p>
+     *
+     * @param environment The environment.
+     * @param configuration The configuration.
+     *
+     * @return A sequence of bindings.
+     */
+    @Override
+    public final Seq<Binding<?>> bindings(final Environment environment,
+            final Configuration configuration) {
+        return seq(bind(IndexChecker.class).toSelf().eagerly());
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package modules.common;
+
+import play.api.Configuration;
+import play.api.Environment;
+import play.api.inject.Binding;
+import play.api.inject.Module;
+import scala.collection.Seq;
+import utils.common.security.PasswordHasher;
+
+/**
+ * <p>Creates an eager binding for the {@link PasswordHasher}, so the cost
+ * of hashing a password is calibrated when the application starts rather
+ * than during the first login.</p>
+ *
+ * <p>Also creates an eager binding for the {@link UserChangeRegistration},
+ * so the user mutators invalidate the cached identities from the
+ * start.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class SecurityModule extends Module {
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Binds {@link PasswordHasher} and {@link UserChangeRegistration}
+     * eagerly.</p>
+     *
+     * @param environment The environment.
+     * @param configuration The configuration.
+     *
+     * @return A sequence of bindings.
+     */
+    @Override
+    public final Seq<Binding<?>> bindings(final Environment environment,
+            final Configuration configuration) {
+        return seq(bind(PasswordHasher.class).toSelf().eagerly(),
+                bind(UserChangeRegistration.class).toSelf().eagerly());
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package modules.common;
+
+import play.api.Configuration;
+import play.api.Environment;
+import play.api.inject.Binding;
+import play.api.inject.Module;
+import scala.collection.Seq;
+import utils.common.compression.LobCompressionJob;
+import utils.common.storage.BlobGarbageCollector;
+import utils.common.storage.BlobStore;
+
+/**
+ * <p>Creates eager bindings for the classes that control how large column
+ * values are stored, so the compression settings and the {@link BlobStore}
+ * are in place before anything is read from or written to the database,
+ * and the {@link BlobGarbageCollector} is scheduled.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class StorageModule extends Module {
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Binds {@link LobCompressionJob}, {@link BlobStore} and
+     * {@link BlobGarbageCollector} eagerly.</p>
+     *
+     * @param environment The environment.
+     * @param configuration The configuration.
+     *
+     * @return A sequence of bindings.
+     */
+    @Override
+    public final Seq<Binding<?>> bindings(final Environment environment,
+            final Configuration configuration) {
+        return seq(bind(LobCompressionJob.class).toSelf().eagerly(),
+                bind(BlobStore.class).toSelf().eagerly(),
+                bind(BlobGarbageCollector.class).toSelf().eagerly());
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package modules.common;
+
+import deadbolt2.common.security.IdentityResolver;
+import java.util.concurrent.CompletableFuture;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import models.common.database.User;
+import play.inject.ApplicationLifecycle;
+
+/**
+ * <p>Registers the {@link IdentityResolver} as the {@link User} change
+ * listener when the application starts, and removes it when the
+ * application stops.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class UserChangeRegistration {
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This registers the identity resolver.</p>
+     *
+     * @param identityResolver Class that resolves the user that is logged in.
+     * @param lifecycle Application lifecycle.
+     */
+    @Inject
+    public UserChangeRegistration(IdentityResolver identityResolver,
+            ApplicationLifecycle lifecycle) {
+        User.setChangeListener(identityResolver);
+        lifecycle.addStopHook(() -> {
+            User.setChangeListener(null);
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+}
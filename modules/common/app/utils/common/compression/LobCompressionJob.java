@@ -0,0 +1,445 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.common.compression;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import models.common.database.CompressedTextConverter;
+import play.Configuration;
+import play.Logger;
+import play.db.Database;
+import play.libs.Json;
+import utils.common.storage.BlobStore;
+
+/**
+ * <p>This class compresses the large text columns of the rows written before
+ * compression was enabled. Each column is converted to {@code LONGBLOB}
+ * first (if it is still a text column, by way of {@code utf8mb4} if it uses
+ * another character set), and then the rows are read in
+ * batches ordered by ID and rewritten with {@link CompressedTextConverter}.
+ * Each batch is written in its own transaction, so the job can be stopped
+ * and started again at any time.</p>
+ *
+ * <p>If the {@link BlobStore} is enabled, large values are moved to it
+ * as well.</p>
+ *
+ * <p>The job keeps a report with the number of bytes each table used
+ * before and after compression.</p>
+ *
+ * <p>This class also applies the {@code webide.compression} settings to
+ * {@link CompressedTextConverter} when the application starts. Compression
+ * is left off while any of the columns is still a text column, and it is
+ * turned on (along with the {@link BlobStore}) once a run has converted
+ * all of them.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class LobCompressionJob {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Default number of rows to compress in a single transaction.</p> */
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    /** <p>Default length (in bytes) below which values are not compressed.</p> */
+    private static final int DEFAULT_MIN_LENGTH = 256;
+
+    /** <p>Number of rows to compress in a single transaction.</p> */
+    private final int myBatchSize;
+
+    /** <p>The store for large values.</p> */
+    private final BlobStore myBlobStore;
+
+    /** <p>The database that stores the rows.</p> */
+    private final Database myDatabase;
+
+    /** <p>Flag that indicates compression has been turned on in the configuration.</p> */
+    private final boolean myIsCompressionRequested;
+
+    /** <p>Length (in bytes) below which values are not compressed.</p> */
+    private final int myMinLength;
+
+    /** <p>The compressed columns.</p> */
+    private final List<LobColumn> myColumns;
+
+    /** <p>Flag that indicates the job is currently running.</p> */
+    private final AtomicBoolean myIsRunning;
+
+    /** <p>Flag that indicates new values are compressed.</p> */
+    private volatile boolean myIsCompressionEnabled;
+
+    /** <p>The column being compressed (or {@code null}).</p> */
+    private volatile String myCurrentColumn;
+
+    /** <p>Time when the current (or last) run started.</p> */
+    private volatile long myStartTime;
+
+    /** <p>Time when the last run finished (or {@code 0}).</p> */
+    private volatile long myEndTime;
+
+    /** <p>The error that stopped the last run (if any).</p> */
+    private volatile String myError;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates the compression job and applies the compression
+     * settings.</p>
+     *
+     * @param configuration Class that retrieves configurations.
+     * @param database The database that stores the rows.
+     * @param blobStore The store for large values.
+     */
+    @Inject
+    public LobCompressionJob(Configuration configuration, Database database,
+            BlobStore blobStore) {
+        myBatchSize =
+                Math.max(1, configuration.getInt(
+                        "webide.compression.migrationBatchSize",
+                        DEFAULT_BATCH_SIZE));
+        myBlobStore = blobStore;
+        myDatabase = database;
+        myIsCompressionRequested =
+                configuration.getBoolean("webide.compression.enabled", false);
+        myMinLength =
+                Math.max(1, configuration.getInt(
+                        "webide.compression.minLength", DEFAULT_MIN_LENGTH));
+        myIsRunning = new AtomicBoolean(false);
+        myColumns = new ArrayList<>();
+        for (String[] column : CompressedTextConverter.COLUMNS) {
+            myColumns.add(new LobColumn(column[0], column[1]));
+        }
+
+        applyCompression();
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Returns the progress of the current (or last) run and the bytes
+     * saved for each table.</p>
+     *
+     * @return A JSON object with the report.
+     */
+    public final ObjectNode getStatus() {
+        ObjectNode status = Json.newObject();
+        status.put("compressionEnabled", myIsCompressionEnabled);
+        status.put("running", myIsRunning.get());
+        status.put("currentColumn", myCurrentColumn);
+        status.put("startTime", myStartTime);
+        status.put("endTime", myEndTime);
+        status.put("error", myError);
+
+        long totalBefore = 0;
+        long totalAfter = 0;
+        ArrayNode columns = status.putArray("columns");
+        for (LobColumn column : myColumns) {
+            columns.addObject()
+                    .put("table", column.table)
+                    .put("column", column.column)
+                    .put("rowsScanned", column.numScanned)
+                    .put("rowsCompressed", column.numCompressed)
+                    .put("bytesBefore", column.bytesBefore)
+                    .put("bytesAfter", column.bytesAfter)
+                    .put("bytesSaved", column.bytesBefore - column.bytesAfter);
+            totalBefore += column.bytesBefore;
+            totalAfter += column.bytesAfter;
+        }
+        status.put("bytesBefore", totalBefore);
+        status.put("bytesAfter", totalAfter);
+        status.put("bytesSaved", totalBefore - totalAfter);
+
+        return status;
+    }
+
+    /**
+     * <p>Starts compressing the existing rows unless the job is
+     * already running.</p>
+     *
+     * @return {@code true} if a new run was started,
+     * {@code false} otherwise.
+     */
+    public final boolean start() {
+        if (!myIsRunning.compareAndSet(false, true)) {
+            return false;
+        }
+
+        for (LobColumn column : myColumns) {
+            column.reset();
+        }
+        myCurrentColumn = null;
+        myStartTime = System.currentTimeMillis();
+        myEndTime = 0;
+        myError = null;
+
+        Thread thread = new Thread(this::run, "webide-lob-compression");
+        thread.setDaemon(true);
+        thread.start();
+
+        return true;
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Turns compression on if it has been turned on in the configuration
+     * and all the columns are {@code LONGBLOB} columns.</p>
+     */
+    private void applyCompression() {
+        boolean enabled = false;
+        if (myIsCompressionRequested) {
+            List<String> textColumns;
+            try {
+                textColumns =
+                        myDatabase.withConnection((Connection connection) ->
+                                CompressedTextConverter.findTextColumns(connection));
+            }
+            catch (RuntimeException e) {
+                Logger.error("Failed to check the compressed column types.", e);
+                textColumns = Collections.singletonList("(unknown)");
+            }
+
+            if (textColumns.isEmpty()) {
+                enabled = true;
+            }
+            else {
+                // Columns in another character set are listed with it,
+                // and the job converts them to utf8mb4 first.
+                Logger.error("Compression is not enabled because "
+                        + textColumns + " are not longblob columns yet. "
+                        + "Run the compression job to convert them.");
+            }
+        }
+
+        myIsCompressionEnabled = enabled;
+        CompressedTextConverter.setCompression(enabled, myMinLength);
+    }
+
+    /**
+     * <p>Converts a column to {@code LONGBLOB} unless it already is one.
+     * The conversion keeps the bytes as they are, but the rows written
+     * before compression are read as {@code UTF-8}, so a column in another
+     * character set is converted to {@code utf8mb4} first.</p>
+     *
+     * @param connection A database connection.
+     * @param column The column to convert.
+     *
+     * @throws SQLException This exception is thrown when the column
+     * could not be converted.
+     */
+    private static void convertColumn(Connection connection, LobColumn column)
+            throws SQLException {
+        String dataType =
+                CompressedTextConverter.getDataType(connection, column.table,
+                        column.column);
+        if (dataType == null || dataType.equalsIgnoreCase("longblob")) {
+            return;
+        }
+
+        String characterSet =
+                CompressedTextConverter.getCharacterSet(connection,
+                        column.table, column.column);
+        try (Statement alter = connection.createStatement()) {
+            if (!CompressedTextConverter.isUtf8(characterSet)) {
+                Logger.info("Converting " + column.table + "." + column.column
+                        + " from " + characterSet + " to utf8mb4.");
+                alter.executeUpdate("alter table " + column.table
+                        + " modify column " + column.column
+                        + " longtext character set utf8mb4");
+            }
+
+            Logger.info("Converting " + column.table + "." + column.column
+                    + " from " + dataType + " to longblob.");
+            alter.executeUpdate("alter table " + column.table
+                    + " modify column " + column.column + " longblob");
+        }
+    }
+
+    /**
+     * <p>Compresses a batch of rows.</p>
+     *
+     * @param connection A connection with an open transaction.
+     * @param column The column to compress.
+     * @param afterID Only rows with larger IDs are compressed.
+     *
+     * @return The largest ID in the batch, or {@code -1} if there
+     * were no more rows.
+     *
+     * @throws SQLException This exception is thrown when the batch
+     * could not be compressed.
+     */
+    private long compressBatch(Connection connection, LobColumn column,
+            long afterID) throws SQLException {
+        long lastID = -1;
+        List<Long> ids = new ArrayList<>(myBatchSize);
+        List<byte[]> values = new ArrayList<>(myBatchSize);
+        try (PreparedStatement select =
+                connection.prepareStatement("select id, " + column.column
+                        + " from " + column.table + " where id > ? "
+                        + "order by id limit ? for update")) {
+            select.setLong(1, afterID);
+            select.setInt(2, myBatchSize);
+            try (ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    lastID = resultSet.getLong(1);
+                    byte[] stored = resultSet.getBytes(2);
+                    column.numScanned++;
+                    if (stored == null) {
+                        continue;
+                    }
+
+                    column.bytesBefore += stored.length;
+                    byte[] compressed = stored;
+                    if (CompressedTextConverter.getBlobHash(stored) == null) {
+                        compressed = CompressedTextConverter.encode(
+                                CompressedTextConverter.decode(stored), true);
+                    }
+
+                    if (compressed.length < stored.length) {
+                        ids.add(lastID);
+                        values.add(compressed);
+                        column.numCompressed++;
+                        column.bytesAfter += compressed.length;
+                    }
+                    else {
+                        column.bytesAfter += stored.length;
+                    }
+                }
+            }
+        }
+
+        if (!ids.isEmpty()) {
+            try (PreparedStatement update =
+                    connection.prepareStatement("update " + column.table
+                            + " set " + column.column + " = ? where id = ?")) {
+                for (int i = 0; i < ids.size(); i++) {
+                    update.setBytes(1, values.get(i));
+                    update.setLong(2, ids.get(i));
+                    update.addBatch();
+                }
+                update.executeBatch();
+            }
+        }
+
+        return lastID;
+    }
+
+    /**
+     * <p>Converts and compresses each column one batch of rows at a time.</p>
+     */
+    private void run() {
+        try {
+            for (LobColumn column : myColumns) {
+                myCurrentColumn = column.table + "." + column.column;
+                myDatabase.withConnection(connection -> convertColumn(connection, column));
+
+                long lastID = 0;
+                while (lastID >= 0) {
+                    long afterID = lastID;
+                    lastID =
+                            myDatabase.withTransaction((Connection connection) ->
+                                    compressBatch(connection, column, afterID));
+                }
+
+                Logger.info("Compressed " + column.numCompressed + " of "
+                        + column.numScanned + " rows in " + myCurrentColumn
+                        + " (" + column.bytesBefore + " to "
+                        + column.bytesAfter + " bytes).");
+            }
+
+            // The columns have all been converted now
+            applyCompression();
+            myBlobStore.applySettings();
+        }
+        catch (RuntimeException e) {
+            myError = e.getMessage();
+            Logger.error("Failed to compress the existing rows.", e);
+        }
+        finally {
+            myCurrentColumn = null;
+            myEndTime = System.currentTimeMillis();
+            myIsRunning.set(false);
+        }
+    }
+
+    // ===========================================================
+    // Lob Column
+    // ===========================================================
+
+    /**
+     * <p>A compressed column and the progress of compressing it.</p>
+     */
+    private static final class LobColumn {
+
+        /** <p>Table name.</p> */
+        final String table;
+
+        /** <p>Column name.</p> */
+        final String column;
+
+        /** <p>Number of rows read.</p> */
+        volatile long numScanned;
+
+        /** <p>Number of rows rewritten compressed.</p> */
+        volatile long numCompressed;
+
+        /** <p>Stored bytes of the rows read before compression.</p> */
+        volatile long bytesBefore;
+
+        /** <p>Stored bytes of the rows read after compression.</p> */
+        volatile long bytesAfter;
+
+        /**
+         * <p>Creates a compressed column.</p>
+         *
+         * @param table Table name.
+         * @param column Column name.
+         */
+        LobColumn(String table, String column) {
+            this.table = table;
+            this.column = column;
+        }
+
+        /**
+         * <p>Clears the progress.</p>
+         */
+        void reset() {
+            numScanned = 0;
+            numCompressed = 0;
+            bytesBefore = 0;
+            bytesAfter = 0;
+        }
+    }
+
+}
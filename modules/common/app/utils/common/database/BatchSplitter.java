@@ -0,0 +1,130 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.common.database;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * <p>Writes a batch of items, finding the items that cannot be written
+ * when the batch fails. A batch that fails because of its items (such as a
+ * value that does not fit its column) is split in half and each half is
+ * written on its own, until the failing items are on their own. The
+ * remaining items are written in order, and only the failing ones are
+ * handed to the caller.</p>
+ *
+ * <p>A batch that fails because of the database (such as a deadlock or a
+ * lost connection) is not split, since writing fewer items would not help.
+ * Those exceptions are thrown to the caller.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public final class BatchSplitter {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>MySQL error code for a lock wait timeout.</p> */
+    private static final int LOCK_WAIT_TIMEOUT_ERROR = 1205;
+
+    /** <p>MySQL error code for a deadlock.</p> */
+    private static final int DEADLOCK_ERROR = 1213;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This class only has static methods.</p>
+     */
+    private BatchSplitter() {}
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Checks whether an exception was caused by the database rather than
+     * by the items we tried to write, in which case writing the same items
+     * again might work.</p>
+     *
+     * @param e An exception.
+     *
+     * @return {@code true} if it was, {@code false} otherwise.
+     */
+    public static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                SQLException sqlException = (SQLException) cause;
+                String sqlState = sqlException.getSQLState();
+                if (sqlException instanceof SQLTransientException
+                        || sqlException instanceof SQLRecoverableException
+                        || sqlException.getErrorCode() == LOCK_WAIT_TIMEOUT_ERROR
+                        || sqlException.getErrorCode() == DEADLOCK_ERROR
+                        || (sqlState != null && (sqlState.startsWith("08")
+                                || sqlState.startsWith("40")))) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * <p>Writes a batch of items, splitting it until the items that cannot
+     * be written are found.</p>
+     *
+     * @param batch The items to write.
+     * @param writer Writes a batch of items in a single transaction.
+     * @param onFailure Called with each item that could not be written on
+     *                  its own and the exception that it caused.
+     * @param <T> The type of items.
+     *
+     * @throws RuntimeException The exception thrown by {@code writer} when
+     * the failure was caused by the database.
+     */
+    public static <T> void write(List<T> batch, Consumer<List<T>> writer,
+            BiConsumer<T, RuntimeException> onFailure) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            writer.accept(batch);
+        }
+        catch (RuntimeException e) {
+            if (isTransient(e)) {
+                throw e;
+            }
+
+            if (batch.size() == 1) {
+                onFailure.accept(batch.get(0), e);
+                return;
+            }
+
+            int middle = batch.size() / 2;
+            write(new ArrayList<>(batch.subList(0, middle)), writer, onFailure);
+            write(new ArrayList<>(batch.subList(middle, batch.size())),
+                    writer, onFailure);
+        }
+    }
+
+}
@@ -0,0 +1,364 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.common.delta;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>A line based delta between two versions of a text. A delta is itself
+ * text, with one instruction per line:</p>
+ *
+ * <ul>
+ *     <li>{@code =k} copies the next {@code k} lines of the base text.</li>
+ *     <li>{@code -k} skips the next {@code k} lines of the base text.</li>
+ *     <li>{@code +line} adds {@code line} to the target text.</li>
+ * </ul>
+ *
+ * <p>Lines are separated by {@code \n} only, so carriage returns and
+ * trailing newlines are kept exactly as they are.</p>
+ *
+ * <p>The common prefix and suffix are found first, and only the lines in
+ * between are compared using the longest common subsequence. If there are
+ * too many lines in between, they are simply replaced, which still gives a
+ * correct (if larger) delta.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public final class LineDelta {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /**
+     * <p>Maximum number of cells in the longest common subsequence table
+     * for the changed lines.</p>
+     */
+    private static final int MAX_TABLE_SIZE = 1 << 20;
+
+    /** <p>Instruction that copies lines from the base text.</p> */
+    private static final char COPY = '=';
+
+    /** <p>Instruction that skips lines of the base text.</p> */
+    private static final char SKIP = '-';
+
+    /** <p>Instruction that adds a line to the target text.</p> */
+    private static final char ADD = '+';
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This class only contains static methods.</p>
+     */
+    private LineDelta() {}
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Applies a delta to the text it was computed from.</p>
+     *
+     * @param base The base text.
+     * @param delta A delta from {@link #diff(String, String)}.
+     *
+     * @return The target text.
+     */
+    public static String apply(String base, String delta) {
+        String[] baseLines = split(base);
+        StringBuilder sb = new StringBuilder(base.length() + delta.length());
+        int position = 0;
+        boolean first = true;
+        for (String instruction : split(delta)) {
+            if (instruction.isEmpty()) {
+                continue;
+            }
+
+            char kind = instruction.charAt(0);
+            if (kind == ADD) {
+                first = appendLine(sb, instruction.substring(1), first);
+            }
+            else {
+                int count = parseCount(instruction);
+                if (position + count > baseLines.length) {
+                    throw new IllegalArgumentException(
+                            "The delta does not match its base text.");
+                }
+
+                if (kind == COPY) {
+                    for (int i = 0; i < count; i++) {
+                        first = appendLine(sb, baseLines[position + i], first);
+                    }
+                }
+                else if (kind != SKIP) {
+                    throw new IllegalArgumentException("Unknown delta instruction: "
+                            + instruction);
+                }
+                position += count;
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * <p>Computes the delta that turns one text into another.</p>
+     *
+     * @param base The base text.
+     * @param target The target text.
+     *
+     * @return The delta.
+     */
+    public static String diff(String base, String target) {
+        StringBuilder sb = new StringBuilder();
+        for (Edit edit : getEdits(split(base), split(target))) {
+            if (edit.kind == ADD) {
+                sb.append(ADD).append(edit.line).append('\n');
+            }
+            else {
+                sb.append(edit.kind).append(edit.count).append('\n');
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * <p>Renders a delta as a readable diff. Each line of the result starts
+     * with two characters: {@code "  "} for an unchanged line, {@code "- "}
+     * for a removed line and {@code "+ "} for an added line.</p>
+     *
+     * @param base The base text.
+     * @param delta A delta from {@link #diff(String, String)}.
+     *
+     * @return The readable diff.
+     */
+    public static String render(String base, String delta) {
+        String[] baseLines = split(base);
+        StringBuilder sb = new StringBuilder(base.length() + delta.length());
+        int position = 0;
+        for (String instruction : split(delta)) {
+            if (instruction.isEmpty()) {
+                continue;
+            }
+
+            char kind = instruction.charAt(0);
+            if (kind == ADD) {
+                sb.append("+ ").append(instruction, 1, instruction.length()).append('\n');
+            }
+            else {
+                int count = parseCount(instruction);
+                if (position + count > baseLines.length) {
+                    throw new IllegalArgumentException(
+                            "The delta does not match its base text.");
+                }
+
+                String prefix = kind == COPY ? "  " : "- ";
+                for (int i = 0; i < count; i++) {
+                    sb.append(prefix).append(baseLines[position + i]).append('\n');
+                }
+                position += count;
+            }
+        }
+
+        return sb.toString();
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Adds a line to the target text.</p>
+     *
+     * @param sb The target text so far.
+     * @param line The line to add.
+     * @param first {@code true} if this is the first line,
+     *              {@code false} otherwise.
+     *
+     * @return {@code false}, since the next line is never the first one.
+     */
+    private static boolean appendLine(StringBuilder sb, String line, boolean first) {
+        if (!first) {
+            sb.append('\n');
+        }
+        sb.append(line);
+
+        return false;
+    }
+
+    /**
+     * <p>Adds an instruction, merging it with the previous one if they
+     * copy or skip lines.</p>
+     *
+     * @param edits The instructions so far.
+     * @param kind The kind of instruction.
+     * @param count Number of lines copied or skipped.
+     */
+    private static void addEdit(List<Edit> edits, char kind, int count) {
+        if (count == 0) {
+            return;
+        }
+
+        if (!edits.isEmpty()) {
+            Edit last = edits.get(edits.size() - 1);
+            if (last.kind == kind) {
+                last.count += count;
+                return;
+            }
+        }
+
+        edits.add(new Edit(kind, count, null));
+    }
+
+    /**
+     * <p>Computes the instructions that turn the base lines into the
+     * target lines.</p>
+     *
+     * @param base The base lines.
+     * @param target The target lines.
+     *
+     * @return The instructions.
+     */
+    private static List<Edit> getEdits(String[] base, String[] target) {
+        int prefix = 0;
+        int maxPrefix = Math.min(base.length, target.length);
+        while (prefix < maxPrefix && base[prefix].equals(target[prefix])) {
+            prefix++;
+        }
+
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix
+                && base[base.length - 1 - suffix].equals(
+                        target[target.length - 1 - suffix])) {
+            suffix++;
+        }
+
+        List<Edit> edits = new ArrayList<>();
+        addEdit(edits, COPY, prefix);
+
+        int n = base.length - prefix - suffix;
+        int m = target.length - prefix - suffix;
+        if ((long) (n + 1) * (m + 1) > MAX_TABLE_SIZE) {
+            // Too many changed lines to compare, so we replace them all.
+            addEdit(edits, SKIP, n);
+            for (int j = 0; j < m; j++) {
+                edits.add(new Edit(ADD, 0, target[prefix + j]));
+            }
+        }
+        else {
+            // lengths[i][j] is the length of the longest common subsequence
+            // of the changed base lines from i and target lines from j.
+            int[][] lengths = new int[n + 1][m + 1];
+            for (int i = n - 1; i >= 0; i--) {
+                for (int j = m - 1; j >= 0; j--) {
+                    if (base[prefix + i].equals(target[prefix + j])) {
+                        lengths[i][j] = lengths[i + 1][j + 1] + 1;
+                    }
+                    else {
+                        lengths[i][j] = Math.max(lengths[i + 1][j], lengths[i][j + 1]);
+                    }
+                }
+            }
+
+            int i = 0;
+            int j = 0;
+            while (i < n || j < m) {
+                if (i < n && j < m && base[prefix + i].equals(target[prefix + j])) {
+                    addEdit(edits, COPY, 1);
+                    i++;
+                    j++;
+                }
+                else if (i < n && (j == m || lengths[i + 1][j] >= lengths[i][j + 1])) {
+                    addEdit(edits, SKIP, 1);
+                    i++;
+                }
+                else {
+                    edits.add(new Edit(ADD, 0, target[prefix + j]));
+                    j++;
+                }
+            }
+        }
+
+        addEdit(edits, COPY, suffix);
+
+        return edits;
+    }
+
+    /**
+     * <p>Reads the number of lines in a copy or skip instruction.</p>
+     *
+     * @param instruction The instruction.
+     *
+     * @return The number of lines.
+     */
+    private static int parseCount(String instruction) {
+        try {
+            return Integer.parseInt(instruction.substring(1));
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unknown delta instruction: "
+                    + instruction, e);
+        }
+    }
+
+    /**
+     * <p>Splits a text into lines. A trailing newline results in a last
+     * empty line, so joining the lines gives back the exact text.</p>
+     *
+     * @param text The text.
+     *
+     * @return The lines.
+     */
+    private static String[] split(String text) {
+        return text.split("\n", -1);
+    }
+
+    // ===========================================================
+    // Edit
+    // ===========================================================
+
+    /**
+     * <p>A single delta instruction.</p>
+     */
+    private static final class Edit {
+
+        /** <p>The kind of instruction.</p> */
+        final char kind;
+
+        /** <p>Number of lines copied or skipped.</p> */
+        int count;
+
+        /** <p>The added line (or {@code null}).</p> */
+        final String line;
+
+        /**
+         * <p>Creates an instruction.</p>
+         *
+         * @param kind The kind of instruction.
+         * @param count Number of lines copied or skipped.
+         * @param line The added line (or {@code null}).
+         */
+        Edit(char kind, int count, String line) {
+            this.kind = kind;
+            this.count = count;
+            this.line = line;
+        }
+    }
+
+}
@@ -0,0 +1,505 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.common.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import models.common.database.CompilerResult;
+import models.common.database.JournalCheckpoint;
+import models.common.database.User;
+import models.common.database.UserEvent;
+import play.Configuration;
+import play.Logger;
+import play.db.Database;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import utils.common.database.BatchSplitter;
+
+/**
+ * <p>An optional local journal for {@link UserEvent} and
+ * {@link CompilerResult} writes. Each write is appended to a memory-mapped
+ * segment file and forced to disk before the caller returns, so the request
+ * does not wait for the database. Concurrent writers share a single force,
+ * which keeps the cost of a durable write low under load.</p>
+ *
+ * <p>A background loader inserts the journaled writes into the database in
+ * JDBC batches. The position it has reached is stored as a
+ * {@link JournalCheckpoint} in the same transaction as the inserted rows,
+ * so segments left behind by a crash are replayed on the next start without
+ * inserting any row twice. Segments are deleted once they have been
+ * fully loaded.</p>
+ *
+ * <p>A batch that fails because of its entries is split by a
+ * {@link BatchSplitter} until the entries that cannot be inserted are
+ * found. Those entries are logged and the checkpoint is moved past them,
+ * so a single bad entry cannot stop the loader. A batch that fails because
+ * of the database is tried again on the next run.</p>
+ *
+ * <p>When the journal is disabled, every write goes straight to the
+ * database in its own transaction.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class EventJournal {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Name of this journal's checkpoint.</p> */
+    private static final String CHECKPOINT_NAME = "events";
+
+    /** <p>Default directory that stores the segment files.</p> */
+    private static final String DEFAULT_DIRECTORY = "journal";
+
+    /** <p>Default size (in bytes) of each segment file.</p> */
+    private static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /** <p>Default number of milliseconds between loader runs.</p> */
+    private static final long DEFAULT_LOAD_INTERVAL = 500;
+
+    /** <p>Default maximum number of entries inserted in a single batch.</p> */
+    private static final int DEFAULT_LOAD_BATCH_SIZE = 500;
+
+    /** <p>Flag that indicates the journal is enabled.</p> */
+    private final boolean myIsEnabled;
+
+    /** <p>The directory that stores the segment files.</p> */
+    private final Path myDirectory;
+
+    /** <p>Size (in bytes) of each segment file.</p> */
+    private final int mySegmentSize;
+
+    /** <p>Maximum number of entries inserted in a single batch.</p> */
+    private final int myLoadBatchSize;
+
+    /** <p>The segments that have not been fully loaded, by sequence number.</p> */
+    private final Map<Long, JournalSegment> mySegments;
+
+    /** <p>Lock held while appending to the active segment.</p> */
+    private final Object myAppendLock;
+
+    /** <p>The segment new entries are appended to.</p> */
+    private JournalSegment myActiveSegment;
+
+    /** <p>The database that stores the events.</p> */
+    private final Database myDatabase;
+
+    /** <p>JPA API</p> */
+    private final JPAApi myJpaApi;
+
+    /** <p>The thread that loads the segments into the database.</p> */
+    private final ScheduledExecutorService myLoader;
+
+    /** <p>Sequence number of the segment the loader is reading.</p> */
+    private long myCheckpointSegment;
+
+    /** <p>Offset in that segment up to which entries have been loaded.</p> */
+    private int myCheckpointPosition;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates the journal and, if it is enabled, opens the segments
+     * left behind by a previous run and starts the loader.</p>
+     *
+     * @param configuration Class that retrieves configurations.
+     * @param database The database that stores the events.
+     * @param jpaApi JPA API.
+     * @param lifecycle Application lifecycle.
+     */
+    @Inject
+    public EventJournal(Configuration configuration, Database database,
+            JPAApi jpaApi, ApplicationLifecycle lifecycle) {
+        myIsEnabled = configuration.getBoolean("webide.journal.enabled", false);
+        myDirectory =
+                Paths.get(configuration.getString("webide.journal.directory",
+                        DEFAULT_DIRECTORY));
+        mySegmentSize =
+                Math.max(64 * 1024, configuration.getInt(
+                        "webide.journal.segmentSize", DEFAULT_SEGMENT_SIZE));
+        long loadInterval =
+                Math.max(1, configuration.getLong(
+                        "webide.journal.loadInterval", DEFAULT_LOAD_INTERVAL));
+        myLoadBatchSize =
+                Math.max(1, configuration.getInt(
+                        "webide.journal.loadBatchSize", DEFAULT_LOAD_BATCH_SIZE));
+        mySegments = new ConcurrentSkipListMap<>();
+        myAppendLock = new Object();
+        myDatabase = database;
+        myJpaApi = jpaApi;
+
+        if (myIsEnabled) {
+            try {
+                recover();
+            }
+            catch (IOException | SQLException e) {
+                throw new IllegalStateException(
+                        "Could not open the event journal in " + myDirectory, e);
+            }
+
+            myLoader =
+                    Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "webide-journal-loader");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            myLoader.scheduleWithFixedDelay(this::loadSafely, 0,
+                    loadInterval, TimeUnit.MILLISECONDS);
+
+            // Load everything that has been journaled before
+            // the database goes away.
+            lifecycle.addStopHook(() -> CompletableFuture.runAsync(() -> {
+                myLoader.shutdown();
+                try {
+                    myLoader.awaitTermination(1, TimeUnit.MINUTES);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                loadSafely();
+                for (JournalSegment segment : mySegments.values()) {
+                    segment.close();
+                }
+            }));
+        }
+        else {
+            myLoader = null;
+        }
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Records a new compiler event.</p>
+     *
+     * @param filename Filename associated with this event.
+     * @param pkg Package name associated with this event.
+     * @param projectName Project name associated with this event.
+     * @param eventType Type of event.
+     * @param filecontent File content associated with this event.
+     * @param author User associated with this event.
+     */
+    public final void addCompilerEvent(String filename, String pkg,
+            String projectName, String eventType, String filecontent,
+            User author) {
+        if (!myIsEnabled || !append(JournalEntry.userEvent(author.id,
+                eventType, filecontent, filename, pkg, projectName))) {
+            myJpaApi.withTransaction(() -> UserEvent.addCompilerEvent(filename,
+                    pkg, projectName, eventType, filecontent, author));
+        }
+    }
+
+    /**
+     * <p>Records a new compiler result.</p>
+     *
+     * @param filename Filename associated with this result.
+     * @param fileparent Parent associated with this result.
+     * @param pkg Package name associated with this result.
+     * @param projectName Project name associated with this result.
+     * @param filetype File type associated with this result.
+     * @param filecontent File content associated with this result.
+     * @param eventType Type of event.
+     * @param results Compiler results.
+     * @param error Error indicator.
+     * @param author User associated with this result.
+     */
+    public final void addCompilerResult(String filename, String fileparent,
+            String pkg, String projectName, String filetype,
+            String filecontent, String eventType, String results, int error,
+            User author) {
+        if (!myIsEnabled || !append(JournalEntry.compilerResult(author.id,
+                filecontent, error, eventType, filetype, filename,
+                fileparent, pkg, projectName, results))) {
+            myJpaApi.withTransaction(() -> CompilerResult.addCompilerResult(
+                    filename, fileparent, pkg, projectName, filetype,
+                    filecontent, eventType, results, error, author));
+        }
+    }
+
+    /**
+     * <p>Records a new regular event.</p>
+     *
+     * @param eventType Type of event.
+     * @param projectName Project name associated with this event.
+     * @param author User associated with this event.
+     */
+    public final void addRegularEvent(String eventType, String projectName,
+            User author) {
+        if (!myIsEnabled || !append(JournalEntry.userEvent(author.id,
+                eventType, null, null, null, projectName))) {
+            myJpaApi.withTransaction(() -> UserEvent.addRegularEvent(
+                    eventType, projectName, author));
+        }
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Appends an entry and waits until it is on disk.</p>
+     *
+     * @param entry A journal entry.
+     *
+     * @return {@code true} if the entry is durable, {@code false} if it could
+     * not be journaled and the caller should write it to the database.
+     */
+    private boolean append(JournalEntry entry) {
+        byte[] payload = entry.encode();
+        JournalSegment segment;
+        int position;
+        try {
+            synchronized (myAppendLock) {
+                if (!myActiveSegment.hasRoom(payload.length)) {
+                    // A single large entry gets a segment of its own.
+                    JournalSegment next =
+                            JournalSegment.create(myDirectory,
+                                    myActiveSegment.sequence + 1,
+                                    Math.max(mySegmentSize,
+                                            JournalSegment.HEADER_SIZE + payload.length));
+                    myActiveSegment.seal();
+                    mySegments.put(next.sequence, next);
+                    myActiveSegment = next;
+                }
+
+                segment = myActiveSegment;
+                position = segment.append(payload);
+            }
+
+            segment.force(position);
+        }
+        catch (IOException | UncheckedIOException e) {
+            Logger.error("Could not append to the event journal. "
+                    + "Writing to the database instead.", e);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * <p>Inserts the entries that have not been loaded yet. Sealed segments
+     * are deleted once all of their entries have been loaded.</p>
+     *
+     * @throws IOException This exception is thrown when a loaded segment
+     * could not be deleted.
+     */
+    private synchronized void load() throws IOException {
+        List<JournalEntry> batch = new ArrayList<>(myLoadBatchSize);
+        for (JournalSegment segment : mySegments.values()) {
+            // Read the flag first. Once a segment is sealed,
+            // its durable position no longer changes.
+            boolean isSealed = segment.isSealed();
+            int limit = segment.getDurablePosition();
+            int position =
+                    segment.sequence == myCheckpointSegment ? myCheckpointPosition : 0;
+
+            while (true) {
+                batch.clear();
+                int next = segment.read(position, limit, myLoadBatchSize, batch);
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                long sequence = segment.sequence;
+                BatchSplitter.write(batch,
+                        entries -> loadBatch(sequence, entries,
+                                entries.get(entries.size() - 1).end),
+                        (entry, e) -> skipEntry(sequence, entry, e));
+                position = next;
+            }
+
+            if (!isSealed) {
+                // This is the active segment, so there is nothing after it.
+                break;
+            }
+
+            mySegments.remove(segment.sequence);
+            segment.delete();
+        }
+    }
+
+    /**
+     * <p>Inserts a batch of entries in a single transaction and moves the
+     * checkpoint past them.</p>
+     *
+     * @param sequence Sequence number of the segment the entries came from.
+     * @param entries The entries to insert.
+     * @param position Offset in that segment after the last entry.
+     */
+    private void loadBatch(long sequence, List<JournalEntry> entries,
+            int position) {
+        myDatabase.withTransaction(connection -> writeBatch(connection,
+                entries, sequence, position));
+        myCheckpointSegment = sequence;
+        myCheckpointPosition = position;
+    }
+
+    /**
+     * <p>Runs the loader, logging any failure. When the database fails,
+     * the entries that have not been loaded stay in the journal and are
+     * tried again on the next run.</p>
+     */
+    private void loadSafely() {
+        try {
+            load();
+        }
+        catch (IOException | RuntimeException e) {
+            Logger.warn("Failed to load the event journal into the database. "
+                    + "Retrying later.", e);
+        }
+    }
+
+    /**
+     * <p>Reads the checkpoint, deletes the segments that have already been
+     * loaded, opens the ones that have not and starts a new active segment
+     * after them.</p>
+     *
+     * @throws IOException This exception is thrown when the segments
+     * could not be opened.
+     * @throws SQLException This exception is thrown when the checkpoint
+     * could not be read.
+     */
+    private void recover() throws IOException, SQLException {
+        Files.createDirectories(myDirectory);
+        try (Connection connection = myDatabase.getConnection();
+                PreparedStatement select =
+                        connection.prepareStatement(JournalCheckpoint.SELECT_SQL)) {
+            select.setString(1, CHECKPOINT_NAME);
+            try (ResultSet resultSet = select.executeQuery()) {
+                if (resultSet.next()) {
+                    myCheckpointSegment = resultSet.getLong(1);
+                    myCheckpointPosition = (int) resultSet.getLong(2);
+                }
+            }
+        }
+
+        long lastSequence = myCheckpointSegment;
+        int numReplayed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(myDirectory)) {
+            for (Path file : files) {
+                long sequence = JournalSegment.getSequence(file);
+                if (sequence < 0) {
+                    continue;
+                }
+
+                if (sequence < myCheckpointSegment) {
+                    Files.delete(file);
+                }
+                else {
+                    mySegments.put(sequence, JournalSegment.open(file));
+                    lastSequence = Math.max(lastSequence, sequence);
+                    numReplayed++;
+                }
+            }
+        }
+
+        if (numReplayed > 0) {
+            Logger.info("Replaying " + numReplayed
+                    + " event journal segment(s) from " + myDirectory + ".");
+        }
+
+        myActiveSegment =
+                JournalSegment.create(myDirectory, lastSequence + 1,
+                        mySegmentSize);
+        mySegments.put(myActiveSegment.sequence, myActiveSegment);
+    }
+
+    /**
+     * <p>Logs an entry that could not be inserted on its own and moves the
+     * checkpoint past it.</p>
+     *
+     * @param sequence Sequence number of the segment the entry came from.
+     * @param entry The entry that could not be inserted.
+     * @param e The exception it caused.
+     */
+    private void skipEntry(long sequence, JournalEntry entry,
+            RuntimeException e) {
+        Logger.error("Skipped a journaled "
+                + (entry.type == JournalEntry.USER_EVENT ? "user event"
+                        : "compiler result") + " from author " + entry.author
+                + " dated " + new Timestamp(entry.eventDate)
+                + " that could not be loaded.", e);
+        loadBatch(sequence, Collections.emptyList(), entry.end);
+    }
+
+    /**
+     * <p>Inserts a batch of entries and moves the checkpoint past them.</p>
+     *
+     * @param connection A connection with an open transaction.
+     * @param batch The entries to insert.
+     * @param sequence Sequence number of the segment the entries came from.
+     * @param position Offset in that segment after the last entry.
+     *
+     * @throws SQLException This exception is thrown when the batch
+     * could not be written.
+     */
+    private static void writeBatch(Connection connection,
+            List<JournalEntry> batch, long sequence, int position)
+            throws SQLException {
+        try (PreparedStatement userEvents =
+                connection.prepareStatement(UserEvent.BATCH_INSERT_SQL);
+                PreparedStatement compilerResults =
+                        connection.prepareStatement(CompilerResult.BATCH_INSERT_SQL);
+                PreparedStatement checkpoint =
+                        connection.prepareStatement(JournalCheckpoint.UPSERT_SQL)) {
+            boolean hasUserEvents = false;
+            boolean hasCompilerResults = false;
+            for (JournalEntry entry : batch) {
+                entry.addBatch(userEvents, compilerResults);
+                hasUserEvents |= entry.type == JournalEntry.USER_EVENT;
+                hasCompilerResults |= entry.type == JournalEntry.COMPILER_RESULT;
+            }
+
+            if (hasUserEvents) {
+                userEvents.executeBatch();
+            }
+            if (hasCompilerResults) {
+                compilerResults.executeBatch();
+            }
+
+            checkpoint.setString(1, CHECKPOINT_NAME);
+            checkpoint.setLong(2, sequence);
+            checkpoint.setLong(3, position);
+            checkpoint.executeUpdate();
+        }
+    }
+
+}
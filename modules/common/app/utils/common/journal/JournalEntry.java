@@ -0,0 +1,236 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.common.journal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import models.common.database.CompressedTextConverter;
+
+/**
+ * <p>A single write that has been recorded in the {@link EventJournal}.
+ * An entry is either a {@code UserEvent} or a {@code CompilerResult}, and
+ * it knows how to serialize itself into a journal segment and how to add
+ * itself to a JDBC batch.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+final class JournalEntry {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Entry type for a {@code UserEvent}.</p> */
+    static final byte USER_EVENT = 1;
+
+    /** <p>Entry type for a {@code CompilerResult}.</p> */
+    static final byte COMPILER_RESULT = 2;
+
+    /** <p>The type of this entry.</p> */
+    final byte type;
+
+    /** <p>The author's user ID.</p> */
+    final long author;
+
+    /** <p>The event date in milliseconds.</p> */
+    final long eventDate;
+
+    /** <p>The error indicator (only used by compiler results).</p> */
+    final int error;
+
+    /**
+     * <p>The string columns. For user events these are the event type,
+     * content, file name, package name and project name. For compiler
+     * results these are the content, event type, file type, file name,
+     * parent, package name, project name and results.</p>
+     */
+    final String[] fields;
+
+    /**
+     * <p>Offset after this entry's record in the segment it was read from,
+     * or {@code 0} if it was not read from a segment.</p>
+     */
+    int end;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Creates a journal entry.</p>
+     *
+     * @param type The type of this entry.
+     * @param author The author's user ID.
+     * @param eventDate The event date in milliseconds.
+     * @param error The error indicator.
+     * @param fields The string columns.
+     */
+    private JournalEntry(byte type, long author, long eventDate, int error,
+            String[] fields) {
+        this.type = type;
+        this.author = author;
+        this.eventDate = eventDate;
+        this.error = error;
+        this.fields = fields;
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Creates an entry for a user event dated now.</p>
+     *
+     * @param author The author's user ID.
+     * @param eventType The type of event.
+     * @param content The file content.
+     * @param name The file name.
+     * @param pkg The package name.
+     * @param project The project name.
+     *
+     * @return A journal entry.
+     */
+    static JournalEntry userEvent(long author, String eventType,
+            String content, String name, String pkg, String project) {
+        return new JournalEntry(USER_EVENT, author, System.currentTimeMillis(),
+                0, new String[] { eventType, content, name, pkg, project });
+    }
+
+    /**
+     * <p>Creates an entry for a compiler result dated now.</p>
+     *
+     * @param author The author's user ID.
+     * @param content The file content.
+     * @param error The error indicator.
+     * @param eventType The type of event.
+     * @param fileType The file type.
+     * @param name The file name.
+     * @param parent The file's parent.
+     * @param pkg The package name.
+     * @param project The project name.
+     * @param results The compiler results.
+     *
+     * @return A journal entry.
+     */
+    static JournalEntry compilerResult(long author, String content,
+            int error, String eventType, String fileType, String name,
+            String parent, String pkg, String project, String results) {
+        return new JournalEntry(COMPILER_RESULT, author, System
+                .currentTimeMillis(), error, new String[] { content,
+                eventType, fileType, name, parent, pkg, project, results });
+    }
+
+    /**
+     * <p>Reads an entry that was serialized using {@link #encode()}.</p>
+     *
+     * @param buffer A buffer positioned at the start of the entry.
+     *
+     * @return The journal entry.
+     */
+    static JournalEntry decode(ByteBuffer buffer) {
+        byte type = buffer.get();
+        long author = buffer.getLong();
+        long eventDate = buffer.getLong();
+        int error = buffer.getInt();
+        String[] fields = new String[buffer.get()];
+        for (int i = 0; i < fields.length; i++) {
+            int length = buffer.getInt();
+            if (length >= 0) {
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                fields[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+
+        return new JournalEntry(type, author, eventDate, error, fields);
+    }
+
+    /**
+     * <p>Serializes this entry.</p>
+     *
+     * @return The serialized bytes.
+     */
+    final byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            out.writeLong(author);
+            out.writeLong(eventDate);
+            out.writeInt(error);
+            out.writeByte(fields.length);
+            for (String field : fields) {
+                // DataOutputStream.writeUTF is limited to 64KB,
+                // which file contents can easily exceed.
+                if (field == null) {
+                    out.writeInt(-1);
+                }
+                else {
+                    byte[] fieldBytes = field.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(fieldBytes.length);
+                    out.write(fieldBytes);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * <p>Adds this entry to the batch of the matching insert statement.</p>
+     *
+     * @param userEvents A statement prepared with
+     *                   {@code UserEvent.BATCH_INSERT_SQL}.
+     * @param compilerResults A statement prepared with
+     *                        {@code CompilerResult.BATCH_INSERT_SQL}.
+     *
+     * @throws SQLException This exception is thrown when the parameters
+     * could not be set.
+     */
+    final void addBatch(PreparedStatement userEvents,
+            PreparedStatement compilerResults) throws SQLException {
+        Timestamp date = new Timestamp(eventDate);
+        if (type == USER_EVENT) {
+            userEvents.setLong(1, author);
+            userEvents.setString(2, fields[0]);
+            userEvents.setBytes(3, CompressedTextConverter.encode(fields[1]));
+            for (int i = 2; i < fields.length; i++) {
+                userEvents.setString(i + 2, fields[i]);
+            }
+            userEvents.setTimestamp(7, date);
+            userEvents.addBatch();
+        }
+        else {
+            compilerResults.setLong(1, author);
+            compilerResults.setBytes(2, CompressedTextConverter.encode(fields[0]));
+            compilerResults.setInt(3, error);
+            compilerResults.setTimestamp(4, date);
+            for (int i = 1; i < fields.length - 1; i++) {
+                compilerResults.setString(i + 4, fields[i]);
+            }
+            compilerResults.setBytes(11, CompressedTextConverter.encode(fields[7]));
+            compilerResults.addBatch();
+        }
+    }
+
+}
@@ -0,0 +1,364 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.common.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * <p>A single memory-mapped file of the {@link EventJournal}. Each record
+ * is stored as its length, the {@code CRC32} of its bytes and then the bytes
+ * themselves. A length of zero marks the end of the records, and a record
+ * whose checksum does not match (a write that was torn by a crash) is
+ * treated the same way.</p>
+ *
+ * <p>Appends must be serialized by the caller. Forcing the segment to disk
+ * can be called from any thread, and a single force covers every record
+ * that was appended before it started.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+final class JournalSegment {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Number of bytes before each record (length and checksum).</p> */
+    static final int HEADER_SIZE = 8;
+
+    /** <p>Prefix of the segment file names.</p> */
+    private static final String FILE_PREFIX = "segment-";
+
+    /** <p>Suffix of the segment file names.</p> */
+    private static final String FILE_SUFFIX = ".log";
+
+    /** <p>Sequence number of this segment.</p> */
+    final long sequence;
+
+    /** <p>Path to the segment file.</p> */
+    private final Path myPath;
+
+    /** <p>The channel used to map the file.</p> */
+    private final FileChannel myChannel;
+
+    /** <p>The mapped file.</p> */
+    private final MappedByteBuffer myBuffer;
+
+    /** <p>Lock held while forcing the mapped file to disk.</p> */
+    private final Object myForceLock;
+
+    /** <p>Offset after the last record that has been appended.</p> */
+    private volatile int myWrittenPosition;
+
+    /** <p>Offset after the last record that is known to be on disk.</p> */
+    private volatile int myDurablePosition;
+
+    /** <p>Flag that indicates no more records will be appended.</p> */
+    private volatile boolean myIsSealed;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Maps a segment file.</p>
+     *
+     * @param path Path to the segment file.
+     * @param sequence Sequence number of this segment.
+     * @param size Size of the segment file.
+     *
+     * @throws IOException This exception is thrown when the file
+     * could not be mapped.
+     */
+    private JournalSegment(Path path, long sequence, long size)
+            throws IOException {
+        this.sequence = sequence;
+        myPath = path;
+        myChannel =
+                FileChannel.open(path, StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+        myBuffer = myChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        myForceLock = new Object();
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Creates a new, empty segment file.</p>
+     *
+     * @param directory The journal directory.
+     * @param sequence Sequence number of the new segment.
+     * @param size Size of the new segment file.
+     *
+     * @return The new segment.
+     *
+     * @throws IOException This exception is thrown when the file
+     * could not be created.
+     */
+    static JournalSegment create(Path directory, long sequence, int size)
+            throws IOException {
+        return new JournalSegment(directory.resolve(getFileName(sequence)),
+                sequence, size);
+    }
+
+    /**
+     * <p>Opens an existing segment file left behind by a previous run. The
+     * records are scanned to find where they end, and the segment is sealed,
+     * since new records always go to a new segment.</p>
+     *
+     * @param path Path to the segment file.
+     *
+     * @return The existing segment.
+     *
+     * @throws IOException This exception is thrown when the file
+     * could not be mapped.
+     */
+    static JournalSegment open(Path path) throws IOException {
+        JournalSegment segment =
+                new JournalSegment(path, getSequence(path), Files.size(path));
+
+        int position = 0;
+        int next;
+        while ((next = segment.nextRecord(position, segment.myBuffer.capacity())) > 0) {
+            position = next;
+        }
+        segment.myWrittenPosition = position;
+        segment.myDurablePosition = position;
+        segment.myIsSealed = true;
+
+        return segment;
+    }
+
+    /**
+     * <p>Returns the sequence number of a segment file, or {@code -1} if the
+     * file is not a segment file.</p>
+     *
+     * @param path Path to a file in the journal directory.
+     *
+     * @return The sequence number.
+     */
+    static long getSequence(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(name.substring(FILE_PREFIX.length(),
+                    name.length() - FILE_SUFFIX.length()));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * <p>Appends a record. The caller must hold the journal's append lock
+     * and must have checked {@link #hasRoom(int)} first.</p>
+     *
+     * @param payload The record bytes.
+     *
+     * @return The offset after the new record.
+     */
+    final int append(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        int position = myWrittenPosition;
+        myBuffer.putInt(position + 4, (int) crc.getValue());
+        ByteBuffer body = myBuffer.duplicate();
+        body.position(position + HEADER_SIZE);
+        body.put(payload);
+
+        // The length goes in last, so a reader never sees
+        // a length without the bytes it covers.
+        myBuffer.putInt(position, payload.length);
+        myWrittenPosition = position + HEADER_SIZE + payload.length;
+
+        return myWrittenPosition;
+    }
+
+    /**
+     * <p>Closes the segment file. The mapping itself is released once it is
+     * garbage collected.</p>
+     */
+    final void close() {
+        try {
+            myChannel.close();
+        }
+        catch (IOException e) {
+            // Nothing else we can do with it.
+        }
+    }
+
+    /**
+     * <p>Closes and deletes the segment file.</p>
+     *
+     * @throws IOException This exception is thrown when the file
+     * could not be deleted.
+     */
+    final void delete() throws IOException {
+        close();
+        Files.deleteIfExists(myPath);
+    }
+
+    /**
+     * <p>Forces the records up to the specified offset to disk. If another
+     * thread has already done so, this returns right away.</p>
+     *
+     * @param position An offset returned by {@link #append(byte[])}.
+     */
+    final void force(int position) {
+        if (myDurablePosition >= position) {
+            return;
+        }
+
+        synchronized (myForceLock) {
+            if (myDurablePosition < position) {
+                int written = myWrittenPosition;
+                myBuffer.force();
+                myDurablePosition = written;
+            }
+        }
+    }
+
+    /**
+     * <p>Returns the offset after the last record that is known to be
+     * on disk.</p>
+     *
+     * @return An offset.
+     */
+    final int getDurablePosition() {
+        return myDurablePosition;
+    }
+
+    /**
+     * <p>Checks whether a record of the specified size fits in
+     * this segment.</p>
+     *
+     * @param payloadLength The record size.
+     *
+     * @return {@code true} if it fits, {@code false} otherwise.
+     */
+    final boolean hasRoom(int payloadLength) {
+        return (long) myWrittenPosition + HEADER_SIZE + payloadLength
+                <= myBuffer.capacity();
+    }
+
+    /**
+     * <p>Checks whether more records could be appended.</p>
+     *
+     * @return {@code true} if the segment is sealed, {@code false} otherwise.
+     */
+    final boolean isSealed() {
+        return myIsSealed;
+    }
+
+    /**
+     * <p>Reads the records between two offsets.</p>
+     *
+     * @param from The offset of the first record.
+     * @param to An offset that no record is read past.
+     * @param maxRecords Maximum number of records to read.
+     * @param entries A list where the records are added.
+     *
+     * @return The offset after the last record that was read.
+     */
+    final int read(int from, int to, int maxRecords, List<JournalEntry> entries) {
+        int position = from;
+        for (int i = 0; i < maxRecords; i++) {
+            int next = nextRecord(position, to);
+            if (next < 0) {
+                break;
+            }
+
+            ByteBuffer body = myBuffer.duplicate();
+            body.limit(next);
+            body.position(position + HEADER_SIZE);
+            JournalEntry entry = JournalEntry.decode(body);
+            entry.end = next;
+            entries.add(entry);
+            position = next;
+        }
+
+        return position;
+    }
+
+    /**
+     * <p>Forces every record to disk and stops accepting new ones.</p>
+     */
+    final void seal() {
+        force(myWrittenPosition);
+        myIsSealed = true;
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Returns the name of a segment file. The sequence number is padded,
+     * so the names sort in sequence order.</p>
+     *
+     * @param sequence The sequence number.
+     *
+     * @return The file name.
+     */
+    private static String getFileName(long sequence) {
+        return String.format("%s%020d%s", FILE_PREFIX, sequence, FILE_SUFFIX);
+    }
+
+    /**
+     * <p>Validates the record at the specified offset.</p>
+     *
+     * @param position The offset of the record.
+     * @param limit An offset the record must not extend past.
+     *
+     * @return The offset after the record, or {@code -1} if there is no
+     * complete record at the offset.
+     */
+    private int nextRecord(int position, int limit) {
+        if (position + HEADER_SIZE > limit) {
+            return -1;
+        }
+
+        int length = myBuffer.getInt(position);
+        if (length <= 0 || (long) position + HEADER_SIZE + length > limit) {
+            return -1;
+        }
+
+        ByteBuffer body = myBuffer.duplicate();
+        body.limit(position + HEADER_SIZE + length);
+        body.position(position + HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != myBuffer.getInt(position + 4)) {
+            return -1;
+        }
+
+        return position + HEADER_SIZE + length;
+    }
+
+}
@@ -0,0 +1,315 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.common.schema;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import models.common.database.ByDesignEvent;
+import models.common.database.ByDesignLessonRollup;
+import models.common.database.CodeHistoryCheckpoint;
+import models.common.database.CompilerResult;
+import models.common.database.JournalCheckpoint;
+import models.common.database.Project;
+import models.common.database.User;
+import models.common.database.UserComponent;
+import models.common.database.UserEvent;
+import play.Configuration;
+import play.Logger;
+import play.db.Database;
+import play.db.jpa.JPAApi;
+
+/**
+ * <p>This class checks that every index declared in the {@link Table}
+ * annotations of the entities exists in the database when the application
+ * starts, and logs a warning for each one that is missing. An existing index
+ * with a different name counts as long as it starts with the same columns
+ * (and is unique if the declared one is).</p>
+ *
+ * <p>{@code hibernate.hbm2ddl.auto} normally creates the declared indexes.
+ * If the schema is managed some other way, the missing indexes can be
+ * created by this class instead. They are added with
+ * {@code algorithm=inplace, lock=none}, so the tables can still be read
+ * and written while the indexes are built.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class IndexChecker {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>The entities whose indexes are checked.</p> */
+    private static final Class<?>[] ENTITIES = {
+            ByDesignEvent.class, ByDesignLessonRollup.class,
+            CodeHistoryCheckpoint.class, CompilerResult.class,
+            JournalCheckpoint.class, Project.class, User.class,
+            UserComponent.class, UserEvent.class
+    };
+
+    /** <p>Statement that reads the existing indexes.</p> */
+    private static final String SELECT_INDEXES_SQL =
+            "select table_name, index_name, non_unique, column_name "
+                    + "from information_schema.statistics where table_schema = database() "
+                    + "order by table_name, index_name, seq_in_index";
+
+    /** <p>The database that stores the entities.</p> */
+    private final Database myDatabase;
+
+    /** <p>Flag that indicates missing indexes are created.</p> */
+    private final boolean myCreateMissing;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates the index checker and, if it is enabled, checks the
+     * indexes on a background thread.</p>
+     *
+     * @param configuration Class that retrieves configurations.
+     * @param database The database that stores the entities.
+     * @param jpaApi JPA API. This makes sure the schema has been updated
+     *               before the indexes are checked.
+     */
+    @Inject
+    public IndexChecker(Configuration configuration, Database database,
+            JPAApi jpaApi) {
+        myDatabase = database;
+        myCreateMissing =
+                configuration.getBoolean("webide.schema.createMissingIndexes",
+                        false);
+
+        if (configuration.getBoolean("webide.schema.checkIndexes", true)) {
+            Thread thread = new Thread(this::run, "webide-index-checker");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Returns the indexes declared by the entities.</p>
+     *
+     * @return The declared indexes.
+     */
+    private static List<TableIndex> getDeclaredIndexes() {
+        List<TableIndex> indexes = new ArrayList<>();
+        for (Class<?> entity : ENTITIES) {
+            Table table = entity.getAnnotation(Table.class);
+            if (table == null) {
+                continue;
+            }
+
+            for (Index index : table.indexes()) {
+                indexes.add(new TableIndex(table.name(), index.name(),
+                        index.unique(), split(index.columnList())));
+            }
+            for (UniqueConstraint constraint : table.uniqueConstraints()) {
+                indexes.add(new TableIndex(table.name(), constraint.name(),
+                        true, Arrays.asList(constraint.columnNames())));
+            }
+        }
+
+        return indexes;
+    }
+
+    /**
+     * <p>Reads the existing indexes.</p>
+     *
+     * @param connection A database connection.
+     *
+     * @return A map from lower case table names to their indexes.
+     *
+     * @throws SQLException This exception is thrown when the indexes
+     * could not be read.
+     */
+    private static Map<String, List<TableIndex>> getExistingIndexes(
+            Connection connection) throws SQLException {
+        Map<String, List<TableIndex>> tables = new LinkedHashMap<>();
+        try (PreparedStatement select =
+                connection.prepareStatement(SELECT_INDEXES_SQL);
+                ResultSet resultSet = select.executeQuery()) {
+            TableIndex current = null;
+            while (resultSet.next()) {
+                String table = resultSet.getString(1);
+                String name = resultSet.getString(2);
+                if (current == null || !current.table.equals(table)
+                        || !current.name.equals(name)) {
+                    current =
+                            new TableIndex(table, name,
+                                    resultSet.getInt(3) == 0, new ArrayList<>());
+                    tables.computeIfAbsent(table.toLowerCase(Locale.ROOT),
+                            key -> new ArrayList<>()).add(current);
+                }
+                current.columns.add(resultSet.getString(4));
+            }
+        }
+
+        return tables;
+    }
+
+    /**
+     * <p>Checks whether a declared index (or an equivalent one) exists.</p>
+     *
+     * @param declared The declared index.
+     * @param existing The existing indexes of the table.
+     *
+     * @return {@code true} if it does, {@code false} otherwise.
+     */
+    private static boolean isCovered(TableIndex declared,
+            List<TableIndex> existing) {
+        for (TableIndex index : existing) {
+            if (declared.unique && (!index.unique
+                    || index.columns.size() != declared.columns.size())) {
+                continue;
+            }
+            if (index.columns.size() < declared.columns.size()) {
+                continue;
+            }
+
+            boolean matches = true;
+            for (int i = 0; i < declared.columns.size() && matches; i++) {
+                matches = index.columns.get(i).equalsIgnoreCase(declared.columns.get(i));
+            }
+            if (matches) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * <p>Checks the indexes and creates the missing ones if that
+     * is enabled.</p>
+     */
+    private void run() {
+        try {
+            Map<String, List<TableIndex>> tables =
+                    myDatabase.withConnection((Connection connection) ->
+                            getExistingIndexes(connection));
+
+            for (TableIndex declared : getDeclaredIndexes()) {
+                List<TableIndex> existing =
+                        tables.get(declared.table.toLowerCase(Locale.ROOT));
+                if (existing == null || isCovered(declared, existing)) {
+                    // Tables that do not exist yet are created with
+                    // their indexes.
+                    continue;
+                }
+
+                if (!myCreateMissing) {
+                    Logger.warn("Missing index " + declared.name + " on "
+                            + declared.table + " " + declared.columns + ".");
+                    continue;
+                }
+
+                Logger.info("Creating index " + declared.name + " on "
+                        + declared.table + " " + declared.columns + ".");
+                try {
+                    myDatabase.withConnection(connection -> {
+                        try (Statement alter = connection.createStatement()) {
+                            alter.executeUpdate("alter table " + declared.table
+                                    + " add " + (declared.unique ? "unique " : "")
+                                    + "index " + declared.name + " ("
+                                    + String.join(", ", declared.columns)
+                                    + "), algorithm=inplace, lock=none");
+                        }
+                    });
+                }
+                catch (RuntimeException e) {
+                    Logger.warn("Failed to create index " + declared.name
+                            + " on " + declared.table + ".", e);
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            Logger.error("Failed to check the database indexes.", e);
+        }
+    }
+
+    /**
+     * <p>Splits the column list of an {@link Index}.</p>
+     *
+     * @param columnList The column list.
+     *
+     * @return The column names without any sort order.
+     */
+    private static List<String> split(String columnList) {
+        List<String> columns = new ArrayList<>();
+        for (String column : columnList.split(",")) {
+            columns.add(column.trim().split("\\s+")[0]);
+        }
+
+        return columns;
+    }
+
+    // ===========================================================
+    // Table Index
+    // ===========================================================
+
+    /**
+     * <p>An index on a table.</p>
+     */
+    private static final class TableIndex {
+
+        /** <p>Table name.</p> */
+        final String table;
+
+        /** <p>Index name.</p> */
+        final String name;
+
+        /** <p>Flag that indicates the index is unique.</p> */
+        final boolean unique;
+
+        /** <p>Column names in index order.</p> */
+        final List<String> columns;
+
+        /**
+         * <p>Creates an index.</p>
+         *
+         * @param table Table name.
+         * @param name Index name.
+         * @param unique Flag that indicates the index is unique.
+         * @param columns Column names in index order.
+         */
+        TableIndex(String table, String name, boolean unique,
+                List<String> columns) {
+            this.table = table;
+            this.name = name;
+            this.unique = unique;
+            this.columns = columns;
+        }
+    }
+
+}
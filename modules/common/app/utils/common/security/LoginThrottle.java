@@ -0,0 +1,420 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.common.security;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import utils.common.timer.TimingWheel;
+
+/**
+ * <p>This class limits the login attempts for each email and for each
+ * client address with token buckets kept in memory, so a burst of attempts
+ * is turned away before the user is looked up or the password is
+ * hashed.</p>
+ *
+ * <p>Each bucket is a single {@link AtomicLong} that holds the time at which
+ * it is full again (the generic cell rate algorithm), so an attempt is one
+ * compare-and-set. The counters are striped {@link LongAdder LongAdders}. A
+ * bucket that has been full for {@code webide.loginThrottle.idleSeconds} is
+ * forgotten, which loses nothing. The buckets are found on a
+ * {@link TimingWheel} rather than by scanning all of them.</p>
+ *
+ * <p>The email and address buckets are kept apart, each with its own
+ * {@code maxEntries}, so trying many emails cannot use up the room for the
+ * addresses (or the other way around).</p>
+ *
+ * <p>The limits are per node. Behind a load balancer, each node allows
+ * the configured rate.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class LoginThrottle {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Default number of attempts an email can make at once.</p> */
+    private static final int DEFAULT_EMAIL_BURST = 5;
+
+    /** <p>Default number of attempts an email can make per minute.</p> */
+    private static final int DEFAULT_EMAIL_PER_MINUTE = 5;
+
+    /** <p>Default number of attempts an address can make at once.</p> */
+    private static final int DEFAULT_ADDRESS_BURST = 20;
+
+    /** <p>Default number of attempts an address can make per minute.</p> */
+    private static final int DEFAULT_ADDRESS_PER_MINUTE = 30;
+
+    /** <p>Default number of seconds a full bucket is kept.</p> */
+    private static final int DEFAULT_IDLE_SECONDS = 600;
+
+    /** <p>Default maximum number of buckets of each kind.</p> */
+    private static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    /** <p>Number of milliseconds in a tick of the wheel.</p> */
+    private static final long TICK_MILLIS = 1000;
+
+    /** <p>Number of slots in each level of the wheel.</p> */
+    private static final int WHEEL_SIZE = 64;
+
+    /** <p>Number of levels in the wheel.</p> */
+    private static final int WHEEL_LEVELS = 2;
+
+    /** <p>Longest email or address that is tracked as is.</p> */
+    private static final int MAX_KEY_LENGTH = 320;
+
+    /** <p>Flag that indicates the attempts are limited.</p> */
+    private final boolean myIsEnabled;
+
+    /** <p>The buckets for each email.</p> */
+    private final Buckets myEmailBuckets;
+
+    /** <p>The buckets for each address.</p> */
+    private final Buckets myAddressBuckets;
+
+    /** <p>Number of nanoseconds a full bucket is kept.</p> */
+    private final long myIdleNanos;
+
+    /** <p>Time the ticks are counted from.</p> */
+    private final long myStartNanos;
+
+    /** <p>Number of attempts that were allowed.</p> */
+    private final LongAdder myNumAllowed;
+
+    /** <p>Number of idle buckets that were forgotten.</p> */
+    private final LongAdder myNumExpired;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates the login throttle and, if it is enabled, starts the
+     * thread that forgets the idle buckets.</p>
+     *
+     * @param configuration Class that retrieves configurations.
+     * @param lifecycle Application lifecycle.
+     */
+    @Inject
+    public LoginThrottle(Configuration configuration,
+            ApplicationLifecycle lifecycle) {
+        myIsEnabled = configuration.getBoolean("webide.loginThrottle.enabled", true);
+        myEmailBuckets =
+                new Buckets(configuration.getInt("webide.loginThrottle.email.burst",
+                        DEFAULT_EMAIL_BURST),
+                        configuration.getInt("webide.loginThrottle.email.perMinute",
+                                DEFAULT_EMAIL_PER_MINUTE),
+                        configuration.getInt("webide.loginThrottle.email.maxEntries",
+                                DEFAULT_MAX_ENTRIES));
+        myAddressBuckets =
+                new Buckets(configuration.getInt("webide.loginThrottle.address.burst",
+                        DEFAULT_ADDRESS_BURST),
+                        configuration.getInt("webide.loginThrottle.address.perMinute",
+                                DEFAULT_ADDRESS_PER_MINUTE),
+                        configuration.getInt("webide.loginThrottle.address.maxEntries",
+                                DEFAULT_MAX_ENTRIES));
+        myIdleNanos =
+                TimeUnit.SECONDS.toNanos(Math.max(0, configuration.getInt(
+                        "webide.loginThrottle.idleSeconds", DEFAULT_IDLE_SECONDS)));
+        myStartNanos = System.nanoTime();
+        myNumAllowed = new LongAdder();
+        myNumExpired = new LongAdder();
+
+        if (myIsEnabled) {
+            ScheduledExecutorService expirer =
+                    Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "webide-login-throttle");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            expirer.scheduleWithFixedDelay(this::expireSafely, TICK_MILLIS,
+                    TICK_MILLIS, TimeUnit.MILLISECONDS);
+
+            lifecycle.addStopHook(() -> {
+                expirer.shutdownNow();
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Takes a token from the buckets of an email and an address.</p>
+     *
+     * @param email The email entered by the user.
+     * @param address The client address.
+     *
+     * @return {@code 0} if the attempt is allowed, otherwise the number of
+     * seconds until the next attempt would be allowed.
+     */
+    public final long acquire(String email, String address) {
+        return acquire(email, address, System.nanoTime());
+    }
+
+    /**
+     * <p>Retrieves the throttling counters.</p>
+     *
+     * @return The counters as JSON.
+     */
+    public final ObjectNode getMetrics() {
+        ObjectNode metrics = Json.newObject();
+        metrics.put("enabled", myIsEnabled);
+        metrics.put("allowed", myNumAllowed.sum());
+        metrics.put("throttledByEmail", myEmailBuckets.numThrottled.sum());
+        metrics.put("throttledByAddress", myAddressBuckets.numThrottled.sum());
+        metrics.put("trackedEmails", myEmailBuckets.map.size());
+        metrics.put("trackedAddresses", myAddressBuckets.map.size());
+        metrics.put("maxEmails", myEmailBuckets.maxEntries);
+        metrics.put("maxAddresses", myAddressBuckets.maxEntries);
+        metrics.put("emailOverflow", myEmailBuckets.numOverflow.sum());
+        metrics.put("addressOverflow", myAddressBuckets.numOverflow.sum());
+        metrics.put("expired", myNumExpired.sum());
+
+        return metrics;
+    }
+
+    // ===========================================================
+    // Package Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Takes a token from the buckets of an email and an address at
+     * the specified time.</p>
+     *
+     * @param email The email entered by the user.
+     * @param address The client address.
+     * @param now The current time from {@link System#nanoTime()}.
+     *
+     * @return {@code 0} if the attempt is allowed, otherwise the number of
+     * seconds until the next attempt would be allowed.
+     */
+    final long acquire(String email, String address, long now) {
+        if (!myIsEnabled) {
+            return 0;
+        }
+
+        long wait = tryAcquire(myAddressBuckets, key(address), now);
+        if (wait > 0) {
+            myAddressBuckets.numThrottled.increment();
+            return toSeconds(wait);
+        }
+
+        wait = tryAcquire(myEmailBuckets, key(email), now);
+        if (wait > 0) {
+            myEmailBuckets.numThrottled.increment();
+            return toSeconds(wait);
+        }
+
+        myNumAllowed.increment();
+        return 0;
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Forgets the buckets of one kind that have been full for
+     * long enough.</p>
+     *
+     * @param buckets The buckets.
+     * @param now The current time from {@link System#nanoTime()}.
+     *
+     * @return The number of buckets forgotten.
+     */
+    private int expire(Buckets buckets, long now) {
+        return buckets.wheel.advance(toTick(now), key -> {
+            AtomicLong bucket = buckets.map.get(key);
+            if (bucket == null) {
+                return -1;
+            }
+
+            long idleAt = bucket.get() + myIdleNanos;
+            if (idleAt - now > 0) {
+                return toTick(idleAt) + 1;
+            }
+
+            // Removing a full bucket loses nothing. An attempt that
+            // races with the removal gets a new, full bucket.
+            buckets.map.remove(key, bucket);
+            return -1;
+        });
+    }
+
+    /**
+     * <p>Forgets the buckets that have been full for long enough.</p>
+     */
+    private void expireSafely() {
+        try {
+            long now = System.nanoTime();
+            myNumExpired.add(expire(myEmailBuckets, now));
+            myNumExpired.add(expire(myAddressBuckets, now));
+        }
+        catch (RuntimeException e) {
+            Logger.error("Failed to expire the login throttle buckets.", e);
+        }
+    }
+
+    /**
+     * <p>Builds the key of a bucket.</p>
+     *
+     * @param value The email or address.
+     *
+     * @return The key.
+     */
+    private static String key(String value) {
+        String key = value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+        if (key.length() > MAX_KEY_LENGTH) {
+            key = key.substring(0, MAX_KEY_LENGTH);
+        }
+
+        return key;
+    }
+
+    /**
+     * <p>Converts a time to a tick of the wheel.</p>
+     *
+     * @param nanos A time from {@link System#nanoTime()}.
+     *
+     * @return The tick.
+     */
+    private long toTick(long nanos) {
+        return (nanos - myStartNanos) / TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+    }
+
+    /**
+     * <p>Rounds a wait up to whole seconds.</p>
+     *
+     * @param nanos The wait in nanoseconds.
+     *
+     * @return The wait in seconds.
+     */
+    private static long toSeconds(long nanos) {
+        return Math.max(1, (nanos + 999999999L) / 1000000000L);
+    }
+
+    /**
+     * <p>Takes a token from a bucket.</p>
+     *
+     * @param buckets The buckets of the key's kind.
+     * @param key The key of the bucket.
+     * @param now The current time from {@link System#nanoTime()}.
+     *
+     * @return {@code 0} if a token was taken, otherwise the number of
+     * nanoseconds until one is available.
+     */
+    private long tryAcquire(Buckets buckets, String key, long now) {
+        AtomicLong bucket = buckets.map.get(key);
+        if (bucket == null) {
+            if (buckets.map.size() >= buckets.maxEntries) {
+                // Too many buckets of this kind, so this key is not limited.
+                // The buckets of the other kind have their own room, so the
+                // attempt is still limited by those.
+                buckets.numOverflow.increment();
+                return 0;
+            }
+
+            AtomicLong newBucket = new AtomicLong(now);
+            bucket = buckets.map.putIfAbsent(key, newBucket);
+            if (bucket == null) {
+                bucket = newBucket;
+                buckets.wheel.schedule(key, toTick(now + myIdleNanos) + 1);
+            }
+        }
+
+        // The bucket holds the time it is full again. Taking a token moves
+        // that time forward by one interval, which is allowed as long as it
+        // stays within "burst" intervals from now.
+        while (true) {
+            long fullAt = bucket.get();
+            long next = Math.max(fullAt, now) + buckets.interval;
+            long excess = next - now - buckets.tolerance;
+            if (excess > 0) {
+                return excess;
+            }
+            if (bucket.compareAndSet(fullAt, next)) {
+                return 0;
+            }
+        }
+    }
+
+    // ===========================================================
+    // Buckets
+    // ===========================================================
+
+    /**
+     * <p>The token buckets of one kind (emails or addresses) and
+     * their rate.</p>
+     */
+    private static final class Buckets {
+
+        /** <p>Number of nanoseconds between two tokens.</p> */
+        final long interval;
+
+        /** <p>Number of nanoseconds it takes to fill a bucket.</p> */
+        final long tolerance;
+
+        /** <p>Maximum number of buckets.</p> */
+        final int maxEntries;
+
+        /** <p>The buckets, keyed by email or address.</p> */
+        final ConcurrentMap<String, AtomicLong> map;
+
+        /** <p>The wheel that finds the idle buckets.</p> */
+        final TimingWheel<String> wheel;
+
+        /** <p>Number of attempts turned away.</p> */
+        final LongAdder numThrottled;
+
+        /** <p>Number of keys not tracked because there were too many buckets.</p> */
+        final LongAdder numOverflow;
+
+        /**
+         * <p>Creates the buckets.</p>
+         *
+         * @param burst Number of tokens in a full bucket.
+         * @param perMinute Number of tokens added per minute.
+         * @param maxEntries Maximum number of buckets.
+         */
+        Buckets(int burst, int perMinute, int maxEntries) {
+            interval = TimeUnit.MINUTES.toNanos(1) / Math.max(1, perMinute);
+            tolerance = interval * Math.max(1, burst);
+            this.maxEntries = Math.max(1, maxEntries);
+            map = new ConcurrentHashMap<>();
+            wheel = new TimingWheel<>(WHEEL_SIZE, WHEEL_LEVELS, 0);
+            numThrottled = new LongAdder();
+            numOverflow = new LongAdder();
+        }
+    }
+
+}
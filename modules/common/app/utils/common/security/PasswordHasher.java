@@ -0,0 +1,387 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.common.security;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import models.common.ModelUtilities;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+
+/**
+ * <p>This class hashes and verifies the user passwords with
+ * {@code PBKDF2WithHmacSHA256} and a random salt. The work is done on its own
+ * bounded pool of threads, so a burst of logins cannot stall the threads
+ * that serve the other requests. When the queue is full, the returned
+ * {@link CompletionStage} fails with a {@link RejectedExecutionException}.</p>
+ *
+ * <p>Unless {@code webide.password.iterations} is set, the number of
+ * iterations is calibrated when the application starts, so hashing a
+ * password takes about {@code webide.password.targetMillis} on this
+ * machine.</p>
+ *
+ * <p>The hashes look like {@code pbkdf2$<iterations>$<salt>$<hash>}. Hashes
+ * created before this class are unsalted {@code SHA-256} hex strings. They
+ * are still accepted and {@link #needsRehash(String)} tells the caller to
+ * replace them.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class PasswordHasher {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>The key derivation algorithm.</p> */
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+
+    /** <p>Prefix of the hashes created by this class.</p> */
+    private static final String PREFIX = "pbkdf2";
+
+    /** <p>Number of bytes in a salt.</p> */
+    private static final int SALT_LENGTH = 16;
+
+    /** <p>Number of bits in a hash.</p> */
+    private static final int HASH_LENGTH = 256;
+
+    /** <p>Fewest iterations used, no matter how slow the machine is.</p> */
+    private static final int MIN_ITERATIONS = 10000;
+
+    /** <p>Default hashing time the iterations are calibrated to.</p> */
+    private static final int DEFAULT_TARGET_MILLIS = 100;
+
+    /** <p>Default number of hashes waiting for a thread.</p> */
+    private static final int DEFAULT_QUEUE_SIZE = 64;
+
+    /** <p>Source of the salts.</p> */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /** <p>Number of iterations used for new hashes.</p> */
+    private final int myIterations;
+
+    /** <p>A hash that missing users are checked against, so they take
+     * as long as the existing ones.</p> */
+    private final String myDummyHash;
+
+    /** <p>The hashing threads.</p> */
+    private final ThreadPoolExecutor myWorkers;
+
+    /** <p>Number of hashes computed.</p> */
+    private final AtomicLong myNumCompleted;
+
+    /** <p>Number of hashes rejected because the queue was full.</p> */
+    private final AtomicLong myNumRejected;
+
+    /** <p>Total time spent hashing, in nanoseconds.</p> */
+    private final AtomicLong myTotalNanos;
+
+    /** <p>Total time spent waiting for a thread, in nanoseconds.</p> */
+    private final AtomicLong myTotalWaitNanos;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates the password hasher and calibrates the number
+     * of iterations.</p>
+     *
+     * @param configuration Class that retrieves configurations.
+     * @param lifecycle Application lifecycle.
+     */
+    @Inject
+    public PasswordHasher(Configuration configuration,
+            ApplicationLifecycle lifecycle) {
+        int numWorkers =
+                Math.max(1, configuration.getInt("webide.password.threads",
+                        Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+        int queueSize =
+                Math.max(1, configuration.getInt("webide.password.queueSize",
+                        DEFAULT_QUEUE_SIZE));
+        int iterations = configuration.getInt("webide.password.iterations", 0);
+        if (iterations <= 0) {
+            iterations =
+                    calibrate(Math.max(1, configuration.getInt(
+                            "webide.password.targetMillis",
+                            DEFAULT_TARGET_MILLIS)));
+        }
+        myIterations = Math.max(MIN_ITERATIONS, iterations);
+        myDummyHash = hashNow("", myIterations);
+        myNumCompleted = new AtomicLong();
+        myNumRejected = new AtomicLong();
+        myTotalNanos = new AtomicLong();
+        myTotalWaitNanos = new AtomicLong();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        myWorkers =
+                new ThreadPoolExecutor(numWorkers, numWorkers, 0L,
+                        TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(
+                                queueSize), r -> {
+                            Thread thread = new Thread(r, "webide-password-"
+                                    + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+
+        Logger.info("Hashing passwords with " + myIterations + " iterations.");
+
+        lifecycle.addStopHook(() -> {
+            myWorkers.shutdownNow();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Retrieves the hashing metrics.</p>
+     *
+     * @return The metrics as JSON.
+     */
+    public final ObjectNode getMetrics() {
+        long numCompleted = myNumCompleted.get();
+
+        ObjectNode metrics = Json.newObject();
+        metrics.put("iterations", myIterations);
+        metrics.put("threads", myWorkers.getMaximumPoolSize());
+        metrics.put("activeThreads", myWorkers.getActiveCount());
+        metrics.put("queueDepth", myWorkers.getQueue().size());
+        metrics.put("queueCapacity", myWorkers.getQueue().size()
+                + myWorkers.getQueue().remainingCapacity());
+        metrics.put("completed", numCompleted);
+        metrics.put("rejected", myNumRejected.get());
+        metrics.put("averageMillis", numCompleted == 0 ? 0
+                : myTotalNanos.get() / 1e6 / numCompleted);
+        metrics.put("averageWaitMillis", numCompleted == 0 ? 0
+                : myTotalWaitNanos.get() / 1e6 / numCompleted);
+
+        return metrics;
+    }
+
+    /**
+     * <p>Hashes a password with a new salt.</p>
+     *
+     * @param password The un-encrypted user password.
+     *
+     * @return A {@link CompletionStage} with the hash.
+     */
+    public final CompletionStage<String> hash(String password) {
+        return submit(() -> hashNow(password, myIterations));
+    }
+
+    /**
+     * <p>Checks to see if a hash was created with fewer iterations than
+     * are used now (or is a legacy {@code SHA-256} hash), so it should be
+     * replaced the next time the password is known.</p>
+     *
+     * @param stored The stored hash.
+     *
+     * @return {@code true} if it does, {@code false} otherwise.
+     */
+    public final boolean needsRehash(String stored) {
+        String[] fields = stored.split("\\$");
+        if (fields.length != 4 || !PREFIX.equals(fields[0])) {
+            return true;
+        }
+
+        try {
+            return Integer.parseInt(fields[1]) < myIterations;
+        }
+        catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    /**
+     * <p>Checks a password against a stored hash.</p>
+     *
+     * @param password The un-encrypted user password.
+     * @param stored The stored hash, or {@code null} if there is no such
+     *               user. The check takes just as long in that case.
+     *
+     * @return A {@link CompletionStage} with {@code true} if the password
+     * matches, {@code false} otherwise.
+     */
+    public final CompletionStage<Boolean> verify(String password, String stored) {
+        return submit(() -> {
+            if (stored == null) {
+                // Do the same work as for an existing user
+                matches(password, myDummyHash);
+                return false;
+            }
+
+            return matches(password, stored);
+        });
+    }
+
+    /**
+     * <p>Checks a password against a stored hash on the calling thread.</p>
+     *
+     * @param password The un-encrypted user password.
+     * @param stored The stored hash.
+     *
+     * @return {@code true} if the password matches, {@code false} otherwise.
+     */
+    public static boolean matches(String password, String stored) {
+        String[] fields = stored.split("\\$");
+        if (fields.length != 4 || !PREFIX.equals(fields[0])) {
+            // Legacy unsalted SHA-256 hash
+            return MessageDigest.isEqual(stored.getBytes(),
+                    ModelUtilities.encryptPassword(password).getBytes());
+        }
+
+        try {
+            byte[] salt = Base64.getDecoder().decode(fields[2]);
+            byte[] hash = Base64.getDecoder().decode(fields[3]);
+
+            return MessageDigest.isEqual(hash,
+                    derive(password, salt, Integer.parseInt(fields[1])));
+        }
+        catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Finds the number of iterations that take about the target time.</p>
+     *
+     * @param targetMillis The target time in milliseconds.
+     *
+     * @return The number of iterations, rounded to a thousand.
+     */
+    private static int calibrate(int targetMillis) {
+        byte[] salt = new byte[SALT_LENGTH];
+
+        // Warm up, then time the fastest of a few runs
+        derive("calibration", salt, MIN_ITERATIONS);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            derive("calibration", salt, MIN_ITERATIONS);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        double iterations =
+                MIN_ITERATIONS * (targetMillis * 1e6 / Math.max(1, best));
+
+        return (int) Math.min(Integer.MAX_VALUE - 1000,
+                Math.round(iterations / 1000) * 1000);
+    }
+
+    /**
+     * <p>Derives the hash of a password.</p>
+     *
+     * @param password The un-encrypted user password.
+     * @param salt The salt.
+     * @param iterations The number of iterations.
+     *
+     * @return The hash.
+     */
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec =
+                new PBEKeySpec(password.toCharArray(), salt, iterations,
+                        HASH_LENGTH);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM)
+                    .generateSecret(spec).getEncoded();
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to hash the password.", e);
+        }
+        finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * <p>Hashes a password with a new salt on the calling thread.</p>
+     *
+     * @param password The un-encrypted user password.
+     * @param iterations The number of iterations.
+     *
+     * @return The hash.
+     */
+    private static String hashNow(String password, int iterations) {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+
+        return PREFIX + "$" + iterations + "$"
+                + Base64.getEncoder().encodeToString(salt) + "$"
+                + Base64.getEncoder().encodeToString(
+                        derive(password, salt, iterations));
+    }
+
+    /**
+     * <p>Runs a hashing task on the hashing threads.</p>
+     *
+     * @param task The task.
+     * @param <T> The result type.
+     *
+     * @return A {@link CompletionStage} with the result, which fails if
+     * the queue is full.
+     */
+    private <T> CompletionStage<T> submit(Supplier<T> task) {
+        long queuedAt = System.nanoTime();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            myWorkers.execute(() -> {
+                long start = System.nanoTime();
+                myTotalWaitNanos.addAndGet(start - queuedAt);
+                try {
+                    result.complete(task.get());
+                }
+                catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+                finally {
+                    myTotalNanos.addAndGet(System.nanoTime() - start);
+                    myNumCompleted.incrementAndGet();
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            myNumRejected.incrementAndGet();
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
+
+}
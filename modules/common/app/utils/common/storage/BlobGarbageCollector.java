@@ -0,0 +1,412 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.common.storage;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import models.common.database.CompressedTextConverter;
+import play.Configuration;
+import play.Logger;
+import play.db.Database;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+
+/**
+ * <p>This class removes the {@link BlobStore} files that are no longer
+ * referenced by any row. Each run counts the references to every blob by
+ * reading just the stored hashes of the columns that use
+ * {@link CompressedTextConverter}, one batch of rows at a time, and then
+ * deletes the blob files without any references.</p>
+ *
+ * <p>A blob that was written (or referenced again) shortly before or
+ * during a run might belong to a row that has not been committed yet, so
+ * blob files modified within the grace period are never deleted.</p>
+ *
+ * <p>A blob is deleted by renaming it to a tombstone first and checking
+ * its modification time again. If {@link BlobStore#put(byte[], byte[])}
+ * referenced it again before the rename, the tombstone has the new time
+ * and is moved back. After the rename, {@code put} no longer finds the
+ * blob and writes it again. Tombstones left behind by a run that stopped
+ * are handled the same way by the next run.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class BlobGarbageCollector {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Default number of rows read in a single query.</p> */
+    private static final int DEFAULT_BATCH_SIZE = 5000;
+
+    /** <p>Default number of hours between runs ({@code 0} to disable).</p> */
+    private static final long DEFAULT_INTERVAL = 24;
+
+    /** <p>Default number of minutes a new blob is never deleted.</p> */
+    private static final long DEFAULT_GRACE_PERIOD = 60;
+
+    /** <p>Suffix added to a blob file while it is being deleted.</p> */
+    private static final String TOMBSTONE_SUFFIX = ".deleted";
+
+    /** <p>The blob store.</p> */
+    private final BlobStore myBlobStore;
+
+    /** <p>The database that stores the rows.</p> */
+    private final Database myDatabase;
+
+    /** <p>Number of rows read in a single query.</p> */
+    private final int myBatchSize;
+
+    /** <p>Number of milliseconds a new blob is never deleted.</p> */
+    private final long myGracePeriod;
+
+    /** <p>Flag that indicates a run is in progress.</p> */
+    private final AtomicBoolean myIsRunning;
+
+    /** <p>Number of rows that referenced a blob in the last run.</p> */
+    private volatile long myNumReferences;
+
+    /** <p>Number of referenced blobs in the last run.</p> */
+    private volatile long myNumLiveBlobs;
+
+    /** <p>Number of blobs deleted by the last run.</p> */
+    private volatile long myNumDeleted;
+
+    /** <p>Number of bytes freed by the last run.</p> */
+    private volatile long myBytesFreed;
+
+    /** <p>Number of bytes in the blobs that were kept by the last run.</p> */
+    private volatile long myBytesKept;
+
+    /** <p>Time when the current (or last) run started.</p> */
+    private volatile long myStartTime;
+
+    /** <p>Time when the last run finished (or {@code 0}).</p> */
+    private volatile long myEndTime;
+
+    /** <p>The error that stopped the last run (if any).</p> */
+    private volatile String myError;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates the garbage collector and, if the blob store is
+     * enabled, schedules it to run periodically.</p>
+     *
+     * @param configuration Class that retrieves configurations.
+     * @param blobStore The blob store.
+     * @param database The database that stores the rows.
+     * @param lifecycle Application lifecycle.
+     */
+    @Inject
+    public BlobGarbageCollector(Configuration configuration,
+            BlobStore blobStore, Database database,
+            ApplicationLifecycle lifecycle) {
+        myBlobStore = blobStore;
+        myDatabase = database;
+        myBatchSize =
+                Math.max(1, configuration.getInt(
+                        "webide.blobStore.gcBatchSize", DEFAULT_BATCH_SIZE));
+        myGracePeriod =
+                TimeUnit.MINUTES.toMillis(Math.max(1, configuration.getLong(
+                        "webide.blobStore.gcGracePeriod", DEFAULT_GRACE_PERIOD)));
+        myIsRunning = new AtomicBoolean(false);
+
+        long interval =
+                configuration.getLong("webide.blobStore.gcInterval",
+                        DEFAULT_INTERVAL);
+        if (blobStore.isEnabled() && interval > 0) {
+            ScheduledExecutorService scheduler =
+                    Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "webide-blob-gc");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            scheduler.scheduleWithFixedDelay(this::start, interval, interval,
+                    TimeUnit.HOURS);
+            lifecycle.addStopHook(() -> {
+                scheduler.shutdownNow();
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Returns the result of the current (or last) run along with the
+     * blob store metrics.</p>
+     *
+     * @return A JSON object with the report.
+     */
+    public final ObjectNode getStatus() {
+        ObjectNode status = Json.newObject();
+        status.put("running", myIsRunning.get());
+        status.put("references", myNumReferences);
+        status.put("liveBlobs", myNumLiveBlobs);
+        status.put("deletedBlobs", myNumDeleted);
+        status.put("bytesFreed", myBytesFreed);
+        status.put("bytesKept", myBytesKept);
+        status.put("startTime", myStartTime);
+        status.put("endTime", myEndTime);
+        status.put("error", myError);
+        status.set("store", myBlobStore.getMetrics());
+
+        return status;
+    }
+
+    /**
+     * <p>Starts a run unless one is already in progress.</p>
+     *
+     * @return {@code true} if a new run was started,
+     * {@code false} otherwise.
+     */
+    public final boolean start() {
+        if (!myIsRunning.compareAndSet(false, true)) {
+            return false;
+        }
+
+        myStartTime = System.currentTimeMillis();
+        myEndTime = 0;
+        myError = null;
+
+        Thread thread = new Thread(this::run, "webide-blob-gc-run");
+        thread.setDaemon(true);
+        thread.start();
+
+        return true;
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Counts the references to each blob in a column.</p>
+     *
+     * @param connection A database connection.
+     * @param table Table name.
+     * @param column Column name.
+     * @param references A map from blob hashes to their reference counts.
+     *
+     * @throws SQLException This exception is thrown when the rows
+     * could not be read.
+     */
+    private void countReferences(Connection connection, String table,
+            String column, Map<String, Integer> references)
+            throws SQLException {
+        // Only the marker and the hash are transferred, never the
+        // values stored in the rows themselves.
+        int referenceLength = CompressedTextConverter.HASH_LENGTH + 1;
+        try (PreparedStatement select =
+                connection.prepareStatement("select id, left(" + column
+                        + ", " + referenceLength + ") from " + table
+                        + " where id > ? and length(" + column + ") = "
+                        + referenceLength + " order by id limit ?")) {
+            long lastID = 0;
+            while (true) {
+                select.setLong(1, lastID);
+                select.setInt(2, myBatchSize);
+                int numRows = 0;
+                try (ResultSet resultSet = select.executeQuery()) {
+                    while (resultSet.next()) {
+                        lastID = resultSet.getLong(1);
+                        numRows++;
+                        byte[] hash =
+                                CompressedTextConverter.getBlobHash(resultSet.getBytes(2));
+                        if (hash != null) {
+                            references.merge(BlobStore.toHex(hash), 1, Integer::sum);
+                        }
+                    }
+                }
+
+                if (numRows < myBatchSize) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>Deletes a blob file unless it has been modified since the cutoff.
+     * The file is renamed to a tombstone first, so a concurrent
+     * {@link BlobStore#put(byte[], byte[])} either refreshes its time
+     * before the rename or writes it again after.</p>
+     *
+     * @param file Path to the blob file.
+     * @param cutoff Files modified at or after this time are kept.
+     *
+     * @return {@code true} if the file was deleted, {@code false} otherwise.
+     *
+     * @throws IOException This exception is thrown when the file
+     * could not be deleted.
+     */
+    private static boolean delete(Path file, long cutoff) throws IOException {
+        if (Files.getLastModifiedTime(file).toMillis() >= cutoff) {
+            return false;
+        }
+
+        Path tombstone = file.resolveSibling(file.getFileName() + TOMBSTONE_SUFFIX);
+        try {
+            Files.move(file, tombstone, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (NoSuchFileException e) {
+            return false;
+        }
+
+        return removeTombstone(tombstone, file, cutoff);
+    }
+
+    /**
+     * <p>Deletes a tombstone, or moves it back to its blob file if the
+     * blob was referenced again before it was renamed.</p>
+     *
+     * @param tombstone Path to the tombstone.
+     * @param file Path to the blob file.
+     * @param cutoff Files modified at or after this time are kept.
+     *
+     * @return {@code true} if the tombstone was deleted,
+     * {@code false} otherwise.
+     *
+     * @throws IOException This exception is thrown when the tombstone
+     * could not be deleted or moved back.
+     */
+    private static boolean removeTombstone(Path tombstone, Path file,
+            long cutoff) throws IOException {
+        if (Files.getLastModifiedTime(tombstone).toMillis() >= cutoff) {
+            // If put wrote the blob again in the meantime, this
+            // replaces it with the same bytes.
+            Files.move(tombstone, file, StandardCopyOption.ATOMIC_MOVE);
+            return false;
+        }
+
+        Files.delete(tombstone);
+        return true;
+    }
+
+    /**
+     * <p>Counts the references and deletes the blobs without any.</p>
+     */
+    private void run() {
+        try {
+            // Anything modified after this might belong to
+            // a row we have not read.
+            long cutoff = System.currentTimeMillis() - myGracePeriod;
+
+            Map<String, Integer> references = new HashMap<>();
+            for (String[] column : CompressedTextConverter.COLUMNS) {
+                myDatabase.withConnection(connection -> countReferences(
+                        connection, column[0], column[1], references));
+            }
+
+            long numReferences = 0;
+            for (int count : references.values()) {
+                numReferences += count;
+            }
+            myNumReferences = numReferences;
+            myNumLiveBlobs = references.size();
+
+            long numDeleted = 0;
+            long bytesFreed = 0;
+            long bytesKept = 0;
+            Path directory = myBlobStore.getDirectory();
+            if (Files.isDirectory(directory)) {
+                // Blobs are renamed while we go, so list them first.
+                List<Path> files;
+                try (Stream<Path> walk = Files.walk(directory, 2)) {
+                    files = walk.collect(Collectors.toList());
+                }
+
+                for (Path path : files) {
+                    // A tombstone was left behind by a run that
+                    // stopped while deleting its blob.
+                    String name = path.getFileName().toString();
+                    boolean isTombstone = name.endsWith(TOMBSTONE_SUFFIX);
+                    Path file =
+                            isTombstone ? path.resolveSibling(name.substring(0,
+                                    name.length() - TOMBSTONE_SUFFIX.length()))
+                                    : path;
+                    String hash = BlobStore.getHash(file);
+                    if (hash == null) {
+                        continue;
+                    }
+
+                    long size = Files.size(path);
+                    boolean isReferenced = references.containsKey(hash);
+                    boolean isDeleted;
+                    if (!isTombstone) {
+                        isDeleted = !isReferenced && delete(file, cutoff);
+                    }
+                    else if (isReferenced) {
+                        Files.move(path, file, StandardCopyOption.ATOMIC_MOVE);
+                        isDeleted = false;
+                    }
+                    else {
+                        isDeleted = removeTombstone(path, file, cutoff);
+                    }
+
+                    if (isDeleted) {
+                        numDeleted++;
+                        bytesFreed += size;
+                    }
+                    else {
+                        bytesKept += size;
+                    }
+                }
+            }
+            myNumDeleted = numDeleted;
+            myBytesFreed = bytesFreed;
+            myBytesKept = bytesKept;
+
+            Logger.info("Blob garbage collection found " + references.size()
+                    + " referenced blobs and deleted " + numDeleted + " ("
+                    + bytesFreed + " bytes).");
+        }
+        catch (IOException | RuntimeException e) {
+            myError = e.getMessage();
+            Logger.error("Failed to collect the unreferenced blobs.", e);
+        }
+        finally {
+            myEndTime = System.currentTimeMillis();
+            myIsRunning.set(false);
+        }
+    }
+
+}
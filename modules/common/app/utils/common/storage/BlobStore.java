@@ -0,0 +1,363 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.common.storage;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.sql.Connection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import models.common.database.CompressedTextConverter;
+import play.Configuration;
+import play.Logger;
+import play.db.Database;
+import play.libs.Json;
+
+/**
+ * <p>A content-addressed store for large column values on the local
+ * filesystem. Each value is kept in a file named after the {@code SHA-256}
+ * hash of its text, so identical source files and compiler output are only
+ * stored once no matter how many rows refer to them. The rows themselves
+ * only keep the hash (see {@link CompressedTextConverter}).</p>
+ *
+ * <p>Files are written to a temporary file, forced to disk and then moved
+ * into place, so a file that exists is always complete. Files are read
+ * through memory mappings.</p>
+ *
+ * <p>Files that are no longer referenced by any row are removed by the
+ * {@link BlobGarbageCollector}. Writing a value that already exists
+ * refreshes its modification time, which keeps the collector from
+ * removing a file that has just been referenced again. If the time cannot
+ * be refreshed (because the collector has just taken the file away), the
+ * file is written again.</p>
+ *
+ * <p>The rows only keep a binary reference, so new values are not stored
+ * as blobs while any of the {@link CompressedTextConverter#COLUMNS} is
+ * still a text column, even if the store has been enabled.</p>
+ *
+ * <p>Note that the store is local, so every application server that
+ * shares the database must share the blob directory as well.</p>
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+@Singleton
+public class BlobStore {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>Default directory that stores the blobs.</p> */
+    private static final String DEFAULT_DIRECTORY = "blobs";
+
+    /** <p>Default length (in bytes) from which values are stored as blobs.</p> */
+    private static final int DEFAULT_MIN_LENGTH = 1024;
+
+    /** <p>Suffix of the blob file names.</p> */
+    private static final String FILE_SUFFIX = ".blob";
+
+    /** <p>The database that stores the rows.</p> */
+    private final Database myDatabase;
+
+    /** <p>Flag that indicates the store has been enabled in the configuration.</p> */
+    private final boolean myIsRequested;
+
+    /** <p>Flag that indicates new values are stored as blobs.</p> */
+    private volatile boolean myIsEnabled;
+
+    /** <p>The directory that stores the blobs.</p> */
+    private final Path myDirectory;
+
+    /** <p>Length (in bytes) from which values are stored as blobs.</p> */
+    private final int myMinLength;
+
+    /** <p>Number of values written as new blobs.</p> */
+    private final AtomicLong myNumWritten;
+
+    /** <p>Number of values that matched an existing blob.</p> */
+    private final AtomicLong myNumDeduplicated;
+
+    /** <p>Number of bytes written as new blobs.</p> */
+    private final AtomicLong myBytesWritten;
+
+    /** <p>Number of bytes not written because they matched an existing blob.</p> */
+    private final AtomicLong myBytesDeduplicated;
+
+    /** <p>Number of blobs read.</p> */
+    private final AtomicLong myNumRead;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>This creates the blob store and registers it with
+     * {@link CompressedTextConverter}.</p>
+     *
+     * @param configuration Class that retrieves configurations.
+     * @param database The database that stores the rows.
+     */
+    @Inject
+    public BlobStore(Configuration configuration, Database database) {
+        myDatabase = database;
+        myIsRequested = configuration.getBoolean("webide.blobStore.enabled", false);
+        myDirectory =
+                Paths.get(configuration.getString("webide.blobStore.directory",
+                        DEFAULT_DIRECTORY));
+        myMinLength =
+                Math.max(CompressedTextConverter.HASH_LENGTH + 1,
+                        configuration.getInt("webide.blobStore.minLength",
+                                DEFAULT_MIN_LENGTH));
+        myNumWritten = new AtomicLong();
+        myNumDeduplicated = new AtomicLong();
+        myBytesWritten = new AtomicLong();
+        myBytesDeduplicated = new AtomicLong();
+        myNumRead = new AtomicLong();
+        applySettings();
+
+        // Existing blobs need to stay readable even when
+        // new values are no longer stored as blobs.
+        CompressedTextConverter.setBlobStore(this);
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Starts storing new values as blobs if the store has been enabled
+     * in the configuration and all the columns are {@code LONGBLOB}
+     * columns.</p>
+     */
+    public final void applySettings() {
+        boolean enabled = false;
+        if (myIsRequested) {
+            List<String> textColumns;
+            try {
+                textColumns =
+                        myDatabase.withConnection((Connection connection) ->
+                                CompressedTextConverter.findTextColumns(connection));
+            }
+            catch (RuntimeException e) {
+                Logger.error("Failed to check the compressed column types.", e);
+                textColumns = Collections.singletonList("(unknown)");
+            }
+
+            if (textColumns.isEmpty()) {
+                enabled = true;
+            }
+            else {
+                Logger.error("The blob store is not enabled because "
+                        + textColumns + " are not longblob columns yet. "
+                        + "Run the compression job to convert them.");
+            }
+        }
+
+        myIsEnabled = enabled;
+    }
+
+    /**
+     * <p>Reads a blob.</p>
+     *
+     * @param hash The {@code SHA-256} hash of the blob's text.
+     *
+     * @return The stored bytes.
+     */
+    public final byte[] get(byte[] hash) {
+        Path path = getPath(hash);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] stored = new byte[buffer.remaining()];
+            buffer.get(stored);
+            myNumRead.incrementAndGet();
+
+            return stored;
+        }
+        catch (NoSuchFileException e) {
+            throw new IllegalStateException("Missing blob " + path + ".", e);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * <p>Returns the directory that stores the blobs.</p>
+     *
+     * @return A path.
+     */
+    public final Path getDirectory() {
+        return myDirectory;
+    }
+
+    /**
+     * <p>Returns the current metrics for the store.</p>
+     *
+     * @return A JSON object with the metrics.
+     */
+    public final ObjectNode getMetrics() {
+        ObjectNode metrics = Json.newObject();
+        metrics.put("enabled", myIsEnabled);
+        metrics.put("requested", myIsRequested);
+        metrics.put("directory", myDirectory.toAbsolutePath().toString());
+        metrics.put("written", myNumWritten.get());
+        metrics.put("deduplicated", myNumDeduplicated.get());
+        metrics.put("bytesWritten", myBytesWritten.get());
+        metrics.put("bytesDeduplicated", myBytesDeduplicated.get());
+        metrics.put("read", myNumRead.get());
+
+        return metrics;
+    }
+
+    /**
+     * <p>Returns the length from which values are stored as blobs.</p>
+     *
+     * @return A length in bytes.
+     */
+    public final int getMinLength() {
+        return myMinLength;
+    }
+
+    /**
+     * <p>Returns the hash of a blob file.</p>
+     *
+     * @param path Path to a file in the blob directory.
+     *
+     * @return The hash as a hexadecimal string, or {@code null} if the
+     * file is not a blob file.
+     */
+    public static String getHash(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.endsWith(FILE_SUFFIX)
+                || name.length() != CompressedTextConverter.HASH_LENGTH * 2
+                        + FILE_SUFFIX.length()) {
+            return null;
+        }
+
+        return name.substring(0, name.length() - FILE_SUFFIX.length());
+    }
+
+    /**
+     * <p>Checks whether new values are stored as blobs.</p>
+     *
+     * @return {@code true} if they are, {@code false} otherwise.
+     */
+    public final boolean isEnabled() {
+        return myIsEnabled;
+    }
+
+    /**
+     * <p>Stores a blob unless it already exists.</p>
+     *
+     * @param hash The {@code SHA-256} hash of the blob's text.
+     * @param stored The bytes to store.
+     */
+    public final void put(byte[] hash, byte[] stored) {
+        Path path = getPath(hash);
+        try {
+            if (Files.exists(path)) {
+                try {
+                    Files.setLastModifiedTime(path,
+                            FileTime.fromMillis(System.currentTimeMillis()));
+                    myNumDeduplicated.incrementAndGet();
+                    myBytesDeduplicated.addAndGet(stored.length);
+                    return;
+                }
+                catch (IOException e) {
+                    // The garbage collector might be deleting it,
+                    // so write it again.
+                }
+            }
+
+            Files.createDirectories(path.getParent());
+            Path temporary = Files.createTempFile(path.getParent(), "blob-", ".tmp");
+            try {
+                try (FileChannel channel =
+                        FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(stored);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(true);
+                }
+
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+                myNumWritten.incrementAndGet();
+                myBytesWritten.addAndGet(stored.length);
+            }
+            catch (FileAlreadyExistsException e) {
+                // Another thread stored the same blob first.
+                myNumDeduplicated.incrementAndGet();
+                myBytesDeduplicated.addAndGet(stored.length);
+            }
+            finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Returns the path of a blob file. The files are spread over
+     * subdirectories named after the first byte of the hash.</p>
+     *
+     * @param hash The {@code SHA-256} hash of the blob's text.
+     *
+     * @return A path.
+     */
+    private Path getPath(byte[] hash) {
+        String hex = toHex(hash);
+        return myDirectory.resolve(hex.substring(0, 2)).resolve(hex + FILE_SUFFIX);
+    }
+
+    /**
+     * <p>Converts a hash to a hexadecimal string.</p>
+     *
+     * @param hash A hash.
+     *
+     * @return The hexadecimal string.
+     */
+    static String toHex(byte[] hash) {
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * ---------------------------------
+ * Copyright (c) 2018
+ * RESOLVE Software Research Group
+ * School of Computing
+ * Clemson University
+ * All rights reserved.
+ * ---------------------------------
+ * This file is subject to the terms and conditions defined in
+ * file 'LICENSE.txt', which is part of this source code package.
+ */
+
+package utils.common.timer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.ToLongFunction;
+
+/**
+ * <p>A hierarchical timing wheel that finds the keys whose deadline has
+ * passed without keeping them sorted. Time is counted in ticks. The first
+ * level has a slot for each of the next {@code wheelSize} ticks, and each
+ * slot of the next level covers a full turn of the level below it, so a few
+ * small levels cover a long time. Scheduling a key is a lock-free
+ * {@code O(1)} append. When the wheel reaches a slot of an upper level, its
+ * keys are moved down to the level that matches their deadline.</p>
+ *
+ * <p>The wheel does not remember the deadlines. When a slot is reached, the
+ * owner is asked about each key and returns the tick the key is now due in,
+ * or a negative number if it is done with the key. This way, the deadline
+ * of a key can be pushed back without touching the wheel, and keys due past
+ * the last level are simply visited again later. The owner must only drop
+ * keys that are actually due, since keys are also visited when they are
+ * moved down.</p>
+ *
+ * <p>Keys can be scheduled from any thread, but {@link #advance(long, ToLongFunction)}
+ * must only be called from one thread at a time.</p>
+ *
+ * @param <K> The type of the keys.
+ *
+ * @author Yu-Shan Sun
+ * @version 1.0
+ */
+public class TimingWheel<K> {
+
+    // ===========================================================
+    // Global Variables
+    // ===========================================================
+
+    /** <p>The slots of each level.</p> */
+    private final Queue<K>[][] myLevels;
+
+    /** <p>Number of bits in a slot index.</p> */
+    private final int myBits;
+
+    /** <p>Mask to find the slot of a tick.</p> */
+    private final int myMask;
+
+    /** <p>The last tick that has been processed.</p> */
+    private volatile long myCurrentTick;
+
+    // ===========================================================
+    // Constructors
+    // ===========================================================
+
+    /**
+     * <p>Creates a timing wheel.</p>
+     *
+     * @param wheelSize Number of slots in each level. This is rounded up
+     *                  to a power of two.
+     * @param numLevels Number of levels.
+     * @param startTick The tick the wheel starts at.
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(int wheelSize, int numLevels, long startTick) {
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) * 2 - 1);
+        myBits = Integer.numberOfTrailingZeros(size);
+        myMask = size - 1;
+
+        // Keep the span of the levels within a long
+        int levels = Math.max(1, Math.min(numLevels, 62 / myBits));
+        myLevels = new Queue[levels][size];
+        for (Queue<K>[] slots : myLevels) {
+            for (int i = 0; i < size; i++) {
+                slots[i] = new ConcurrentLinkedQueue<>();
+            }
+        }
+        myCurrentTick = startTick;
+    }
+
+    // ===========================================================
+    // Public Methods
+    // ===========================================================
+
+    /**
+     * <p>Processes the slots up to the specified tick.</p>
+     *
+     * @param tick The current tick.
+     * @param owner Called for each key in the slots that are reached. It
+     *              returns the tick the key is due in, or a negative number
+     *              to drop the key.
+     *
+     * @return The number of keys that were dropped.
+     */
+    public final int advance(long tick, ToLongFunction<K> owner) {
+        int numDropped = 0;
+        for (long t = myCurrentTick + 1; t <= tick; t++) {
+            myCurrentTick = t;
+
+            // Move the keys down from the upper levels whose slot starts
+            // at this tick, starting with the highest one.
+            for (int level = myLevels.length - 1; level > 0; level--) {
+                if ((t & ((1L << (myBits * level)) - 1)) == 0) {
+                    numDropped += drain(myLevels[level][slot(t, level)], owner);
+                }
+            }
+            numDropped += drain(myLevels[0][slot(t, 0)], owner);
+        }
+
+        return numDropped;
+    }
+
+    /**
+     * <p>Returns the last tick that has been processed.</p>
+     *
+     * @return The tick.
+     */
+    public final long getCurrentTick() {
+        return myCurrentTick;
+    }
+
+    /**
+     * <p>Schedules a key.</p>
+     *
+     * @param key The key.
+     * @param tick The tick the key is due in. Ticks that have already been
+     *             processed are treated as the next tick.
+     */
+    public final void schedule(K key, long tick) {
+        long current = myCurrentTick;
+        long due = Math.max(tick, current + 1);
+
+        int level = 0;
+        while (level < myLevels.length - 1
+                && due - current >= 1L << (myBits * (level + 1))) {
+            level++;
+        }
+
+        // Past the last level, the key is visited when that level comes
+        // around again and is then scheduled once more.
+        long horizon = current + (1L << (myBits * myLevels.length)) - 1;
+        myLevels[level][slot(Math.min(due, horizon), level)].add(key);
+    }
+
+    // ===========================================================
+    // Private Methods
+    // ===========================================================
+
+    /**
+     * <p>Asks the owner about each key in a slot and schedules the
+     * ones it keeps again.</p>
+     *
+     * @param slot The slot.
+     * @param owner The owner of the keys.
+     *
+     * @return The number of keys that were dropped.
+     */
+    private int drain(Queue<K> slot, ToLongFunction<K> owner) {
+        int numDropped = 0;
+
+        // Only the keys that are in the slot now, so a key that is
+        // scheduled into this slot again is not visited twice.
+        for (int n = slot.size(); n > 0; n--) {
+            K key = slot.poll();
+            if (key == null) {
+                break;
+            }
+
+            long due = owner.applyAsLong(key);
+            if (due < 0) {
+                numDropped++;
+            }
+            else {
+                schedule(key, due);
+            }
+        }
+
+        return numDropped;
+    }
+
+    /**
+     * <p>Finds the slot of a tick in a level.</p>
+     *
+     * @param tick The tick.
+     * @param level The level.
+     *
+     * @return The slot index.
+     */
+    private int slot(long tick, int level) {
+        return (int) ((tick >>> (myBits * level)) & myMask);
+    }
+
+}
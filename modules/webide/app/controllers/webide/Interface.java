@@ -12,6 +12,7 @@
 
 package controllers.webide;
 
+import deadbolt2.common.security.IdentityResolver;
 import java.util.List;
 import javax.inject.Inject;
 import models.common.database.Project;
@@ -34,6 +35,10 @@ public class Interface extends Controller {
     @Inject
     private CachedProjectNames myCachedObjects;
 
+    /** <p>Class that resolves the user that is logged in</p> */
+    @Inject
+    private IdentityResolver myIdentityResolver;
+
     // ===========================================================
     // Public Methods
     // ===========================================================
@@ -58,11 +63,7 @@ public class Interface extends Controller {
         }
 
         // Retrieve the current user (if logged in)
-        String email = session("connected");
-        User currentUser = null;
-        if (email != null) {
-            currentUser = User.findByEmail(email);
-        }
+        User currentUser = myIdentityResolver.getUser(ctx());
 
         return ok(index.render(projectList, activeProject, currentUser));
     }
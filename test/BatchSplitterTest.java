@@ -0,0 +1,198 @@
+import org.junit.*;
+
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import utils.common.database.BatchSplitter;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * Tests for splitting the byDesign event batches that fail to be written.
+ *
+ */
+public class BatchSplitterTest {
+
+    /** Items that fail whenever they are part of a batch. */
+    private Set<Integer> myBadItems;
+
+    /** The batches that were committed. */
+    private List<List<Integer>> myCommitted;
+
+    /** The items handed back as failures. */
+    private List<Integer> myFailed;
+
+    /** Number of times the writer was called. */
+    private int myNumWrites;
+
+    @Before
+    public void setUp() {
+        myBadItems = new TreeSet<>();
+        myCommitted = new ArrayList<>();
+        myFailed = new ArrayList<>();
+        myNumWrites = 0;
+    }
+
+    /**
+     * Acts like a transaction: the whole batch is committed,
+     * or none of it is.
+     */
+    private void writeBatch(List<Integer> batch) {
+        myNumWrites++;
+        for (Integer item : batch) {
+            if (myBadItems.contains(item)) {
+                throw new RuntimeException(new SQLException(
+                        "Data too long for column", "22001", 1406));
+            }
+        }
+        myCommitted.add(new ArrayList<>(batch));
+    }
+
+    private void write(List<Integer> batch) {
+        BatchSplitter.write(batch, this::writeBatch,
+                (item, e) -> myFailed.add(item));
+    }
+
+    private List<Integer> committedItems() {
+        List<Integer> items = new ArrayList<>();
+        for (List<Integer> batch : myCommitted) {
+            items.addAll(batch);
+        }
+        return items;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> items = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            items.add(i);
+        }
+        return items;
+    }
+
+    @Test
+    public void emptyBatch() {
+        write(Collections.emptyList());
+        assertEquals(0, myNumWrites);
+        assertTrue(myFailed.isEmpty());
+    }
+
+    @Test
+    public void batchWithoutFailures() {
+        write(range(0, 10));
+        assertEquals(1, myNumWrites);
+        assertEquals(Collections.singletonList(range(0, 10)), myCommitted);
+        assertTrue(myFailed.isEmpty());
+    }
+
+    @Test
+    public void singleBadItem() {
+        myBadItems.add(6);
+        write(range(0, 10));
+
+        assertEquals(Collections.singletonList(6), myFailed);
+        List<Integer> expected = range(0, 10);
+        expected.remove(Integer.valueOf(6));
+        assertEquals(expected, committedItems());
+
+        // Every other item is written in a batch that does not
+        // contain the bad one, in about log2(n) levels.
+        assertTrue(myNumWrites <= 1 + 2 * 4);
+    }
+
+    @Test
+    public void manyBadItems() {
+        myBadItems.addAll(Arrays.asList(0, 7, 8, 31));
+        write(range(0, 32));
+
+        assertEquals(Arrays.asList(0, 7, 8, 31), myFailed);
+        List<Integer> expected = range(0, 32);
+        expected.removeAll(myBadItems);
+        assertEquals(expected, committedItems());
+    }
+
+    @Test
+    public void everyItemIsBad() {
+        myBadItems.addAll(range(0, 5));
+        write(range(0, 5));
+
+        assertEquals(range(0, 5), myFailed);
+        assertTrue(myCommitted.isEmpty());
+    }
+
+    @Test
+    public void singleItemBatch() {
+        myBadItems.add(3);
+        write(Collections.singletonList(3));
+
+        assertEquals(1, myNumWrites);
+        assertEquals(Collections.singletonList(3), myFailed);
+    }
+
+    @Test
+    public void transientFailuresAreNotSplit() {
+        RuntimeException deadlock =
+                new RuntimeException(new SQLTransactionRollbackException(
+                        "Deadlock found", "40001", 1213));
+        try {
+            BatchSplitter.write(range(0, 10), batch -> {
+                myNumWrites++;
+                throw deadlock;
+            }, (item, e) -> myFailed.add(item));
+            fail("The deadlock should have been thrown.");
+        }
+        catch (RuntimeException e) {
+            assertSame(deadlock, e);
+        }
+
+        assertEquals(1, myNumWrites);
+        assertTrue(myFailed.isEmpty());
+    }
+
+    @Test
+    public void transientFailureAfterASplit() {
+        // The first half is committed before the database goes away,
+        // so the caller can pick up from there.
+        myBadItems.add(1);
+        try {
+            BatchSplitter.write(range(0, 8), batch -> {
+                if (batch.contains(6) && !batch.contains(1)) {
+                    throw new RuntimeException(new SQLException(
+                            "Communications link failure", "08S01", 0));
+                }
+                writeBatch(batch);
+            }, (item, e) -> myFailed.add(item));
+            fail("The lost connection should have been thrown.");
+        }
+        catch (RuntimeException e) {
+            assertTrue(BatchSplitter.isTransient(e));
+        }
+
+        assertEquals(Collections.singletonList(1), myFailed);
+        assertEquals(Arrays.asList(0, 2, 3), committedItems());
+    }
+
+    @Test
+    public void transientErrors() {
+        assertTrue(BatchSplitter.isTransient(new RuntimeException(
+                new SQLException("Lock wait timeout", "HY000", 1205))));
+        assertTrue(BatchSplitter.isTransient(new RuntimeException(
+                new SQLException("Deadlock found", "HY000", 1213))));
+        assertTrue(BatchSplitter.isTransient(new RuntimeException(
+                new SQLException("Serialization failure", "40001", 0))));
+        assertTrue(BatchSplitter.isTransient(new RuntimeException(
+                new SQLException("Connection refused", "08001", 0))));
+        assertFalse(BatchSplitter.isTransient(new RuntimeException(
+                new SQLException("Data too long for column", "22001", 1406))));
+        assertFalse(BatchSplitter.isTransient(new RuntimeException(
+                new SQLException("Duplicate entry", "23000", 1062))));
+        assertFalse(BatchSplitter.isTransient(new IllegalStateException()));
+    }
+
+}
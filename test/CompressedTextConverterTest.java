@@ -0,0 +1,194 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.*;
+
+import models.common.database.CompressedTextConverter;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * Tests for the stored formats of the compressed text columns.
+ *
+ */
+public class CompressedTextConverterTest {
+
+    /** A text that is long enough to be compressed. */
+    private static final String LONG_TEXT;
+
+    static {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("Operation Do_Nothing(restores S: Stack);\r\n");
+        }
+        LONG_TEXT = sb.toString();
+    }
+
+    @Before
+    public void setUp() {
+        CompressedTextConverter.setBlobStore(null);
+        CompressedTextConverter.setCompression(false, 256);
+    }
+
+    @After
+    public void tearDown() {
+        CompressedTextConverter.setCompression(false, 256);
+    }
+
+    @Test
+    public void nullValues() {
+        assertNull(CompressedTextConverter.encode(null));
+        assertNull(CompressedTextConverter.encode(null, true));
+        assertNull(CompressedTextConverter.decode(null));
+    }
+
+    @Test
+    public void emptyText() {
+        byte[] stored = CompressedTextConverter.encode("", true);
+        assertEquals(0, stored.length);
+        assertEquals("", CompressedTextConverter.decode(stored));
+    }
+
+    @Test
+    public void plainText() {
+        String text = "Facility Stack_Fac;\n";
+        byte[] stored = CompressedTextConverter.encode(text);
+        assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), stored);
+        assertEquals(text, CompressedTextConverter.decode(stored));
+    }
+
+    @Test
+    public void legacyRows() {
+        // Rows written before compression are plain UTF-8 text
+        String text = "Concept Stack_Template;\r\n\u03b1 := \u03b2;\n";
+        assertEquals(text,
+                CompressedTextConverter.decode(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void textThatStartsWithAMarker() {
+        byte[] markers = {
+                CompressedTextConverter.RAW_MARKER,
+                CompressedTextConverter.DEFLATE_MARKER,
+                CompressedTextConverter.BLOB_MARKER
+        };
+        for (byte marker : markers) {
+            String text = (char) marker + "abc";
+            byte[] stored = CompressedTextConverter.encode(text);
+            assertEquals(CompressedTextConverter.RAW_MARKER, stored[0]);
+            assertEquals(text.length() + 1, stored.length);
+            assertEquals(text, CompressedTextConverter.decode(stored));
+        }
+
+        // A marker followed by exactly the length of a blob hash
+        char[] chars = new char[CompressedTextConverter.HASH_LENGTH + 1];
+        Arrays.fill(chars, 'x');
+        chars[0] = (char) CompressedTextConverter.BLOB_MARKER;
+        String text = new String(chars);
+        byte[] stored = CompressedTextConverter.encode(text);
+        assertNull(CompressedTextConverter.getBlobHash(stored));
+        assertEquals(text, CompressedTextConverter.decode(stored));
+    }
+
+    @Test
+    public void compressedText() {
+        byte[] stored = CompressedTextConverter.encode(LONG_TEXT, true);
+        assertEquals(CompressedTextConverter.DEFLATE_MARKER, stored[0]);
+        assertTrue(stored.length < LONG_TEXT.length());
+        assertEquals(LONG_TEXT, CompressedTextConverter.decode(stored));
+    }
+
+    @Test
+    public void truncatedCompressedText() {
+        byte[] stored = CompressedTextConverter.encode(LONG_TEXT, true);
+        for (int length : new int[] { 1, 3, 5, stored.length / 2, stored.length - 1 }) {
+            try {
+                CompressedTextConverter.decode(Arrays.copyOf(stored, length));
+                fail("Decoded a value truncated to " + length + " bytes.");
+            }
+            catch (IllegalStateException e) {
+                assertEquals("Corrupted compressed column value.", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void wrongCompressedLength() {
+        byte[] stored = CompressedTextConverter.encode(LONG_TEXT, true);
+
+        // The stored length is longer or shorter than the text
+        for (int delta : new int[] { 1, -1 }) {
+            byte[] changed = stored.clone();
+            ByteBuffer.wrap(changed, 1, 4).putInt(LONG_TEXT.length() + delta);
+            try {
+                CompressedTextConverter.decode(changed);
+                fail("Decoded a value with the wrong length.");
+            }
+            catch (IllegalStateException e) {
+                assertEquals("Corrupted compressed column value.", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void utf8CharacterSets() {
+        assertTrue(CompressedTextConverter.isUtf8("utf8"));
+        assertTrue(CompressedTextConverter.isUtf8("utf8mb3"));
+        assertTrue(CompressedTextConverter.isUtf8("UTF8MB4"));
+        assertTrue(CompressedTextConverter.isUtf8(null));
+        assertFalse(CompressedTextConverter.isUtf8("latin1"));
+        assertFalse(CompressedTextConverter.isUtf8("ascii"));
+    }
+
+    @Test
+    public void compressionSettings() {
+        byte[] stored = CompressedTextConverter.encode(LONG_TEXT);
+        assertArrayEquals(LONG_TEXT.getBytes(StandardCharsets.UTF_8), stored);
+
+        CompressedTextConverter.setCompression(true, 256);
+        stored = CompressedTextConverter.encode(LONG_TEXT);
+        assertEquals(CompressedTextConverter.DEFLATE_MARKER, stored[0]);
+        assertEquals(LONG_TEXT, CompressedTextConverter.decode(stored));
+
+        // Values shorter than the minimum length are stored as they are
+        CompressedTextConverter.setCompression(true, LONG_TEXT.length() + 1);
+        stored = CompressedTextConverter.encode(LONG_TEXT);
+        assertArrayEquals(LONG_TEXT.getBytes(StandardCharsets.UTF_8), stored);
+    }
+
+    @Test
+    public void nonAsciiText() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            sb.appendCodePoint(0x4e00 + (i * 7919) % 20000);
+        }
+        String text = sb.toString();
+        byte[] stored = CompressedTextConverter.encode(text, true);
+        assertTrue(stored.length <= text.getBytes(StandardCharsets.UTF_8).length);
+        assertEquals(text, CompressedTextConverter.decode(stored));
+    }
+
+    @Test
+    public void blobReferences() {
+        byte[] hash = new byte[CompressedTextConverter.HASH_LENGTH];
+        Arrays.fill(hash, (byte) 7);
+        byte[] stored = new byte[hash.length + 1];
+        stored[0] = CompressedTextConverter.BLOB_MARKER;
+        System.arraycopy(hash, 0, stored, 1, hash.length);
+
+        assertArrayEquals(hash, CompressedTextConverter.getBlobHash(stored));
+        assertNull(CompressedTextConverter.getBlobHash(null));
+        assertNull(CompressedTextConverter.getBlobHash(
+                CompressedTextConverter.encode(LONG_TEXT, true)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void blobReferenceWithoutStore() {
+        byte[] stored = new byte[CompressedTextConverter.HASH_LENGTH + 1];
+        stored[0] = CompressedTextConverter.BLOB_MARKER;
+        CompressedTextConverter.decode(stored);
+    }
+
+}
@@ -0,0 +1,88 @@
+import org.junit.*;
+
+import utils.common.delta.LineDelta;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * Round trip tests for the line deltas used to store the byDesign code.
+ *
+ */
+public class LineDeltaTest {
+
+    /**
+     * Checks that applying the delta from base to target gives back
+     * exactly the target text.
+     */
+    private static void assertRoundTrip(String base, String target) {
+        String delta = LineDelta.diff(base, target);
+        assertEquals(target, LineDelta.apply(base, delta));
+    }
+
+    @Test
+    public void emptyText() {
+        assertRoundTrip("", "");
+        assertRoundTrip("", "a");
+        assertRoundTrip("a", "");
+        assertRoundTrip("", "\n");
+        assertRoundTrip("\n", "");
+    }
+
+    @Test
+    public void identicalText() {
+        String text = "Facility Stack_Fac;\n    uses Stack_Template;\nend Stack_Fac;\n";
+        assertRoundTrip(text, text);
+        assertEquals("=4\n", LineDelta.diff(text, text));
+    }
+
+    @Test
+    public void trailingNewlines() {
+        assertRoundTrip("a\nb", "a\nb\n");
+        assertRoundTrip("a\nb\n", "a\nb");
+        assertRoundTrip("a\nb\n", "a\nb\n\n\n");
+        assertRoundTrip("a\nb\n\n\n", "a\nb\n");
+        assertRoundTrip("\n\n", "\n");
+    }
+
+    @Test
+    public void carriageReturns() {
+        assertRoundTrip("a\r\nb\r\n", "a\nb\n");
+        assertRoundTrip("a\nb\n", "a\r\nb\r\n");
+        assertRoundTrip("a\r\nb\r\nc\r\n", "a\r\nx\r\nc\r\n");
+        assertRoundTrip("a\rb\rc", "a\rb\rc\r");
+        assertRoundTrip("\r", "\r\n");
+    }
+
+    @Test
+    public void linesThatLookLikeInstructions() {
+        assertRoundTrip("=1\n-2\n+3", "+3\n=1\n-2\n");
+        assertRoundTrip("x", "+\n=\n-\n\n");
+    }
+
+    @Test
+    public void changedLines() {
+        String base = "a\nb\nc\nd\ne\nf\n";
+        String target = "a\nc\nd\nx\ne\nf\ng\n";
+        assertRoundTrip(base, target);
+        assertRoundTrip(target, base);
+    }
+
+    @Test
+    public void manyChangedLines() {
+        // Large enough to skip the longest common subsequence table
+        StringBuilder base = new StringBuilder();
+        StringBuilder target = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            base.append("line ").append(i).append('\n');
+            target.append("line ").append(i * 7 % 2000).append("\r\n");
+        }
+        assertRoundTrip(base.toString(), target.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mismatchedBase() {
+        LineDelta.apply("a", LineDelta.diff("a\nb\nc", "a\nb\nc\nd"));
+    }
+
+}
@@ -0,0 +1,152 @@
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import models.common.ModelUtilities;
+import play.Configuration;
+import utils.common.security.PasswordHasher;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * Tests for hashing and verifying the user passwords.
+ *
+ */
+public class PasswordHasherTest {
+
+    private List<Callable<? extends CompletionStage<?>>> myStopHooks;
+
+    @Before
+    public void setUp() {
+        myStopHooks = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Callable<? extends CompletionStage<?>> hook : myStopHooks) {
+            hook.call().toCompletableFuture().get();
+        }
+    }
+
+    private PasswordHasher hasher(int iterations, int threads, int queueSize) {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("webide.password.iterations", iterations);
+        settings.put("webide.password.threads", threads);
+        settings.put("webide.password.queueSize", queueSize);
+        return new PasswordHasher(new Configuration(settings), myStopHooks::add);
+    }
+
+    private static <T> T get(CompletionStage<T> stage) throws Exception {
+        return stage.toCompletableFuture().get();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        PasswordHasher hasher = hasher(10000, 1, 8);
+        String stored = get(hasher.hash("correct horse"));
+
+        assertTrue(stored.startsWith("pbkdf2$10000$"));
+        assertTrue(get(hasher.verify("correct horse", stored)));
+        assertFalse(get(hasher.verify("correct horse ", stored)));
+        assertFalse(get(hasher.verify("", stored)));
+        assertTrue(PasswordHasher.matches("correct horse", stored));
+        assertFalse(hasher.needsRehash(stored));
+    }
+
+    @Test
+    public void saltedHashes() throws Exception {
+        PasswordHasher hasher = hasher(10000, 1, 8);
+        String first = get(hasher.hash("password"));
+        String second = get(hasher.hash("password"));
+
+        assertNotEquals(first, second);
+        assertTrue(PasswordHasher.matches("password", first));
+        assertTrue(PasswordHasher.matches("password", second));
+    }
+
+    @Test
+    public void nonAsciiPassword() throws Exception {
+        PasswordHasher hasher = hasher(10000, 1, 8);
+        String password = "p\u00e4ssw\u00f6rd \u03b1\u03b2\u03b3";
+        String stored = get(hasher.hash(password));
+
+        assertTrue(PasswordHasher.matches(password, stored));
+        assertFalse(PasswordHasher.matches("passw\u00f6rd \u03b1\u03b2\u03b3", stored));
+    }
+
+    @Test
+    public void legacyHashes() throws Exception {
+        PasswordHasher hasher = hasher(10000, 1, 8);
+        String legacy = ModelUtilities.encryptPassword("old password");
+
+        assertTrue(get(hasher.verify("old password", legacy)));
+        assertFalse(get(hasher.verify("new password", legacy)));
+        assertTrue(hasher.needsRehash(legacy));
+
+        // The legacy hash is replaced with one that does not need it
+        String upgraded = get(hasher.hash("old password"));
+        assertTrue(get(hasher.verify("old password", upgraded)));
+        assertFalse(hasher.needsRehash(upgraded));
+    }
+
+    @Test
+    public void fewerIterationsNeedRehash() throws Exception {
+        String weaker = get(hasher(10000, 1, 8).hash("password"));
+        PasswordHasher hasher = hasher(20000, 1, 8);
+
+        assertTrue(get(hasher.verify("password", weaker)));
+        assertTrue(hasher.needsRehash(weaker));
+        assertFalse(hasher.needsRehash(get(hasher.hash("password"))));
+    }
+
+    @Test
+    public void malformedHashes() throws Exception {
+        PasswordHasher hasher = hasher(10000, 1, 8);
+        assertFalse(PasswordHasher.matches("password", "pbkdf2$10000$not*base64$AAAA"));
+        assertFalse(PasswordHasher.matches("password", "pbkdf2$many$AAAA$AAAA"));
+        assertTrue(hasher.needsRehash("pbkdf2$many$AAAA$AAAA"));
+        assertTrue(hasher.needsRehash("pbkdf2$10000$AAAA"));
+    }
+
+    @Test
+    public void missingUser() throws Exception {
+        PasswordHasher hasher = hasher(10000, 1, 8);
+        assertFalse(get(hasher.verify("password", null)));
+    }
+
+    @Test
+    public void fullQueue() throws Exception {
+        // One thread and room for one more hash: the rest of a burst
+        // is rejected right away instead of waiting.
+        PasswordHasher hasher = hasher(200000, 1, 1);
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            results.add(hasher.hash("password " + i).toCompletableFuture());
+        }
+
+        int numRejected = 0;
+        for (CompletableFuture<String> result : results) {
+            try {
+                assertTrue(result.get().startsWith("pbkdf2$"));
+            }
+            catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+                numRejected++;
+            }
+        }
+
+        assertTrue("Rejected " + numRejected, numRejected >= 8);
+        assertEquals(numRejected, hasher.getMetrics().get("rejected").asLong());
+        assertEquals(1, hasher.getMetrics().get("queueCapacity").asInt());
+    }
+
+}
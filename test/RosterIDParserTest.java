@@ -0,0 +1,160 @@
+import java.nio.charset.StandardCharsets;
+
+import akka.util.ByteString;
+import org.junit.*;
+
+import utils.bydesign.dataanalysis.ErrorKind;
+import utils.bydesign.dataanalysis.RosterFile;
+import utils.bydesign.dataanalysis.RosterIDParser;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * Tests for the incremental parser of the roster files.
+ *
+ */
+public class RosterIDParserTest {
+
+    /**
+     * Parses a file, feeding it to the parser one chunk at a time.
+     */
+    private static RosterFile parse(byte[] file, int chunkSize, int maxRows, long maxBytes) {
+        RosterIDParser parser = new RosterIDParser(maxRows, maxBytes);
+        for (int i = 0; i < file.length; i += chunkSize) {
+            byte[] chunk = new byte[Math.min(chunkSize, file.length - i)];
+            System.arraycopy(file, i, chunk, 0, chunk.length);
+            parser.feed(ByteString.fromArray(chunk));
+        }
+
+        return parser.finish("roster.csv", "text/csv");
+    }
+
+    /**
+     * Parses a file in one chunk and in one byte chunks, and checks that
+     * both give the same result.
+     */
+    private static RosterFile parse(String file) {
+        byte[] bytes = file.getBytes(StandardCharsets.UTF_8);
+        RosterFile whole = parse(bytes, Math.max(1, bytes.length), 1000, 1000000);
+        RosterFile split = parse(bytes, 1, 1000, 1000000);
+        assertEquals(whole.error, split.error);
+        assertArrayEquals(whole.ids, split.ids);
+        assertEquals(whole.numRows, split.numRows);
+
+        return whole;
+    }
+
+    @Test
+    public void simpleFile() {
+        RosterFile file = parse("1\n2\n3\n");
+        assertNull(file.error);
+        assertArrayEquals(new long[] { 1, 2, 3 }, file.ids);
+        assertEquals(3, file.numRows);
+        assertEquals(6, file.numBytes);
+    }
+
+    @Test
+    public void emptyFile() {
+        RosterFile file = parse("");
+        assertNull(file.error);
+        assertArrayEquals(new long[0], file.ids);
+    }
+
+    @Test
+    public void lineBreaks() {
+        assertArrayEquals(new long[] { 1, 2, 3 }, parse("1\r\n2\r\n3").ids);
+        assertArrayEquals(new long[] { 1, 2, 3 }, parse("1\r2\r3\r").ids);
+        assertArrayEquals(new long[] { 1, 2, 3 }, parse("1\n\r\n\n2\r\n\r\n3\n\n").ids);
+    }
+
+    @Test
+    public void byteOrderMark() {
+        RosterFile file = parse("\ufeff42\r\n43\r\n");
+        assertNull(file.error);
+        assertArrayEquals(new long[] { 42, 43 }, file.ids);
+
+        // Only a complete mark at the start of the file is skipped
+        byte[] partial = { (byte) 0xEF, (byte) 0xBB, '1', '\n' };
+        assertEquals(ErrorKind.INVALID_INPUT_FILE, parse(partial, 1, 10, 100).error);
+        assertEquals(ErrorKind.INVALID_INPUT_FILE, parse("1\n\ufeff2\n").error);
+    }
+
+    @Test
+    public void quotedFields() {
+        RosterFile file = parse("\"1\"\n\"2\"\r\n3\n");
+        assertNull(file.error);
+        assertArrayEquals(new long[] { 1, 2, 3 }, file.ids);
+
+        assertEquals(ErrorKind.INVALID_INPUT_FILE, parse("\"\"\n").error);
+        assertEquals(ErrorKind.INVALID_INPUT_FILE, parse("\"1\"\"2\"\n").error);
+        assertEquals(ErrorKind.INVALID_INPUT_FILE, parse("\"1\"2\n").error);
+        assertEquals(ErrorKind.INVALID_INPUT_FILE, parse("1\"2\"\n").error);
+        assertEquals(ErrorKind.INVALID_INPUT_FILE, parse("\"1\n").error);
+        assertEquals(ErrorKind.INVALID_INPUT_FILE, parse("\"1\n2\"\n").error);
+    }
+
+    @Test
+    public void invalidCharacters() {
+        assertEquals(ErrorKind.INVALID_INPUT_FILE, parse("1,2\n").error);
+        assertEquals(ErrorKind.INVALID_INPUT_FILE, parse("12a\n").error);
+        assertEquals(ErrorKind.INVALID_INPUT_FILE, parse(" 1\n").error);
+        assertEquals(ErrorKind.INVALID_INPUT_FILE, parse("-1\n").error);
+        assertArrayEquals(new long[0], parse("1\nx\n").ids);
+    }
+
+    @Test
+    public void overflow() {
+        RosterFile file = parse(Long.MAX_VALUE + "\n");
+        assertNull(file.error);
+        assertArrayEquals(new long[] { Long.MAX_VALUE }, file.ids);
+
+        assertEquals(ErrorKind.INVALID_INPUT_FILE, parse("9223372036854775808\n").error);
+        assertEquals(ErrorKind.INVALID_INPUT_FILE, parse("99999999999999999999\n").error);
+    }
+
+    @Test
+    public void duplicates() {
+        RosterFile file = parse("5\n3\n5\n\"3\"\n7\n5\n");
+        assertNull(file.error);
+        assertArrayEquals(new long[] { 5, 3, 7 }, file.ids);
+        assertEquals(6, file.numRows);
+
+        // Enough IDs to grow the hash set a few times
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append(i * 31 % 200).append('\n');
+        }
+        file = parse(sb.toString());
+        assertNull(file.error);
+        assertEquals(200, file.ids.length);
+        assertEquals(0, file.ids[0]);
+        assertEquals(31, file.ids[1]);
+    }
+
+    @Test
+    public void rowLimit() {
+        byte[] bytes = "1\n2\n3\n".getBytes(StandardCharsets.UTF_8);
+        assertNull(parse(bytes, bytes.length, 3, 100).error);
+
+        RosterFile file = parse(bytes, bytes.length, 2, 100);
+        assertEquals(ErrorKind.TOO_MANY_IDS, file.error);
+        assertArrayEquals(new long[0], file.ids);
+
+        // Duplicates count as rows, but blank lines do not
+        assertEquals(ErrorKind.TOO_MANY_IDS,
+                parse("1\n1\n1\n".getBytes(StandardCharsets.UTF_8), 1, 2, 100).error);
+        assertNull(parse("1\n\n\n2\n".getBytes(StandardCharsets.UTF_8), 1, 2, 100).error);
+    }
+
+    @Test
+    public void byteLimit() {
+        byte[] bytes = "1\n2\n3\n".getBytes(StandardCharsets.UTF_8);
+        assertNull(parse(bytes, 2, 100, bytes.length).error);
+
+        RosterFile file = parse(bytes, 2, 100, bytes.length - 1);
+        assertEquals(ErrorKind.FILE_TOO_LARGE, file.error);
+        assertArrayEquals(new long[0], file.ids);
+    }
+
+}
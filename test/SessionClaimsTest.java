@@ -0,0 +1,158 @@
+import org.junit.*;
+
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import deadbolt2.common.models.UserIdentity;
+import deadbolt2.common.security.SessionClaims;
+import play.Configuration;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * Tests for signing and verifying the session claims.
+ *
+ */
+public class SessionClaimsTest {
+
+    private static final String EMAIL = "student@clemson.edu";
+
+    private static final long NOW = 1500000000L;
+
+    private static final UserIdentity USER =
+            new UserIdentity(42, EMAIL, 1, true, 7);
+
+    private static SessionClaims claims(String secret, long maxAge) {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("webide.claims.secret", secret);
+        settings.put("webide.claims.maxAge", maxAge);
+        return new SessionClaims(new Configuration(settings));
+    }
+
+    private static void assertSameIdentity(UserIdentity expected, UserIdentity actual) {
+        assertNotNull(actual);
+        assertEquals(expected.id, actual.id);
+        assertEquals(expected.email, actual.email);
+        assertEquals(expected.userType, actual.userType);
+        assertEquals(expected.authenticated, actual.authenticated);
+        assertEquals(expected.credentialVersion, actual.credentialVersion);
+    }
+
+    /** Replaces one of the dot-separated fields, keeping the signature. */
+    private static String replaceField(String value, int index, String field) {
+        String[] fields = value.split("\\.");
+        fields[index] = field;
+        return String.join(".", fields);
+    }
+
+    @Test
+    public void roundTrip() {
+        SessionClaims claims = claims("secret", 900);
+        String value = claims.encode(USER, NOW);
+        assertSameIdentity(USER, claims.decode(value, EMAIL, NOW));
+
+        UserIdentity unauthenticated = new UserIdentity(3, EMAIL, 0, false, 0);
+        assertSameIdentity(unauthenticated,
+                claims.decode(claims.encode(unauthenticated, NOW), EMAIL, NOW));
+    }
+
+    @Test
+    public void tamperedFields() {
+        SessionClaims claims = claims("secret", 900);
+        String value = claims.encode(USER, NOW);
+
+        // user ID, user type, authenticated flag, credential version, issued at
+        assertNull(claims.decode(replaceField(value, 1, "1"), EMAIL, NOW));
+        assertNull(claims.decode(replaceField(value, 2, "2"), EMAIL, NOW));
+        assertNull(claims.decode(replaceField(value, 3, "0"), EMAIL, NOW));
+        assertNull(claims.decode(replaceField(value, 4, "8"), EMAIL, NOW));
+        assertNull(claims.decode(replaceField(value, 5, Long.toString(NOW + 60)),
+                EMAIL, NOW));
+    }
+
+    @Test
+    public void tamperedSignature() {
+        SessionClaims claims = claims("secret", 900);
+        String value = claims.encode(USER, NOW);
+        int split = value.lastIndexOf('.');
+        byte[] signature = Base64.getUrlDecoder().decode(value.substring(split + 1));
+        signature[0] ^= 1;
+        String changed = value.substring(0, split + 1)
+                + Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+
+        assertNull(claims.decode(changed, EMAIL, NOW));
+        assertNull(claims.decode(value.substring(0, split), EMAIL, NOW));
+        assertNull(claims.decode(value.substring(0, split + 1) + "not*base64", EMAIL, NOW));
+        assertNull(claims.decode("", EMAIL, NOW));
+        assertNull(claims.decode(null, EMAIL, NOW));
+    }
+
+    @Test
+    public void otherEmail() {
+        SessionClaims claims = claims("secret", 900);
+        String value = claims.encode(USER, NOW);
+        assertNull(claims.decode(value, "other@clemson.edu", NOW));
+        assertNull(claims.decode(value, null, NOW));
+    }
+
+    @Test
+    public void otherSecret() {
+        String value = claims("secret", 900).encode(USER, NOW);
+        assertNull(claims("another secret", 900).decode(value, EMAIL, NOW));
+    }
+
+    @Test
+    public void expiry() {
+        SessionClaims claims = claims("secret", 900);
+        String value = claims.encode(USER, NOW);
+
+        assertNotNull(claims.decode(value, EMAIL, NOW + 900));
+        assertNull(claims.decode(value, EMAIL, NOW + 901));
+
+        // Claims from the future are only accepted within the same bound
+        assertNotNull(claims.decode(value, EMAIL, NOW - 900));
+        assertNull(claims.decode(value, EMAIL, NOW - 901));
+        assertEquals(900, claims.getMaxAge());
+    }
+
+    @Test
+    public void credentialVersion() {
+        // The version is signed, so a resolver can compare it against
+        // the latest version it has seen for the email.
+        SessionClaims claims = claims("secret", 900);
+        UserIdentity before = new UserIdentity(42, EMAIL, 1, true, 7);
+        UserIdentity after = new UserIdentity(42, EMAIL, 1, true, 8);
+
+        assertEquals(7, claims.decode(claims.encode(before, NOW), EMAIL, NOW).credentialVersion);
+        assertEquals(8, claims.decode(claims.encode(after, NOW), EMAIL, NOW).credentialVersion);
+        assertNotEquals(claims.encode(before, NOW), claims.encode(after, NOW));
+    }
+
+    @Test
+    public void disabledWithoutSecret() {
+        SessionClaims claims = claims("", 900);
+        assertFalse(claims.isEnabled());
+        assertNull(claims.encode(USER, NOW));
+        assertNull(claims.decode(claims("secret", 900).encode(USER, NOW), EMAIL, NOW));
+
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("webide.claims.secret", "secret");
+        settings.put("webide.claims.enabled", false);
+        assertFalse(new SessionClaims(new Configuration(settings)).isEnabled());
+    }
+
+    @Test
+    public void applicationSecret() {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("play.crypto.secret", "secret");
+        SessionClaims claims = new SessionClaims(new Configuration(settings));
+        assertTrue(claims.isEnabled());
+
+        // Same key as an explicit claims secret
+        String value = claims.encode(USER, NOW);
+        assertSameIdentity(USER, claims("secret", 900).decode(value, EMAIL, NOW));
+    }
+
+}
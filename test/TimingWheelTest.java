@@ -0,0 +1,112 @@
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import utils.common.timer.TimingWheel;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * Tests for the timing wheel that finds the idle login throttle buckets.
+ *
+ */
+public class TimingWheelTest {
+
+    /** Four slots in each of two levels, so the wheel spans 16 ticks. */
+    private TimingWheel<String> myWheel;
+
+    /** The ticks at which the owner was asked about a key. */
+    private List<Long> myVisits;
+
+    @Before
+    public void setUp() {
+        myWheel = new TimingWheel<>(4, 2, 0);
+        myVisits = new ArrayList<>();
+    }
+
+    /**
+     * Acts like an owner whose key is due at the specified tick, and
+     * records each visit.
+     */
+    private long dueAt(long due) {
+        long tick = myWheel.getCurrentTick();
+        myVisits.add(tick);
+        return tick >= due ? -1 : due;
+    }
+
+    @Test
+    public void keyIsDroppedAtItsTick() {
+        myWheel.schedule("a", 3);
+
+        assertEquals(0, myWheel.advance(2, key -> dueAt(3)));
+        assertTrue(myVisits.isEmpty());
+        assertEquals(1, myWheel.advance(3, key -> dueAt(3)));
+        assertEquals(Arrays.asList(3L), myVisits);
+        assertEquals(3, myWheel.getCurrentTick());
+    }
+
+    @Test
+    public void keysInTheSameSlot() {
+        myWheel.schedule("a", 2);
+        myWheel.schedule("b", 2);
+        myWheel.schedule("c", 2);
+
+        assertEquals(3, myWheel.advance(2, key -> dueAt(2)));
+    }
+
+    @Test
+    public void keyIsMovedDownALevel() {
+        // Tick 10 is in the slot of the second level that starts at
+        // tick 8, where the key is moved down to the first level.
+        myWheel.schedule("a", 10);
+
+        assertEquals(0, myWheel.advance(9, key -> dueAt(10)));
+        assertEquals(Arrays.asList(8L), myVisits);
+        assertEquals(1, myWheel.advance(10, key -> dueAt(10)));
+        assertEquals(Arrays.asList(8L, 10L), myVisits);
+    }
+
+    @Test
+    public void ownerPushesTheDeadlineBack() {
+        myWheel.schedule("a", 2);
+
+        assertEquals(0, myWheel.advance(4, key -> dueAt(5)));
+        assertEquals(Arrays.asList(2L), myVisits);
+        assertEquals(1, myWheel.advance(20, key -> dueAt(5)));
+        assertEquals(Arrays.asList(2L, 5L), myVisits);
+    }
+
+    @Test
+    public void pastTickIsTheNextTick() {
+        myWheel.advance(5, key -> dueAt(0));
+        myWheel.schedule("a", 1);
+
+        assertEquals(1, myWheel.advance(6, key -> dueAt(0)));
+        assertEquals(Arrays.asList(6L), myVisits);
+    }
+
+    @Test
+    public void keyPastTheLastLevel() {
+        // The key is visited each time the last level comes around, but
+        // is only dropped once it is due.
+        myWheel.schedule("a", 100);
+
+        assertEquals(0, myWheel.advance(99, key -> dueAt(100)));
+        assertFalse(myVisits.isEmpty());
+        assertEquals(1, myWheel.advance(100, key -> dueAt(100)));
+        assertEquals(Long.valueOf(100), myVisits.get(myVisits.size() - 1));
+    }
+
+    @Test
+    public void droppedKeyIsNotVisitedAgain() {
+        myWheel.schedule("a", 1);
+
+        assertEquals(1, myWheel.advance(1, key -> -1));
+        assertEquals(0, myWheel.advance(100, key -> dueAt(0)));
+        assertTrue(myVisits.isEmpty());
+    }
+
+}
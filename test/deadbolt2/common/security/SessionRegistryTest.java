@@ -0,0 +1,183 @@
+package deadbolt2.common.security;
+
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import play.Configuration;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * Tests for tracking the idle and ended sessions.
+ *
+ */
+public class SessionRegistryTest {
+
+    private static final String EMAIL = "student@clemson.edu";
+
+    private static final long IDLE = TimeUnit.MINUTES.toNanos(30);
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private Map<String, Object> mySettings;
+
+    private List<Callable<? extends CompletionStage<?>>> myStopHooks;
+
+    @Before
+    public void setUp() {
+        mySettings = new HashMap<>();
+        mySettings.put("webide.claims.secret", "secret");
+        mySettings.put("webide.claims.maxAge", 3600L);
+        mySettings.put("webide.sessions.idleTimeout", 30);
+        myStopHooks = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Callable<? extends CompletionStage<?>> hook : myStopHooks) {
+            hook.call();
+        }
+    }
+
+    private SessionRegistry registry() {
+        Configuration configuration = new Configuration(mySettings);
+        return new SessionRegistry(configuration, new SessionClaims(configuration),
+                myStopHooks::add);
+    }
+
+    @Test
+    public void startedSessionIsActive() {
+        SessionRegistry registry = registry();
+        String sessionID = registry.start(EMAIL);
+
+        assertTrue(registry.touch(sessionID, EMAIL));
+        assertFalse(registry.touch(sessionID, "other@clemson.edu"));
+        assertFalse(registry.touch("unknown", EMAIL));
+        assertFalse(registry.isEnded(sessionID));
+        assertEquals(1, registry.getNumActiveSessions());
+        assertNotEquals(sessionID, registry.start(EMAIL));
+    }
+
+    @Test
+    public void idleSessionExpires() {
+        SessionRegistry registry = registry();
+        String sessionID = registry.start(EMAIL);
+        long start = System.nanoTime();
+
+        registry.expire(start + IDLE - 2 * SECOND);
+        assertEquals(1, registry.getNumActiveSessions());
+
+        registry.expire(start + IDLE + 2 * SECOND);
+        assertEquals(0, registry.getNumActiveSessions());
+        assertTrue(registry.isEnded(sessionID));
+        assertFalse(registry.touch(sessionID, EMAIL));
+        assertFalse(registry.adopt(sessionID, EMAIL));
+        assertEquals(1, registry.getMetrics().get("expired").asLong());
+    }
+
+    @Test
+    public void idleSessionIsRejectedBeforeItExpires() {
+        SessionRegistry registry = registry();
+        String sessionID = registry.start(EMAIL);
+        long start = System.nanoTime();
+
+        assertFalse(registry.touch(sessionID, EMAIL, start + IDLE + SECOND));
+    }
+
+    @Test
+    public void usedSessionIsKept() {
+        SessionRegistry registry = registry();
+        String sessionID = registry.start(EMAIL);
+        long start = System.nanoTime();
+        long used = start + IDLE / 2;
+
+        assertTrue(registry.touch(sessionID, EMAIL, used));
+        registry.expire(start + IDLE + 2 * SECOND);
+        assertEquals(1, registry.getNumActiveSessions());
+        assertTrue(registry.touch(sessionID, EMAIL, start + IDLE + 2 * SECOND));
+
+        registry.expire(start + 2 * IDLE);
+        assertEquals(1, registry.getNumActiveSessions());
+        registry.expire(start + 2 * IDLE + 4 * SECOND);
+        assertEquals(0, registry.getNumActiveSessions());
+        assertTrue(registry.isEnded(sessionID));
+    }
+
+    @Test
+    public void revokedSessionIsEnded() {
+        SessionRegistry registry = registry();
+        String sessionID = registry.start(EMAIL);
+        String otherID = registry.start(EMAIL);
+
+        registry.revoke(sessionID);
+        assertTrue(registry.isEnded(sessionID));
+        assertFalse(registry.touch(sessionID, EMAIL));
+        assertFalse(registry.adopt(sessionID, EMAIL));
+        assertTrue(registry.touch(otherID, EMAIL));
+        assertEquals(1, registry.getMetrics().get("revoked").asLong());
+
+        // Revoking it again does not count twice.
+        registry.revoke(sessionID);
+        registry.revoke(null);
+        assertEquals(1, registry.getMetrics().get("revoked").asLong());
+    }
+
+    @Test
+    public void revokeAllSessionsOfAUser() {
+        SessionRegistry registry = registry();
+        String first = registry.start(EMAIL);
+        String second = registry.start(EMAIL);
+        String other = registry.start("other@clemson.edu");
+
+        assertEquals(2, registry.revokeAll(EMAIL));
+        assertTrue(registry.isEnded(first));
+        assertTrue(registry.isEnded(second));
+        assertFalse(registry.isEnded(other));
+        assertTrue(registry.touch(other, "other@clemson.edu"));
+        assertEquals(1, registry.getMetrics().get("activeUsers").asInt());
+        assertEquals(0, registry.revokeAll(EMAIL));
+        assertEquals(0, registry.revokeAll(null));
+    }
+
+    @Test
+    public void revokedSessionIsDroppedFromTheWheel() {
+        SessionRegistry registry = registry();
+        String sessionID = registry.start(EMAIL);
+        long start = System.nanoTime();
+        registry.revoke(sessionID);
+
+        registry.expire(start + IDLE + 2 * SECOND);
+        assertEquals(0, registry.getMetrics().get("expired").asLong());
+    }
+
+    @Test
+    public void sessionFromAnotherNodeIsAdopted() {
+        SessionRegistry registry = registry();
+
+        assertTrue(registry.adopt("elsewhere", EMAIL));
+        assertTrue(registry.adopt("elsewhere", EMAIL));
+        assertTrue(registry.touch("elsewhere", EMAIL));
+        assertEquals(1, registry.getMetrics().get("adopted").asLong());
+    }
+
+    @Test
+    public void disabled() {
+        mySettings.put("webide.sessions.enabled", false);
+        SessionRegistry registry = registry();
+        String sessionID = registry.start(EMAIL);
+
+        assertTrue(registry.touch(sessionID, EMAIL));
+        assertTrue(registry.touch("unknown", EMAIL));
+        assertEquals(0, registry.getNumActiveSessions());
+        assertTrue(myStopHooks.isEmpty());
+    }
+
+}
@@ -0,0 +1,85 @@
+package utils.bydesign.ingestion;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * Tests for the filter that remembers the recently written client event IDs.
+ *
+ */
+public class RecentEventIDFilterTest {
+
+    private static String key(int i) {
+        return RecentEventIDFilter.getKey(i % 7, "event-" + i);
+    }
+
+    private static int countMatches(RecentEventIDFilter filter, int from, int to) {
+        int numMatches = 0;
+        for (int i = from; i < to; i++) {
+            if (filter.mightContain(key(i))) {
+                numMatches++;
+            }
+        }
+        return numMatches;
+    }
+
+    @Test
+    public void emptyFilter() {
+        RecentEventIDFilter filter = new RecentEventIDFilter(1000, 0.01);
+        assertEquals(0, countMatches(filter, 0, 1000));
+    }
+
+    @Test
+    public void noFalseNegatives() {
+        RecentEventIDFilter filter = new RecentEventIDFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            filter.put(key(i));
+            assertTrue(filter.mightContain(key(i)));
+        }
+        assertEquals(1000, countMatches(filter, 0, 1000));
+    }
+
+    @Test
+    public void remembersTheLastExpectedIDs() {
+        RecentEventIDFilter filter = new RecentEventIDFilter(100, 0.01);
+        for (int i = 0; i < 200; i++) {
+            filter.put(key(i));
+        }
+
+        // The first 100 moved to the previous filter when the
+        // current one filled up, so both halves are still there.
+        assertEquals(200, countMatches(filter, 0, 200));
+
+        // The next ID replaces the filter holding the first 100.
+        filter.put(key(200));
+        assertEquals(101, countMatches(filter, 100, 201));
+        assertTrue(countMatches(filter, 0, 100) < 10);
+    }
+
+    @Test
+    public void falsePositiveRate() {
+        RecentEventIDFilter filter = new RecentEventIDFilter(10000, 0.01);
+        for (int i = 0; i < 20000; i++) {
+            filter.put(key(i));
+        }
+
+        // Both filters are full, so each one can answer
+        // wrongly at the target rate.
+        int numFalsePositives = countMatches(filter, 20000, 120000);
+        assertTrue("False positives: " + numFalsePositives,
+                numFalsePositives < 100000 * 0.03);
+    }
+
+    @Test
+    public void keysIncludeTheAuthor() {
+        RecentEventIDFilter filter = new RecentEventIDFilter(1000, 0.001);
+        filter.put(RecentEventIDFilter.getKey(1, "event"));
+        assertTrue(filter.mightContain(RecentEventIDFilter.getKey(1, "event")));
+        assertFalse(filter.mightContain(RecentEventIDFilter.getKey(2, "event")));
+        assertNotEquals(RecentEventIDFilter.getKey(1, "2:event"),
+                RecentEventIDFilter.getKey(12, ":event"));
+    }
+
+}
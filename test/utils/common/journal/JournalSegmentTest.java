@@ -0,0 +1,252 @@
+package utils.common.journal;
+
+import org.junit.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * Recovery tests for the event journal segments.
+ *
+ */
+public class JournalSegmentTest {
+
+    private static final int SIZE = 64 * 1024;
+
+    private Path myDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        myDirectory = Files.createTempDirectory("journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path file : files()) {
+            Files.delete(file);
+        }
+        Files.delete(myDirectory);
+    }
+
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(myDirectory)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+
+    private static JournalEntry entry(int i) {
+        return JournalEntry.userEvent(i, "save", "content " + i, "File" + i,
+                "pkg", "project");
+    }
+
+    /**
+     * Appends entries 0 to n - 1, forces them to disk, closes the segment
+     * and returns the offset after each record.
+     */
+    private int[] write(long sequence, int n) throws IOException {
+        JournalSegment segment = JournalSegment.create(myDirectory, sequence, SIZE);
+        int[] ends = new int[n];
+        for (int i = 0; i < n; i++) {
+            ends[i] = segment.append(entry(i).encode());
+        }
+        segment.seal();
+        segment.close();
+        return ends;
+    }
+
+    private Path file(long sequence) throws IOException {
+        for (Path file : files()) {
+            if (JournalSegment.getSequence(file) == sequence) {
+                return file;
+            }
+        }
+        throw new AssertionError("No segment " + sequence);
+    }
+
+    private static void overwrite(Path path, int position, byte[] bytes)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes), position);
+        }
+    }
+
+    private static List<JournalEntry> readAll(JournalSegment segment) {
+        List<JournalEntry> entries = new ArrayList<>();
+        segment.read(0, segment.getDurablePosition(), Integer.MAX_VALUE, entries);
+        return entries;
+    }
+
+    private static void assertEntry(int i, JournalEntry entry) {
+        JournalEntry expected = entry(i);
+        assertEquals(JournalEntry.USER_EVENT, entry.type);
+        assertEquals(expected.author, entry.author);
+        assertArrayEquals(expected.fields, entry.fields);
+    }
+
+    @Test
+    public void appendAndRead() throws IOException {
+        JournalSegment segment = JournalSegment.create(myDirectory, 1, SIZE);
+        int[] ends = new int[3];
+        for (int i = 0; i < ends.length; i++) {
+            ends[i] = segment.append(entry(i).encode());
+        }
+        segment.force(ends[2]);
+        assertEquals(ends[2], segment.getDurablePosition());
+        assertFalse(segment.isSealed());
+
+        List<JournalEntry> entries = new ArrayList<>();
+        assertEquals(ends[1], segment.read(0, ends[2], 2, entries));
+        assertEquals(2, entries.size());
+        assertEquals(ends[2], segment.read(ends[1], ends[2], 10, entries));
+        assertEquals(3, entries.size());
+        for (int i = 0; i < ends.length; i++) {
+            assertEntry(i, entries.get(i));
+            assertEquals(ends[i], entries.get(i).end);
+        }
+        segment.close();
+    }
+
+    @Test
+    public void readStopsAtLimit() throws IOException {
+        JournalSegment segment = JournalSegment.create(myDirectory, 1, SIZE);
+        int first = segment.append(entry(0).encode());
+        int second = segment.append(entry(1).encode());
+
+        // A limit in the middle of a record does not return it.
+        List<JournalEntry> entries = new ArrayList<>();
+        assertEquals(first, segment.read(0, second - 1, 10, entries));
+        assertEquals(1, entries.size());
+        segment.close();
+    }
+
+    @Test
+    public void reopenCleanSegment() throws IOException {
+        int[] ends = write(7, 5);
+
+        JournalSegment segment = JournalSegment.open(file(7));
+        assertEquals(7, segment.sequence);
+        assertTrue(segment.isSealed());
+        assertEquals(ends[4], segment.getDurablePosition());
+
+        List<JournalEntry> entries = readAll(segment);
+        assertEquals(5, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            assertEntry(i, entries.get(i));
+        }
+        segment.close();
+    }
+
+    @Test
+    public void reopenEmptySegment() throws IOException {
+        write(1, 0);
+
+        JournalSegment segment = JournalSegment.open(file(1));
+        assertEquals(0, segment.getDurablePosition());
+        assertTrue(readAll(segment).isEmpty());
+        segment.close();
+    }
+
+    @Test
+    public void tornRecordBody() throws IOException {
+        // The crash happened while the body of the last record was being
+        // written, so its checksum does not match.
+        int[] ends = write(1, 3);
+        overwrite(file(1), ends[2] - 1, new byte[] { 0x7f });
+
+        JournalSegment segment = JournalSegment.open(file(1));
+        assertEquals(ends[1], segment.getDurablePosition());
+        assertEquals(2, readAll(segment).size());
+        segment.close();
+    }
+
+    @Test
+    public void tornRecordLength() throws IOException {
+        // A length was written, but none of the bytes it covers.
+        int[] ends = write(1, 2);
+        overwrite(file(1), ends[1], new byte[] { 0, 0, 0, 100 });
+
+        JournalSegment segment = JournalSegment.open(file(1));
+        assertEquals(ends[1], segment.getDurablePosition());
+        assertEquals(2, readAll(segment).size());
+        segment.close();
+    }
+
+    @Test
+    public void lengthPastTheEnd() throws IOException {
+        int[] ends = write(1, 1);
+        overwrite(file(1), ends[0], new byte[] { 0x7f, 0, 0, 0 });
+
+        JournalSegment segment = JournalSegment.open(file(1));
+        assertEquals(ends[0], segment.getDurablePosition());
+        assertEquals(1, readAll(segment).size());
+        segment.close();
+    }
+
+    @Test
+    public void negativeLength() throws IOException {
+        int[] ends = write(1, 1);
+        overwrite(file(1), ends[0], new byte[] { (byte) 0xff, 0, 0, 0 });
+
+        JournalSegment segment = JournalSegment.open(file(1));
+        assertEquals(ends[0], segment.getDurablePosition());
+        segment.close();
+    }
+
+    @Test
+    public void corruptedChecksum() throws IOException {
+        // Nothing after a bad record is trusted.
+        int[] ends = write(1, 4);
+        overwrite(file(1), ends[0] + 4, new byte[] { 1, 2, 3, 4 });
+
+        JournalSegment segment = JournalSegment.open(file(1));
+        assertEquals(ends[0], segment.getDurablePosition());
+        List<JournalEntry> entries = readAll(segment);
+        assertEquals(1, entries.size());
+        assertEntry(0, entries.get(0));
+        segment.close();
+    }
+
+    @Test
+    public void recordThatFillsTheSegment() throws IOException {
+        byte[] payload = entry(0).encode();
+        JournalSegment segment =
+                JournalSegment.create(myDirectory, 1,
+                        JournalSegment.HEADER_SIZE + payload.length);
+        assertTrue(segment.hasRoom(payload.length));
+        segment.append(payload);
+        assertFalse(segment.hasRoom(1));
+        segment.seal();
+        segment.close();
+
+        JournalSegment reopened = JournalSegment.open(file(1));
+        assertEquals(JournalSegment.HEADER_SIZE + payload.length,
+                reopened.getDurablePosition());
+        assertEquals(1, readAll(reopened).size());
+        reopened.close();
+    }
+
+    @Test
+    public void fileNames() throws IOException {
+        JournalSegment segment = JournalSegment.create(myDirectory, 42, SIZE);
+        assertEquals(42, JournalSegment.getSequence(file(42)));
+        segment.delete();
+        assertTrue(files().isEmpty());
+
+        assertEquals(-1, JournalSegment.getSequence(Paths.get("checkpoint.log")));
+        assertEquals(-1, JournalSegment.getSequence(Paths.get("segment-abc.log")));
+        assertEquals(-1, JournalSegment.getSequence(Paths.get("segment-1.tmp")));
+    }
+
+}
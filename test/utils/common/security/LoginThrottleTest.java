@@ -0,0 +1,159 @@
+package utils.common.security;
+
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import play.Configuration;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * Tests for limiting the login attempts with token buckets.
+ *
+ */
+public class LoginThrottleTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private Map<String, Object> mySettings;
+
+    private List<Callable<? extends CompletionStage<?>>> myStopHooks;
+
+    /** The time the attempts start at. */
+    private long myStart;
+
+    @Before
+    public void setUp() {
+        // An email gets 3 attempts at once and one more every 10 seconds.
+        mySettings = new HashMap<>();
+        mySettings.put("webide.loginThrottle.email.burst", 3);
+        mySettings.put("webide.loginThrottle.email.perMinute", 6);
+        myStopHooks = new ArrayList<>();
+        myStart = System.nanoTime();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Callable<? extends CompletionStage<?>> hook : myStopHooks) {
+            hook.call();
+        }
+    }
+
+    private LoginThrottle throttle() {
+        return new LoginThrottle(new Configuration(mySettings), myStopHooks::add);
+    }
+
+    @Test
+    public void burstIsAllowed() {
+        LoginThrottle throttle = throttle();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, throttle.acquire("alice@example.com", "10.0.0.1", myStart));
+        }
+
+        assertEquals(10, throttle.acquire("alice@example.com", "10.0.0.1", myStart));
+        assertEquals(3, throttle.getMetrics().get("allowed").asLong());
+        assertEquals(1, throttle.getMetrics().get("throttledByEmail").asLong());
+    }
+
+    @Test
+    public void waitIsRoundedUp() {
+        LoginThrottle throttle = throttle();
+        for (int i = 0; i < 3; i++) {
+            throttle.acquire("alice@example.com", "10.0.0.1", myStart);
+        }
+
+        assertEquals(8, throttle.acquire("alice@example.com", "10.0.0.1",
+                myStart + 2 * SECOND + 1));
+    }
+
+    @Test
+    public void tokenIsAddedEachInterval() {
+        LoginThrottle throttle = throttle();
+        for (int i = 0; i < 3; i++) {
+            throttle.acquire("alice@example.com", "10.0.0.1", myStart);
+        }
+
+        long later = myStart + 10 * SECOND;
+        assertEquals(0, throttle.acquire("alice@example.com", "10.0.0.1", later));
+        assertEquals(10, throttle.acquire("alice@example.com", "10.0.0.1", later));
+    }
+
+    @Test
+    public void bucketRefillsOnlyUpToTheBurst() {
+        LoginThrottle throttle = throttle();
+        throttle.acquire("alice@example.com", "10.0.0.1", myStart);
+
+        long later = myStart + TimeUnit.HOURS.toNanos(1);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, throttle.acquire("alice@example.com", "10.0.0.1", later));
+        }
+        assertTrue(throttle.acquire("alice@example.com", "10.0.0.1", later) > 0);
+    }
+
+    @Test
+    public void emailsAreLimitedSeparately() {
+        LoginThrottle throttle = throttle();
+        for (int i = 0; i < 3; i++) {
+            throttle.acquire("alice@example.com", "10.0.0.1", myStart);
+        }
+
+        assertTrue(throttle.acquire("alice@example.com", "10.0.0.1", myStart) > 0);
+        assertEquals(0, throttle.acquire("bob@example.com", "10.0.0.1", myStart));
+    }
+
+    @Test
+    public void emailIsNormalized() {
+        LoginThrottle throttle = throttle();
+        throttle.acquire("alice@example.com", "10.0.0.1", myStart);
+        throttle.acquire(" Alice@Example.com", "10.0.0.1", myStart);
+        throttle.acquire("ALICE@EXAMPLE.COM ", "10.0.0.1", myStart);
+
+        assertTrue(throttle.acquire("alice@example.com", "10.0.0.1", myStart) > 0);
+        assertEquals(1, throttle.getMetrics().get("trackedEmails").asInt());
+    }
+
+    @Test
+    public void addressIsLimitedAcrossEmails() {
+        mySettings.put("webide.loginThrottle.address.burst", 2);
+        mySettings.put("webide.loginThrottle.address.perMinute", 60);
+        LoginThrottle throttle = throttle();
+
+        assertEquals(0, throttle.acquire("a@example.com", "10.0.0.1", myStart));
+        assertEquals(0, throttle.acquire("b@example.com", "10.0.0.1", myStart));
+        assertEquals(1, throttle.acquire("c@example.com", "10.0.0.1", myStart));
+        assertEquals(0, throttle.acquire("c@example.com", "10.0.0.2", myStart));
+        assertEquals(1, throttle.getMetrics().get("throttledByAddress").asLong());
+    }
+
+    @Test
+    public void keysPastTheMaximumAreNotLimited() {
+        mySettings.put("webide.loginThrottle.email.maxEntries", 1);
+        LoginThrottle throttle = throttle();
+        throttle.acquire("alice@example.com", "10.0.0.1", myStart);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, throttle.acquire("bob@example.com", "10.0.0.1", myStart));
+        }
+        assertEquals(1, throttle.getMetrics().get("trackedEmails").asInt());
+        assertEquals(5, throttle.getMetrics().get("emailOverflow").asLong());
+    }
+
+    @Test
+    public void disabled() {
+        mySettings.put("webide.loginThrottle.enabled", false);
+        LoginThrottle throttle = throttle();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, throttle.acquire("alice@example.com", "10.0.0.1", myStart));
+        }
+        assertTrue(myStopHooks.isEmpty());
+    }
+
+}